@@ -16,7 +16,10 @@ limitations under the License.
 package com.mtsdealersolutions.webview_local_server;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
@@ -26,14 +29,53 @@ import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
 
 import com.mtsdealersolutions.webview_local_server.android.UriMatcher;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+import com.mtsdealersolutions.webview_local_server.bundle.BundlePathHandler;
+import com.mtsdealersolutions.webview_local_server.bundle.BundleStore;
 import com.mtsdealersolutions.webview_local_server.chromium.AndroidProtocolHandler;
-
+import com.mtsdealersolutions.webview_local_server.content.ContentPathHandler;
+import com.mtsdealersolutions.webview_local_server.cors.CorsPolicy;
+import com.mtsdealersolutions.webview_local_server.deadline.DeadlineFallback;
+import com.mtsdealersolutions.webview_local_server.deadline.HandlerWatchdog;
+import com.mtsdealersolutions.webview_local_server.har.HarRecorder;
+import com.mtsdealersolutions.webview_local_server.image.ImageResizeHandler;
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+import com.mtsdealersolutions.webview_local_server.negotiation.VariantTable;
+import com.mtsdealersolutions.webview_local_server.preload.PreloadHints;
+import com.mtsdealersolutions.webview_local_server.proxy.ProxyPathHandler;
+import com.mtsdealersolutions.webview_local_server.route.RouterPathHandler;
+import com.mtsdealersolutions.webview_local_server.template.TemplateCache;
+import com.mtsdealersolutions.webview_local_server.template.TemplatePathHandler;
+import com.mtsdealersolutions.webview_local_server.template.TemplateSource;
+import com.mtsdealersolutions.webview_local_server.template.TemplateValues;
+import com.mtsdealersolutions.webview_local_server.timing.ResourceTimingBridge;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformInputStream;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformer;
+import com.mtsdealersolutions.webview_local_server.utils.AppVersion;
+import com.mtsdealersolutions.webview_local_server.utils.BufferPool;
+import com.mtsdealersolutions.webview_local_server.utils.SingleFlight;
+import com.mtsdealersolutions.webview_local_server.utils.StreamTracker;
+import com.mtsdealersolutions.webview_local_server.utils.TrimmableCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Helper class meant to be used with the android.webkit.WebView class to enable hosting assets,
@@ -73,6 +115,32 @@ public class WebViewLocalServer {
 
     private final UriMatcher uriMatcher;
     private final AndroidProtocolHandler protocolHandler;
+    private final BufferPool bufferPool = new BufferPool();
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final StreamTracker streamTracker = new StreamTracker();
+    private final HandlerWatchdog handlerWatchdog = new HandlerWatchdog();
+    private volatile PreloadHints preloadHints;
+    private volatile HarRecorder harRecorder;
+    private volatile ResourceTimingBridge resourceTimingBridge;
+
+    private static final Executor PREFETCH_EXECUTOR = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "WebViewLocalServerPrefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Map<String, Server> hosts = new HashMap<>();
+    private final CopyOnWriteArrayList<TrimmableCache> caches = new CopyOnWriteArrayList<>();
+    private Context memoryCallbacksContext;
+    private ComponentCallbacks2 memoryCallbacks;
+
+    private static final Object sSharedLock = new Object();
+    private static WebViewLocalServer sShared;
+    // Guarded by sSharedLock.
+    private int sharedReferences;
 
     /**
      * A handler that produces responses for paths on the virtual asset server.
@@ -95,6 +163,12 @@ public class WebViewLocalServer {
         private int statusCode;
         private String reasonPhrase;
         private Map<String, String> responseHeaders;
+        private final List<HtmlTransformer> htmlTransformers = new ArrayList<>();
+        private volatile boolean coalesceRequests;
+        private volatile long deadlineMillis;
+        private volatile DeadlineFallback deadlineFallback;
+        private volatile String route;
+        private volatile CorsPolicy corsPolicy;
 
         public PathHandler() {
             this(null, null, null, 200, "OK", null);
@@ -117,10 +191,52 @@ public class WebViewLocalServer {
 
         abstract public InputStream handle(Uri url);
 
+        /**
+         * Whether this handler serves <code>request</code> at all. Returning false lets the
+         * WebView load the request as if no handler matched.
+         */
+        @TargetApi(21)
+        public boolean shouldIntercept(WebResourceRequest request) {
+            return true;
+        }
+
+        /**
+         * Builds the whole response, for handlers that only learn the mime type, status or
+         * headers of a response while handling it. Return null (the default) to serve
+         * {@link #handle(WebResourceRequest)} lazily with the values of this handler.
+         */
+        @TargetApi(21)
+        public WebResourceResponse respond(WebResourceRequest request) {
+            return null;
+        }
+
+        /**
+         * Returns the body of <code>url</code> with its length, so the response gets a
+         * Content-Length and bodies held in memory are served without the lazy stream
+         * {@link #handle(Uri)} is wrapped in. Called on the intercepting thread before the
+         * response is returned: only return bodies that are cheap to create, such as bytes in
+         * memory or an open file, and leave the work to the body's stream otherwise.
+         * <p>
+         * Return null (the default) to serve {@link #handle(WebResourceRequest)} lazily.
+         * Request coalescing only applies to bodies served that way.
+         */
+        public ResponseBody handleBody(Uri url) {
+            return null;
+        }
+
         public String getMimeType() {
             return mimeType;
         }
 
+        /**
+         * @param url the url being served
+         * @return the mime type of <code>url</code>, null to guess it from the extension.
+         * {@link #getMimeType()} by default
+         */
+        public String getMimeType(Uri url) {
+            return getMimeType();
+        }
+
         public String getEncoding() {
             return encoding;
         }
@@ -140,6 +256,140 @@ public class WebViewLocalServer {
         public Map<String, String> getResponseHeaders() {
             return responseHeaders;
         }
+
+        /**
+         * @param url the url being served
+         * @return the response headers for <code>url</code>, {@link #getResponseHeaders()} by
+         * default. A Content-Length header is dropped if the body is transformed.
+         */
+        public Map<String, String> getResponseHeaders(Uri url) {
+            return getResponseHeaders();
+        }
+
+        /**
+         * Picks the url actually served for <code>request</code>, for handlers that serve one of
+         * several variants of a resource depending on the request headers. The chosen url is
+         * passed to {@link #handle(Uri)}, {@link #getMimeType(Uri)} and
+         * {@link #getResponseHeaders(Uri)}.
+         *
+         * @return the url to serve, the requested url by default
+         */
+        @TargetApi(21)
+        public Uri selectVariant(WebResourceRequest request) {
+            return request.getUrl();
+        }
+
+        /**
+         * Whether <code>url</code> is known to have no body, answered from metadata the handler
+         * already holds, such as a manifest, without opening anything. Used to answer HEAD
+         * requests with 404.
+         *
+         * @return true if <code>url</code> certainly has no body, false (the default) if it may
+         */
+        public boolean isKnownMissing(Uri url) {
+            return false;
+        }
+
+        /**
+         * @param url the requested url
+         * @return the request headers {@link #selectVariant} depends on for <code>url</code>,
+         * sent as the Vary header, null if none
+         */
+        public String getVary(Uri url) {
+            return null;
+        }
+
+        /**
+         * Adds a transformer that rewrites <code>text/html</code> bodies returned by this handler
+         * while they are streamed. Transformers run in the order they were added.
+         *
+         * @param transformer the transformer to add
+         */
+        public void addHtmlTransformer(HtmlTransformer transformer) {
+            if (transformer == null)
+                throw new IllegalArgumentException("transformer cannot be null");
+            synchronized (htmlTransformers) {
+                htmlTransformers.add(transformer);
+            }
+        }
+
+        public List<HtmlTransformer> getHtmlTransformers() {
+            synchronized (htmlTransformers) {
+                return new ArrayList<>(htmlTransformers);
+            }
+        }
+
+        /*package*/ boolean hasHtmlTransformers() {
+            synchronized (htmlTransformers) {
+                return !htmlTransformers.isEmpty();
+            }
+        }
+
+        /**
+         * When enabled, concurrent GET requests for the same url call {@link #handle} once and
+         * share the produced bytes. Only enable this for handlers whose response depends on the
+         * url alone.
+         *
+         * @param coalesceRequests true to coalesce concurrent requests
+         */
+        public void setCoalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+        }
+
+        public boolean isCoalescingRequests() {
+            return coalesceRequests;
+        }
+
+        /**
+         * Gives the handler at most <code>deadlineMillis</code> to answer, after which
+         * <code>fallback</code> is served instead and the overrun is counted, and stuck handlers
+         * logged, by the server's {@link HandlerWatchdog}. {@link #respond},
+         * {@link #handleBody} and {@link #handle} are called on a worker thread as soon as the
+         * request arrives, <code>handle</code> rather than when the body is first read. Only
+         * applies to the {@link WebResourceRequest} variant of shouldInterceptRequest.
+         *
+         * @param deadlineMillis the time budget, 0 for none
+         * @param fallback       what to serve when the budget runs out
+         */
+        public void setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            if (deadlineMillis > 0 && fallback == null)
+                throw new IllegalArgumentException("fallback cannot be null");
+            this.deadlineFallback = fallback;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public DeadlineFallback getDeadlineFallback() {
+            return deadlineFallback;
+        }
+
+        /**
+         * Answers OPTIONS requests for this handler with <code>corsPolicy</code>, without
+         * calling the handler, and adds CORS headers to responses to allowed origins. Only
+         * applies to the {@link WebResourceRequest} variant of shouldInterceptRequest.
+         *
+         * @param corsPolicy the policy, null (the default) to leave OPTIONS to the handler
+         */
+        public void setCorsPolicy(CorsPolicy corsPolicy) {
+            this.corsPolicy = corsPolicy;
+        }
+
+        public CorsPolicy getCorsPolicy() {
+            return corsPolicy;
+        }
+
+        /**
+         * Called on a background thread when <code>url</code> is likely to be requested soon,
+         * see {@link #setPreloadHints(PreloadHints)}. Handlers can use it to load or compile the
+         * resource ahead of time. Does nothing by default.
+         *
+         * @param url the url that is likely to be requested
+         */
+        public void prefetch(Uri url) {
+        }
     }
 
     /**
@@ -160,9 +410,14 @@ public class WebViewLocalServer {
          * @return the http: scheme prefix at which assets are hosted. Can return null.
          */
         public Uri getServerUri(UrlProtocol protocol, String appendToPath) {
-            Uri.Builder builder = mBuilder.scheme(protocol.getProtocol());
-            if (!TextUtils.isEmpty(appendToPath)) mBuilder.appendPath(appendToPath);
-            return mBuilder.build();
+            // Work on a copy, a Server may be shared and must not accumulate appended paths.
+            Uri.Builder builder;
+            synchronized (this) {
+                builder = mBuilder.build().buildUpon();
+            }
+            builder.scheme(protocol.getProtocol());
+            if (!TextUtils.isEmpty(appendToPath)) builder.appendPath(appendToPath);
+            return builder.build();
         }
 
 
@@ -181,6 +436,7 @@ public class WebViewLocalServer {
     /*package*/ WebViewLocalServer(AndroidProtocolHandler protocolHandler) {
         uriMatcher = new UriMatcher(null);
         this.protocolHandler = protocolHandler;
+        registerCache(bufferPool);
     }
 
     /**
@@ -192,6 +448,289 @@ public class WebViewLocalServer {
         // We only need the context to resolve assets and resources so the ApplicationContext is
         // sufficient while holding on to an Activity context could cause leaks.
         this(new AndroidProtocolHandler(context.getApplicationContext()));
+        memoryCallbacksContext = context.getApplicationContext();
+        memoryCallbacks = new MemoryCallbacks(this);
+        memoryCallbacksContext.registerComponentCallbacks(memoryCallbacks);
+        ApplicationInfo applicationInfo = context.getApplicationInfo();
+        if (applicationInfo != null && (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            streamTracker.setLeakDetectionEnabled(true);
+        }
+    }
+
+    /**
+     * Gets the process wide shared server, creating it if needed, and takes a reference to it.
+     * <p>
+     * Sharing one server across WebViews means routes are registered once and any warm state
+     * (compiled templates, pooled buffers ...) is reused by every view. Each call must be
+     * balanced by a call to {@link #release()}; once the last reference is released the server
+     * is dropped and the next call creates a new one. Hold a reference from your Application to
+     * keep it warm across screens.
+     *
+     * @param context context used to resolve resources/assets/
+     * @return the shared server
+     */
+    public static WebViewLocalServer acquireShared(Context context) {
+        synchronized (sSharedLock) {
+            if (sShared == null) {
+                sShared = new WebViewLocalServer(context);
+            }
+            sShared.sharedReferences++;
+            return sShared;
+        }
+    }
+
+    /**
+     * Releases a reference taken with {@link #acquireShared(Context)}. A server that is not
+     * shared is released at once: its caches are emptied and it stops listening for memory
+     * callbacks, so call this when its WebView is destroyed.
+     */
+    public void release() {
+        synchronized (sSharedLock) {
+            if (sShared == this && --sharedReferences > 0) return;
+            if (sShared == this) sShared = null;
+            trimCaches(0);
+            unregisterMemoryCallbacks();
+        }
+    }
+
+    /**
+     * @return whether this is the live shared server from {@link #acquireShared(Context)}
+     */
+    public boolean isShared() {
+        synchronized (sSharedLock) {
+            return sShared == this;
+        }
+    }
+
+    /**
+     * @return the number of references held on this shared server
+     */
+    public int getSharedReferenceCount() {
+        synchronized (sSharedLock) {
+            return sShared == this ? sharedReferences : 0;
+        }
+    }
+
+    /**
+     * Adds in-memory state that should shrink when the system asks the app to trim memory and
+     * that counts towards {@link #getMemoryFootprint()}. The server's buffer pool and template
+     * caches are registered automatically.
+     */
+    public void registerCache(TrimmableCache cache) {
+        if (cache == null)
+            throw new IllegalArgumentException("cache cannot be null");
+        caches.addIfAbsent(cache);
+    }
+
+    public void unregisterCache(TrimmableCache cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * @return the bytes currently held by every registered cache, use it to size budgets from
+     * real devices
+     */
+    public long getMemoryFootprint() {
+        long footprint = 0;
+        for (TrimmableCache cache : caches) {
+            footprint += cache.getSizeBytes();
+        }
+        return footprint;
+    }
+
+    /**
+     * Shrinks every registered cache to the share of its configured maximum allowed for
+     * <code>level</code>, so repeated callbacks at the same level do not shrink it further.
+     * Called automatically from {@link ComponentCallbacks2#onTrimMemory(int)} and can be called
+     * directly to simulate memory pressure.
+     *
+     * @param level one of the <code>ComponentCallbacks2.TRIM_MEMORY_*</code> levels
+     */
+    public void onTrimMemory(int level) {
+        float fraction = getTrimFraction(level);
+        if (fraction < 1f) trimCaches(fraction);
+    }
+
+    /**
+     * Maps a trim level to the share of each cache's maximum that may be kept. Override to
+     * change the budgets.
+     *
+     * @param level one of the <code>ComponentCallbacks2.TRIM_MEMORY_*</code> levels
+     * @return a value from 0 (drop everything) to 1 (keep everything)
+     */
+    protected float getTrimFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) return 0f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) return 0.1f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) return 0.25f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return 0.5f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) return 0.25f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return 0.5f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) return 0.75f;
+        return 1f;
+    }
+
+    private void trimCaches(float fraction) {
+        for (TrimmableCache cache : caches) {
+            cache.trimToSize((long) (cache.getMaxSizeBytes() * fraction));
+        }
+    }
+
+    private void unregisterMemoryCallbacks() {
+        if (memoryCallbacks != null) {
+            memoryCallbacksContext.unregisterComponentCallbacks(memoryCallbacks);
+            memoryCallbacks = null;
+        }
+    }
+
+    /**
+     * Forwards memory callbacks without keeping the server alive, servers are usually owned by a
+     * single WebView while the callbacks are registered on the application context.
+     */
+    private static class MemoryCallbacks implements ComponentCallbacks2 {
+        private final WeakReference<WebViewLocalServer> mServer;
+        private final Context mContext;
+
+        MemoryCallbacks(WebViewLocalServer server) {
+            mServer = new WeakReference<>(server);
+            mContext = server.memoryCallbacksContext;
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            WebViewLocalServer server = mServer.get();
+            if (server == null) {
+                mContext.unregisterComponentCallbacks(this);
+            } else {
+                server.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+
+    /**
+     * @return the pool that in-memory response bodies (rendered templates ...) are written into
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return the in-flight request deduplication used by handlers that coalesce requests
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Gauges for the response bodies this server has open. Leak detection, which reports bodies
+     * that were never closed together with their url, is enabled by default in debuggable apps.
+     */
+    public StreamTracker getStreamTracker() {
+        return streamTracker;
+    }
+
+    /**
+     * Learn which resources each document loads and warm them when the document loads again.
+     * Recording needs the {@link WebResourceRequest} variant of shouldInterceptRequest. Add a
+     * {@link com.mtsdealersolutions.webview_local_server.preload.PreloadHintTransformer} to a
+     * host to also write <code>&lt;link rel="preload"&gt;</code> hints into its pages.
+     *
+     * @param preloadHints the hints to use, for example {@link PreloadHints#forContext(Context)},
+     *                     null to stop recording
+     */
+    public void setPreloadHints(PreloadHints preloadHints) {
+        this.preloadHints = preloadHints;
+    }
+
+    public PreloadHints getPreloadHints() {
+        return preloadHints;
+    }
+
+    /**
+     * Write a HAR entry for every intercepted request, with its headers, body size and timings.
+     * Recording needs the {@link WebResourceRequest} variant of shouldInterceptRequest.
+     *
+     * @param harRecorder the recorder to use, null to stop recording
+     */
+    public void setHarRecorder(HarRecorder harRecorder) {
+        this.harRecorder = harRecorder;
+    }
+
+    public HarRecorder getHarRecorder() {
+        return harRecorder;
+    }
+
+    /**
+     * Identify every intercepted response to the page with a Server-Timing header and time it,
+     * so the bridge can join the page's Resource Timing reports with the server's timings. The
+     * bridge must also be hosted with {@link #createHost}, its own requests are not timed.
+     *
+     * @param resourceTimingBridge the bridge to use, null to stop timing
+     */
+    public void setResourceTimingBridge(ResourceTimingBridge resourceTimingBridge) {
+        this.resourceTimingBridge = resourceTimingBridge;
+    }
+
+    public ResourceTimingBridge getResourceTimingBridge() {
+        return resourceTimingBridge;
+    }
+
+    /**
+     * @return the watchdog running handlers that have a deadline, which counts and reports
+     * the ones that overran it
+     */
+    public HandlerWatchdog getHandlerWatchdog() {
+        return handlerWatchdog;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void recordForPreload(WebResourceRequest request) {
+        PreloadHints hints = preloadHints;
+        if (hints == null || !"GET".equalsIgnoreCase(request.getMethod())) return;
+
+        String url = request.getUrl().toString();
+        if (!request.isForMainFrame()) {
+            hints.onResource(getHeader(request.getRequestHeaders(), "Referer"), url);
+            return;
+        }
+        final List<String> predicted = hints.onDocument(url);
+        final PreloadHints savedHints = hints;
+        PREFETCH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String resource : predicted) {
+                    Uri uri = Uri.parse(resource);
+                    PathHandler handler = getHandler(uri);
+                    if (handler == null) continue;
+                    try {
+                        handler.prefetch(uri);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Unable to prefetch " + resource, e);
+                    }
+                }
+                savedHints.saveIfDirty();
+            }
+        });
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    private SingleFlight singleFlightFor(PathHandler handler) {
+        return handler.isCoalescingRequests() ? singleFlight : null;
     }
 
     private static Uri parseAndVerifyUrl(String url) {
@@ -248,17 +787,189 @@ public class WebViewLocalServer {
      */
     @TargetApi(Build.VERSION_CODES.N)
     public WebResourceResponse shouldInterceptRequest(WebResourceRequest request) {
-        PathHandler handler;
-        synchronized (uriMatcher) {
-            handler = (PathHandler) uriMatcher.match(request.getUrl());
-        }
+        PathHandler handler = getHandler(request.getUrl());
         if (handler == null) {
             return null;
         }
+        // The host's CORS policy answers OPTIONS, whether or not the handler takes them.
+        boolean isOptions = handler.getCorsPolicy() != null && "OPTIONS".equalsIgnoreCase(request.getMethod());
+        if (!isOptions && !handler.shouldIntercept(request)) {
+            return null;
+        }
+        HarRecorder harRecorder = this.harRecorder;
+        ResourceTimingBridge resourceTimingBridge = this.resourceTimingBridge;
+        if (resourceTimingBridge == handler) resourceTimingBridge = null;
+        if (harRecorder == null && resourceTimingBridge == null) return serve(handler, request, isOptions);
+
+        long matched = System.nanoTime();
+        WebResourceResponse response = serve(handler, request, isOptions);
+        // Timed first so the HAR entry shows the Server-Timing header.
+        if (resourceTimingBridge != null) response = resourceTimingBridge.record(request, matched, response);
+        if (harRecorder != null) response = harRecorder.record(request, matched, response);
+        return response;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private WebResourceResponse serve(PathHandler handler, WebResourceRequest request, boolean isOptions) {
+        CorsPolicy corsPolicy = handler.getCorsPolicy();
+        if (isOptions) return corsPolicy.preflight(request);
+
+        WebResourceResponse response = "HEAD".equalsIgnoreCase(request.getMethod())
+                ? head(handler, request) : intercept(handler, request);
+        if (corsPolicy != null && response != null) corsPolicy.apply(request, response);
+        return response;
+    }
+
+    /**
+     * Answers a HEAD request from metadata alone: {@link PathHandler#isKnownMissing} for a 404,
+     * the mime type and headers of the handler and the length of a
+     * {@link PathHandler#handleBody} body, which is closed unopened.
+     * {@link PathHandler#respond} and {@link PathHandler#handle} are never called, a resource
+     * whose existence is unknown gets a 200 without Content-Length.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private WebResourceResponse head(PathHandler handler, WebResourceRequest request) {
+        Uri url = handler.selectVariant(request);
+        if (handler.isKnownMissing(url)) {
+            return new WebResourceResponse("text/plain", "UTF-8", 404, "Not Found",
+                    new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+        }
+        String mimeType = handler.getMimeType(url);
+        if (mimeType == null) mimeType = getMimeType(url.toString());
+        String encoding = handler.getEncoding() == null ? "UTF-8" : handler.getEncoding();
+        boolean transformed = isTransformed(handler, mimeType);
+        Map<String, String> headers = handler.getResponseHeaders(url);
+        headers = headers == null ? new HashMap<String, String>() : new HashMap<>(headers);
+        if (!transformed && !headers.containsKey("Content-Length")) {
+            ResponseBody responseBody = handler.handleBody(url);
+            if (responseBody != null) {
+                if (responseBody.getLength() >= 0)
+                    headers.put("Content-Length", String.valueOf(responseBody.getLength()));
+                closeQuietly(responseBody);
+            }
+        }
+        if (transformed) {
+            // Transformed pages do not keep their length, but send the headers of the rewrite.
+            headers.remove("Content-Length");
+            transformBody(handler, url, encoding, null, headers);
+        }
+        String vary = handler.getVary(request.getUrl());
+        if (vary != null) headers.put("Vary", vary);
+        return new WebResourceResponse(mimeType, encoding,
+                handler.getStatusCode() <= 0 ? 200 : handler.getStatusCode(), handler.getReasonPhrase() == null ? "OK" : handler.getReasonPhrase(), headers,
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private WebResourceResponse intercept(PathHandler handler, WebResourceRequest request) {
+        recordForPreload(request);
+
+        long deadlineMillis = handler.getDeadlineMillis();
+        if (deadlineMillis > 0) return interceptWithinDeadline(handler, request, deadlineMillis);
+        return buildResponse(handler, request, false);
+    }
+
+    /**
+     * Builds the response on a watchdog worker, waiting at most <code>deadlineMillis</code>,
+     * whichever way the handler answers: {@link PathHandler#respond},
+     * {@link PathHandler#handleBody} or {@link PathHandler#handle}, which is called on the
+     * worker rather than when the body is first read.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private WebResourceResponse interceptWithinDeadline(final PathHandler handler, final WebResourceRequest request,
+                                                        long deadlineMillis) {
+        Uri url = request.getUrl();
+        String route = handler.route == null ? url.getAuthority() : handler.route;
+        DeadlineFallback fallback = handler.getDeadlineFallback();
+        WebResourceResponse response;
+        try {
+            response = handlerWatchdog.run(route, url.toString(), deadlineMillis,
+                    new HandlerWatchdog.Opener<PendingResponse>() {
+                        @Override
+                        public PendingResponse open() {
+                            return new PendingResponse(buildResponse(handler, request, true));
+                        }
+                    }).mResponse;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Route " + route + " ran out of its " + deadlineMillis + "ms budget for " + url);
+            handlerWatchdog.reportStuck();
+            String mimeType = handler.getMimeType(url);
+            return fallback.respond(url, mimeType == null ? getMimeType(url.toString()) : mimeType);
+        }
+        if (response != null && response.getData() != null && response.getStatusCode() == 200) {
+            response.setData(fallback.onServed(url, response.getData()));
+        }
+        return response;
+    }
+
+    /**
+     * A response built on a watchdog worker, its body is closed if it comes too late.
+     */
+    private static class PendingResponse implements Closeable {
+        final WebResourceResponse mResponse;
+
+        PendingResponse(WebResourceResponse response) {
+            mResponse = response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputStream data = mResponse == null ? null : mResponse.getData();
+            if (data != null) data.close();
+        }
+    }
 
-        return new WebResourceResponse(handler.getMimeType() == null ? getMimeType(request.getUrl().toString()) : handler.getMimeType(), handler.getEncoding() == null ? "UTF-8" : handler.getEncoding(),
-                handler.getStatusCode() <= 0 ? 200 : handler.getStatusCode(), handler.getReasonPhrase() == null ? "OK" : handler.getReasonPhrase(), handler.getResponseHeaders() == null ? new HashMap<String, String>() : handler.getResponseHeaders(),
-                new LollipopLazyInputStream(handler, request));
+    /**
+     * @param openNow whether to call {@link PathHandler#handle} now rather than when the body is
+     *                first read
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private WebResourceResponse buildResponse(PathHandler handler, WebResourceRequest request, boolean openNow) {
+        WebResourceResponse response = handler.respond(request);
+        if (response != null) {
+            return response;
+        }
+
+        Uri url = handler.selectVariant(request);
+        boolean isVariant = !url.equals(request.getUrl());
+        String mimeType = handler.getMimeType(url);
+        if (mimeType == null) mimeType = getMimeType(url.toString());
+        String encoding = handler.getEncoding() == null ? "UTF-8" : handler.getEncoding();
+        Map<String, String> headers = handler.getResponseHeaders(url);
+        ResponseBody responseBody = handler.handleBody(url);
+        InputStream body;
+        if (responseBody != null) {
+            body = openResponseBody(handler, url, responseBody);
+        } else {
+            LazyInputStream lazyBody = isVariant
+                    ? new LegacyLazyInputStream(handler, url, singleFlightFor(handler), streamTracker)
+                    : new LollipopLazyInputStream(handler, request, singleFlightFor(handler), streamTracker);
+            body = lazyBody;
+            if (openNow) lazyBody.getInputStream();
+        }
+        boolean transformed = isTransformed(handler, mimeType);
+        String vary = handler.getVary(request.getUrl());
+        long length = responseBody == null || transformed ? ResponseBody.UNKNOWN_LENGTH : responseBody.getLength();
+        if (headers == null) {
+            headers = new HashMap<>();
+        } else if (transformed || vary != null || length >= 0) {
+            headers = new HashMap<>(headers);
+            if (transformed) headers.remove("Content-Length");
+        }
+        if (transformed) body = transformBody(handler, url, encoding, body, headers);
+        if (vary != null) headers.put("Vary", vary);
+        if (length >= 0) headers.put("Content-Length", String.valueOf(length));
+        return new WebResourceResponse(mimeType, encoding,
+                handler.getStatusCode() <= 0 ? 200 : handler.getStatusCode(), handler.getReasonPhrase() == null ? "OK" : handler.getReasonPhrase(), headers,
+                body);
     }
 
     /**
@@ -273,37 +984,94 @@ public class WebViewLocalServer {
         PathHandler handler = null;
         Uri uri = parseAndVerifyUrl(url);
         if (uri != null) {
-            synchronized (uriMatcher) {
-                handler = (PathHandler) uriMatcher.match(uri);
-            }
+            handler = getHandler(uri);
         }
         if (handler == null)
             return null;
 
+        String mimeType = handler.getMimeType(uri);
+        if (mimeType == null) mimeType = getMimeType(url);
+        String encoding = handler.getEncoding() == null ? "UTF-8" : handler.getEncoding();
+        boolean transformed = isTransformed(handler, mimeType);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            return new WebResourceResponse(handler.getMimeType() == null ? getMimeType(url) : handler.getMimeType(), handler.getEncoding() == null ? "UTF-8" : handler.getEncoding(),
-                    new LegacyLazyInputStream(handler, uri));
+            InputStream is = new LegacyLazyInputStream(handler, uri, singleFlightFor(handler), streamTracker);
+            return new WebResourceResponse(mimeType, encoding,
+                    transformed ? transformBody(handler, uri, encoding, is, null) : is);
         } else {
             InputStream is = handler.handle(uri);
-            return new WebResourceResponse(handler.getMimeType() == null ? getMimeType(url) : handler.getMimeType(), handler.getEncoding() == null ? "UTF-8" : handler.getEncoding(),
-                    is);
+            return new WebResourceResponse(mimeType, encoding,
+                    is == null || !transformed ? is : transformBody(handler, uri, encoding, is, null));
         }
     }
 
     /**
-     * Registers a handler for the given <code>uri</code>. The <code>handler</code> will be invoked
-     * every time the <code>shouldInterceptRequest</code> method of the instance is called with
-     * a matching <code>uri</code>.
-     *
-     * @param uri     the uri to use the handler for. The scheme and authority (domain) will be matched
-     *                exactly. The path may contain a '*' element which will match a single element of
-     *                a path (so a handler registered for /a/* will be invoked for /a/b and /a/c.html
-     *                but not for /a/b/b) or the '**' element which will match any number of path
-     *                elements.
-     * @param handler the handler to use for the uri.
+     * Picks the cheapest stream for <code>body</code>: bytes already in memory are served as
+     * they are, anything else is opened lazily on the thread that reads it and tracked like
+     * bodies from {@link PathHandler#handle(Uri)}.
      */
-    void register(Uri uri, PathHandler handler) {
-        synchronized (uriMatcher) {
+    private InputStream openResponseBody(PathHandler handler, Uri url, ResponseBody body) {
+        if (body.isInMemory()) {
+            try {
+                return body.openStream();
+            } catch (IOException e) {
+                // Retried, and logged, when the lazy stream is read.
+            }
+        }
+        return new BodyLazyInputStream(handler, url, body, streamTracker);
+    }
+
+    private static boolean isTransformed(PathHandler handler, String mimeType) {
+        return "text/html".equals(mimeType) && handler.hasHtmlTransformers();
+    }
+
+    /**
+     * Wraps an html body with the handler's {@link HtmlTransformer}s for this document.
+     *
+     * @param body    the body, null to only collect the headers
+     * @param headers the response headers the transformers add to, null if none can be sent
+     * @return the transformed body, null if <code>body</code> is
+     */
+    private static InputStream transformBody(PathHandler handler, Uri url, String encoding, InputStream body,
+                                             Map<String, String> headers) {
+        List<HtmlTransformer> transformers = handler.getHtmlTransformers();
+        for (int i = 0; i < transformers.size(); i++) {
+            HtmlTransformer transformer = transformers.get(i).forDocument(url);
+            if (headers != null) transformer.addResponseHeaders(headers);
+            transformers.set(i, transformer);
+        }
+        return body == null ? null : new HtmlTransformInputStream(body, transformers, encoding);
+    }
+
+    /**
+     * Routes are resolved here, once per request: a url registered to a
+     * {@link RouterPathHandler} is served by the handler the router picks, as if that handler
+     * was registered on its own.
+     *
+     * @param url the url to look up
+     * @return the handler that serves <code>url</code>, or null if none matches
+     */
+    public PathHandler getHandler(Uri url) {
+        PathHandler handler;
+        synchronized (uriMatcher) {
+            handler = (PathHandler) uriMatcher.match(url);
+        }
+        return handler instanceof RouterPathHandler ? ((RouterPathHandler) handler).route(url) : handler;
+    }
+
+    /**
+     * Registers a handler for the given <code>uri</code>. The <code>handler</code> will be invoked
+     * every time the <code>shouldInterceptRequest</code> method of the instance is called with
+     * a matching <code>uri</code>.
+     *
+     * @param uri     the uri to use the handler for. The scheme and authority (domain) will be matched
+     *                exactly. The path may contain a '*' element which will match a single element of
+     *                a path (so a handler registered for /a/* will be invoked for /a/b and /a/c.html
+     *                but not for /a/b/b) or the '**' element which will match any number of path
+     *                elements.
+     * @param handler the handler to use for the uri.
+     */
+    void register(Uri uri, PathHandler handler) {
+        synchronized (uriMatcher) {
             uriMatcher.addURI(uri.getScheme(), uri.getAuthority(), uri.getPath(), handler);
         }
     }
@@ -321,6 +1089,25 @@ public class WebViewLocalServer {
         if (builder == null)
             throw new IllegalArgumentException("assets Builder cannot be null");
 
+        return createHost(builder, createHandler(builder));
+    }
+
+    /**
+     * Hosts a custom handler on the http(s):// URLs described by <code>builder</code>. Every
+     * path under <code>http(s)://{domain}/{virtualAssetPath}/...</code> is served by
+     * <code>handler</code>.
+     *
+     * @param builder Import the Builder
+     * @param handler the handler serving the host
+     * @return prefixes under which the handler is hosted.
+     */
+    public Server createHost(final Builder builder, PathHandler handler) {
+
+        if (builder == null)
+            throw new IllegalArgumentException("assets Builder cannot be null");
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
+
         String domain = builder.getDomain();
         if (!TextUtils.isEmpty(builder.getSubDomain()))
             domain = builder.getSubDomain() + "." + domain;
@@ -340,258 +1127,1185 @@ public class WebViewLocalServer {
         if (builder instanceof AssetsBuilder && ((AssetsBuilder) builder).getPathInAndroidLocation().indexOf('*') != -1) {
             throw new IllegalArgumentException("assetPath cannot contain the '*' character.");
         }
-        if (builder.getUrlVirtualPath().indexOf('*') != -1) {
-            throw new IllegalArgumentException(
-                    "virtualAssetPath cannot contain the '*' character.");
+        if (builder.getUrlVirtualPath().indexOf('*') != -1) {
+            throw new IllegalArgumentException(
+                    "virtualAssetPath cannot contain the '*' character.");
+        }
+
+        String route = domain + "/" + builder.getUrlVirtualPath();
+        applyHostSettings(builder, handler, route, true);
+        if (handler instanceof RouterPathHandler) {
+            for (PathHandler routed : ((RouterPathHandler) handler).getHandlers()) {
+                applyHostSettings(builder, routed, route, false);
+            }
+        }
+
+        for (Map.Entry<UrlProtocol, Boolean> mapEntry : builder.getIsAllowed().entrySet()) {
+            if (mapEntry.getValue())
+                register(Uri.withAppendedPath(uriBuilder.scheme(mapEntry.getKey().getProtocol()).build(), "**"), handler);
+        }
+
+        return new Server(uriBuilder);
+    }
+
+    /**
+     * @param replace whether the builder's deadline and CORS policy replace ones the handler
+     *                already has, routed handlers keep their own
+     */
+    private static void applyHostSettings(Builder builder, PathHandler handler, String route, boolean replace) {
+        for (HtmlTransformer transformer : builder.getHtmlTransformers()) {
+            handler.addHtmlTransformer(transformer);
+        }
+        if (builder.isCoalescingRequests()) handler.setCoalesceRequests(true);
+        if (builder.getDeadlineMillis() > 0 && (replace || handler.getDeadlineMillis() <= 0)) {
+            handler.setDeadline(builder.getDeadlineMillis(), builder.getDeadlineFallback());
+            handler.route = route;
+        } else if (handler.getDeadlineMillis() > 0 && handler.route == null) {
+            handler.route = route;
+        }
+        if (builder.getCorsPolicy() != null && (replace || handler.getCorsPolicy() == null)) {
+            handler.setCorsPolicy(builder.getCorsPolicy());
+        }
+    }
+
+    /**
+     * Returns the host created under <code>name</code>, or creates it from <code>builder</code>.
+     * Use this with a shared server so every WebView gets the same host instead of registering
+     * a new one (with a new random subdomain) each time.
+     *
+     * @param name    the name of the host
+     * @param builder Import the Builder, only used when the host does not exist yet
+     * @return prefixes under which the assets are hosted.
+     */
+    public Server getOrCreateHost(String name, Builder builder) {
+        synchronized (hosts) {
+            Server server = hosts.get(name);
+            if (server == null) {
+                server = createHost(builder);
+                hosts.put(name, server);
+            }
+            return server;
+        }
+    }
+
+    /**
+     * @param name the name passed to {@link #getOrCreateHost(String, Builder)}
+     * @return the host, or null if none was created under that name
+     */
+    public Server getHost(String name) {
+        synchronized (hosts) {
+            return hosts.get(name);
+        }
+    }
+
+    private PathHandler createHandler(final Builder builder) {
+        if (builder instanceof ContentBuilder) {
+            ContentBuilder contentBuilder = (ContentBuilder) builder;
+            if (TextUtils.isEmpty(contentBuilder.getAuthority()))
+                throw new IllegalArgumentException("ContentBuilder needs an authority");
+            return new ContentPathHandler(protocolHandler.getContext().getContentResolver(),
+                    contentBuilder.getAuthority(), contentBuilder.getUrlVirtualPath());
+        }
+
+        if (builder instanceof BundleBuilder) {
+            BundleBuilder bundleBuilder = (BundleBuilder) builder;
+            if (bundleBuilder.getBundleStore() == null)
+                throw new IllegalArgumentException("BundleBuilder needs a BundleStore");
+            return new BundlePathHandler(bundleBuilder.getBundleStore(), bundleBuilder.getUrlVirtualPath(),
+                    bundleBuilder.getFallback());
+        }
+
+        if (builder instanceof ProxyBuilder) {
+            ProxyBuilder proxyBuilder = (ProxyBuilder) builder;
+            File cacheDirectory = proxyBuilder.getCacheDirectory();
+            if (cacheDirectory == null) {
+                cacheDirectory = new File(protocolHandler.getContext().getCacheDir(),
+                        "webview_local_server_proxy/" + proxyBuilder.getDomain());
+            }
+            return new ProxyPathHandler(cacheDirectory, proxyBuilder.getMaxCacheSize(),
+                    proxyBuilder.getUpstreamOrigin(), proxyBuilder.getTimeoutMillis());
+        }
+
+        if (builder instanceof AssetsBuilder && ((AssetsBuilder) builder).isContentNegotiation()
+                && ((AssetsBuilder) builder).getAssetManifest() == null) {
+            throw new IllegalArgumentException("content negotiation needs an asset manifest");
+        }
+
+        final TemplateBuilder templateBuilder;
+        final TemplatePathHandler templates;
+        if (builder instanceof TemplateBuilder) {
+            templateBuilder = (TemplateBuilder) builder;
+            if (templateBuilder.getTemplateValues() == null)
+                throw new IllegalArgumentException("TemplateBuilder needs TemplateValues");
+            TemplateSource source = templateBuilder.getTemplateSource() == null
+                    ? new TemplateCache.AssetSource(protocolHandler) : templateBuilder.getTemplateSource();
+            templateBuilder.mTemplateCache = new TemplateCache(source);
+            registerCache(templateBuilder.mTemplateCache);
+            templates = new TemplatePathHandler(templateBuilder.mTemplateCache,
+                    templateBuilder.getTemplateValues(), bufferPool);
+        } else {
+            templateBuilder = null;
+            templates = null;
+        }
+
+        PathHandler handler = new PathHandler() {
+            private AssetManifest manifest;
+            private boolean manifestLoaded;
+            private VariantTable variantTable;
+
+            @Override
+            public InputStream handle(Uri url) {
+                InputStream stream;
+
+                try {
+                    if (builder instanceof AssetsBuilder) {
+
+                        String path = resolveAssetPath((AssetsBuilder) builder, url);
+
+                        // Templates may come from a source outside the assets the manifest lists.
+                        if (templates != null && templateBuilder.isTemplate(path))
+                            return templates.render(path, url);
+
+                        AssetManifest manifest = getManifest();
+                        if (manifest != null && manifest.get(path) == null) return null;
+
+                        stream = protocolHandler.openAsset(path);
+                    } else {
+                        stream = protocolHandler.openResource(url);
+                    }
+
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open asset URL: " + url);
+                    return null;
+                }
+
+
+                return stream;
+            }
+
+            @Override
+            public String getMimeType(Uri url) {
+                AssetManifest.Entry entry = getManifestEntry(url);
+                return entry == null ? super.getMimeType(url) : entry.getMimeType();
+            }
+
+            @Override
+            public Map<String, String> getResponseHeaders(Uri url) {
+                AssetManifest.Entry entry = getManifestEntry(url);
+                if (entry == null) return super.getResponseHeaders(url);
+                Map<String, String> headers = super.getResponseHeaders(url) == null
+                        ? new HashMap<String, String>() : new HashMap<>(super.getResponseHeaders(url));
+                headers.put("Content-Length", String.valueOf(entry.getSize()));
+                headers.put("ETag", entry.getETag());
+                return headers;
+            }
+
+            @TargetApi(21)
+            @Override
+            public Uri selectVariant(WebResourceRequest request) {
+                VariantTable variants = getVariantTable();
+                if (variants == null) return request.getUrl();
+                Uri url = request.getUrl();
+                String path = resolveAssetPath((AssetsBuilder) builder, url);
+                Map<String, String> headers = request.getRequestHeaders();
+                String chosen = variants.choose(path, variants.getCapabilities(
+                        getHeader(headers, "Accept"), getHeader(headers, "User-Agent")));
+                if (chosen.equals(path)) return url;
+                // Variants are siblings, only the last path segment changes.
+                String urlPath = url.getPath();
+                return url.buildUpon().path(urlPath.substring(0, urlPath.lastIndexOf('/') + 1)
+                        + chosen.substring(chosen.lastIndexOf('/') + 1)).build();
+            }
+
+            @Override
+            public boolean isKnownMissing(Uri url) {
+                if (!(builder instanceof AssetsBuilder)) return false;
+                AssetManifest manifest = getManifest();
+                if (manifest == null) return false;
+                String path = resolveAssetPath((AssetsBuilder) builder, url);
+                return !(templates != null && templateBuilder.isTemplate(path)) && manifest.get(path) == null;
+            }
+
+            @Override
+            public String getVary(Uri url) {
+                VariantTable variants = getVariantTable();
+                return variants == null ? null : variants.getVary(resolveAssetPath((AssetsBuilder) builder, url));
+            }
+
+            private VariantTable getVariantTable() {
+                if (!(builder instanceof AssetsBuilder) || !((AssetsBuilder) builder).isContentNegotiation())
+                    return null;
+                synchronized (this) {
+                    if (variantTable == null) {
+                        AssetManifest manifest = getManifest();
+                        if (manifest != null) variantTable = VariantTable.build(manifest);
+                    }
+                    return variantTable;
+                }
+            }
+
+            /**
+             * @return the manifest entry of a plain asset, null for templates or without manifest
+             */
+            private AssetManifest.Entry getManifestEntry(Uri url) {
+                AssetManifest manifest = getManifest();
+                if (manifest == null) return null;
+                String path = resolveAssetPath((AssetsBuilder) builder, url);
+                if (templates != null && templateBuilder.isTemplate(path)) return null;
+                return manifest.get(path);
+            }
+
+            /**
+             * Reads the manifest on first use, so creating the host does no disk access.
+             */
+            private synchronized AssetManifest getManifest() {
+                if (!manifestLoaded) {
+                    manifestLoaded = true;
+                    String manifestPath = builder instanceof AssetsBuilder
+                            ? ((AssetsBuilder) builder).getAssetManifest() : null;
+                    if (manifestPath != null) {
+                        try {
+                            manifest = AssetManifest.read(protocolHandler.openAsset(manifestPath));
+                        } catch (IOException e) {
+                            Log.w(TAG, "Unable to read asset manifest " + manifestPath + ", serving without it", e);
+                        }
+                    }
+                }
+                return manifest;
+            }
+
+            @Override
+            public void prefetch(Uri url) {
+                if (builder instanceof AssetsBuilder) {
+                    String path = resolveAssetPath((AssetsBuilder) builder, url);
+                    if (templates != null && templateBuilder.isTemplate(path)) {
+                        try {
+                            templates.getTemplateCache().get(path);
+                        } catch (IOException e) {
+                            Log.w(TAG, "Unable to prefetch template: " + path);
+                        }
+                        return;
+                    }
+                }
+                // Reading the resource once pulls it into the page cache.
+                InputStream stream = handle(url);
+                if (stream == null) return;
+                byte[] buffer = bufferPool.acquire(0);
+                try {
+                    while (stream.read(buffer) != -1) ;
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to prefetch " + url);
+                } finally {
+                    bufferPool.release(buffer);
+                    try {
+                        stream.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        };
+
+        if (builder instanceof ResBuilder && ((ResBuilder) builder).isImageResizing()) {
+            ResBuilder resBuilder = (ResBuilder) builder;
+            File cacheDirectory = new File(protocolHandler.getContext().getCacheDir(),
+                    "webview_local_server_images/" + resBuilder.getDomain() + "/" + resBuilder.getUrlVirtualPath());
+            return new ImageResizeHandler(handler, cacheDirectory, resBuilder.getImageCacheSize(), getAppVersion());
+        }
+        return handler;
+    }
+
+    /**
+     * @return a string that changes with every install of the app, empty if unknown
+     */
+    private String getAppVersion() {
+        String appVersion = AppVersion.of(protocolHandler.getContext());
+        return appVersion == null ? "" : appVersion;
+    }
+
+    /**
+     * Maps a url of an {@link AssetsBuilder} host to the path of the asset it serves.
+     */
+    private static String resolveAssetPath(AssetsBuilder builder, Uri url) {
+        String path = url.getPath();
+        if (path.startsWith("/")) path = path.replaceFirst("/", "");
+
+        if (path.startsWith(builder.getUrlVirtualPath()))
+            path = path.replaceFirst(builder.getUrlVirtualPath(), "");
+
+        return builder.getPathInAndroidLocation() + (path.startsWith("/") ? "" : "/") + path;
+    }
+
+    /**
+     * The KitKat WebView reads the InputStream on a separate threadpool. We can use that to
+     * parallelize loading.
+     */
+    private static abstract class LazyInputStream extends InputStream {
+        protected final PathHandler handler;
+        private final SingleFlight singleFlight;
+        private final StreamTracker streamTracker;
+        private InputStream is = null;
+        private Object trackingToken;
+        private boolean closed;
+
+        public LazyInputStream(PathHandler handler, SingleFlight singleFlight, StreamTracker streamTracker) {
+            this.handler = handler;
+            this.singleFlight = singleFlight;
+            this.streamTracker = streamTracker;
+        }
+
+        private synchronized InputStream getInputStream() {
+            if (closed) return null;
+            if (is == null) {
+                String key = singleFlight == null ? null : getCoalescingKey();
+                if (key == null) {
+                    is = handle();
+                } else {
+                    is = singleFlight.open(key, new SingleFlight.Producer() {
+                        @Override
+                        public InputStream produce() {
+                            return handle();
+                        }
+                    });
+                }
+                if (is != null) {
+                    trackingToken = streamTracker.opened(this, is,
+                            streamTracker.isLeakDetectionEnabled() ? getUrl() : null);
+                }
+            }
+            return is;
+        }
+
+        protected abstract String getUrl();
+
+        protected abstract InputStream handle();
+
+        /**
+         * @return the key under which concurrent requests share a body, null to never share
+         */
+        protected abstract String getCoalescingKey();
+
+        /**
+         * Closes the stream produced by the handler, if any. A body closed before it was read
+         * never invokes the handler.
+         */
+        @Override
+        public void close() throws IOException {
+            InputStream is;
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                is = this.is;
+                this.is = null;
+            }
+            if (is == null) return;
+            try {
+                is.close();
+            } finally {
+                streamTracker.closed(trackingToken);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            InputStream is = getInputStream();
+            return (is != null) ? is.available() : 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            InputStream is = getInputStream();
+            return (is != null) ? is.read() : -1;
+        }
+
+        @Override
+        public int read(byte b[]) throws IOException {
+            InputStream is = getInputStream();
+            return (is != null) ? is.read(b) : -1;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+            InputStream is = getInputStream();
+            return (is != null) ? is.read(b, off, len) : -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            InputStream is = getInputStream();
+            return (is != null) ? is.skip(n) : 0;
+        }
+    }
+
+    // For earlier than L.
+    private static class LegacyLazyInputStream extends LazyInputStream {
+        private Uri uri;
+        private InputStream is;
+
+        public LegacyLazyInputStream(PathHandler handler, Uri uri, SingleFlight singleFlight, StreamTracker streamTracker) {
+            super(handler, singleFlight, streamTracker);
+            this.uri = uri;
+        }
+
+        @Override
+        protected InputStream handle() {
+            return handler.handle(uri);
+        }
+
+        @Override
+        protected String getUrl() {
+            return uri.toString();
+        }
+
+        @Override
+        protected String getCoalescingKey() {
+            return uri.toString();
+        }
+    }
+
+    // For L and above.
+    private static class LollipopLazyInputStream extends LazyInputStream {
+        private WebResourceRequest request;
+        private InputStream is;
+
+        public LollipopLazyInputStream(PathHandler handler, WebResourceRequest request, SingleFlight singleFlight, StreamTracker streamTracker) {
+            super(handler, singleFlight, streamTracker);
+            this.request = request;
+        }
+
+        @Override
+        protected InputStream handle() {
+            return handler.handle(request);
+        }
+
+        @Override
+        protected String getUrl() {
+            return request.getUrl().toString();
+        }
+
+        @Override
+        protected String getCoalescingKey() {
+            return "GET".equalsIgnoreCase(request.getMethod()) ? request.getUrl().toString() : null;
+        }
+    }
+
+    // For handlers returning a ResponseBody.
+    private static class BodyLazyInputStream extends LazyInputStream {
+        private final Uri uri;
+        private final ResponseBody body;
+
+        public BodyLazyInputStream(PathHandler handler, Uri uri, ResponseBody body, StreamTracker streamTracker) {
+            super(handler, null, streamTracker);
+            this.uri = uri;
+            this.body = body;
+        }
+
+        @Override
+        protected InputStream handle() {
+            try {
+                return body.openStream();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open the body of " + uri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected String getUrl() {
+            return uri.toString();
+        }
+
+        @Override
+        protected String getCoalescingKey() {
+            return null;
+        }
+
+        /**
+         * Also releases the body if it was never opened.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * The Available URL Protocols that can be used for hosting
+     */
+    public enum UrlProtocol {
+        HTTP("http"), HTTPS("https"), FILE("file");
+
+        private String mProtocol;
+
+        /**
+         * The Available URL Protocols that can be used for hosting
+         */
+        UrlProtocol(String protocol) {
+            mProtocol = protocol;
+        }
+
+        /**
+         * The URL Protocol that can be used for hosting
+         *
+         * @return protocol string
+         */
+        public String getProtocol() {
+            return mProtocol;
+        }
+    }
+
+    /**
+     * Hosts the application's assets on an http(s):// URL. Assets from the local path
+     * <code>assetPath/...</code> will be available under
+     * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
+     * <p>
+     * prefixes under which the assets are hosted.
+     */
+    public static class AssetsBuilder extends ResBuilder {
+
+        public static final String DEFAULT_ASSETS_PATH = "www";
+
+        private String mPathInAndroidLocation = DEFAULT_ASSETS_PATH;
+        private String mAssetManifest;
+        private boolean mContentNegotiation;
+
+        /**
+         * Hosts the application's assets on an http(s):// URL. Assets from the local path
+         * <code>assetPath/...</code> will be available under
+         * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
+         * <p>
+         * prefixes under which the assets are hosted.
+         */
+        public AssetsBuilder() {
+            super();
+        }
+
+        /**
+         * Hosts the application's assets on an http(s):// URL. Assets from the local path
+         * <code>assetPath/...</code> will be available under
+         * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
+         *
+         * @param pathInAndroidLocation the path within the asset folder which the assets are located (example, "www" for "ASSETS_FOLDER/www/index.html")
+         * @return prefixes under which the assets are hosted.
+         */
+        public AssetsBuilder setPathInAndroidLocation(String pathInAndroidLocation) {
+            if (!TextUtils.isEmpty(pathInAndroidLocation))
+                while (pathInAndroidLocation.startsWith("/")) {
+                    pathInAndroidLocation = pathInAndroidLocation.substring(1, pathInAndroidLocation.length());
+                }
+            if (!TextUtils.isEmpty(pathInAndroidLocation))
+                while (pathInAndroidLocation.endsWith("/")) {
+                    pathInAndroidLocation = pathInAndroidLocation.substring(0, pathInAndroidLocation.length() - 1);
+                }
+            mPathInAndroidLocation = pathInAndroidLocation;
+            return this;
+        }
+
+        public String getPathInAndroidLocation() {
+            return mPathInAndroidLocation == null ? "" : mPathInAndroidLocation;
+        }
+
+        /**
+         * Serve the assets using the manifest generated by the <code>generateAssetManifest</code>
+         * Gradle task (see <code>asset-manifest.gradle</code>). Responses then carry
+         * Content-Length and ETag headers and the manifest's mime type, and missing assets are
+         * answered without touching the AssetManager. The manifest is read on the first request.
+         *
+         * @param manifestPath the manifest's path in the assets,
+         *                     {@link AssetManifest#DEFAULT_PATH} for the task's default, null to
+         *                     not use one
+         * @return this builder
+         */
+        public AssetsBuilder setAssetManifest(String manifestPath) {
+            mAssetManifest = manifestPath;
+            return this;
+        }
+
+        public String getAssetManifest() {
+            return mAssetManifest;
+        }
+
+        /**
+         * Serve the smallest variant of an asset the WebView accepts, for example
+         * <code>hero.webp</code> for <code>hero.png</code>, or <code>app.legacy.js</code> for
+         * <code>app.js</code> on old WebViews. Variants are found in the asset manifest, so
+         * {@link #setAssetManifest(String)} is required.
+         *
+         * @param contentNegotiation true to negotiate variants
+         * @return this builder
+         * @see VariantTable
+         */
+        public AssetsBuilder setContentNegotiation(boolean contentNegotiation) {
+            mContentNegotiation = contentNegotiation;
+            return this;
+        }
+
+        public boolean isContentNegotiation() {
+            return mContentNegotiation;
+        }
+
+        @Override
+        public AssetsBuilder setDomain(String domain) {
+            return (AssetsBuilder) super.setDomain(domain);
+        }
+
+        @Override
+        public AssetsBuilder setUrlVirtualPath(String urlVirtualPath) {
+            return (AssetsBuilder) super.setUrlVirtualPath(urlVirtualPath);
+        }
+
+        @Override
+        public String getDomain() {
+            return super.getDomain();
+        }
+
+        @Override
+        public AssetsBuilder clearDomain() {
+            return (AssetsBuilder) super.clearDomain();
+        }
+
+        @Override
+        public String getUrlVirtualPath() {
+            return super.getUrlVirtualPath();
+        }
+
+        @Override
+        public String getSubDomain() {
+            return super.getSubDomain();
+        }
+
+        @Override
+        public AssetsBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
+            return (AssetsBuilder) super.setProtocol(urlProtocol, isAllowed);
+        }
+
+        @Override
+        public AssetsBuilder setSubDomain(String subDomain) {
+            return (AssetsBuilder) super.setSubDomain(subDomain);
+        }
+
+        @Override
+        public AssetsBuilder setRandomSubDomain() {
+            return (AssetsBuilder) super.setRandomSubDomain();
+        }
+
+        @Override
+        public AssetsBuilder clearSubDomain() {
+            return (AssetsBuilder) super.clearSubDomain();
+        }
+
+        @Override
+        public AssetsBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (AssetsBuilder) super.addHtmlTransformer(transformer);
+        }
+
+        @Override
+        public AssetsBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (AssetsBuilder) super.setCoalesceRequests(coalesceRequests);
+        }
+
+        @Override
+        public AssetsBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (AssetsBuilder) super.setDeadline(deadlineMillis, fallback);
+        }
+
+        @Override
+        public AssetsBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (AssetsBuilder) super.setCorsPolicy(corsPolicy);
+        }
+
+        @Override
+        public AssetsBuilder setImageResizing(boolean imageResizing) {
+            return (AssetsBuilder) super.setImageResizing(imageResizing);
+        }
+
+        @Override
+        public AssetsBuilder setImageCacheSize(long imageCacheSize) {
+            return (AssetsBuilder) super.setImageCacheSize(imageCacheSize);
+        }
+
+    }
+
+
+    /**
+     * Hosts the application's assets like {@link AssetsBuilder}, but renders template files
+     * (<code>.html</code> by default) with {@link TemplateValues} instead of serving them as is.
+     * <p>
+     * Templates are compiled once into a cached instruction list and rendered into pooled
+     * buffers, see {@link com.mtsdealersolutions.webview_local_server.template.Template} for the
+     * syntax.
+     */
+    public static class TemplateBuilder extends AssetsBuilder {
+
+        private TemplateValues mTemplateValues;
+        private TemplateSource mTemplateSource;
+        private String[] mTemplateExtensions = {".html"};
+        private TemplateCache mTemplateCache;
+
+        public TemplateBuilder() {
+            super();
+        }
+
+        /**
+         * @param templateValues supplies the values of the templates, required
+         * @return this builder
+         */
+        public TemplateBuilder setTemplateValues(TemplateValues templateValues) {
+            mTemplateValues = templateValues;
+            return this;
+        }
+
+        public TemplateValues getTemplateValues() {
+            return mTemplateValues;
+        }
+
+        /**
+         * Load templates from somewhere other than the packaged assets, for example a
+         * {@link TemplateCache.FileSource}. Templates are looked up by the same path as assets
+         * (including {@link #getPathInAndroidLocation()}) and are recompiled when the source
+         * reports a new version.
+         *
+         * @param templateSource the source of the templates, null for the packaged assets (default)
+         * @return this builder
+         */
+        public TemplateBuilder setTemplateSource(TemplateSource templateSource) {
+            mTemplateSource = templateSource;
+            return this;
+        }
+
+        public TemplateSource getTemplateSource() {
+            return mTemplateSource;
+        }
+
+        /**
+         * @param extensions the file extensions rendered as templates, default is ".html"
+         * @return this builder
+         */
+        public TemplateBuilder setTemplateExtensions(String... extensions) {
+            mTemplateExtensions = extensions == null ? new String[0] : extensions;
+            return this;
+        }
+
+        public boolean isTemplate(String path) {
+            for (String extension : mTemplateExtensions) {
+                if (path.endsWith(extension)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the cache of compiled templates, null until the host is created
+         */
+        public TemplateCache getTemplateCache() {
+            return mTemplateCache;
+        }
+
+        @Override
+        public TemplateBuilder setPathInAndroidLocation(String pathInAndroidLocation) {
+            return (TemplateBuilder) super.setPathInAndroidLocation(pathInAndroidLocation);
+        }
+
+        @Override
+        public TemplateBuilder setAssetManifest(String manifestPath) {
+            return (TemplateBuilder) super.setAssetManifest(manifestPath);
+        }
+
+        @Override
+        public TemplateBuilder setContentNegotiation(boolean contentNegotiation) {
+            return (TemplateBuilder) super.setContentNegotiation(contentNegotiation);
+        }
+
+        @Override
+        public TemplateBuilder setDomain(String domain) {
+            return (TemplateBuilder) super.setDomain(domain);
+        }
+
+        @Override
+        public TemplateBuilder setUrlVirtualPath(String urlVirtualPath) {
+            return (TemplateBuilder) super.setUrlVirtualPath(urlVirtualPath);
+        }
+
+        @Override
+        public TemplateBuilder clearDomain() {
+            return (TemplateBuilder) super.clearDomain();
+        }
+
+        @Override
+        public TemplateBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
+            return (TemplateBuilder) super.setProtocol(urlProtocol, isAllowed);
+        }
+
+        @Override
+        public TemplateBuilder setSubDomain(String subDomain) {
+            return (TemplateBuilder) super.setSubDomain(subDomain);
+        }
+
+        @Override
+        public TemplateBuilder setRandomSubDomain() {
+            return (TemplateBuilder) super.setRandomSubDomain();
+        }
+
+        @Override
+        public TemplateBuilder clearSubDomain() {
+            return (TemplateBuilder) super.clearSubDomain();
+        }
+
+        @Override
+        public TemplateBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (TemplateBuilder) super.addHtmlTransformer(transformer);
+        }
+
+        @Override
+        public TemplateBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (TemplateBuilder) super.setCoalesceRequests(coalesceRequests);
+        }
+
+        @Override
+        public TemplateBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (TemplateBuilder) super.setDeadline(deadlineMillis, fallback);
+        }
+
+        @Override
+        public TemplateBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (TemplateBuilder) super.setCorsPolicy(corsPolicy);
+        }
+
+        @Override
+        public TemplateBuilder setImageResizing(boolean imageResizing) {
+            return (TemplateBuilder) super.setImageResizing(imageResizing);
+        }
+
+        @Override
+        public TemplateBuilder setImageCacheSize(long imageCacheSize) {
+            return (TemplateBuilder) super.setImageCacheSize(imageCacheSize);
+        }
+    }
+
+
+    /**
+     * Proxies a remote origin through a disk cache instead of hosting local content. The domain
+     * (and sub domain, none by default) name the origin, for example
+     * <code>new ProxyBuilder().setDomain("fonts.gstatic.com")</code> serves every GET to
+     * <code>https://fonts.gstatic.com/...</code> from the cache, fetching it when needed.
+     * Only HTTP and HTTPS are proxied.
+     *
+     * @see ProxyPathHandler
+     */
+    public static class ProxyBuilder extends Builder {
+
+        private File mCacheDirectory;
+        private long mMaxCacheSize = ProxyPathHandler.DEFAULT_MAX_CACHE_SIZE;
+        private String mUpstreamOrigin;
+        private int mTimeoutMillis = ProxyPathHandler.DEFAULT_TIMEOUT_MILLIS;
+
+        public ProxyBuilder() {
+            super();
+            clearSubDomain();
+            setProtocol(UrlProtocol.FILE, false);
+        }
+
+        /**
+         * @param cacheDirectory a directory used only by this proxy, default is a directory per
+         *                       domain in the app's cache dir
+         * @return this builder
+         */
+        public ProxyBuilder setCacheDirectory(File cacheDirectory) {
+            mCacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        public File getCacheDirectory() {
+            return mCacheDirectory;
+        }
+
+        /**
+         * @param maxCacheSize the most bytes kept on disk, default is 20MB
+         * @return this builder
+         */
+        public ProxyBuilder setMaxCacheSize(long maxCacheSize) {
+            mMaxCacheSize = maxCacheSize;
+            return this;
+        }
+
+        public long getMaxCacheSize() {
+            return mMaxCacheSize;
+        }
+
+        /**
+         * Fetch from another origin than the one requested, for example a stand-in server on
+         * <code>http://127.0.0.1:8080</code> while testing.
+         *
+         * @param upstreamOrigin scheme, host and port to fetch from, null to fetch the requested url
+         * @return this builder
+         */
+        public ProxyBuilder setUpstreamOrigin(String upstreamOrigin) {
+            if (upstreamOrigin != null) while (upstreamOrigin.endsWith("/")) {
+                upstreamOrigin = upstreamOrigin.substring(0, upstreamOrigin.length() - 1);
+            }
+            mUpstreamOrigin = upstreamOrigin;
+            return this;
+        }
+
+        public String getUpstreamOrigin() {
+            return mUpstreamOrigin;
+        }
+
+        /**
+         * @param timeoutMillis connect and read timeout for the origin, default is 15 seconds
+         * @return this builder
+         */
+        public ProxyBuilder setTimeoutMillis(int timeoutMillis) {
+            mTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public int getTimeoutMillis() {
+            return mTimeoutMillis;
         }
 
-        PathHandler handler = new PathHandler() {
-            @Override
-            public InputStream handle(Uri url) {
-                InputStream stream;
+        @Override
+        public ProxyBuilder setDomain(String domain) {
+            return (ProxyBuilder) super.setDomain(domain);
+        }
 
-                try {
-                    if (builder instanceof AssetsBuilder) {
+        @Override
+        public ProxyBuilder setUrlVirtualPath(String urlVirtualPath) {
+            return (ProxyBuilder) super.setUrlVirtualPath(urlVirtualPath);
+        }
 
-                        String path = url.getPath();
-                        if (path.startsWith("/")) path = path.replaceFirst("/", "");
+        @Override
+        public ProxyBuilder clearDomain() {
+            return (ProxyBuilder) super.clearDomain();
+        }
 
-                        if (path.startsWith(builder.getUrlVirtualPath()))
-                            path = path.replaceFirst(builder.getUrlVirtualPath(), "");
+        @Override
+        public ProxyBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
+            if (urlProtocol == UrlProtocol.FILE && isAllowed)
+                throw new IllegalArgumentException("the FILE protocol cannot be proxied");
+            return (ProxyBuilder) super.setProtocol(urlProtocol, isAllowed);
+        }
 
-                        path = ((AssetsBuilder) builder).getPathInAndroidLocation() + (path.startsWith("/") ? "" : "/") + path;
+        @Override
+        public ProxyBuilder setSubDomain(String subDomain) {
+            return (ProxyBuilder) super.setSubDomain(subDomain);
+        }
 
-                        stream = protocolHandler.openAsset(path);
-                    } else {
-                        stream = protocolHandler.openResource(url);
-                    }
+        @Override
+        public ProxyBuilder setRandomSubDomain() {
+            return (ProxyBuilder) super.setRandomSubDomain();
+        }
 
-                } catch (IOException e) {
-                    Log.e(TAG, "Unable to open asset URL: " + url);
-                    return null;
-                }
+        @Override
+        public ProxyBuilder clearSubDomain() {
+            return (ProxyBuilder) super.clearSubDomain();
+        }
 
+        @Override
+        public ProxyBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (ProxyBuilder) super.addHtmlTransformer(transformer);
+        }
 
-                return stream;
-            }
-        };
+        @Override
+        public ProxyBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (ProxyBuilder) super.setCoalesceRequests(coalesceRequests);
+        }
 
-        for (Map.Entry<UrlProtocol, Boolean> mapEntry : builder.getIsAllowed().entrySet()) {
-            if (mapEntry.getValue())
-                register(Uri.withAppendedPath(uriBuilder.scheme(mapEntry.getKey().getProtocol()).build(), "**"), handler);
+        @Override
+        public ProxyBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (ProxyBuilder) super.setDeadline(deadlineMillis, fallback);
         }
 
-        return new Server(uriBuilder);
+        @Override
+        public ProxyBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (ProxyBuilder) super.setCorsPolicy(corsPolicy);
+        }
     }
 
+
     /**
-     * The KitKat WebView reads the InputStream on a separate threadpool. We can use that to
-     * parallelize loading.
+     * Hosts the files of a ContentProvider, for example the user's photos and videos.
+     * <code>http(s)://{domain}/{virtualAssetPath}/{path}</code> is served from
+     * <code>content://{authority}/{path}</code>.
+     *
+     * @see ContentPathHandler
      */
-    private static abstract class LazyInputStream extends InputStream {
-        protected final PathHandler handler;
-        private InputStream is = null;
+    public static class ContentBuilder extends Builder {
 
-        public LazyInputStream(PathHandler handler) {
-            this.handler = handler;
+        private String mAuthority;
+
+        public ContentBuilder() {
+            super();
         }
 
-        private InputStream getInputStream() {
-            if (is == null) {
-                is = handle();
-            }
-            return is;
+        /**
+         * @param authority the authority of the provider, for example <code>media</code> for
+         *                  the MediaStore
+         * @return this builder
+         */
+        public ContentBuilder setAuthority(String authority) {
+            mAuthority = authority;
+            return this;
         }
 
-        protected abstract InputStream handle();
+        public String getAuthority() {
+            return mAuthority;
+        }
 
         @Override
-        public int available() throws IOException {
-            InputStream is = getInputStream();
-            return (is != null) ? is.available() : 0;
+        public ContentBuilder setDomain(String domain) {
+            return (ContentBuilder) super.setDomain(domain);
         }
 
         @Override
-        public int read() throws IOException {
-            InputStream is = getInputStream();
-            return (is != null) ? is.read() : -1;
+        public ContentBuilder setUrlVirtualPath(String urlVirtualPath) {
+            return (ContentBuilder) super.setUrlVirtualPath(urlVirtualPath);
         }
 
         @Override
-        public int read(byte b[]) throws IOException {
-            InputStream is = getInputStream();
-            return (is != null) ? is.read(b) : -1;
+        public ContentBuilder clearDomain() {
+            return (ContentBuilder) super.clearDomain();
         }
 
         @Override
-        public int read(byte b[], int off, int len) throws IOException {
-            InputStream is = getInputStream();
-            return (is != null) ? is.read(b, off, len) : -1;
+        public ContentBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
+            return (ContentBuilder) super.setProtocol(urlProtocol, isAllowed);
         }
 
         @Override
-        public long skip(long n) throws IOException {
-            InputStream is = getInputStream();
-            return (is != null) ? is.skip(n) : 0;
+        public ContentBuilder setSubDomain(String subDomain) {
+            return (ContentBuilder) super.setSubDomain(subDomain);
         }
-    }
 
-    // For earlier than L.
-    private static class LegacyLazyInputStream extends LazyInputStream {
-        private Uri uri;
-        private InputStream is;
+        @Override
+        public ContentBuilder setRandomSubDomain() {
+            return (ContentBuilder) super.setRandomSubDomain();
+        }
 
-        public LegacyLazyInputStream(PathHandler handler, Uri uri) {
-            super(handler);
-            this.uri = uri;
+        @Override
+        public ContentBuilder clearSubDomain() {
+            return (ContentBuilder) super.clearSubDomain();
         }
 
         @Override
-        protected InputStream handle() {
-            return handler.handle(uri);
+        public ContentBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (ContentBuilder) super.addHtmlTransformer(transformer);
         }
-    }
 
-    // For L and above.
-    private static class LollipopLazyInputStream extends LazyInputStream {
-        private WebResourceRequest request;
-        private InputStream is;
+        @Override
+        public ContentBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (ContentBuilder) super.setCoalesceRequests(coalesceRequests);
+        }
 
-        public LollipopLazyInputStream(PathHandler handler, WebResourceRequest request) {
-            super(handler);
-            this.request = request;
+        @Override
+        public ContentBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (ContentBuilder) super.setDeadline(deadlineMillis, fallback);
         }
 
         @Override
-        protected InputStream handle() {
-            return handler.handle(request);
+        public ContentBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (ContentBuilder) super.setCorsPolicy(corsPolicy);
         }
     }
 
+
     /**
-     * The Available URL Protocols that can be used for hosting
+     * Hosts a downloaded content bundle on an http(s):// URL. The live version of the
+     * {@link BundleStore} is served under <code>http(s)://{domain}/{virtualPath}/...</code>,
+     * see {@link BundlePathHandler}.
      */
-    public enum UrlProtocol {
-        HTTP("http"), HTTPS("https"), FILE("file");
+    public static class BundleBuilder extends Builder {
 
-        private String mProtocol;
+        private BundleStore mBundleStore;
+        private PathHandler mFallback;
 
-        /**
-         * The Available URL Protocols that can be used for hosting
-         */
-        UrlProtocol(String protocol) {
-            mProtocol = protocol;
+        public BundleBuilder() {
+            super();
         }
 
         /**
-         * The URL Protocol that can be used for hosting
-         *
-         * @return protocol string
+         * @param bundleStore the bundles to serve
+         * @return this builder
          */
-        public String getProtocol() {
-            return mProtocol;
+        public BundleBuilder setBundleStore(BundleStore bundleStore) {
+            mBundleStore = bundleStore;
+            return this;
         }
-    }
-
-    /**
-     * Hosts the application's assets on an http(s):// URL. Assets from the local path
-     * <code>assetPath/...</code> will be available under
-     * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
-     * <p>
-     * prefixes under which the assets are hosted.
-     */
-    public static class AssetsBuilder extends ResBuilder {
-
-        public static final String DEFAULT_ASSETS_PATH = "www";
 
-        private String mPathInAndroidLocation = DEFAULT_ASSETS_PATH;
-
-        /**
-         * Hosts the application's assets on an http(s):// URL. Assets from the local path
-         * <code>assetPath/...</code> will be available under
-         * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
-         * <p>
-         * prefixes under which the assets are hosted.
-         */
-        public AssetsBuilder() {
-            super();
+        public BundleStore getBundleStore() {
+            return mBundleStore;
         }
 
         /**
-         * Hosts the application's assets on an http(s):// URL. Assets from the local path
-         * <code>assetPath/...</code> will be available under
-         * <code>http(s)://{domain}/{virtualAssetPath}/...</code>.
-         *
-         * @param pathInAndroidLocation the path within the asset folder which the assets are located (example, "www" for "ASSETS_FOLDER/www/index.html")
-         * @return prefixes under which the assets are hosted.
+         * @param fallback serves requests while no bundle is installed, for example the handler
+         *                 of the packaged assets. Null (the default) for none
+         * @return this builder
          */
-        public AssetsBuilder setPathInAndroidLocation(String pathInAndroidLocation) {
-            if (!TextUtils.isEmpty(pathInAndroidLocation))
-                while (pathInAndroidLocation.startsWith("/")) {
-                    pathInAndroidLocation = pathInAndroidLocation.substring(1, pathInAndroidLocation.length());
-                }
-            if (!TextUtils.isEmpty(pathInAndroidLocation))
-                while (pathInAndroidLocation.endsWith("/")) {
-                    pathInAndroidLocation = pathInAndroidLocation.substring(0, pathInAndroidLocation.length() - 1);
-                }
-            mPathInAndroidLocation = pathInAndroidLocation;
+        public BundleBuilder setFallback(PathHandler fallback) {
+            mFallback = fallback;
             return this;
         }
 
-        public String getPathInAndroidLocation() {
-            return mPathInAndroidLocation == null ? "" : mPathInAndroidLocation;
+        public PathHandler getFallback() {
+            return mFallback;
         }
 
         @Override
-        public AssetsBuilder setDomain(String domain) {
-            return (AssetsBuilder) super.setDomain(domain);
+        public BundleBuilder setDomain(String domain) {
+            return (BundleBuilder) super.setDomain(domain);
         }
 
         @Override
-        public AssetsBuilder setUrlVirtualPath(String urlVirtualPath) {
-            return (AssetsBuilder) super.setUrlVirtualPath(urlVirtualPath);
+        public BundleBuilder setUrlVirtualPath(String urlVirtualPath) {
+            return (BundleBuilder) super.setUrlVirtualPath(urlVirtualPath);
         }
 
         @Override
-        public String getDomain() {
-            return super.getDomain();
+        public BundleBuilder clearDomain() {
+            return (BundleBuilder) super.clearDomain();
         }
 
         @Override
-        public AssetsBuilder clearDomain() {
-            return (AssetsBuilder) super.clearDomain();
+        public BundleBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
+            return (BundleBuilder) super.setProtocol(urlProtocol, isAllowed);
         }
 
         @Override
-        public String getUrlVirtualPath() {
-            return super.getUrlVirtualPath();
+        public BundleBuilder setSubDomain(String subDomain) {
+            return (BundleBuilder) super.setSubDomain(subDomain);
         }
 
         @Override
-        public String getSubDomain() {
-            return super.getSubDomain();
+        public BundleBuilder setRandomSubDomain() {
+            return (BundleBuilder) super.setRandomSubDomain();
         }
 
         @Override
-        public AssetsBuilder setProtocol(UrlProtocol urlProtocol, boolean isAllowed) {
-            return (AssetsBuilder) super.setProtocol(urlProtocol, isAllowed);
+        public BundleBuilder clearSubDomain() {
+            return (BundleBuilder) super.clearSubDomain();
         }
 
         @Override
-        public AssetsBuilder setSubDomain(String subDomain) {
-            return (AssetsBuilder) super.setSubDomain(subDomain);
+        public BundleBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (BundleBuilder) super.addHtmlTransformer(transformer);
         }
 
         @Override
-        public AssetsBuilder setRandomSubDomain() {
-            return (AssetsBuilder) super.setRandomSubDomain();
+        public BundleBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (BundleBuilder) super.setCoalesceRequests(coalesceRequests);
         }
 
         @Override
-        public AssetsBuilder clearSubDomain() {
-            return (AssetsBuilder) super.clearSubDomain();
+        public BundleBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (BundleBuilder) super.setDeadline(deadlineMillis, fallback);
         }
 
+        @Override
+        public BundleBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (BundleBuilder) super.setCorsPolicy(corsPolicy);
+        }
     }
 
 
@@ -603,10 +2317,44 @@ public class WebViewLocalServer {
      * return prefixes under which the assets are hosted.
      */
     public static class ResBuilder extends Builder {
+        private boolean mImageResizing;
+        private long mImageCacheSize = ImageResizeHandler.DEFAULT_MAX_CACHE_SIZE;
+
         public ResBuilder() {
             super();
         }
 
+        /**
+         * Serve resized variants of PNG, JPEG and WebP images for urls with
+         * <code>?w=</code>, <code>?h=</code>, <code>?q=</code> or <code>?fm=jpeg</code>, for
+         * example <code>photo.jpg?w=320</code> for a thumbnail.
+         *
+         * @param imageResizing true to resize images on request
+         * @return this builder
+         * @see ImageResizeHandler
+         */
+        public ResBuilder setImageResizing(boolean imageResizing) {
+            mImageResizing = imageResizing;
+            return this;
+        }
+
+        public boolean isImageResizing() {
+            return mImageResizing;
+        }
+
+        /**
+         * @param imageCacheSize the most bytes of resized images kept on disk, default is 30MB
+         * @return this builder
+         */
+        public ResBuilder setImageCacheSize(long imageCacheSize) {
+            mImageCacheSize = imageCacheSize;
+            return this;
+        }
+
+        public long getImageCacheSize() {
+            return mImageCacheSize;
+        }
+
         @Override
         public ResBuilder setDomain(String domain) {
             return (ResBuilder) super.setDomain(domain);
@@ -656,6 +2404,26 @@ public class WebViewLocalServer {
         public ResBuilder clearSubDomain() {
             return (ResBuilder) super.clearSubDomain();
         }
+
+        @Override
+        public ResBuilder addHtmlTransformer(HtmlTransformer transformer) {
+            return (ResBuilder) super.addHtmlTransformer(transformer);
+        }
+
+        @Override
+        public ResBuilder setCoalesceRequests(boolean coalesceRequests) {
+            return (ResBuilder) super.setCoalesceRequests(coalesceRequests);
+        }
+
+        @Override
+        public ResBuilder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            return (ResBuilder) super.setDeadline(deadlineMillis, fallback);
+        }
+
+        @Override
+        public ResBuilder setCorsPolicy(CorsPolicy corsPolicy) {
+            return (ResBuilder) super.setCorsPolicy(corsPolicy);
+        }
     }
 
 
@@ -672,6 +2440,11 @@ public class WebViewLocalServer {
         private String mUrlVirtualPath = "";
         private Map<UrlProtocol, Boolean> mIsAllowed;
         private int mPort = -1;
+        private List<HtmlTransformer> mHtmlTransformers = new ArrayList<>();
+        private boolean mCoalesceRequests;
+        private long mDeadlineMillis;
+        private DeadlineFallback mDeadlineFallback;
+        private CorsPolicy mCorsPolicy;
 
         /**
          * Hosts the application's assets on an http(s):// URL. Assets from the local path
@@ -818,6 +2591,84 @@ public class WebViewLocalServer {
         public Map<UrlProtocol, Boolean> getIsAllowed() {
             return mIsAllowed;
         }
+
+        /**
+         * Rewrite every <code>text/html</code> page served by the host while it is streamed, for
+         * example to inject a bootstrap script, a CSP nonce or a <code>&lt;base&gt;</code> tag.
+         * Transformers run in the order they were added.
+         *
+         * @param transformer the transformer to add
+         * @return this builder
+         */
+        public Builder addHtmlTransformer(HtmlTransformer transformer) {
+            if (transformer == null)
+                throw new IllegalArgumentException("transformer cannot be null");
+            mHtmlTransformers.add(transformer);
+            return this;
+        }
+
+        public List<HtmlTransformer> getHtmlTransformers() {
+            return mHtmlTransformers;
+        }
+
+        /**
+         * Let concurrent requests for the same url, for example from several frames or the
+         * preload scanner, share one read of the resource instead of each reading it.
+         *
+         * @param coalesceRequests true to coalesce concurrent requests
+         * @return this builder
+         */
+        public Builder setCoalesceRequests(boolean coalesceRequests) {
+            mCoalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        public boolean isCoalescingRequests() {
+            return mCoalesceRequests;
+        }
+
+        /**
+         * Give the host's handler a time budget per request. When the handler takes longer,
+         * <code>fallback</code> is served instead and the route is logged, see
+         * {@link PathHandler#setDeadline(long, DeadlineFallback)}.
+         *
+         * @param deadlineMillis the time budget, 0 (the default) for none
+         * @param fallback       what to serve when the budget runs out, for example
+         *                       {@link DeadlineFallback#serviceUnavailable(int)}
+         * @return this builder
+         */
+        public Builder setDeadline(long deadlineMillis, DeadlineFallback fallback) {
+            if (deadlineMillis > 0 && fallback == null)
+                throw new IllegalArgumentException("fallback cannot be null");
+            mDeadlineMillis = deadlineMillis;
+            mDeadlineFallback = fallback;
+            return this;
+        }
+
+        public long getDeadlineMillis() {
+            return mDeadlineMillis;
+        }
+
+        public DeadlineFallback getDeadlineFallback() {
+            return mDeadlineFallback;
+        }
+
+        /**
+         * Let pages from other origins call the host with <code>fetch()</code>. Preflights are
+         * answered from the policy without calling the handler, see
+         * {@link PathHandler#setCorsPolicy(CorsPolicy)}.
+         *
+         * @param corsPolicy the policy, null (the default) for none
+         * @return this builder
+         */
+        public Builder setCorsPolicy(CorsPolicy corsPolicy) {
+            mCorsPolicy = corsPolicy;
+            return this;
+        }
+
+        public CorsPolicy getCorsPolicy() {
+            return mCorsPolicy;
+        }
     }
 }
 
@@ -0,0 +1,262 @@
+package com.mtsdealersolutions.webview_local_server.batch;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.stream.StreamChannel;
+import com.mtsdealersolutions.webview_local_server.stream.StreamingPathHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves many small resources in one response, to save the per-request cost of the WebView
+ * intercepting each of them. A request lists the urls to include:
+ * <pre>
+ *     https://{host}/{batch path}/fetch?u=/www/icons/a.svg&amp;u=/www/icons/b.svg
+ * </pre>
+ * Paths are resolved against the origin of the batch request, full urls must be on that
+ * origin too. Each one is requested from the server as a GET without headers, in the order
+ * listed, so it is answered as the page would be answered: {@link
+ * WebViewLocalServer.PathHandler#respond}, html transformers and deadlines of the matched
+ * route apply. The responses are streamed into the batch as:
+ * <pre>
+ *     uint16 status, uint16 mime type length, mime type (UTF-8),
+ *     uint32 chunk length, chunk ... repeated, uint32 0 (or 0xffffffff if the resource failed)
+ * </pre>
+ * All numbers are big endian. <code>{batch path}/loader.js</code> serves a script defining
+ * <code>fetchBatch(batchUrl, urls)</code>, which resolves to one <code>Response</code> per url.
+ * <p>
+ * A batch listing more than its maximum number of urls, or a url on another origin, is
+ * answered with 400 and nothing in it is served.
+ */
+public class BatchPathHandler extends StreamingPathHandler {
+    private static final String TAG = "BatchPathHandler";
+
+    public static final int DEFAULT_MAX_RESOURCES = 256;
+    private static final int FAILED = 0xffffffff;
+
+    private static final String LOADER = "(function () {\n"
+            + "  function fetchBatch(batchUrl, urls) {\n"
+            + "    var query = urls.map(function (url) { return 'u=' + encodeURIComponent(url); }).join('&');\n"
+            + "    return fetch(batchUrl + (batchUrl.indexOf('?') < 0 ? '?' : '&') + query).then(function (response) {\n"
+            + "      if (!response.ok) throw new Error('Batch failed with ' + response.status);\n"
+            + "      return response.arrayBuffer();\n"
+            + "    }).then(function (buffer) {\n"
+            + "      var view = new DataView(buffer), offset = 0, responses = [], decoder = new TextDecoder();\n"
+            + "      while (offset < buffer.byteLength) {\n"
+            + "        var status = view.getUint16(offset), typeLength = view.getUint16(offset + 2);\n"
+            + "        var type = decoder.decode(new Uint8Array(buffer, offset + 4, typeLength));\n"
+            + "        var parts = [], length;\n"
+            + "        offset += 4 + typeLength;\n"
+            + "        while ((length = view.getUint32(offset)) !== 0 && length !== 0xffffffff) {\n"
+            + "          parts.push(new Uint8Array(buffer, offset + 4, length));\n"
+            + "          offset += 4 + length;\n"
+            + "        }\n"
+            + "        offset += 4;\n"
+            + "        responses.push(length !== 0 ? Response.error() : new Response(new Blob(parts, {type: type}),\n"
+            + "            {status: status, headers: {'Content-Type': type}}));\n"
+            + "      }\n"
+            + "      return responses;\n"
+            + "    });\n"
+            + "  }\n"
+            + "  window.fetchBatch = fetchBatch;\n"
+            + "})();\n";
+
+    private final WebViewLocalServer mServer;
+    private final int mMaxResources;
+
+    public BatchPathHandler(WebViewLocalServer server) {
+        this(server, DEFAULT_MAX_RESOURCES);
+    }
+
+    /**
+     * @param server       resolves the listed urls to their handlers
+     * @param maxResources the most urls one request can list
+     */
+    public BatchPathHandler(WebViewLocalServer server, int maxResources) {
+        super("application/octet-stream");
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+        mServer = server;
+        mMaxResources = maxResources;
+    }
+
+    /**
+     * @return the script defining <code>fetchBatch(batchUrl, urls)</code>
+     */
+    public static String getLoaderScript() {
+        return LOADER;
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        if (isLoader(url)) {
+            try {
+                return new ByteArrayInputStream(LOADER.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return super.handle(url);
+    }
+
+    /**
+     * Refuses batches {@link #produce} would not serve, before any of the body is streamed.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public WebResourceResponse respond(WebResourceRequest request) {
+        Uri url = request.getUrl();
+        String error = isLoader(url) ? null : check(url);
+        if (error == null) return null;
+        Log.w(TAG, error);
+        try {
+            return new WebResourceResponse("text/plain", "UTF-8", 400, "Bad Request",
+                    new HashMap<String, String>(), new ByteArrayInputStream(error.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return why the batch at <code>url</code> cannot be served, null if it can
+     */
+    private String check(Uri url) {
+        List<String> targets = url.getQueryParameters("u");
+        if (targets.size() > mMaxResources) {
+            return "Batch lists " + targets.size() + " urls, at most " + mMaxResources + " are served";
+        }
+        for (String target : targets) {
+            if (resolve(url, target) == null) return "Batch lists " + target + ", which is on another origin";
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>target</code> resolved against the batch at <code>url</code>, null if it
+     * is on another origin
+     */
+    private static Uri resolve(Uri url, String target) {
+        if (target.startsWith("/")) {
+            return Uri.parse(url.getScheme() + "://" + url.getEncodedAuthority() + target);
+        }
+        Uri targetUrl = Uri.parse(target);
+        return url.getScheme().equalsIgnoreCase(targetUrl.getScheme())
+                && url.getEncodedAuthority().equalsIgnoreCase(targetUrl.getEncodedAuthority()) ? targetUrl : null;
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        return isLoader(url) ? "text/javascript" : getMimeType();
+    }
+
+    private static boolean isLoader(Uri url) {
+        return "loader.js".equals(url.getLastPathSegment());
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.N)
+    protected void produce(Uri url, StreamChannel.Writer writer) throws IOException {
+        // Checked again for requests that did not go through respond().
+        String error = check(url);
+        if (error != null) throw new IOException(error);
+
+        DataOutputStream out = new DataOutputStream(writer);
+        byte[] buffer = new byte[8 * 1024];
+        for (String target : url.getQueryParameters("u")) {
+            Uri targetUrl = resolve(url, target);
+            WebResourceResponse response = mServer.getHandler(targetUrl) instanceof BatchPathHandler
+                    ? null : mServer.shouldInterceptRequest(new BatchedRequest(targetUrl));
+            InputStream body = response == null ? null : response.getData();
+            if (body == null) {
+                writeHeader(out, response == null ? 404 : response.getStatusCode(),
+                        response == null || response.getMimeType() == null ? "text/plain" : response.getMimeType());
+                out.writeInt(0);
+                continue;
+            }
+            writeHeader(out, response.getStatusCode() <= 0 ? 200 : response.getStatusCode(),
+                    response.getMimeType() == null ? "application/octet-stream" : response.getMimeType());
+            try {
+                int count;
+                while ((count = body.read(buffer)) != -1) {
+                    if (count == 0) continue;
+                    out.writeInt(count);
+                    out.write(buffer, 0, count);
+                }
+                out.writeInt(0);
+            } catch (StreamChannel.CancelledException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read " + targetUrl + " into a batch", e);
+                out.writeInt(FAILED);
+            } finally {
+                try {
+                    body.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, int status, String mimeType) throws IOException {
+        byte[] type = mimeType.getBytes("UTF-8");
+        out.writeShort(status);
+        out.writeShort(type.length);
+        out.write(type);
+    }
+
+    /**
+     * One url of a batch, requested the way <code>fetch()</code> would request it.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static class BatchedRequest implements WebResourceRequest {
+        private final Uri mUrl;
+
+        BatchedRequest(Uri url) {
+            mUrl = url;
+        }
+
+        @Override
+        public Uri getUrl() {
+            return mUrl;
+        }
+
+        @Override
+        public boolean isForMainFrame() {
+            return false;
+        }
+
+        @Override
+        public boolean isRedirect() {
+            return false;
+        }
+
+        @Override
+        public boolean hasGesture() {
+            return false;
+        }
+
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public Map<String, String> getRequestHeaders() {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.mtsdealersolutions.webview_local_server.body;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A {@link WebViewLocalServer.PathHandler} that only produces {@link ResponseBody}s. Callers
+ * that need a stream, such as the <code>shouldInterceptRequest(String)</code> variant, get the
+ * opened body from {@link #handle(Uri)}.
+ */
+public abstract class BodyPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "BodyPathHandler";
+
+    public BodyPathHandler() {
+    }
+
+    public BodyPathHandler(String mimeType, String encoding, String charset, int statusCode,
+                           String reasonPhrase, Map<String, String> responseHeaders) {
+        super(mimeType, encoding, charset, statusCode, reasonPhrase, responseHeaders);
+    }
+
+    /**
+     * @return the body of <code>url</code>, null if there is none
+     */
+    @Override
+    public abstract ResponseBody handleBody(Uri url);
+
+    @Override
+    public InputStream handle(Uri url) {
+        ResponseBody body = handleBody(url);
+        if (body == null) return null;
+        try {
+            return body.openStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open the body of " + url, e);
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.mtsdealersolutions.webview_local_server.body;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of an open file with positional reads, so the descriptor's own position is
+ * left alone and other ranges of it can be read at the same time. Closing the stream does not
+ * close the descriptor.
+ */
+class FileRangeInputStream extends InputStream {
+    private final FileChannel mChannel;
+    private final long mEnd;
+    private long mPosition;
+
+    FileRangeInputStream(FileDescriptor fd, long offset, long length) {
+        // Not closed: a stream made from a descriptor does not own it.
+        mChannel = new FileInputStream(fd).getChannel();
+        mPosition = offset;
+        mEnd = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (mPosition >= mEnd) return -1;
+        int count = mChannel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, mEnd - mPosition)), mPosition);
+        if (count == -1) {
+            // The file is shorter than the range.
+            mPosition = mEnd;
+            return -1;
+        }
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long count = Math.max(0, Math.min(n, mEnd - mPosition));
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition);
+    }
+}
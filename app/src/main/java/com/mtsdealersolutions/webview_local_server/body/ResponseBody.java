@@ -0,0 +1,207 @@
+package com.mtsdealersolutions.webview_local_server.body;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A response body that knows its length and how it is stored, returned by
+ * {@link com.mtsdealersolutions.webview_local_server.WebViewLocalServer.PathHandler#handleBody}.
+ * The server sets Content-Length from {@link #getLength()} and serves bodies held in memory
+ * straight from the bytes, without the lazy stream bodies read from files or handlers need.
+ * <p>
+ * Variants:
+ * <ul>
+ *     <li>{@link #of(byte[])}: bytes in memory.</li>
+ *     <li>{@link #of(ByteBuffer)}: the remaining bytes of a buffer, for example a mapped file.</li>
+ *     <li>{@link #of(FileDescriptor, long, long, Closeable)}: a range of an open file, read with
+ *     positional reads so one descriptor can serve several bodies at once.</li>
+ *     <li>{@link #of(File)}: a whole file, opened when the body is read.</li>
+ *     <li>{@link #of(InputStream, long)}: any stream, with its length if known.</li>
+ * </ul>
+ * A body is opened at most once. Closing it releases what it holds if it was never opened.
+ */
+public abstract class ResponseBody implements Closeable {
+
+    public static final long UNKNOWN_LENGTH = -1;
+
+    /**
+     * @return the number of bytes of the body, {@link #UNKNOWN_LENGTH} if not known up front
+     */
+    public abstract long getLength();
+
+    /**
+     * @return the body's bytes, closing the stream closes the body
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * @return whether the bytes are already in memory, so opening the body costs nothing and
+     * there is nothing to release
+     */
+    public boolean isInMemory() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public static ResponseBody of(byte[] bytes) {
+        return of(bytes, 0, bytes.length);
+    }
+
+    public static ResponseBody of(final byte[] bytes, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException("offset " + offset + " and length " + length
+                    + " out of " + bytes.length + " bytes");
+        return new ResponseBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes, offset, length);
+            }
+
+            @Override
+            public boolean isInMemory() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param buffer the body is the bytes between its position and limit, the buffer itself is
+     *               not changed
+     */
+    public static ResponseBody of(ByteBuffer buffer) {
+        final ByteBuffer body = buffer.duplicate();
+        return new ResponseBody() {
+            @Override
+            public long getLength() {
+                return body.remaining();
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteBufferInputStream(body.duplicate());
+            }
+
+            @Override
+            public boolean isInMemory() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param fd     an open file, its position is not used or changed
+     * @param offset where the body starts in the file
+     * @param length the number of bytes of the body
+     * @param owner  closed with the body, this is what closes <code>fd</code>. Null to leave
+     *               <code>fd</code> open
+     */
+    public static ResponseBody of(final FileDescriptor fd, final long offset, final long length,
+                                  final Closeable owner) {
+        if (fd == null)
+            throw new IllegalArgumentException("fd cannot be null");
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("offset and length cannot be negative");
+        return new ResponseBody() {
+            private boolean mClosed;
+
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new FileRangeInputStream(fd, offset, length) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            closeOwner();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                closeOwner();
+            }
+
+            private void closeOwner() throws IOException {
+                synchronized (this) {
+                    // Closed by the stream and again by the server.
+                    if (mClosed) return;
+                    mClosed = true;
+                }
+                if (owner != null) owner.close();
+            }
+        };
+    }
+
+    /**
+     * A range of a file the body owns, it is closed with the body.
+     */
+    public static ResponseBody of(ParcelFileDescriptor pfd, long offset, long length) {
+        return of(pfd.getFileDescriptor(), offset, length, pfd);
+    }
+
+    /**
+     * @param file read when the body is opened, its length is taken now
+     */
+    public static ResponseBody of(final File file) {
+        final long length = file.length();
+        return new ResponseBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * @param length the number of bytes <code>stream</code> has, {@link #UNKNOWN_LENGTH} if not
+     *               known
+     */
+    public static ResponseBody of(final InputStream stream, final long length) {
+        if (stream == null)
+            throw new IllegalArgumentException("stream cannot be null");
+        return new ResponseBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return stream;
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,233 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The version of a content bundle and the size and SHA-256 of every file in it.
+ * <p>
+ * Format, all big endian:
+ * <pre>
+ *     int    magic 0x5756424d
+ *     int    format version
+ *     UTF    bundle version
+ *     int    entry count, then for each entry:
+ *            UTF    path relative to the bundle root
+ *            long   size in bytes
+ *            32     SHA-256 of the content
+ * </pre>
+ */
+public class BundleManifest {
+
+    private static final int MAGIC = 0x5756424d;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+
+    private final String mVersion;
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    public BundleManifest(String version, Map<String, Entry> entries) {
+        if (version == null || version.isEmpty() || version.contains("/") || version.startsWith("."))
+            throw new IllegalArgumentException("Invalid bundle version " + version);
+        mVersion = version;
+        mEntries = new LinkedHashMap<>(entries);
+    }
+
+    /**
+     * Hashes every file under <code>directory</code>, to publish it as a bundle.
+     */
+    public static BundleManifest of(String version, File directory) throws IOException {
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        addFiles(directory, "", entries);
+        return new BundleManifest(version, entries);
+    }
+
+    private static void addFiles(File directory, String prefix, Map<String, Entry> entries) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) throw new IOException("Unable to list " + directory);
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                addFiles(file, path + "/", entries);
+            } else {
+                entries.put(path, new Entry(path, file.length(), hash(file)));
+            }
+        }
+    }
+
+    /**
+     * Reads a manifest. The stream is closed.
+     */
+    public static BundleManifest read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a bundle manifest");
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION)
+                throw new IOException("Unsupported bundle manifest version " + formatVersion);
+            String version = in.readUTF();
+            int count = in.readInt();
+            LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                byte[] hash = new byte[HASH_LENGTH];
+                in.readFully(hash);
+                entries.put(path, new Entry(path, size, hash));
+            }
+            return new BundleManifest(version, entries);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the manifest. The stream is closed.
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(mVersion);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                out.writeUTF(entry.mPath);
+                out.writeLong(entry.mSize);
+                out.write(entry.mHash);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public String getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @param path the path of the file relative to the bundle root
+     * @return the file's entry, or null if there is no such file
+     */
+    public Entry get(String path) {
+        while (path.startsWith("/")) path = path.substring(1);
+        return mEntries.get(path);
+    }
+
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return the SHA-256 of the content of <code>file</code>
+     */
+    public static byte[] hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    public static class Entry {
+        private final String mPath;
+        private final long mSize;
+        private final byte[] mHash;
+
+        public Entry(String path, long size, byte[] hash) {
+            if (!isValidPath(path))
+                throw new IllegalArgumentException("Invalid bundle path " + path);
+            if (hash.length != HASH_LENGTH)
+                throw new IllegalArgumentException("hash must be a SHA-256");
+            mPath = path;
+            mSize = size;
+            mHash = hash.clone();
+        }
+
+        /**
+         * Paths come from the update server, they must not point outside the bundle.
+         */
+        private static boolean isValidPath(String path) {
+            if (path.isEmpty() || path.indexOf('\\') != -1) return false;
+            for (String segment : path.split("/", -1)) {
+                if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) return false;
+            }
+            return true;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public byte[] getHash() {
+            return mHash.clone();
+        }
+
+        /**
+         * @return the SHA-256 in lower case hex, which names the file on the update server
+         */
+        public String getHashHex() {
+            return toHex(mHash);
+        }
+
+        /**
+         * @return whether <code>other</code> has the same content
+         */
+        public boolean hasSameContent(Entry other) {
+            return mSize == other.mSize && Arrays.equals(mHash, other.mHash);
+        }
+
+        boolean matches(byte[] hash, long size) {
+            return mSize == size && Arrays.equals(mHash, hash);
+        }
+    }
+}
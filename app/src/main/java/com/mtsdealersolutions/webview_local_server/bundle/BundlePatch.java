@@ -0,0 +1,201 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+/**
+ * Binary delta patches between two versions of a file, so an update only downloads what
+ * changed in it.
+ * <p>
+ * A patch rebuilds the new file from ranges copied out of the old file and bytes added as they
+ * are. Format, all big endian:
+ * <pre>
+ *     int    magic 0x57564450
+ *     long   size of the old file
+ *     long   size of the new file
+ *     then instructions until END:
+ *            byte 1 COPY, long offset in the old file, int length
+ *            byte 2 ADD, int length, the bytes
+ *            byte 0 END
+ * </pre>
+ * {@link #diff} finds copies by hashing the old file in {@value #BLOCK_SIZE} byte blocks and
+ * looking up a rolling hash of every position of the new file, like rsync. It reads both files
+ * into memory and is meant for publishing updates, not for running on the device.
+ */
+public class BundlePatch {
+
+    public static final int BLOCK_SIZE = 32;
+
+    private static final int MAGIC = 0x57564450;
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int ADD = 2;
+    private static final int MOD = 1 << 16;
+
+    private BundlePatch() {
+    }
+
+    /**
+     * Writes the patch that turns <code>oldBytes</code> into <code>newBytes</code>. The stream
+     * is closed.
+     */
+    public static void diff(byte[] oldBytes, byte[] newBytes, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(oldBytes.length);
+            out.writeLong(newBytes.length);
+
+            // First offset of every block of the old file, by weak hash.
+            HashMap<Integer, Integer> blocks = new HashMap<>();
+            for (int offset = 0; offset + BLOCK_SIZE <= oldBytes.length; offset += BLOCK_SIZE) {
+                Integer hash = weakHash(oldBytes, offset);
+                if (!blocks.containsKey(hash)) blocks.put(hash, offset);
+            }
+
+            int added = 0;
+            int position = 0;
+            int a = 0;
+            int b = 0;
+            boolean rolling = false;
+            while (position + BLOCK_SIZE <= newBytes.length) {
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        a += newBytes[position + i] & 0xff;
+                        b += (BLOCK_SIZE - i) * (newBytes[position + i] & 0xff);
+                    }
+                    a %= MOD;
+                    b %= MOD;
+                    rolling = true;
+                }
+                Integer match = blocks.get(b * MOD + a);
+                if (match != null && regionMatches(oldBytes, match, newBytes, position, BLOCK_SIZE)) {
+                    // Grow the match both ways, backwards into bytes not written yet.
+                    int start = match;
+                    int newStart = position;
+                    while (start > 0 && newStart > added && oldBytes[start - 1] == newBytes[newStart - 1]) {
+                        start--;
+                        newStart--;
+                    }
+                    int length = position - newStart + BLOCK_SIZE;
+                    while (start + length < oldBytes.length && newStart + length < newBytes.length
+                            && oldBytes[start + length] == newBytes[newStart + length]) {
+                        length++;
+                    }
+                    writeAdd(out, newBytes, added, newStart - added);
+                    out.writeByte(COPY);
+                    out.writeLong(start);
+                    out.writeInt(length);
+                    position = newStart + length;
+                    added = position;
+                    rolling = false;
+                    continue;
+                }
+                if (position + BLOCK_SIZE < newBytes.length) {
+                    int out0 = newBytes[position] & 0xff;
+                    int in = newBytes[position + BLOCK_SIZE] & 0xff;
+                    a = ((a - out0 + in) % MOD + MOD) % MOD;
+                    b = ((b - BLOCK_SIZE * out0 + a) % MOD + MOD) % MOD;
+                }
+                position++;
+            }
+            writeAdd(out, newBytes, added, newBytes.length - added);
+            out.writeByte(END);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int weakHash(byte[] bytes, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            a += bytes[offset + i] & 0xff;
+            b += (BLOCK_SIZE - i) * (bytes[offset + i] & 0xff);
+        }
+        return (b % MOD) * MOD + a % MOD;
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) return false;
+        }
+        return true;
+    }
+
+    private static void writeAdd(DataOutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return;
+        out.writeByte(ADD);
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * Rebuilds the new file from <code>oldFile</code> and <code>patch</code>. Both streams are
+     * closed.
+     *
+     * @throws IOException if the patch is malformed or was made from another old file
+     */
+    public static void apply(File oldFile, InputStream patch, OutputStream stream) throws IOException {
+        RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(patch));
+        OutputStream out = new BufferedOutputStream(stream);
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a bundle patch");
+            long oldSize = in.readLong();
+            long newSize = in.readLong();
+            if (oldSize != old.length()) throw new IOException("Patch was made for another file");
+
+            byte[] buffer = new byte[16 * 1024];
+            long written = 0;
+            int op;
+            while ((op = in.readByte()) != END) {
+                if (op == COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > oldSize)
+                        throw new IOException("Patch copies outside the old file");
+                    old.seek(offset);
+                    for (int remaining = length; remaining > 0; ) {
+                        int count = Math.min(remaining, buffer.length);
+                        old.readFully(buffer, 0, count);
+                        out.write(buffer, 0, count);
+                        remaining -= count;
+                    }
+                    written += length;
+                } else if (op == ADD) {
+                    int length = in.readInt();
+                    if (length < 0) throw new IOException("Malformed patch");
+                    for (int remaining = length; remaining > 0; ) {
+                        int count = Math.min(remaining, buffer.length);
+                        in.readFully(buffer, 0, count);
+                        out.write(buffer, 0, count);
+                        remaining -= count;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException("Malformed patch");
+                }
+                if (written > newSize) throw new IOException("Patch writes past the new size");
+            }
+            if (written != newSize) throw new IOException("Patch is incomplete");
+        } finally {
+            try {
+                out.close();
+            } finally {
+                in.close();
+                old.close();
+            }
+        }
+    }
+}
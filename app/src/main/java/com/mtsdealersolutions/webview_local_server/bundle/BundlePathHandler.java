@@ -0,0 +1,119 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.BodyPathHandler;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves the live version of a {@link BundleStore}.
+ * <p>
+ * <code>http(s)://{domain}/{virtualPath}/{path}</code> is served from the bundle's
+ * <code>{path}</code>, <code>index.html</code> for directories. Each request holds the version
+ * that was live when it arrived until its body is closed, so a page keeps loading a consistent
+ * version while an update is installed and the old files are only deleted once nothing reads
+ * them. Until a bundle is installed requests go to the fallback handler, for example the
+ * packaged assets the app shipped with.
+ */
+public class BundlePathHandler extends BodyPathHandler {
+    private static final String TAG = "BundlePathHandler";
+
+    private final BundleStore mStore;
+    private final String mUrlVirtualPath;
+    private final WebViewLocalServer.PathHandler mFallback;
+
+    /**
+     * @param store          the bundles to serve
+     * @param urlVirtualPath the virtual path of the host, removed from urls before mapping
+     * @param fallback       serves requests while no bundle is installed, null for none
+     */
+    public BundlePathHandler(BundleStore store, String urlVirtualPath, WebViewLocalServer.PathHandler fallback) {
+        if (store == null)
+            throw new IllegalArgumentException("store cannot be null");
+        mStore = store;
+        mUrlVirtualPath = urlVirtualPath == null ? "" : urlVirtualPath;
+        mFallback = fallback;
+    }
+
+    /**
+     * Maps a requested url to a path in the bundle.
+     */
+    protected String getBundlePath(Uri url) {
+        String path = url.getPath() == null ? "" : url.getPath();
+        while (path.startsWith("/")) path = path.substring(1);
+        if (mUrlVirtualPath.length() > 0 && path.startsWith(mUrlVirtualPath)) {
+            path = path.substring(mUrlVirtualPath.length());
+            while (path.startsWith("/")) path = path.substring(1);
+        }
+        if (path.isEmpty() || path.endsWith("/")) path += "index.html";
+        return path;
+    }
+
+    @Override
+    public ResponseBody handleBody(Uri url) {
+        final BundleStore.Lease lease = mStore.acquire();
+        if (lease == null) return mFallback == null ? null : mFallback.handleBody(url);
+
+        BundleStore.Version version = lease.getVersion();
+        final FileInputStream in;
+        try {
+            BundleManifest.Entry entry = version.getManifest().get(getBundlePath(url));
+            if (entry == null) {
+                lease.close();
+                return null;
+            }
+            in = new FileInputStream(version.getFile(entry.getPath()));
+            return ResponseBody.of(in.getFD(), 0, entry.getSize(), new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        in.close();
+                    } finally {
+                        lease.close();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open " + url + " in bundle " + version.getVersion(), e);
+            lease.close();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isKnownMissing(Uri url) {
+        BundleStore.Lease lease = mStore.acquire();
+        if (lease == null) return mFallback != null && mFallback.isKnownMissing(url);
+        try {
+            return lease.getVersion().getManifest().get(getBundlePath(url)) == null;
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Serves the fallback's stream while no bundle is installed.
+     */
+    @Override
+    public InputStream handle(Uri url) {
+        if (mFallback != null && mStore.getCurrentVersion() == null) return mFallback.handle(url);
+        return super.handle(url);
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        if (mFallback != null && mStore.getCurrentVersion() == null) return mFallback.getMimeType(url);
+        return super.getMimeType(url);
+    }
+
+    public BundleStore getStore() {
+        return mStore;
+    }
+}
@@ -0,0 +1,118 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes releases in the layout {@link BundleSource} describes, for the update server or for a
+ * local directory standing in for it. Runs on any JVM:
+ * <pre>
+ *     BundlePublisher publisher = new BundlePublisher(releaseDirectory);
+ *     publisher.publish("42", new File("build/web/42"), new File("build/web/41"));
+ * </pre>
+ * Files are stored once per content. A patch is written from each previous version's copy of a
+ * changed file when it is notably smaller than the file. <code>latest</code> is replaced last,
+ * so clients never see a version whose files are not all published.
+ */
+public class BundlePublisher {
+
+    // A patch is only worth it when it saves at least a quarter of the download.
+    private static final int MAX_PATCH_PERCENT = 75;
+
+    private final File mDirectory;
+
+    public BundlePublisher(File releaseDirectory) {
+        if (releaseDirectory == null)
+            throw new IllegalArgumentException("releaseDirectory cannot be null");
+        mDirectory = releaseDirectory;
+    }
+
+    /**
+     * Publishes <code>content</code> as <code>version</code> and makes it the latest version.
+     *
+     * @param previous the content of versions clients may be updating from, to write patches
+     * @return the manifest of the version
+     */
+    public BundleManifest publish(String version, File content, File... previous) throws IOException {
+        BundleManifest manifest = BundleManifest.of(version, content);
+        File files = mkdirs(new File(mDirectory, "files"));
+        File patches = mkdirs(new File(mDirectory, "patches"));
+
+        for (String path : manifest.getPaths()) {
+            BundleManifest.Entry entry = manifest.get(path);
+            File file = new File(content, path);
+            File stored = new File(files, entry.getHashHex());
+            if (!stored.exists()) copy(new FileInputStream(file), stored);
+
+            for (File previousContent : previous) {
+                File previousFile = new File(previousContent, path);
+                if (!previousFile.isFile()) continue;
+                String from = BundleManifest.toHex(BundleManifest.hash(previousFile));
+                if (from.equals(entry.getHashHex())) continue;
+                File patch = new File(patches, from + "-" + entry.getHashHex());
+                if (patch.exists()) continue;
+
+                ByteArrayOutputStream diff = new ByteArrayOutputStream();
+                BundlePatch.diff(readFully(previousFile), readFully(file), diff);
+                if (diff.size() * 100L <= file.length() * MAX_PATCH_PERCENT) {
+                    OutputStream out = new FileOutputStream(patch);
+                    try {
+                        diff.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                }
+            }
+        }
+
+        manifest.write(new FileOutputStream(new File(mkdirs(new File(mDirectory, version)), BundleStore.MANIFEST)));
+        File tmp = new File(mDirectory, "latest.tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(version.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(mDirectory, "latest"))) throw new IOException("Unable to publish " + version);
+        return manifest;
+    }
+
+    private static File mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Unable to create " + directory);
+        return directory;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+        copy(new FileInputStream(file), bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void copy(InputStream in, File target) throws IOException {
+        copy(in, new FileOutputStream(target));
+    }
+
+    /**
+     * Both streams are closed.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            try {
+                out.close();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where {@link BundleUpdater} downloads bundles from. A release is laid out as:
+ * <pre>
+ *     latest                      the version to run, as UTF-8 text
+ *     {version}/manifest.bin      the {@link BundleManifest} of the version
+ *     files/{sha256}              the content of a file, named by its hash
+ *     patches/{sha256}-{sha256}   a {@link BundlePatch} from one content to another
+ * </pre>
+ * {@link BundlePublisher} writes this layout. Serve it over http(s) with
+ * {@link HttpBundleSource}, or from a local directory with {@link DirectoryBundleSource}.
+ */
+public interface BundleSource {
+
+    /**
+     * @param path a path of the layout above
+     * @return the content at <code>path</code>
+     * @throws java.io.FileNotFoundException if there is nothing at <code>path</code>
+     */
+    InputStream open(String path) throws IOException;
+}
@@ -0,0 +1,349 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The content bundles installed in app storage, and which one is live.
+ * <p>
+ * Layout under the root directory:
+ * <pre>
+ *     current                        the directory name of the live version
+ *     versions/{name}/manifest.bin   the version's {@link BundleManifest}
+ *     versions/{name}/content/...    the version's files
+ *     staging/...                    updates being downloaded
+ * </pre>
+ * Installing a version syncs its files and directories to disk, renames its complete staging
+ * directory into <code>versions</code> and then replaces <code>current</code> by renaming a new
+ * file over it, so after a crash or power loss either the old or the new version is live, never
+ * a mix. Opening the store checks the sizes of the live version's files against its manifest and
+ * drops a version that does not match. In memory, requests {@link #acquire()} a lease on the
+ * live version and close it when their body is closed: requests that started before a switch
+ * keep reading the old version, which is deleted once the last of them is done.
+ * <p>
+ * A store must only be used by one process.
+ */
+public class BundleStore {
+    private static final String TAG = "BundleStore";
+
+    private static final String CURRENT = "current";
+    private static final String VERSIONS = "versions";
+    private static final String STAGING = "staging";
+    static final String MANIFEST = "manifest.bin";
+    static final String CONTENT = "content";
+
+    private final File mRoot;
+    private final AtomicInteger mDraining = new AtomicInteger();
+    private volatile Version mCurrent;
+    private volatile boolean mLoaded;
+
+    public BundleStore(File root) {
+        if (root == null)
+            throw new IllegalArgumentException("root cannot be null");
+        mRoot = root;
+    }
+
+    /**
+     * Creates a store in the app's files directory.
+     */
+    public static BundleStore forContext(Context context) {
+        return new BundleStore(new File(context.getFilesDir(), "webview_local_server_bundles"));
+    }
+
+    /**
+     * Takes a reference on the live version. Close the lease when done with it.
+     *
+     * @return a lease on the live version, or null if none is installed
+     */
+    public Lease acquire() {
+        ensureLoaded();
+        while (true) {
+            Version version = mCurrent;
+            if (version == null) return null;
+            // Fails only if the version was switched away from and drained meanwhile.
+            if (version.retain()) return new Lease(version);
+        }
+    }
+
+    /**
+     * @return the version name of the live bundle, or null if none is installed
+     */
+    public String getCurrentVersion() {
+        ensureLoaded();
+        Version version = mCurrent;
+        return version == null ? null : version.getVersion();
+    }
+
+    /**
+     * @return the number of old versions still read by requests that started before a switch
+     */
+    public int getDrainingCount() {
+        return mDraining.get();
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @return a new empty directory to download a version into
+     */
+    File createStagingDirectory() throws IOException {
+        File staging = new File(new File(mRoot, STAGING), Long.toString(System.nanoTime()));
+        if (!staging.mkdirs()) throw new IOException("Unable to create " + staging);
+        return staging;
+    }
+
+    /**
+     * Makes the downloaded version in <code>staging</code> live. Every file of
+     * <code>manifest</code> must be in <code>staging/content</code> and have been verified.
+     */
+    synchronized void install(File staging, BundleManifest manifest) throws IOException {
+        ensureLoaded();
+        // Renames are only durable once what they point to is, so everything reaches the disk
+        // before the switch.
+        LinkedHashSet<File> directories = new LinkedHashSet<>();
+        for (String path : manifest.getPaths()) {
+            File file = new File(new File(staging, CONTENT), path);
+            if (file.length() != manifest.get(path).getSize() || !file.isFile())
+                throw new IOException("Staged bundle is missing " + path);
+            syncFile(file);
+            for (File parent = file.getParentFile(); !parent.equals(staging); parent = parent.getParentFile()) {
+                directories.add(parent);
+            }
+        }
+        manifest.write(new FileOutputStream(new File(staging, MANIFEST)));
+        syncFile(new File(staging, MANIFEST));
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+        syncDirectory(staging);
+
+        File versions = new File(mRoot, VERSIONS);
+        if (!versions.isDirectory() && !versions.mkdirs()) throw new IOException("Unable to create " + versions);
+        // Unique, so a version can be reinstalled while an older copy of it still drains.
+        String name = manifest.getVersion() + "." + System.currentTimeMillis();
+        File directory = new File(versions, name);
+        if (!staging.renameTo(directory)) throw new IOException("Unable to move " + staging + " to " + directory);
+        syncDirectory(versions);
+
+        writeCurrent(name);
+        Version previous = mCurrent;
+        mCurrent = new Version(directory, manifest);
+        if (previous != null) {
+            mDraining.incrementAndGet();
+            previous.release();
+        }
+    }
+
+    private void writeCurrent(String name) throws IOException {
+        File tmp = new File(mRoot, CURRENT + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(name.getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(mRoot, CURRENT))) throw new IOException("Unable to switch to " + name);
+        syncDirectory(mRoot);
+    }
+
+    private static void syncFile(File file) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Makes the entries of <code>directory</code>, new files and renames, durable. Before
+     * Lollipop a directory cannot be opened for this, and some file systems refuse to sync
+     * one; the journals of both commit within seconds, so a failure is only logged.
+     */
+    @TargetApi(21)
+    private static void syncDirectory(File directory) {
+        if (Build.VERSION.SDK_INT < 21) return;
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Unable to sync " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) return;
+        synchronized (this) {
+            if (mLoaded) return;
+            mCurrent = load();
+            mLoaded = true;
+        }
+    }
+
+    /**
+     * Opens the live version and deletes everything else: unfinished updates and versions
+     * left behind by a crash.
+     */
+    private Version load() {
+        deleteRecursively(new File(mRoot, STAGING));
+        String name = null;
+        Version version = null;
+        try {
+            name = readCurrent();
+            File directory = new File(new File(mRoot, VERSIONS), name);
+            version = new Version(directory, BundleManifest.read(new FileInputStream(new File(directory, MANIFEST))));
+            String damaged = findDamagedFile(version);
+            if (damaged != null) {
+                // Served until the next update otherwise, the fallback is better than a broken page.
+                Log.e(TAG, "Dropping the installed bundle " + name + ", " + damaged + " does not match its manifest");
+                version = null;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing installed yet.
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open the installed bundle " + name, e);
+        }
+        File[] versions = new File(mRoot, VERSIONS).listFiles();
+        if (versions != null) {
+            for (File directory : versions) {
+                if (version == null || !directory.equals(version.mDirectory)) deleteRecursively(directory);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Checks sizes only, hashing every file would hold up the first request for long.
+     *
+     * @return the path of a file missing or of another size than the manifest says, null if none
+     */
+    private static String findDamagedFile(Version version) {
+        for (String path : version.mManifest.getPaths()) {
+            File file = version.getFile(path);
+            if (!file.isFile() || file.length() != version.mManifest.get(path).getSize()) return path;
+        }
+        return null;
+    }
+
+    private String readCurrent() throws IOException {
+        InputStream in = new FileInputStream(new File(mRoot, CURRENT));
+        try {
+            byte[] buffer = new byte[256];
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+            }
+            return new String(buffer, 0, length, "UTF-8").trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * An installed version of the bundle, readable until its last reference is released.
+     */
+    public class Version {
+        private final File mDirectory;
+        private final File mContent;
+        private final BundleManifest mManifest;
+        // The store holds one reference while the version is live.
+        private final AtomicInteger mReferences = new AtomicInteger(1);
+
+        Version(File directory, BundleManifest manifest) {
+            mDirectory = directory;
+            mContent = new File(directory, CONTENT);
+            mManifest = manifest;
+        }
+
+        public String getVersion() {
+            return mManifest.getVersion();
+        }
+
+        public BundleManifest getManifest() {
+            return mManifest;
+        }
+
+        /**
+         * @param path the path of the file relative to the bundle root
+         * @return the file, or null if the version has no such file
+         */
+        public File getFile(String path) {
+            BundleManifest.Entry entry = mManifest.get(path);
+            return entry == null ? null : new File(mContent, entry.getPath());
+        }
+
+        private boolean retain() {
+            while (true) {
+                int references = mReferences.get();
+                if (references == 0) return false;
+                if (mReferences.compareAndSet(references, references + 1)) return true;
+            }
+        }
+
+        private void release() {
+            if (mReferences.decrementAndGet() != 0) return;
+            // Switched away from and drained.
+            deleteRecursively(mDirectory);
+            mDraining.decrementAndGet();
+        }
+    }
+
+    /**
+     * A reference on a version taken with {@link BundleStore#acquire()}, the version stays
+     * readable until the lease is closed. Closing it more than once has no effect.
+     */
+    public class Lease implements Closeable {
+        private final Version mVersion;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+
+        Lease(Version version) {
+            mVersion = version;
+        }
+
+        public Version getVersion() {
+            if (mClosed.get()) throw new IllegalStateException("Lease on " + mVersion.getVersion() + " is closed");
+            return mVersion;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed.compareAndSet(false, true)) mVersion.release();
+        }
+    }
+}
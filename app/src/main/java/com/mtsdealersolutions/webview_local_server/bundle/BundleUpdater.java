@@ -0,0 +1,251 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+
+/**
+ * Downloads the latest version of a bundle from a {@link BundleSource} and installs it in a
+ * {@link BundleStore}, downloading as little as possible. For every file of the new version:
+ * <ol>
+ *     <li>a file with the same content in the live version is copied locally,</li>
+ *     <li>a changed file is rebuilt from the live version's copy and a {@link BundlePatch} if
+ *     the source has one,</li>
+ *     <li>otherwise the whole file is downloaded.</li>
+ * </ol>
+ * Every file is checked against the SHA-256 and size in the new version's manifest before the
+ * version is installed, a patched file that does not match is downloaded whole instead. The
+ * live version keeps being served until the new one is complete.
+ * <p>
+ * Updates run on the calling thread, call {@link #update()} off the main thread.
+ */
+public class BundleUpdater {
+    private static final String TAG = "BundleUpdater";
+
+    private final BundleStore mStore;
+    private final BundleSource mSource;
+
+    public BundleUpdater(BundleStore store, BundleSource source) {
+        if (store == null || source == null)
+            throw new IllegalArgumentException("store and source cannot be null");
+        mStore = store;
+        mSource = source;
+    }
+
+    /**
+     * Installs the source's latest version unless it is live already.
+     *
+     * @return what the update did, null if the latest version is live already
+     * @throws IOException if the update failed, the live version is left as it was
+     */
+    public synchronized Result update() throws IOException {
+        String latest = readLatest();
+        if (latest.equals(mStore.getCurrentVersion())) return null;
+        BundleManifest manifest = BundleManifest.read(mSource.open(latest + "/" + BundleStore.MANIFEST));
+        if (!latest.equals(manifest.getVersion()))
+            throw new IOException("Manifest of " + latest + " is for version " + manifest.getVersion());
+
+        Result result = new Result(latest);
+        File staging = mStore.createStagingDirectory();
+        BundleStore.Lease lease = mStore.acquire();
+        BundleStore.Version live = lease == null ? null : lease.getVersion();
+        try {
+            HashMap<String, BundleManifest.Entry> liveByHash = new HashMap<>();
+            if (live != null) {
+                for (String path : live.getManifest().getPaths()) {
+                    BundleManifest.Entry entry = live.getManifest().get(path);
+                    liveByHash.put(entry.getHashHex(), entry);
+                }
+            }
+            File content = new File(staging, BundleStore.CONTENT);
+            for (String path : manifest.getPaths()) {
+                BundleManifest.Entry entry = manifest.get(path);
+                File target = new File(content, path);
+                File parent = target.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("Unable to create " + parent);
+
+                BundleManifest.Entry same = liveByHash.get(entry.getHashHex());
+                if (same != null && copy(new FileInputStream(live.getFile(same.getPath())), target, entry)) {
+                    result.mReusedCount++;
+                    continue;
+                }
+                BundleManifest.Entry previous = live == null ? null : live.getManifest().get(path);
+                if (previous != null && patch(live.getFile(path), previous, entry, target, result)) {
+                    result.mPatchedCount++;
+                    continue;
+                }
+                CountingInputStream download = new CountingInputStream(mSource.open("files/" + entry.getHashHex()));
+                boolean verified = copy(download, target, entry);
+                result.mDownloadedBytes += download.mCount;
+                if (!verified) throw new IOException("Downloaded " + path + " does not match the manifest");
+                result.mDownloadedCount++;
+            }
+            mStore.install(staging, manifest);
+            return result;
+        } finally {
+            if (lease != null) lease.close();
+            // Gone after a successful install, left over after a failed one.
+            BundleStore.deleteRecursively(staging);
+        }
+    }
+
+    private String readLatest() throws IOException {
+        InputStream in = mSource.open("latest");
+        try {
+            byte[] buffer = new byte[256];
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+            }
+            String latest = new String(buffer, 0, length, "UTF-8").trim();
+            if (latest.isEmpty()) throw new IOException("Update server has no latest version");
+            return latest;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rebuilds <code>target</code> from the live file and the source's patch, if it has one.
+     *
+     * @return false if there was no patch or the result did not match the manifest
+     */
+    private boolean patch(File liveFile, BundleManifest.Entry from, BundleManifest.Entry to, File target, Result result)
+            throws IOException {
+        CountingInputStream patch;
+        try {
+            patch = new CountingInputStream(mSource.open("patches/" + from.getHashHex() + "-" + to.getHashHex()));
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        try {
+            BundlePatch.apply(liveFile, patch, new FileOutputStream(target));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to patch " + to.getPath() + ", downloading it", e);
+            return false;
+        } finally {
+            result.mDownloadedBytes += patch.mCount;
+        }
+        if (to.matches(BundleManifest.hash(target), target.length())) return true;
+        Log.w(TAG, "Patched " + to.getPath() + " does not match the manifest, downloading it");
+        return false;
+    }
+
+    /**
+     * Copies <code>in</code> to <code>target</code>, hashing it on the way. Stops reading as
+     * soon as the stream is longer than <code>entry</code>. The stream is closed.
+     *
+     * @return whether the copy matches <code>entry</code>
+     */
+    private static boolean copy(InputStream in, File target, BundleManifest.Entry entry) throws IOException {
+        MessageDigest digest = BundleManifest.newDigest();
+        long size = 0;
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            // One byte past the size is asked for, to tell a stream that goes on.
+            while ((count = in.read(buffer, 0, (int) Math.min(buffer.length, entry.getSize() - size + 1))) != -1) {
+                if (size + count > entry.getSize()) return false;
+                digest.update(buffer, 0, count);
+                out.write(buffer, 0, count);
+                size += count;
+            }
+        } finally {
+            try {
+                out.close();
+            } finally {
+                in.close();
+            }
+        }
+        return entry.matches(digest.digest(), size);
+    }
+
+    /**
+     * What an update did.
+     */
+    public static class Result {
+        private final String mVersion;
+        private long mDownloadedBytes;
+        private int mDownloadedCount;
+        private int mPatchedCount;
+        private int mReusedCount;
+
+        Result(String version) {
+            mVersion = version;
+        }
+
+        /**
+         * @return the version installed
+         */
+        public String getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * @return the bytes of files and patches downloaded, not counting the manifest
+         */
+        public long getDownloadedBytes() {
+            return mDownloadedBytes;
+        }
+
+        /**
+         * @return the files downloaded whole
+         */
+        public int getDownloadedCount() {
+            return mDownloadedCount;
+        }
+
+        /**
+         * @return the files rebuilt from a patch
+         */
+        public int getPatchedCount() {
+            return mPatchedCount;
+        }
+
+        /**
+         * @return the files copied from the live version
+         */
+        public int getReusedCount() {
+            return mReusedCount;
+        }
+
+        @Override
+        public String toString() {
+            return mVersion + ": " + mDownloadedBytes + " bytes downloaded, " + mDownloadedCount + " files downloaded, "
+                    + mPatchedCount + " patched, " + mReusedCount + " reused";
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) mCount += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads releases from a local directory, for example one written by {@link BundlePublisher}
+ * to stand in for the update server, or one pushed to the device for testing.
+ */
+public class DirectoryBundleSource implements BundleSource {
+
+    private final File mDirectory;
+
+    public DirectoryBundleSource(File directory) {
+        if (directory == null)
+            throw new IllegalArgumentException("directory cannot be null");
+        mDirectory = directory;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new FileInputStream(new File(mDirectory, path));
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+}
@@ -0,0 +1,65 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads releases over http(s) from <code>{baseUrl}/{path}</code>.
+ */
+public class HttpBundleSource implements BundleSource {
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+
+    private final String mBaseUrl;
+    private final int mTimeoutMillis;
+
+    public HttpBundleSource(String baseUrl) {
+        this(baseUrl, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param baseUrl       the url of the release layout, for example
+     *                      <code>https://updates.example.com/webapp</code>
+     * @param timeoutMillis the connect and read timeout
+     */
+    public HttpBundleSource(String baseUrl, int timeoutMillis) {
+        if (baseUrl == null)
+            throw new IllegalArgumentException("baseUrl cannot be null");
+        while (baseUrl.endsWith("/")) baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        mBaseUrl = baseUrl;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(mBaseUrl + "/" + path).openConnection();
+        connection.setConnectTimeout(mTimeoutMillis);
+        connection.setReadTimeout(mTimeoutMillis);
+        connection.setInstanceFollowRedirects(true);
+        connection.setUseCaches(false);
+        int statusCode = connection.getResponseCode();
+        if (statusCode != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            if (statusCode == HttpURLConnection.HTTP_NOT_FOUND) throw new FileNotFoundException(path);
+            throw new IOException("Update server answered " + statusCode + " for " + path);
+        }
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+
+    public String getBaseUrl() {
+        return mBaseUrl;
+    }
+}
@@ -0,0 +1,96 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Copies a body into a cache entry while the WebView reads it, committing the entry once the
+ * body was read to the end. Closing it early or failing to read discards the entry.
+ */
+public class CachingInputStream extends FilterInputStream {
+    private static final String TAG = "CachingInputStream";
+
+    private final DiskCache.Editor mEditor;
+    private final long mMaxLength;
+    private long mLength;
+    private boolean mDone;
+
+    /**
+     * @param in        the body to copy
+     * @param editor    the entry to write, committed at the end of <code>in</code>
+     * @param maxLength bodies longer than this are streamed but not cached
+     */
+    public CachingInputStream(InputStream in, DiskCache.Editor editor, long maxLength) {
+        super(in);
+        mEditor = editor;
+        mMaxLength = maxLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count;
+        try {
+            count = in.read(b, off, len);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        if (mDone) return count;
+        if (count == -1) {
+            mDone = true;
+            try {
+                mEditor.commit();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to commit cache entry: " + e.getMessage());
+            }
+            return count;
+        }
+        mLength += count;
+        if (mLength > mMaxLength) {
+            // Too large to be worth caching, keep streaming.
+            abort();
+            return count;
+        }
+        try {
+            mEditor.getOutputStream().write(b, off, count);
+        } catch (IOException e) {
+            abort();
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would be missing from the entry.
+        abort();
+        return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        abort();
+        super.close();
+    }
+
+    private void abort() {
+        if (!mDone) {
+            mDone = true;
+            mEditor.abort();
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size bounded, least recently used cache of entries on disk.
+ * <p>
+ * Each entry is one file holding a small metadata block followed by the body. Entries are
+ * written to a temporary file and renamed into place when committed, so a reader never sees a
+ * half written entry and a crash leaves at most an orphaned temporary file behind.
+ * <p>
+ * The set of entries and their use order is kept in an append-only journal:
+ * <pre>
+ *     webview_local_server.DiskCache
+ *     1
+ *     {appVersion}
+ *
+ *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6a1b2c3d4 1457
+ *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6a1b2c3d4
+ *     REMOVE 3400330d1dfc7f3f7f4b8d4d803dfcf6a1b2c3d4
+ * </pre>
+ * The journal is replayed when the cache opens and compacted once it holds many redundant
+ * lines. A torn last line (the process died while appending) is dropped. Changing the app
+ * version discards the whole cache.
+ * <p>
+ * A directory is owned by one cache at a time: opening the same directory again in the process
+ * returns the cache already open there, and a lock file keeps other processes out, since each
+ * cache deletes the temporary and unknown files it finds when it opens.
+ */
+public class DiskCache implements Closeable {
+    private static final String TAG = "DiskCache";
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String LOCK = "lock";
+    private static final String MAGIC = "webview_local_server.DiskCache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final String ENTRY_SUFFIX = ".e";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int ENTRY_MAGIC = 0x57564c31;
+    private static final int REBUILD_THRESHOLD = 2000;
+
+    // Open caches by canonical directory.
+    private static final HashMap<String, DiskCache> sOpen = new HashMap<>();
+
+    private final File mDirectory;
+    private final int mAppVersion;
+    private long mMaxSize;
+
+    // Hashed key to entry file size, in access order.
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private Writer mJournal;
+    private int mRedundantOps;
+    private final AtomicInteger mTmpCounter = new AtomicInteger();
+    private int mOpenCount;
+    private FileOutputStream mLockFile;
+
+    private DiskCache(File directory, int appVersion, long maxSize) {
+        mDirectory = directory;
+        mAppVersion = appVersion;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Opens the cache in <code>directory</code>, creating it if needed. If the directory is
+     * already open in this process that cache is returned, keeping the size it was opened with,
+     * and each open must be matched by a {@link #close()}.
+     *
+     * @param directory  a directory used only by caches of this app version
+     * @param appVersion entries written with another version are discarded
+     * @param maxSize    the most bytes the cache holds on disk
+     * @throws IOException if the directory is open with another app version or in another process
+     */
+    public static DiskCache open(File directory, int appVersion, long maxSize) throws IOException {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize <= 0");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create cache directory " + directory);
+
+        String path = directory.getCanonicalPath();
+        synchronized (sOpen) {
+            DiskCache cache = sOpen.get(path);
+            if (cache != null) {
+                if (cache.mAppVersion != appVersion)
+                    throw new IOException(directory + " is already open with app version " + cache.mAppVersion);
+                synchronized (cache) {
+                    cache.mOpenCount++;
+                }
+                return cache;
+            }
+
+            cache = new DiskCache(new File(path), appVersion, maxSize);
+            cache.lock();
+            try {
+                File journal = new File(path, JOURNAL);
+                if (journal.exists()) {
+                    try {
+                        cache.readJournal(journal);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Discarding unreadable cache in " + directory, e);
+                        cache.deleteContents();
+                    }
+                }
+                cache.deleteOrphans();
+                cache.rebuildJournal();
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(cache.mJournal);
+                closeQuietly(cache.mLockFile);
+                throw e;
+            }
+            cache.mOpenCount = 1;
+            sOpen.put(path, cache);
+            return cache;
+        }
+    }
+
+    /**
+     * @return the entry, or null if there is none
+     */
+    public synchronized Snapshot get(String key) throws IOException {
+        checkNotClosed();
+        String hashed = hash(key);
+        // get(), not containsKey(), so the read moves the entry to the end of the use order.
+        if (mEntries.get(hashed) == null) return null;
+
+        File file = entryFile(hashed);
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            // Deleted behind our back.
+            removeHashed(hashed);
+            return null;
+        }
+        byte[] metadata;
+        try {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != ENTRY_MAGIC) throw new IOException("bad entry header");
+            int metadataLength = data.readInt();
+            if (metadataLength < 0 || metadataLength > file.length()) throw new IOException("bad entry header");
+            metadata = new byte[metadataLength];
+            data.readFully(metadata);
+        } catch (IOException e) {
+            closeQuietly(in);
+            Log.w(TAG, "Removing corrupt cache entry " + hashed);
+            removeHashed(hashed);
+            return null;
+        }
+
+        journal(READ + ' ' + hashed, false);
+        mRedundantOps++;
+        if (mRedundantOps >= REBUILD_THRESHOLD) rebuildJournal();
+
+        long bodyOffset = 8 + metadata.length;
+        return new Snapshot(key, file, metadata, in, bodyOffset, file.length() - bodyOffset);
+    }
+
+    /**
+     * Starts writing an entry. Nothing is visible to readers until {@link Editor#commit()}.
+     * Concurrent edits of the same key are allowed, the last commit wins.
+     *
+     * @param key      the key of the entry
+     * @param metadata stored ahead of the body and returned by {@link Snapshot#getMetadata()}
+     */
+    public Editor edit(String key, byte[] metadata) throws IOException {
+        String hashed = hash(key);
+        File tmp;
+        synchronized (this) {
+            checkNotClosed();
+            tmp = new File(mDirectory, hashed + "." + mTmpCounter.incrementAndGet() + TMP_SUFFIX);
+        }
+        return new Editor(hashed, tmp, metadata);
+    }
+
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        return removeHashed(hash(key));
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(hash(key));
+    }
+
+    /**
+     * Looks an entry up in the index held in memory, nothing is read from or written to disk.
+     * Like {@link #get(String)} the lookup counts as a use of the entry.
+     *
+     * @param metadataLength the length of the metadata the entry was written with
+     * @return the length of the entry's body, -1 if there is no entry
+     */
+    public synchronized long getBodyLength(String key, int metadataLength) {
+        Long length = mEntries.get(hash(key));
+        return length == null ? -1 : length - 8 - metadataLength;
+    }
+
+    /**
+     * @return the bytes currently stored
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized void setMaxSize(long maxSize) throws IOException {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Evicts the least recently used entries until at most <code>maxSize</code> bytes are stored.
+     */
+    public synchronized void trimToSize(long maxSize) throws IOException {
+        Iterator<Map.Entry<String, Long>> entries = mEntries.entrySet().iterator();
+        ArrayList<String> evicted = new ArrayList<>();
+        long size = mSize;
+        while (size > maxSize && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            size -= entry.getValue();
+            evicted.add(entry.getKey());
+        }
+        for (String hashed : evicted) {
+            removeHashed(hashed);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() throws IOException {
+        checkNotClosed();
+        for (String hashed : new ArrayList<>(mEntries.keySet())) {
+            removeHashed(hashed);
+        }
+        rebuildJournal();
+    }
+
+    public synchronized void flush() throws IOException {
+        if (mJournal != null) mJournal.flush();
+    }
+
+    /**
+     * Closes this open of the cache, the last close releases the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (sOpen) {
+            synchronized (this) {
+                if (mJournal == null || --mOpenCount > 0) return;
+                sOpen.remove(mDirectory.getPath());
+                try {
+                    mJournal.close();
+                } finally {
+                    mJournal = null;
+                    // Releases the lock.
+                    closeQuietly(mLockFile);
+                    mLockFile = null;
+                }
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    private void lock() throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDirectory, LOCK));
+        FileLock lock;
+        try {
+            lock = out.getChannel().tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            closeQuietly(out);
+            throw new IOException(mDirectory + " is in use by another process");
+        }
+        mLockFile = out;
+    }
+
+    private synchronized void completeEdit(Editor editor) throws IOException {
+        checkNotClosed();
+        File file = entryFile(editor.mHashed);
+        if (!editor.mTmp.renameTo(file)) {
+            editor.mTmp.delete();
+            throw new IOException("Unable to commit cache entry " + editor.mHashed);
+        }
+        long length = file.length();
+        Long previous = mEntries.put(editor.mHashed, length);
+        if (previous != null) {
+            mSize -= previous;
+            mRedundantOps++;
+        }
+        mSize += length;
+        journal(CLEAN + ' ' + editor.mHashed + ' ' + length, true);
+        trimToSize(mMaxSize);
+        if (mRedundantOps >= REBUILD_THRESHOLD) rebuildJournal();
+    }
+
+    private boolean removeHashed(String hashed) throws IOException {
+        Long size = mEntries.remove(hashed);
+        File file = entryFile(hashed);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+        if (size == null) return false;
+        mSize -= size;
+        mRedundantOps += 2;
+        journal(REMOVE + ' ' + hashed, true);
+        return true;
+    }
+
+    private void journal(String line, boolean flush) throws IOException {
+        mJournal.write(line);
+        mJournal.write('\n');
+        if (flush) mJournal.flush();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "US-ASCII"));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+                    || !String.valueOf(mAppVersion).equals(reader.readLine())
+                    || !"".equals(reader.readLine())) {
+                throw new IOException("journal header mismatch");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!readJournalLine(line)) {
+                    // A torn write at the end of the journal, the rebuild drops it.
+                    Log.w(TAG, "Ignoring journal from corrupt line: " + line);
+                    break;
+                }
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private boolean readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || parts[1].length() != 40) return false;
+        String hashed = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            long length;
+            try {
+                length = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            Long previous = mEntries.put(hashed, length);
+            if (previous != null) mSize -= previous;
+            mSize += length;
+        } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+            Long previous = mEntries.remove(hashed);
+            if (previous != null) mSize -= previous;
+        } else if (READ.equals(parts[0]) && parts.length == 2) {
+            mEntries.get(hashed);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops temporary files of edits that never completed, entry files missing from the journal
+     * and entries whose file is gone or whose size does not match the journal.
+     */
+    private void deleteOrphans() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                } else if (name.endsWith(ENTRY_SUFFIX)
+                        && !mEntries.containsKey(name.substring(0, name.length() - ENTRY_SUFFIX.length()))) {
+                    // Committed right before a crash, the journal never heard of it.
+                    file.delete();
+                }
+            }
+        }
+        Iterator<Map.Entry<String, Long>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            File file = entryFile(entry.getKey());
+            if (file.length() != entry.getValue()) {
+                file.delete();
+                mSize -= entry.getValue();
+                entries.remove();
+            }
+        }
+    }
+
+    private void deleteContents() {
+        mEntries.clear();
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!LOCK.equals(file.getName())) file.delete();
+            }
+        }
+    }
+
+    private synchronized void rebuildJournal() throws IOException {
+        if (mJournal != null) mJournal.close();
+
+        File tmp = new File(mDirectory, JOURNAL_TMP);
+        FileOutputStream out = new FileOutputStream(tmp);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "US-ASCII"));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n" + mAppVersion + "\n\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            writer.close();
+        }
+        File journal = new File(mDirectory, JOURNAL);
+        if (!tmp.renameTo(journal)) throw new IOException("Unable to replace journal in " + mDirectory);
+
+        mJournal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), "US-ASCII"));
+        mRedundantOps = 0;
+    }
+
+    private File entryFile(String hashed) {
+        return new File(mDirectory, hashed + ENTRY_SUFFIX);
+    }
+
+    private void checkNotClosed() {
+        if (mJournal == null) throw new IllegalStateException("cache is closed");
+    }
+
+    static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+                hex[i * 2 + 1] = Character.forDigit(digest[i] & 0xf, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A read handle on a committed entry. The entry stays readable through the snapshot even if
+     * it is replaced or evicted meanwhile. Close the snapshot (or its body stream) when done.
+     */
+    public static class Snapshot implements Closeable {
+        private final String mKey;
+        private final File mFile;
+        private final byte[] mMetadata;
+        private final FileInputStream mBody;
+        private final long mBodyOffset;
+        private final long mBodyLength;
+
+        Snapshot(String key, File file, byte[] metadata, FileInputStream body, long bodyOffset, long bodyLength) {
+            mKey = key;
+            mFile = file;
+            mMetadata = metadata;
+            mBody = body;
+            mBodyOffset = bodyOffset;
+            mBodyLength = bodyLength;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public byte[] getMetadata() {
+            return mMetadata;
+        }
+
+        /**
+         * @return the body, positioned at its first byte
+         */
+        public FileInputStream getBody() {
+            return mBody;
+        }
+
+        public long getBodyLength() {
+            return mBodyLength;
+        }
+
+        /**
+         * @return where the body starts in {@link #getFile()}
+         */
+        public long getBodyOffset() {
+            return mBodyOffset;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(mBody);
+        }
+    }
+
+    /**
+     * Writes one entry. Call {@link #commit()} to publish it or {@link #abort()} to drop it.
+     */
+    public class Editor {
+        private final String mHashed;
+        private final File mTmp;
+        private final FileOutputStream mFile;
+        private final OutputStream mOut;
+        private boolean mDone;
+        private boolean mHasErrors;
+
+        Editor(String hashed, File tmp, byte[] metadata) throws IOException {
+            mHashed = hashed;
+            mTmp = tmp;
+            FileOutputStream file = new FileOutputStream(tmp);
+            mFile = file;
+            DataOutputStream data = new DataOutputStream(file);
+            try {
+                data.writeInt(ENTRY_MAGIC);
+                data.writeInt(metadata.length);
+                data.write(metadata);
+            } catch (IOException e) {
+                closeQuietly(file);
+                tmp.delete();
+                throw e;
+            }
+            mOut = new FilterOutputStream(file) {
+                @Override
+                public void write(int b) throws IOException {
+                    try {
+                        out.write(b);
+                    } catch (IOException e) {
+                        mHasErrors = true;
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    try {
+                        out.write(b, off, len);
+                    } catch (IOException e) {
+                        mHasErrors = true;
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return the stream the body is written to, do not close it
+         */
+        public OutputStream getOutputStream() {
+            return mOut;
+        }
+
+        public void commit() throws IOException {
+            if (mDone) return;
+            mDone = true;
+            try {
+                mOut.flush();
+                // Otherwise a crash after the rename can publish an entry whose bytes never
+                // reached the disk.
+                mFile.getFD().sync();
+            } catch (IOException e) {
+                mHasErrors = true;
+            } finally {
+                closeQuietly(mOut);
+            }
+            if (mHasErrors) {
+                mTmp.delete();
+                throw new EOFException("cache entry write failed");
+            }
+            completeEdit(this);
+        }
+
+        public void abort() {
+            if (mDone) return;
+            mDone = true;
+            closeQuietly(mOut);
+            mTmp.delete();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Keeps the output of an expensive {@link WebViewLocalServer.PathHandler} on disk so it
+ * survives process restarts:
+ * <pre>
+ *     server.createHost(builder, new DiskCachedPathHandler(renderer, cacheDir, 10 * 1024 * 1024, 1,
+ *             DiskCachedPathHandler.URL_KEY));
+ * </pre>
+ * A miss streams the wrapped handler's body to the WebView while copying it into a
+ * {@link DiskCache} entry, which becomes visible once the body was read completely. A hit
+ * serves the entry's file directly. The cache is size bounded (least recently used entries are
+ * evicted), written atomically and recovers from crashes, see {@link DiskCache}.
+ * <p>
+ * Everything except the body (mime type, headers ...) still comes from the wrapped handler.
+ */
+public class DiskCachedPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "DiskCachedPathHandler";
+
+    /**
+     * Names the cache entry of a url.
+     */
+    public interface KeyFunction {
+        /**
+         * @return the key of the entry holding the body of <code>url</code>, null to not cache it
+         */
+        String getKey(Uri url);
+    }
+
+    /**
+     * Caches every url under its full text.
+     */
+    public static final KeyFunction URL_KEY = new KeyFunction() {
+        @Override
+        public String getKey(Uri url) {
+            return url.toString();
+        }
+    };
+
+    private final WebViewLocalServer.PathHandler mDelegate;
+    private final File mCacheDirectory;
+    private final long mMaxCacheSize;
+    private final int mVersion;
+    private final KeyFunction mKeyFunction;
+    private DiskCache mCache;
+    private boolean mCacheFailed;
+
+    /**
+     * @param delegate       computes the bodies
+     * @param cacheDirectory a directory used only by this handler
+     * @param maxCacheSize   the most bytes kept on disk, bodies over an eighth of it are not cached
+     * @param version        the version of the delegate's output, change it to discard the cache
+     * @param keyFunction    names the entry of each url
+     */
+    public DiskCachedPathHandler(WebViewLocalServer.PathHandler delegate, File cacheDirectory, long maxCacheSize,
+                                 int version, KeyFunction keyFunction) {
+        if (delegate == null || cacheDirectory == null || keyFunction == null)
+            throw new IllegalArgumentException("delegate, cacheDirectory and keyFunction cannot be null");
+        mDelegate = delegate;
+        mCacheDirectory = cacheDirectory;
+        mMaxCacheSize = maxCacheSize;
+        mVersion = version;
+        mKeyFunction = keyFunction;
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        String key = mKeyFunction.getKey(url);
+        DiskCache cache = key == null ? null : getCache();
+        if (cache == null) return mDelegate.handle(url);
+
+        try {
+            DiskCache.Snapshot snapshot = cache.get(key);
+            if (snapshot != null) return snapshot.getBody();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached " + key, e);
+        }
+
+        InputStream body = mDelegate.handle(url);
+        if (body == null) return null;
+        try {
+            return new CachingInputStream(body, cache.edit(key, new byte[0]), mMaxCacheSize / 8);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache " + key, e);
+            return body;
+        }
+    }
+
+    /**
+     * Serves a cached body with its length, so the response has a Content-Length. Called on the
+     * intercepting thread, so only the cache's index in memory is consulted: the entry is
+     * opened, and its read journaled, by the thread reading the body. A miss is left to
+     * {@link #handle(Uri)}, which stores the body.
+     */
+    @Override
+    public ResponseBody handleBody(Uri url) {
+        final String key = mKeyFunction.getKey(url);
+        final DiskCache cache = key == null ? null : getCache();
+        if (cache == null) return mDelegate.handleBody(url);
+
+        final long length = cache.getBodyLength(key, 0);
+        if (length < 0) return null;
+        return new ResponseBody() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                DiskCache.Snapshot snapshot = cache.get(key);
+                if (snapshot != null && snapshot.getBodyLength() == length) return snapshot.getBody();
+                if (snapshot != null) snapshot.close();
+                // Evicted or replaced since the response was sent with the old length.
+                throw new IOException(key + " changed since it was served");
+            }
+        };
+    }
+
+    /**
+     * Computes and stores the body of <code>url</code> unless it is cached already.
+     */
+    @Override
+    public void prefetch(Uri url) {
+        String key = mKeyFunction.getKey(url);
+        DiskCache cache = key == null ? null : getCache();
+        if (cache == null || cache.contains(key)) {
+            mDelegate.prefetch(url);
+            return;
+        }
+        InputStream body = handle(url);
+        if (body == null) return;
+        try {
+            // Reading to the end commits the entry.
+            byte[] buffer = new byte[8 * 1024];
+            while (body.read(buffer) != -1) ;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to prefetch " + url, e);
+        } finally {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Drops the cached body of <code>url</code>, for example after its inputs changed.
+     */
+    public void invalidate(Uri url) {
+        String key = mKeyFunction.getKey(url);
+        DiskCache cache = key == null ? null : getCache();
+        if (cache == null) return;
+        try {
+            cache.remove(key);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to invalidate " + key, e);
+        }
+    }
+
+    /**
+     * @return the disk cache, opening it on first use, or null if it cannot be opened
+     */
+    public synchronized DiskCache getCache() {
+        if (mCache == null && !mCacheFailed) {
+            try {
+                mCache = DiskCache.open(mCacheDirectory, mVersion, mMaxCacheSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open cache in " + mCacheDirectory, e);
+                mCacheFailed = true;
+            }
+        }
+        return mCache;
+    }
+
+    public WebViewLocalServer.PathHandler getDelegate() {
+        return mDelegate;
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean shouldIntercept(WebResourceRequest request) {
+        return mDelegate.shouldIntercept(request);
+    }
+
+    @TargetApi(21)
+    @Override
+    public Uri selectVariant(WebResourceRequest request) {
+        return mDelegate.selectVariant(request);
+    }
+
+    @Override
+    public String getVary(Uri url) {
+        return mDelegate.getVary(url);
+    }
+
+    @Override
+    public String getMimeType() {
+        return mDelegate.getMimeType();
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        return mDelegate.getMimeType(url);
+    }
+
+    @Override
+    public String getEncoding() {
+        return mDelegate.getEncoding();
+    }
+
+    @Override
+    public String getCharset() {
+        return mDelegate.getCharset();
+    }
+
+    @Override
+    public int getStatusCode() {
+        return mDelegate.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+        return mDelegate.getReasonPhrase();
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders() {
+        return mDelegate.getResponseHeaders();
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders(Uri url) {
+        return mDelegate.getResponseHeaders(url);
+    }
+
+    @Override
+    public boolean isKnownMissing(Uri url) {
+        return mDelegate.isKnownMissing(url);
+    }
+}
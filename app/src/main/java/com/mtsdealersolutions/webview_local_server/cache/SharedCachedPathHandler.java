@@ -0,0 +1,272 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves a {@link WebViewLocalServer.PathHandler}'s bodies from a {@link SharedResponseCache},
+ * so every process of the app shares one copy of them:
+ * <pre>
+ *     server.createHost(builder, new SharedCachedPathHandler(assetHandler,
+ *             SharedResponseCache.forContext(context)));
+ * </pre>
+ * Entries are keyed by path and query by default, as each process gives its hosts their own
+ * random subdomain. Wrap handlers of different hosts with a key function that tells them apart
+ * if they share a cache.
+ * <p>
+ * Each request looks the cache up once, in {@link #handleBody}. A hit is served straight from
+ * the mapping with its length. A miss is left to the server, which calls {@link #handle(Uri)}
+ * when the body is first read: the wrapped handler's body is served and stored once it was read
+ * to the end, or nothing if it has none. Misses are coalesced, so concurrent requests for the
+ * same url render and store it once. Bodies larger than the maximum entry size are never
+ * stored. Everything except the body (mime type, headers ...) comes from the wrapped handler.
+ */
+public class SharedCachedPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "SharedCachedPathHandler";
+
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 512 * 1024;
+
+    /**
+     * Caches every url under its path and query, whichever host it was requested from.
+     */
+    public static final DiskCachedPathHandler.KeyFunction PATH_KEY = new DiskCachedPathHandler.KeyFunction() {
+        @Override
+        public String getKey(Uri url) {
+            String query = url.getEncodedQuery();
+            return query == null ? url.getEncodedPath() : url.getEncodedPath() + "?" + query;
+        }
+    };
+
+    private final WebViewLocalServer.PathHandler mDelegate;
+    private final SharedResponseCache mCache;
+    private final int mMaxEntrySize;
+    private final DiskCachedPathHandler.KeyFunction mKeyFunction;
+    // Keys handleBody just missed, handle() does not look them up again.
+    private final Set<String> mMisses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public SharedCachedPathHandler(WebViewLocalServer.PathHandler delegate, SharedResponseCache cache) {
+        this(delegate, cache, DEFAULT_MAX_ENTRY_SIZE, PATH_KEY);
+    }
+
+    public SharedCachedPathHandler(WebViewLocalServer.PathHandler delegate, SharedResponseCache cache,
+                                   int maxEntrySize) {
+        this(delegate, cache, maxEntrySize, PATH_KEY);
+    }
+
+    /**
+     * @param keyFunction names the entry of each url, see {@link #PATH_KEY}
+     */
+    public SharedCachedPathHandler(WebViewLocalServer.PathHandler delegate, SharedResponseCache cache,
+                                   int maxEntrySize, DiskCachedPathHandler.KeyFunction keyFunction) {
+        if (delegate == null || cache == null || keyFunction == null)
+            throw new IllegalArgumentException("delegate, cache and keyFunction cannot be null");
+        mDelegate = delegate;
+        mCache = cache;
+        mMaxEntrySize = maxEntrySize;
+        mKeyFunction = keyFunction;
+        setCoalesceRequests(true);
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        String key = mKeyFunction.getKey(url);
+        SharedResponseCache.Entry entry = key == null || mMisses.remove(key) ? null : mCache.get(key);
+        if (entry != null) return entry.getBody();
+        return openMiss(url, key);
+    }
+
+    @Override
+    public ResponseBody handleBody(final Uri url) {
+        final String key = mKeyFunction.getKey(url);
+        if (key == null) return null;
+        final SharedResponseCache.Entry entry = mCache.get(key);
+        if (entry != null) {
+            return new ResponseBody() {
+                @Override
+                public long getLength() {
+                    return entry.getLength();
+                }
+
+                @Override
+                public InputStream openStream() {
+                    return entry.getBody();
+                }
+
+                @Override
+                public boolean isInMemory() {
+                    return true;
+                }
+            };
+        }
+        mMisses.add(key);
+        return null;
+    }
+
+    /**
+     * @param key the entry to store the body in, null to not store it
+     * @return the wrapped handler's body, or null if it has none
+     */
+    private InputStream openMiss(Uri url, String key) {
+        InputStream body = mDelegate.handle(url);
+        if (body == null || key == null) return body;
+        return new StoringInputStream(body, key, getMimeType(url));
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        return mDelegate.getMimeType(url);
+    }
+
+    @Override
+    public void prefetch(Uri url) {
+        String key = mKeyFunction.getKey(url);
+        if (key == null || mCache.get(key) != null) return;
+        InputStream body = openMiss(url, key);
+        if (body == null) return;
+        try {
+            // Reading to the end stores the body.
+            byte[] buffer = new byte[8 * 1024];
+            while (body.read(buffer) != -1) ;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to prefetch " + url, e);
+        } finally {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public WebViewLocalServer.PathHandler getDelegate() {
+        return mDelegate;
+    }
+
+    public SharedResponseCache getCache() {
+        return mCache;
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean shouldIntercept(WebResourceRequest request) {
+        return mDelegate.shouldIntercept(request);
+    }
+
+    @TargetApi(21)
+    @Override
+    public Uri selectVariant(WebResourceRequest request) {
+        return mDelegate.selectVariant(request);
+    }
+
+    @Override
+    public String getVary(Uri url) {
+        return mDelegate.getVary(url);
+    }
+
+    @Override
+    public String getMimeType() {
+        return mDelegate.getMimeType();
+    }
+
+    @Override
+    public String getEncoding() {
+        return mDelegate.getEncoding();
+    }
+
+    @Override
+    public String getCharset() {
+        return mDelegate.getCharset();
+    }
+
+    @Override
+    public int getStatusCode() {
+        return mDelegate.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+        return mDelegate.getReasonPhrase();
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders() {
+        return mDelegate.getResponseHeaders();
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders(Uri url) {
+        return mDelegate.getResponseHeaders(url);
+    }
+
+    @Override
+    public boolean isKnownMissing(Uri url) {
+        return mDelegate.isKnownMissing(url);
+    }
+
+    /**
+     * Keeps a copy of the body while it is read and stores it at the end.
+     */
+    private class StoringInputStream extends FilterInputStream {
+        private final String mKey;
+        private final String mMimeType;
+        private ByteArrayOutputStream mCopy = new ByteArrayOutputStream();
+
+        StoringInputStream(InputStream in, String key, String mimeType) {
+            super(in);
+            mKey = key;
+            mMimeType = mimeType;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (mCopy == null) return count;
+            if (count == -1) {
+                store();
+            } else if (mCopy.size() + count > mMaxEntrySize) {
+                mCopy = null;
+            } else {
+                mCopy.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are not copied.
+            mCopy = null;
+            return in.skip(n);
+        }
+
+        private void store() {
+            ByteArrayOutputStream copy = mCopy;
+            mCopy = null;
+            try {
+                byte[] bytes = copy.toByteArray();
+                mCache.put(mKey, mMimeType, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to store " + mKey, e);
+            }
+        }
+    }
+}
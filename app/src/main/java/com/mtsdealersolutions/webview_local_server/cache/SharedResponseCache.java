@@ -0,0 +1,564 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.utils.AppVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A response cache in a memory-mapped file, shared by every process of the app that opens it,
+ * for example the main process and a <code>:web</code> process each running WebViews. Whichever
+ * process serves a resource first stores it, every process then serves it straight from the
+ * mapping without copying it onto its heap.
+ * <p>
+ * The file holds a header, an open-addressed index and an append-only data area:
+ * <ul>
+ * <li>Entries are written once into the data area and never modified, so a reader can stream
+ * an entry while other processes keep writing.</li>
+ * <li>Each index slot is guarded by a sequence lock: writers make the sequence odd while they
+ * change the slot, readers retry until they read the same even sequence before and after
+ * reading it. Lookups take no lock.</li>
+ * <li>Writers are serialized across processes with a file lock. A writer that died while it
+ * changed a slot leaves its sequence odd, the next process to open the cache repairs it.</li>
+ * <li>When the data area or the index is full the cache is reset: the epoch in the header is
+ * incremented and everything is dropped. Readers check the epoch after every read and fail with
+ * an IOException if the entry they were reading was dropped. The cache is also reset when it
+ * was written by another build of the app.</li>
+ * </ul>
+ * Open one instance per file and process with {@link #open}, which returns the same instance for
+ * the same file.
+ */
+public class SharedResponseCache {
+    private static final String TAG = "SharedResponseCache";
+
+    public static final int DEFAULT_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x57565343;
+    private static final int LAYOUT_VERSION = 1;
+
+    // Header.
+    private static final int MAGIC_OFFSET = 0;
+    private static final int LAYOUT_OFFSET = 4;
+    private static final int EPOCH_OFFSET = 8;
+    private static final int SLOT_COUNT_OFFSET = 12;
+    private static final int DATA_TAIL_OFFSET = 16;
+    private static final int SIZE_OFFSET = 20;
+    private static final int APP_VERSION_OFFSET = 24;
+    static final int HEADER_SIZE = 64;
+
+    // Index slots: sequence, unused, key hash, entry offset.
+    static final int SLOT_SIZE = 24;
+    static final int SLOT_SEQUENCE = 0;
+    static final int SLOT_HASH = 8;
+    static final int SLOT_ENTRY = 16;
+    private static final int MAX_PROBES = 16;
+    private static final int MAX_READ_RETRIES = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final HashMap<String, SharedResponseCache> sOpen = new HashMap<>();
+
+    // Volatile accesses order the plain accesses to the mapping around them.
+    private static volatile int sFence;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mMap;
+    private final long mAppVersion;
+    private final int mSlotCount;
+    private final int mDataStart;
+    private final int mSize;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mResets = new AtomicLong();
+
+    private SharedResponseCache(File file, String appVersion, int size) throws IOException {
+        mFile = file;
+        mAppVersion = hash(appVersion == null ? "" : appVersion);
+        mSize = size;
+        // Roughly one slot per 4KB of data, a power of two for masking.
+        mSlotCount = Integer.highestOneBit(Math.max(64, size / 4096));
+        mDataStart = HEADER_SIZE + mSlotCount * SLOT_SIZE;
+        if (mDataStart >= size)
+            throw new IllegalArgumentException("size is too small: " + size);
+
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            mChannel = mRandomAccessFile.getChannel();
+            FileLock lock = mChannel.lock();
+            try {
+                if (mRandomAccessFile.length() != size) mRandomAccessFile.setLength(size);
+                mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (mMap.getInt(MAGIC_OFFSET) != MAGIC || mMap.getInt(LAYOUT_OFFSET) != LAYOUT_VERSION
+                        || mMap.getInt(SLOT_COUNT_OFFSET) != mSlotCount || mMap.getInt(SIZE_OFFSET) != size
+                        || mMap.getLong(APP_VERSION_OFFSET) != mAppVersion) {
+                    format();
+                } else {
+                    repairSlots();
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the cache in <code>file</code>, creating or resetting it as needed. Every process
+     * must pass the same size.
+     *
+     * @param appVersion identifies the app build, a cache written by another build is reset
+     * @param size       the size of the file
+     */
+    public static SharedResponseCache open(File file, String appVersion, int size) throws IOException {
+        String path = file.getCanonicalPath();
+        synchronized (sOpen) {
+            SharedResponseCache cache = sOpen.get(path);
+            if (cache == null) {
+                cache = new SharedResponseCache(file, appVersion, size);
+                sOpen.put(path, cache);
+            } else if (cache.mSize != size || cache.mAppVersion != hash(appVersion == null ? "" : appVersion)) {
+                throw new IllegalStateException(file + " is already open with another size or app version");
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Opens the cache in the app's cache directory, versioned by the installed build.
+     */
+    public static SharedResponseCache forContext(Context context) throws IOException {
+        String appVersion = AppVersion.of(context);
+        if (appVersion == null) {
+            Log.w(TAG, "Unable to read the app version, the shared cache is not versioned");
+            appVersion = "";
+        }
+        return open(new File(context.getCacheDir(), "webview_local_server_shared"), appVersion, DEFAULT_SIZE);
+    }
+
+    /**
+     * @return the entry stored under <code>key</code>, or null if there is none
+     */
+    public Entry get(String key) {
+        long hash = hash(key);
+        byte[] keyBytes = utf8(key);
+        int mask = mSlotCount - 1;
+        for (int attempt = 0; attempt < MAX_READ_RETRIES; attempt++) {
+            int epoch = readEpoch();
+            boolean torn = false;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int slot = HEADER_SIZE + (int) ((hash + probe) & mask) * SLOT_SIZE;
+                int sequence = mMap.getInt(slot + SLOT_SEQUENCE);
+                readFence();
+                long slotHash = mMap.getLong(slot + SLOT_HASH);
+                int entry = mMap.getInt(slot + SLOT_ENTRY);
+                readFence();
+                if ((sequence & 1) != 0 || mMap.getInt(slot + SLOT_SEQUENCE) != sequence) {
+                    torn = true;
+                    break;
+                }
+                if (slotHash == 0) break;
+                if (slotHash != hash || !isEntry(entry)) continue;
+
+                Entry found = readEntry(entry, keyBytes, epoch);
+                if (readEpoch() != epoch) {
+                    torn = true;
+                    break;
+                }
+                if (found != null) {
+                    mHits.incrementAndGet();
+                    return found;
+                }
+            }
+            if (!torn) break;
+            mRetries.incrementAndGet();
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores <code>body</code> under <code>key</code>, replacing any entry for it. Resets the
+     * cache if it is full.
+     *
+     * @return false if the entry is too large to be stored
+     */
+    public boolean put(String key, String mimeType, byte[] body, int offset, int length) throws IOException {
+        byte[] keyBytes = utf8(key);
+        byte[] mimeBytes = utf8(mimeType == null ? "" : mimeType);
+        if (mimeBytes.length > 0xffff) return false;
+        int entrySize = 4 + keyBytes.length + 2 + mimeBytes.length + 4 + length;
+        if (entrySize > (mSize - mDataStart) / 4) return false;
+        long hash = hash(key);
+
+        synchronized (this) {
+            FileLock lock = mChannel.lock();
+            try {
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    int slot = findSlot(hash, keyBytes);
+                    int tail = mMap.getInt(DATA_TAIL_OFFSET);
+                    if (slot == -1 || tail + entrySize > mSize) {
+                        // Full, start over.
+                        reset();
+                        continue;
+                    }
+                    int position = tail;
+                    mMap.putInt(position, keyBytes.length);
+                    position += 4;
+                    putBytes(position, keyBytes, 0, keyBytes.length);
+                    position += keyBytes.length;
+                    mMap.putShort(position, (short) mimeBytes.length);
+                    position += 2;
+                    putBytes(position, mimeBytes, 0, mimeBytes.length);
+                    position += mimeBytes.length;
+                    mMap.putInt(position, length);
+                    position += 4;
+                    putBytes(position, body, offset, length);
+                    mMap.putInt(DATA_TAIL_OFFSET, tail + entrySize);
+                    // The entry must be complete before the slot points at it.
+                    sFence = 0;
+
+                    // Odd while the slot changes, even if a dead writer left it odd.
+                    int sequence = mMap.getInt(slot + SLOT_SEQUENCE) | 1;
+                    mMap.putInt(slot + SLOT_SEQUENCE, sequence);
+                    sFence = 0;
+                    mMap.putLong(slot + SLOT_HASH, hash);
+                    mMap.putInt(slot + SLOT_ENTRY, tail);
+                    sFence = 0;
+                    mMap.putInt(slot + SLOT_SEQUENCE, sequence + 1);
+                    return true;
+                }
+                return false;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, in every process.
+     */
+    public void clear() throws IOException {
+        synchronized (this) {
+            FileLock lock = mChannel.lock();
+            try {
+                reset();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * @return the epoch, incremented every time the cache is reset
+     */
+    public int getEpoch() {
+        return readEpoch();
+    }
+
+    /**
+     * @return the bytes used by entries
+     */
+    public int getDataSize() {
+        return mMap.getInt(DATA_TAIL_OFFSET) - mDataStart;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return how many lookups raced a writer and were retried
+     */
+    public long getRetryCount() {
+        return mRetries.get();
+    }
+
+    /**
+     * @return how many times this process reset the cache because it was full
+     */
+    public long getResetCount() {
+        return mResets.get();
+    }
+
+    /**
+     * @return the slot for <code>key</code>, an empty slot if it has none, -1 if both are
+     * missing from its probe window. Only called by writers.
+     */
+    private int findSlot(long hash, byte[] keyBytes) {
+        int mask = mSlotCount - 1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = HEADER_SIZE + (int) ((hash + probe) & mask) * SLOT_SIZE;
+            long slotHash = mMap.getLong(slot + SLOT_HASH);
+            if (slotHash == 0) return slot;
+            if (slotHash == hash && keyEquals(mMap.getInt(slot + SLOT_ENTRY), keyBytes)) return slot;
+        }
+        return -1;
+    }
+
+    private void format() {
+        int epoch = mMap.getInt(MAGIC_OFFSET) == MAGIC ? mMap.getInt(EPOCH_OFFSET) + 1 : 1;
+        // Readers validate against the epoch, publish the new one before touching anything.
+        mMap.putInt(EPOCH_OFFSET, epoch);
+        sFence = 0;
+        mMap.putInt(LAYOUT_OFFSET, LAYOUT_VERSION);
+        mMap.putInt(SLOT_COUNT_OFFSET, mSlotCount);
+        mMap.putInt(SIZE_OFFSET, mSize);
+        mMap.putLong(APP_VERSION_OFFSET, mAppVersion);
+        clearSlots();
+        mMap.putInt(MAGIC_OFFSET, MAGIC);
+        mMap.force();
+    }
+
+    /**
+     * Ends the changes writers that died left half done, called with the file lock held so no
+     * live writer is in the middle of one. Entries are complete before a slot points at them,
+     * so a slot that is empty or points at an entry of its key is kept, anything else resets
+     * the cache.
+     */
+    private void repairSlots() {
+        int repaired = 0;
+        boolean torn = false;
+        for (int i = 0; i < mSlotCount; i++) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            int sequence = mMap.getInt(slot + SLOT_SEQUENCE);
+            if ((sequence & 1) == 0) continue;
+            long slotHash = mMap.getLong(slot + SLOT_HASH);
+            int entry = mMap.getInt(slot + SLOT_ENTRY);
+            if (slotHash != 0 && (!isEntry(entry) || keyHash(entry) != slotHash)) torn = true;
+            mMap.putInt(slot + SLOT_SEQUENCE, sequence + 1);
+            repaired++;
+        }
+        if (repaired == 0) return;
+        Log.w(TAG, "Repaired " + repaired + " slots of " + mFile + (torn ? ", resetting it" : ""));
+        if (torn) reset();
+        sFence = 0;
+    }
+
+    /**
+     * @return the hash of the key of the entry at <code>entry</code>, 0 if it cannot be read
+     */
+    private long keyHash(int entry) {
+        int length = mMap.getInt(entry);
+        if (length < 0 || entry + 4 + length > mSize) return 0;
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = mMap.get(entry + 4 + i);
+        }
+        return hash(new String(key, UTF8));
+    }
+
+    private void reset() {
+        mResets.incrementAndGet();
+        mMap.putInt(EPOCH_OFFSET, mMap.getInt(EPOCH_OFFSET) + 1);
+        sFence = 0;
+        clearSlots();
+    }
+
+    private void clearSlots() {
+        for (int i = 0; i < mSlotCount; i++) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            int sequence = mMap.getInt(slot + SLOT_SEQUENCE);
+            mMap.putInt(slot + SLOT_SEQUENCE, (sequence | 1) + 1);
+            mMap.putLong(slot + SLOT_HASH, 0);
+            mMap.putInt(slot + SLOT_ENTRY, 0);
+        }
+        mMap.putInt(DATA_TAIL_OFFSET, mDataStart);
+        sFence = 0;
+    }
+
+    private int readEpoch() {
+        readFence();
+        return mMap.getInt(EPOCH_OFFSET);
+    }
+
+    private static int readFence() {
+        return sFence;
+    }
+
+    private boolean isEntry(int entry) {
+        return entry >= mDataStart && entry < mSize - 10;
+    }
+
+    private boolean keyEquals(int entry, byte[] keyBytes) {
+        if (!isEntry(entry) || mMap.getInt(entry) != keyBytes.length) return false;
+        if (entry + 4 + keyBytes.length > mSize) return false;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (mMap.get(entry + 4 + i) != keyBytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the entry at <code>entry</code> if it is stored under <code>keyBytes</code>. The
+     * caller checks the epoch afterwards, anything read here may be garbage if it changed.
+     */
+    private Entry readEntry(int entry, byte[] keyBytes, int epoch) {
+        try {
+            return readEntryUnchecked(entry, keyBytes, epoch);
+        } catch (IndexOutOfBoundsException e) {
+            // Overwritten by a reset, the caller notices the new epoch.
+            return null;
+        }
+    }
+
+    private Entry readEntryUnchecked(int entry, byte[] keyBytes, int epoch) {
+        if (!keyEquals(entry, keyBytes)) return null;
+        int position = entry + 4 + keyBytes.length;
+        int mimeLength = mMap.getShort(position) & 0xffff;
+        position += 2;
+        if (position + mimeLength + 4 > mSize) return null;
+        byte[] mime = new byte[mimeLength];
+        for (int i = 0; i < mimeLength; i++) {
+            mime[i] = mMap.get(position + i);
+        }
+        position += mimeLength;
+        int length = mMap.getInt(position);
+        position += 4;
+        if (length < 0 || position + length > mSize) return null;
+        ByteBuffer body = mMap.duplicate();
+        body.limit(position + length).position(position);
+        return new Entry(new String(mime, UTF8), body.slice(), epoch);
+    }
+
+    private void putBytes(int position, byte[] bytes, int offset, int length) {
+        ByteBuffer target = mMap.duplicate();
+        target.position(position);
+        target.put(bytes, offset, length);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(UTF8);
+    }
+
+    /**
+     * 64-bit FNV-1a, never 0 so 0 can mark empty slots.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * A cached response. Its body is a view of the shared mapping.
+     */
+    public class Entry {
+        private final String mMimeType;
+        private final ByteBuffer mBody;
+        private final int mEpoch;
+
+        Entry(String mimeType, ByteBuffer body, int epoch) {
+            mMimeType = mimeType;
+            mBody = body;
+            mEpoch = epoch;
+        }
+
+        /**
+         * @return the mime type, empty if none was stored
+         */
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        public int getLength() {
+            return mBody.remaining();
+        }
+
+        /**
+         * @return a read-only view of the body in the mapping. Check {@link #isValid()} after
+         * reading it, the bytes are reused once the cache is reset
+         */
+        public ByteBuffer getBuffer() {
+            return mBody.asReadOnlyBuffer();
+        }
+
+        /**
+         * @return whether the cache has not been reset since this entry was looked up
+         */
+        public boolean isValid() {
+            return readEpoch() == mEpoch;
+        }
+
+        /**
+         * @return a stream of the body that fails with an IOException if the cache is reset
+         * while it is read
+         */
+        public InputStream getBody() {
+            return new MappedInputStream(mBody.duplicate(), this);
+        }
+    }
+
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+        private final Entry mEntry;
+
+        MappedInputStream(ByteBuffer buffer, Entry entry) {
+            mBuffer = buffer;
+            mEntry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!mBuffer.hasRemaining()) return -1;
+            int b = mBuffer.get() & 0xff;
+            checkValid();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            // Validate after copying, like a sequence lock.
+            checkValid();
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        private void checkValid() throws IOException {
+            if (!mEntry.isValid()) throw new IOException("The shared cache was reset while the body was read");
+        }
+    }
+}
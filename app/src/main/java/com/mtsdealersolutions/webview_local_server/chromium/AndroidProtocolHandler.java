@@ -24,6 +24,10 @@ public class AndroidProtocolHandler {
         this.context = context;
     }
 
+    public Context getContext() {
+        return context;
+    }
+
     public InputStream openAsset(String path) throws IOException {
         return context.getAssets().open(path, AssetManager.ACCESS_STREAMING);
     }
@@ -6,6 +6,7 @@ import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
 import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.trace.TraceRecorder;
 
 /**
  * Created by bradley.thome on 8/8/17.
@@ -14,11 +15,24 @@ import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
 public class ServerWebViewClient extends WebViewClient {
 
     private WebViewLocalServer mWebViewLocalServer;
+    private volatile TraceRecorder mTraceRecorder;
 
     public ServerWebViewClient(WebViewLocalServer webViewLocalServer) {
         mWebViewLocalServer = webViewLocalServer;
     }
 
+    /**
+     * Records every request this client intercepts into <code>recorder</code>, null to stop
+     * recording.
+     */
+    public void setTraceRecorder(TraceRecorder recorder) {
+        mTraceRecorder = recorder;
+    }
+
+    public TraceRecorder getTraceRecorder() {
+        return mTraceRecorder;
+    }
+
     @Override
     public final WebResourceResponse shouldInterceptRequest(WebView view, String url) {
         return mWebViewLocalServer.shouldInterceptRequest(url);
@@ -26,7 +40,13 @@ public class ServerWebViewClient extends WebViewClient {
 
     @Override
     public final WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
-        return mWebViewLocalServer.shouldInterceptRequest(request);
+        TraceRecorder recorder = mTraceRecorder;
+        if (recorder == null) return mWebViewLocalServer.shouldInterceptRequest(request);
+
+        long start = System.nanoTime();
+        WebResourceResponse response = mWebViewLocalServer.shouldInterceptRequest(request);
+        recorder.record(request, start, System.nanoTime());
+        return response;
     }
 
 }
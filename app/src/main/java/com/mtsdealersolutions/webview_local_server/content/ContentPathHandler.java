@@ -0,0 +1,308 @@
+package com.mtsdealersolutions.webview_local_server.content;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves <code>content://</code> URIs, for example user photos and videos, without copying
+ * them into app storage first.
+ * <p>
+ * <code>http(s)://{domain}/{virtualPath}/{path}</code> is served from
+ * <code>content://{authority}/{path}</code>. The provider is opened with
+ * {@link ContentResolver#openAssetFileDescriptor} and the WebView reads straight from the file
+ * descriptor. The descriptor's length is sent as Content-Length and single byte ranges are
+ * answered with 206, which video playback relies on for seeking. HEAD requests get the same
+ * headers, the descriptor is closed without reading from it.
+ * <p>
+ * Mime types are looked up with {@link ContentResolver#getType} once per URI and cached.
+ */
+public class ContentPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "ContentPathHandler";
+
+    private static final int MAX_CACHED_MIME_TYPES = 256;
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final ContentResolver mResolver;
+    private final String mAuthority;
+    private final String mUrlVirtualPath;
+    private final Map<String, String> mMimeTypes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_MIME_TYPES;
+        }
+    };
+
+    /**
+     * @param resolver       resolves the content URIs
+     * @param authority      the provider's authority, for example <code>media</code>
+     * @param urlVirtualPath the virtual path of the host, removed from urls before mapping
+     */
+    public ContentPathHandler(ContentResolver resolver, String authority, String urlVirtualPath) {
+        if (resolver == null || authority == null || authority.length() == 0)
+            throw new IllegalArgumentException("resolver and authority cannot be empty");
+        mResolver = resolver;
+        mAuthority = authority;
+        String virtualPath = urlVirtualPath == null ? "" : urlVirtualPath;
+        while (virtualPath.startsWith("/")) virtualPath = virtualPath.substring(1);
+        while (virtualPath.endsWith("/")) virtualPath = virtualPath.substring(0, virtualPath.length() - 1);
+        mUrlVirtualPath = virtualPath;
+    }
+
+    /**
+     * Maps a requested url to the content URI serving it. Override to map urls differently.
+     */
+    protected Uri getContentUri(Uri url) {
+        String path = url.getEncodedPath() == null ? "" : url.getEncodedPath();
+        while (path.startsWith("/")) path = path.substring(1);
+        // Only whole segments, "photos" must not strip the start of "photosets/1".
+        if (mUrlVirtualPath.length() > 0 && path.startsWith(mUrlVirtualPath)
+                && (path.length() == mUrlVirtualPath.length() || path.charAt(mUrlVirtualPath.length()) == '/')) {
+            path = path.substring(mUrlVirtualPath.length());
+            while (path.startsWith("/")) path = path.substring(1);
+        }
+        String query = url.getEncodedQuery();
+        return Uri.parse("content://" + mAuthority + "/" + path + (query == null ? "" : "?" + query));
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean shouldIntercept(WebResourceRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod());
+    }
+
+    @TargetApi(21)
+    @Override
+    public WebResourceResponse respond(WebResourceRequest request) {
+        Uri contentUri = getContentUri(request.getUrl());
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = mResolver.openAssetFileDescriptor(contentUri, "r");
+        } catch (FileNotFoundException e) {
+            return error(404, "Not Found");
+        } catch (SecurityException e) {
+            Log.w(TAG, "Not allowed to read " + contentUri);
+            return error(403, "Forbidden");
+        }
+        if (descriptor == null) return error(404, "Not Found");
+
+        String mimeType = getContentMimeType(contentUri);
+        long length = getLength(descriptor);
+        Map<String, String> headers = new HashMap<>();
+        InputStream body;
+        try {
+            body = descriptor.createInputStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + contentUri, e);
+            closeQuietly(descriptor);
+            return error(500, "Internal Server Error");
+        }
+        if (length < 0) {
+            // A pipe or socket, the size is unknown and ranges cannot be served.
+            return new WebResourceResponse(mimeType, null, 200, "OK", headers, body);
+        }
+
+        headers.put("Accept-Ranges", "bytes");
+        long[] range = parseRange(getHeader(request.getRequestHeaders(), "Range"), length);
+        if (range == null) {
+            headers.put("Content-Length", String.valueOf(length));
+            return new WebResourceResponse(mimeType, null, 200, "OK", headers, body);
+        }
+        if (range.length == 0) {
+            closeQuietly(body);
+            headers.put("Content-Range", "bytes */" + length);
+            return new WebResourceResponse(mimeType, null, 416, "Range Not Satisfiable", headers,
+                    new ByteArrayInputStream(new byte[0]));
+        }
+        try {
+            // A seek on the descriptor, nothing is read.
+            long skipped = 0;
+            while (skipped < range[0]) {
+                long count = body.skip(range[0] - skipped);
+                if (count <= 0) throw new IOException("Unable to seek to " + range[0]);
+                skipped += count;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + contentUri, e);
+            closeQuietly(body);
+            return error(500, "Internal Server Error");
+        }
+        long rangeLength = range[1] - range[0] + 1;
+        headers.put("Content-Length", String.valueOf(rangeLength));
+        headers.put("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        return new WebResourceResponse(mimeType, null, 206, "Partial Content", headers,
+                new BoundedInputStream(body, rangeLength));
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        Uri contentUri = getContentUri(url);
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = mResolver.openAssetFileDescriptor(contentUri, "r");
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Unable to open " + contentUri, e);
+            return null;
+        }
+        if (descriptor == null) return null;
+        try {
+            return descriptor.createInputStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + contentUri, e);
+            closeQuietly(descriptor);
+            return null;
+        }
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        return getContentMimeType(getContentUri(url));
+    }
+
+    /**
+     * @return the provider's mime type for <code>contentUri</code>, cached per URI
+     */
+    public String getContentMimeType(Uri contentUri) {
+        String key = contentUri.toString();
+        synchronized (mMimeTypes) {
+            String cached = mMimeTypes.get(key);
+            if (cached != null) return cached;
+        }
+        String mimeType = null;
+        try {
+            mimeType = mResolver.getType(contentUri);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Not allowed to query the type of " + contentUri);
+        }
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(key);
+            if (extension != null) mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        }
+        if (mimeType == null) mimeType = DEFAULT_MIME_TYPE;
+        synchronized (mMimeTypes) {
+            mMimeTypes.put(key, mimeType);
+        }
+        return mimeType;
+    }
+
+    private static long getLength(AssetFileDescriptor descriptor) {
+        long length = descriptor.getLength();
+        if (length != AssetFileDescriptor.UNKNOWN_LENGTH) return length;
+        ParcelFileDescriptor parcel = descriptor.getParcelFileDescriptor();
+        long size = parcel == null ? -1 : parcel.getStatSize();
+        return size < 0 ? -1 : size - descriptor.getStartOffset();
+    }
+
+    /**
+     * @return null to serve the whole body, an empty array if the range cannot be satisfied,
+     * otherwise the first and last byte of a single range
+     */
+    private static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) return null;
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) return null;
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return new long[0];
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1
+                        : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (first >= length || first > last) return new long[0];
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    @TargetApi(21)
+    private static WebResourceResponse error(int statusCode, String reasonPhrase) {
+        return new WebResourceResponse("text/plain", "UTF-8", statusCode, reasonPhrase,
+                new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Ends a stream after a number of bytes.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long mRemaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) return -1;
+            int b = super.read();
+            if (b != -1) mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mRemaining <= 0) return -1;
+            int count = super.read(b, off, (int) Math.min(len, mRemaining));
+            if (count > 0) mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, mRemaining));
+            mRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), mRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
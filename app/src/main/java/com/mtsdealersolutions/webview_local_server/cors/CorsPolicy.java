@@ -0,0 +1,246 @@
+package com.mtsdealersolutions.webview_local_server.cors;
+
+import android.annotation.TargetApi;
+import android.text.TextUtils;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which other origins may call a host with <code>fetch()</code>, set with
+ * {@link com.mtsdealersolutions.webview_local_server.WebViewLocalServer.Builder#setCorsPolicy}.
+ * <p>
+ * OPTIONS requests, including CORS preflights, are answered by the policy without matching
+ * them to the host's handler or opening a body. Responses to requests from an allowed origin
+ * get the CORS response headers. The headers of both are built once per origin and reused.
+ * <pre>
+ *     new CorsPolicy.Builder()
+ *             .setAllowedOrigins("https://app.example.com")
+ *             .setAllowedMethods("GET", "POST")
+ *             .setAllowedHeaders("Content-Type", "Authorization")
+ *             .setMaxAge(600)
+ *             .build();
+ * </pre>
+ */
+@TargetApi(21)
+public class CorsPolicy {
+    private static final String ANY = "*";
+    // Origins seen are few, the bound only guards against a page making them up.
+    private static final int MAX_CACHED_ORIGINS = 64;
+
+    private final Set<String> mAllowedOrigins;
+    private final String mAllowedMethods;
+    private final String mAllowedHeaders;
+    private final String mExposedHeaders;
+    private final boolean mAllowCredentials;
+    private final int mMaxAge;
+    private final Map<String, Map<String, String>> mPreflightHeaders = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> mResponseHeaders = new ConcurrentHashMap<>();
+
+    private CorsPolicy(Builder builder) {
+        mAllowedOrigins = Collections.unmodifiableSet(new HashSet<>(builder.mAllowedOrigins));
+        mAllowedMethods = TextUtils.join(", ", builder.mAllowedMethods);
+        mAllowedHeaders = TextUtils.join(", ", builder.mAllowedHeaders);
+        mExposedHeaders = TextUtils.join(", ", builder.mExposedHeaders);
+        mAllowCredentials = builder.mAllowCredentials;
+        mMaxAge = builder.mMaxAge;
+    }
+
+    /**
+     * @return whether pages from <code>origin</code> may read the host's responses
+     */
+    public boolean isAllowed(String origin) {
+        return origin != null && (mAllowedOrigins.contains(ANY) || mAllowedOrigins.contains(origin));
+    }
+
+    /**
+     * Answers an OPTIONS request. A preflight from an allowed origin gets the allowed methods
+     * and headers, one from another origin gets a 403. Other OPTIONS requests get the
+     * allowed methods in an Allow header.
+     */
+    public WebResourceResponse preflight(WebResourceRequest request) {
+        Map<String, String> requestHeaders = request.getRequestHeaders();
+        String origin = getHeader(requestHeaders, "Origin");
+        if (getHeader(requestHeaders, "Access-Control-Request-Method") == null) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Allow", mAllowedMethods);
+            return emptyResponse(204, "No Content", headers);
+        }
+        if (!isAllowed(origin)) {
+            return emptyResponse(403, "Forbidden", new HashMap<String, String>());
+        }
+        return emptyResponse(204, "No Content", getPreflightHeaders(origin));
+    }
+
+    /**
+     * Adds the CORS response headers to <code>response</code> if <code>request</code> came
+     * from an allowed origin.
+     */
+    public void apply(WebResourceRequest request, WebResourceResponse response) {
+        String origin = getHeader(request.getRequestHeaders(), "Origin");
+        if (!isAllowed(origin)) return;
+        Map<String, String> corsHeaders = getResponseHeaders(origin);
+        Map<String, String> headers = response.getResponseHeaders();
+        headers = headers == null ? new HashMap<String, String>() : new HashMap<>(headers);
+        // Handlers and origins spell header names as they like, the policy's replace them.
+        String vary = null;
+        Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> header = iterator.next();
+            if ("Vary".equalsIgnoreCase(header.getKey())) {
+                vary = header.getValue();
+                iterator.remove();
+            } else if (getHeader(corsHeaders, header.getKey()) != null) {
+                iterator.remove();
+            }
+        }
+        headers.putAll(corsHeaders);
+        if (vary != null) headers.put("Vary", corsHeaders.containsKey("Vary") ? mergeVary(vary, "Origin") : vary);
+        response.setResponseHeaders(headers);
+    }
+
+    /**
+     * @return <code>vary</code> with <code>name</code> added unless it already names it
+     */
+    private static String mergeVary(String vary, String name) {
+        for (String token : vary.split(",")) {
+            String field = token.trim();
+            if (field.equals(ANY) || field.equalsIgnoreCase(name)) return vary;
+        }
+        return vary.trim().isEmpty() ? name : vary + ", " + name;
+    }
+
+    private Map<String, String> getPreflightHeaders(String origin) {
+        String key = echoesOrigin() ? origin : ANY;
+        Map<String, String> headers = mPreflightHeaders.get(key);
+        if (headers != null) return headers;
+
+        headers = new HashMap<>(getResponseHeaders(origin));
+        headers.remove("Access-Control-Expose-Headers");
+        headers.put("Access-Control-Allow-Methods", mAllowedMethods);
+        if (!mAllowedHeaders.isEmpty()) headers.put("Access-Control-Allow-Headers", mAllowedHeaders);
+        if (mMaxAge >= 0) headers.put("Access-Control-Max-Age", String.valueOf(mMaxAge));
+        headers = Collections.unmodifiableMap(headers);
+        if (mPreflightHeaders.size() < MAX_CACHED_ORIGINS) mPreflightHeaders.put(key, headers);
+        return headers;
+    }
+
+    private Map<String, String> getResponseHeaders(String origin) {
+        String key = echoesOrigin() ? origin : ANY;
+        Map<String, String> headers = mResponseHeaders.get(key);
+        if (headers != null) return headers;
+
+        headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", key);
+        // The answer depends on the origin whenever it is echoed.
+        if (echoesOrigin()) headers.put("Vary", "Origin");
+        if (mAllowCredentials) headers.put("Access-Control-Allow-Credentials", "true");
+        if (!mExposedHeaders.isEmpty()) headers.put("Access-Control-Expose-Headers", mExposedHeaders);
+        headers = Collections.unmodifiableMap(headers);
+        if (mResponseHeaders.size() < MAX_CACHED_ORIGINS) mResponseHeaders.put(key, headers);
+        return headers;
+    }
+
+    /**
+     * Browsers reject <code>*</code> for credentialed requests, so the origin is echoed then.
+     */
+    private boolean echoesOrigin() {
+        return !mAllowedOrigins.contains(ANY) || mAllowCredentials;
+    }
+
+    private static WebResourceResponse emptyResponse(int statusCode, String reasonPhrase, Map<String, String> headers) {
+        return new WebResourceResponse("text/plain", "UTF-8", statusCode, reasonPhrase, headers,
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    public static class Builder {
+        private Set<String> mAllowedOrigins = new LinkedHashSet<>();
+        private Set<String> mAllowedMethods = new LinkedHashSet<>(Arrays.asList("GET", "HEAD", "POST"));
+        private Set<String> mAllowedHeaders = new LinkedHashSet<>();
+        private Set<String> mExposedHeaders = new LinkedHashSet<>();
+        private boolean mAllowCredentials;
+        private int mMaxAge = -1;
+
+        /**
+         * @param origins the origins allowed, for example <code>https://app.example.com</code>,
+         *                or <code>*</code> for any
+         * @return this builder
+         */
+        public Builder setAllowedOrigins(String... origins) {
+            mAllowedOrigins = new LinkedHashSet<>(Arrays.asList(origins));
+            return this;
+        }
+
+        /**
+         * @param methods the methods allowed, default is GET, HEAD and POST
+         * @return this builder
+         */
+        public Builder setAllowedMethods(String... methods) {
+            mAllowedMethods = new LinkedHashSet<>(Arrays.asList(methods));
+            return this;
+        }
+
+        /**
+         * @param headers the request headers allowed beyond the CORS safelisted ones
+         * @return this builder
+         */
+        public Builder setAllowedHeaders(String... headers) {
+            mAllowedHeaders = new LinkedHashSet<>(Arrays.asList(headers));
+            return this;
+        }
+
+        /**
+         * @param headers the response headers pages may read beyond the CORS safelisted ones
+         * @return this builder
+         */
+        public Builder setExposedHeaders(String... headers) {
+            mExposedHeaders = new LinkedHashSet<>(Arrays.asList(headers));
+            return this;
+        }
+
+        /**
+         * @param allowCredentials true to let pages send cookies and read the responses
+         * @return this builder
+         */
+        public Builder setAllowCredentials(boolean allowCredentials) {
+            mAllowCredentials = allowCredentials;
+            return this;
+        }
+
+        /**
+         * @param maxAge the seconds a browser may cache a preflight answer, -1 (the default) to
+         *               leave it to the browser
+         * @return this builder
+         */
+        public Builder setMaxAge(int maxAge) {
+            mMaxAge = maxAge;
+            return this;
+        }
+
+        public CorsPolicy build() {
+            if (mAllowedOrigins.isEmpty())
+                throw new IllegalArgumentException("at least one origin must be allowed");
+            if (mAllowedMethods.isEmpty())
+                throw new IllegalArgumentException("at least one method must be allowed");
+            return new CorsPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.mtsdealersolutions.webview_local_server.deadline;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.cache.CachingInputStream;
+import com.mtsdealersolutions.webview_local_server.cache.DiskCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a route serves when its handler runs out of time, see
+ * {@link com.mtsdealersolutions.webview_local_server.WebViewLocalServer.Builder#setDeadline}.
+ */
+@TargetApi(21)
+public abstract class DeadlineFallback {
+    private static final String TAG = "DeadlineFallback";
+
+    /**
+     * @param url      the url whose handler ran out of time
+     * @param mimeType the mime type the handler would have served
+     * @return the response to serve instead
+     */
+    public abstract WebResourceResponse respond(Uri url, String mimeType);
+
+    /**
+     * Called with every body a handler produced in time, before it is served. Fallbacks that
+     * keep copies of earlier responses wrap it here.
+     *
+     * @return the body to serve, <code>body</code> by default
+     */
+    public InputStream onServed(Uri url, InputStream body) {
+        return body;
+    }
+
+    /**
+     * Answers 503 Service Unavailable with a Retry-After header.
+     */
+    public static DeadlineFallback serviceUnavailable(int retryAfterSeconds) {
+        return new Status(503, "Service Unavailable", retryAfterSeconds);
+    }
+
+    /**
+     * Answers 504 Gateway Timeout with a Retry-After header.
+     */
+    public static DeadlineFallback gatewayTimeout(int retryAfterSeconds) {
+        return new Status(504, "Gateway Timeout", retryAfterSeconds);
+    }
+
+    /**
+     * Serves a fixed body, for example a placeholder image or an html snippet telling the user
+     * to retry.
+     */
+    public static DeadlineFallback placeholder(final String mimeType, final byte[] body) {
+        if (body == null)
+            throw new IllegalArgumentException("body cannot be null");
+        return new DeadlineFallback() {
+            @Override
+            public WebResourceResponse respond(Uri url, String ignored) {
+                return new WebResourceResponse(mimeType, "UTF-8", 200, "OK", noStore(),
+                        new ByteArrayInputStream(body));
+            }
+        };
+    }
+
+    /**
+     * Serves the last body the handler produced in time for the url, kept in a disk cache, or
+     * <code>otherwise</code> if there is none.
+     *
+     * @param directory a directory used only for these copies
+     * @param maxSize   the most bytes kept on disk
+     */
+    public static DeadlineFallback staleCopy(File directory, long maxSize, DeadlineFallback otherwise) {
+        return new StaleCopy(directory, maxSize, otherwise);
+    }
+
+    private static Map<String, String> noStore() {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        return headers;
+    }
+
+    private static class Status extends DeadlineFallback {
+        private final int mStatusCode;
+        private final String mReasonPhrase;
+        private final int mRetryAfterSeconds;
+
+        Status(int statusCode, String reasonPhrase, int retryAfterSeconds) {
+            mStatusCode = statusCode;
+            mReasonPhrase = reasonPhrase;
+            mRetryAfterSeconds = retryAfterSeconds;
+        }
+
+        @Override
+        public WebResourceResponse respond(Uri url, String mimeType) {
+            Map<String, String> headers = noStore();
+            headers.put("Retry-After", Integer.toString(mRetryAfterSeconds));
+            return new WebResourceResponse("text/plain", "UTF-8", mStatusCode, mReasonPhrase, headers,
+                    new ByteArrayInputStream(new byte[0]));
+        }
+    }
+
+    private static class StaleCopy extends DeadlineFallback {
+        private final File mDirectory;
+        private final long mMaxSize;
+        private final DeadlineFallback mOtherwise;
+        private DiskCache mCache;
+        private boolean mCacheFailed;
+
+        StaleCopy(File directory, long maxSize, DeadlineFallback otherwise) {
+            if (directory == null || otherwise == null)
+                throw new IllegalArgumentException("directory and otherwise cannot be null");
+            mDirectory = directory;
+            mMaxSize = maxSize;
+            mOtherwise = otherwise;
+        }
+
+        @Override
+        public InputStream onServed(Uri url, InputStream body) {
+            DiskCache cache = getCache();
+            if (cache == null || body == null) return body;
+            try {
+                return new CachingInputStream(body, cache.edit(url.toString(), new byte[0]), mMaxSize / 8);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to keep a copy of " + url, e);
+                return body;
+            }
+        }
+
+        @Override
+        public WebResourceResponse respond(Uri url, String mimeType) {
+            DiskCache cache = getCache();
+            if (cache != null) {
+                try {
+                    DiskCache.Snapshot snapshot = cache.get(url.toString());
+                    if (snapshot != null) {
+                        return new WebResourceResponse(mimeType, "UTF-8", 200, "OK", noStore(), snapshot.getBody());
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to read the copy of " + url, e);
+                }
+            }
+            return mOtherwise.respond(url, mimeType);
+        }
+
+        private synchronized DiskCache getCache() {
+            if (mCache == null && !mCacheFailed) {
+                try {
+                    mCache = DiskCache.open(mDirectory, 1, mMaxSize);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open cache in " + mDirectory, e);
+                    mCacheFailed = true;
+                }
+            }
+            return mCache;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.mtsdealersolutions.webview_local_server.deadline;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs handlers that have a time budget on worker threads, so the calling Chromium thread
+ * waits no longer than the budget, and keeps track of the handlers that overran it.
+ * <p>
+ * A handler that overruns keeps its worker until it returns, its result is then closed. Workers
+ * are bounded: once every worker is held by a stuck handler, requests fail their budget at once
+ * instead of starting more threads.
+ */
+public class HandlerWatchdog {
+    private static final String TAG = "HandlerWatchdog";
+
+    public static final int DEFAULT_MAX_WORKERS = 16;
+
+    /**
+     * Opens a body. Runs on a worker thread.
+     */
+    public interface Opener<T extends Closeable> {
+        T open();
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Set<Call<?>> mCalls = Collections.newSetFromMap(new ConcurrentHashMap<Call<?>, Boolean>());
+    private final ConcurrentHashMap<String, AtomicLong> mTimeoutsByRoute = new ConcurrentHashMap<>();
+    private final AtomicLong mTimeouts = new AtomicLong();
+    private final AtomicLong mLateCompletions = new AtomicLong();
+    private final AtomicInteger mStuck = new AtomicInteger();
+
+    public HandlerWatchdog() {
+        this(DEFAULT_MAX_WORKERS);
+    }
+
+    public HandlerWatchdog(int maxWorkers) {
+        mExecutor = new ThreadPoolExecutor(0, maxWorkers, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "WebViewLocalServer-deadline-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Runs <code>opener</code> on a worker and waits for it at most <code>budgetMillis</code>.
+     *
+     * @param route the route being served, used to count and report overruns
+     * @param url   the url being served, used in reports
+     * @return what <code>opener</code> returned
+     * @throws TimeoutException if the budget ran out, or every worker is stuck
+     */
+    public <T extends Closeable> T run(String route, String url, long budgetMillis, Opener<T> opener)
+            throws TimeoutException {
+        Call<T> call = new Call<>(route, url, budgetMillis, opener);
+        mCalls.add(call);
+        try {
+            mExecutor.execute(call);
+        } catch (RejectedExecutionException e) {
+            mCalls.remove(call);
+            timedOut(route);
+            throw new TimeoutException("Every worker is held by a stuck handler");
+        }
+        return call.await();
+    }
+
+    /**
+     * Logs every handler that is still running past its budget, with the stack of its thread.
+     *
+     * @return the number of stuck handlers
+     */
+    public int reportStuck() {
+        int stuck = 0;
+        long now = System.nanoTime();
+        for (Call<?> call : mCalls) {
+            // In nanoseconds, a call that just ran out of its budget counts.
+            if (now - call.mStartNanos < TimeUnit.MILLISECONDS.toNanos(call.mBudgetMillis)) continue;
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(now - call.mStartNanos);
+            stuck++;
+            Throwable site = new Throwable("Handler thread");
+            Thread thread = call.mThread;
+            if (thread != null) site.setStackTrace(thread.getStackTrace());
+            Log.w(TAG, "Handler for " + call.mRoute + " stuck for " + elapsed + "ms on " + call.mUrl, site);
+        }
+        return stuck;
+    }
+
+    /**
+     * @return the number of handlers that overran their budget and have not returned yet
+     */
+    public int getStuckCount() {
+        return mStuck.get();
+    }
+
+    /**
+     * @return the number of requests that ran out of budget
+     */
+    public long getTimeoutCount() {
+        return mTimeouts.get();
+    }
+
+    /**
+     * @return the number of handlers that returned after their budget ran out
+     */
+    public long getLateCompletionCount() {
+        return mLateCompletions.get();
+    }
+
+    /**
+     * @return the number of requests that ran out of budget, by route
+     */
+    public Map<String, Long> getTimeoutCounts() {
+        HashMap<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mTimeoutsByRoute.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the routes of the handlers currently running, longest running first
+     */
+    public List<String> getRunningRoutes() {
+        ArrayList<Call<?>> calls = new ArrayList<>(mCalls);
+        Collections.sort(calls, new Comparator<Call<?>>() {
+            @Override
+            public int compare(Call<?> a, Call<?> b) {
+                return a.mStartNanos < b.mStartNanos ? -1 : a.mStartNanos == b.mStartNanos ? 0 : 1;
+            }
+        });
+        ArrayList<String> routes = new ArrayList<>(calls.size());
+        for (Call<?> call : calls) {
+            routes.add(call.mRoute);
+        }
+        return routes;
+    }
+
+    private void timedOut(String route) {
+        mTimeouts.incrementAndGet();
+        AtomicLong count = mTimeoutsByRoute.get(route);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = mTimeoutsByRoute.putIfAbsent(route, created);
+            if (count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    private class Call<T extends Closeable> implements Runnable {
+        final String mRoute;
+        final String mUrl;
+        final long mBudgetMillis;
+        final long mStartNanos = System.nanoTime();
+        final Opener<T> mOpener;
+        volatile Thread mThread;
+        private boolean mDone;
+        private boolean mAbandoned;
+        private T mResult;
+        private RuntimeException mError;
+
+        Call(String route, String url, long budgetMillis, Opener<T> opener) {
+            mRoute = route;
+            mUrl = url;
+            mBudgetMillis = budgetMillis;
+            mOpener = opener;
+        }
+
+        @Override
+        public void run() {
+            mThread = Thread.currentThread();
+            T result = null;
+            RuntimeException error = null;
+            try {
+                result = mOpener.open();
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                mThread = null;
+                mCalls.remove(this);
+            }
+            boolean abandoned;
+            synchronized (this) {
+                abandoned = mAbandoned;
+                mDone = true;
+                mResult = result;
+                mError = error;
+                notifyAll();
+            }
+            if (abandoned) {
+                mStuck.decrementAndGet();
+                mLateCompletions.incrementAndGet();
+                if (result != null) {
+                    try {
+                        result.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        synchronized T await() throws TimeoutException {
+            long deadline = mStartNanos + TimeUnit.MILLISECONDS.toNanos(mBudgetMillis);
+            boolean interrupted = false;
+            long remaining;
+            while (!mDone && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (!mDone) {
+                mAbandoned = true;
+                mStuck.incrementAndGet();
+                timedOut(mRoute);
+                throw new TimeoutException(mRoute + " ran out of its " + mBudgetMillis + "ms budget");
+            }
+            if (mError != null) throw mError;
+            return mResult;
+        }
+    }
+}
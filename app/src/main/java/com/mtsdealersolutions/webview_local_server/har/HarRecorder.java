@@ -0,0 +1,417 @@
+package com.mtsdealersolutions.webview_local_server.har;
+
+import android.annotation.TargetApi;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.utils.MeasuredInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a HAR 1.2 entry for every request a server intercepts, to look at slow loads offline
+ * (Chrome DevTools and most HAR viewers can open the files). Install it with
+ * {@link com.mtsdealersolutions.webview_local_server.WebViewLocalServer#setHarRecorder}.
+ * <p>
+ * An entry is complete once the WebView closes the response body: its timings run from the
+ * moment the request matched a handler, <code>wait</code> until the first byte of the body was
+ * read and <code>receive</code> until the body was closed. <code>bodySize</code> is the number
+ * of bytes the WebView read.
+ * <p>
+ * Intercepting threads only hand entries to a bounded queue, a background thread formats and
+ * writes them. Entries are dropped, not waited for, when the queue is full. The current file
+ * is a valid HAR document after every write and is rotated once it grows past the size limit:
+ * <code>name.har</code> is the newest file, <code>name.1.har</code> the one before and so on.
+ */
+@TargetApi(21)
+public class HarRecorder {
+    private static final String TAG = "HarRecorder";
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 3;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final String FOOTER = "\n]}}\n";
+
+    private final File mDirectory;
+    private final String mName;
+    private final long mMaxFileSize;
+    private final int mMaxFiles;
+    private final ArrayBlockingQueue<Entry> mQueue;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mWritten = new AtomicLong();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    private final Object mWriterLock = new Object();
+    private Thread mWriter;
+    private RandomAccessFile mFile;
+    private boolean mFileHasEntries;
+    private volatile boolean mClosed;
+
+    /**
+     * @param directory where the files are written
+     * @param name      the file name, without the <code>.har</code> extension
+     */
+    public HarRecorder(File directory, String name) {
+        this(directory, name, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param maxFileSize   the size past which the current file is rotated
+     * @param maxFiles      the number of files kept, including the current one
+     * @param queueCapacity the number of entries that can wait to be written
+     */
+    public HarRecorder(File directory, String name, long maxFileSize, int maxFiles, int queueCapacity) {
+        if (directory == null || name == null)
+            throw new IllegalArgumentException("directory and name cannot be null");
+        if (maxFiles <= 0 || queueCapacity <= 0)
+            throw new IllegalArgumentException("maxFiles and queueCapacity must be positive");
+        mDirectory = directory;
+        mName = name;
+        mMaxFileSize = maxFileSize;
+        mMaxFiles = maxFiles;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Records <code>response</code> as the answer to <code>request</code>. The entry is queued
+     * once the returned response's body is closed.
+     *
+     * @param matchedNanos the {@link System#nanoTime()} at which the request matched a handler
+     * @return <code>response</code>, with its body wrapped to measure it
+     */
+    public WebResourceResponse record(WebResourceRequest request, long matchedNanos, WebResourceResponse response) {
+        if (mClosed || response == null) return response;
+        Entry entry = new Entry(request, response, matchedNanos);
+        InputStream body = response.getData();
+        if (body == null) {
+            entry.finish(System.nanoTime());
+        } else {
+            response.setData(new MeasuredInputStream(body, entry));
+        }
+        return response;
+    }
+
+    /**
+     * @return the file entries are currently written to
+     */
+    public File getCurrentFile() {
+        return getFile(0);
+    }
+
+    /**
+     * @return the number of entries dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return the number of entries written so far
+     */
+    public long getWrittenCount() {
+        return mWritten.get();
+    }
+
+    /**
+     * Writes the queued entries and stops recording.
+     */
+    public void close() {
+        Thread writer;
+        synchronized (mWriterLock) {
+            mClosed = true;
+            writer = mWriter;
+        }
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            writeQueued();
+        }
+        closeFile();
+    }
+
+    private void enqueue(Entry entry) {
+        if (!mQueue.offer(entry)) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        synchronized (mWriterLock) {
+            if (mWriter != null || mClosed) return;
+            mWriter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, TAG);
+            mWriter.setDaemon(true);
+            mWriter.start();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (!mClosed) {
+                Entry first = mQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                ArrayList<Entry> batch = new ArrayList<>();
+                batch.add(first);
+                mQueue.drainTo(batch);
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        }
+        writeQueued();
+    }
+
+    private void writeQueued() {
+        ArrayList<Entry> batch = new ArrayList<>();
+        mQueue.drainTo(batch);
+        if (!batch.isEmpty()) write(batch);
+    }
+
+    private synchronized void write(ArrayList<Entry> batch) {
+        StringBuilder json = new StringBuilder(batch.size() * 1024);
+        for (Entry entry : batch) {
+            if (mFileHasEntries || json.length() > 0) json.append(",\n");
+            entry.toJson(json, mDateFormat);
+        }
+        try {
+            RandomAccessFile file = openFile();
+            // Overwrite the footer, so the file stays a complete document after every write.
+            file.seek(file.length() - FOOTER.length());
+            file.write((json + FOOTER).getBytes("UTF-8"));
+            mFileHasEntries = true;
+            mWritten.addAndGet(batch.size());
+            if (file.length() >= mMaxFileSize) rotate();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + batch.size() + " HAR entries", e);
+            closeFile();
+        }
+    }
+
+    private RandomAccessFile openFile() throws IOException {
+        if (mFile != null) return mFile;
+        mDirectory.mkdirs();
+        File current = getFile(0);
+        // Files of an earlier run are rotated rather than appended to.
+        if (current.exists()) rotate();
+        RandomAccessFile file = new RandomAccessFile(current, "rw");
+        file.setLength(0);
+        file.write(("{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"WebViewLocalServer\",\"version\":\"1.0\"},"
+                + "\"entries\":[" + FOOTER).getBytes("UTF-8"));
+        mFile = file;
+        mFileHasEntries = false;
+        return file;
+    }
+
+    private void rotate() {
+        closeFile();
+        getFile(mMaxFiles - 1).delete();
+        for (int i = mMaxFiles - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists() && !file.renameTo(getFile(i + 1))) {
+                Log.w(TAG, "Unable to rotate " + file);
+            }
+        }
+    }
+
+    private synchronized void closeFile() {
+        if (mFile == null) return;
+        try {
+            mFile.close();
+        } catch (IOException ignored) {
+        }
+        mFile = null;
+    }
+
+    private File getFile(int index) {
+        return new File(mDirectory, index == 0 ? mName + ".har" : mName + "." + index + ".har");
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void appendHeaders(StringBuilder json, Map<String, String> headers) {
+        json.append('[');
+        if (headers != null) {
+            boolean first = true;
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                json.append("{\"name\":");
+                appendString(json, header.getKey());
+                json.append(",\"value\":");
+                appendString(json, header.getValue());
+                json.append('}');
+            }
+        }
+        json.append(']');
+    }
+
+    private static void appendQueryString(StringBuilder json, String url) {
+        json.append('[');
+        int start = url.indexOf('?');
+        int end = url.indexOf('#');
+        if (start != -1 && (end == -1 || end > start)) {
+            String query = url.substring(start + 1, end == -1 ? url.length() : end);
+            boolean first = true;
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) continue;
+                int equals = pair.indexOf('=');
+                if (!first) json.append(',');
+                first = false;
+                json.append("{\"name\":");
+                appendString(json, decode(equals == -1 ? pair : pair.substring(0, equals)));
+                json.append(",\"value\":");
+                appendString(json, equals == -1 ? "" : decode(pair.substring(equals + 1)));
+                json.append('}');
+            }
+        }
+        json.append(']');
+    }
+
+    /**
+     * @return <code>nanos</code> in milliseconds, rounded to microseconds
+     */
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    private class Entry implements MeasuredInputStream.Listener {
+        final long mStartedMillis;
+        final long mMatchedNanos;
+        final String mMethod;
+        final String mUrl;
+        final Map<String, String> mRequestHeaders;
+        final int mStatus;
+        final String mStatusText;
+        final String mMimeType;
+        final Map<String, String> mResponseHeaders;
+        long mFirstByteNanos;
+        long mClosedNanos;
+        long mBodySize;
+
+        Entry(WebResourceRequest request, WebResourceResponse response, long matchedNanos) {
+            mMatchedNanos = matchedNanos;
+            mStartedMillis = System.currentTimeMillis() - (System.nanoTime() - matchedNanos) / 1000000;
+            mMethod = request.getMethod();
+            mUrl = request.getUrl().toString();
+            mRequestHeaders = request.getRequestHeaders();
+            mStatus = response.getStatusCode() <= 0 ? 200 : response.getStatusCode();
+            mStatusText = response.getReasonPhrase() == null ? "OK" : response.getReasonPhrase();
+            mMimeType = response.getMimeType();
+            mResponseHeaders = response.getResponseHeaders();
+        }
+
+        @Override
+        public void onFirstByte(long nanos) {
+            mFirstByteNanos = nanos;
+        }
+
+        @Override
+        public void onBytes(long count) {
+            mBodySize += count;
+        }
+
+        @Override
+        public void onClosed(long nanos) {
+            finish(nanos);
+        }
+
+        void finish(long closedNanos) {
+            mClosedNanos = closedNanos;
+            if (mFirstByteNanos == 0) mFirstByteNanos = closedNanos;
+            enqueue(this);
+        }
+
+        void toJson(StringBuilder json, SimpleDateFormat dateFormat) {
+            long wait = mFirstByteNanos - mMatchedNanos;
+            long receive = mClosedNanos - mFirstByteNanos;
+            json.append("{\"startedDateTime\":");
+            appendString(json, dateFormat.format(new Date(mStartedMillis)));
+            json.append(",\"time\":").append(toMillis(wait + receive));
+            json.append(",\"request\":{\"method\":");
+            appendString(json, mMethod);
+            json.append(",\"url\":");
+            appendString(json, mUrl);
+            json.append(",\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],\"headers\":");
+            appendHeaders(json, mRequestHeaders);
+            json.append(",\"queryString\":");
+            appendQueryString(json, mUrl);
+            json.append(",\"headersSize\":-1,\"bodySize\":-1}");
+            json.append(",\"response\":{\"status\":").append(mStatus);
+            json.append(",\"statusText\":");
+            appendString(json, mStatusText);
+            json.append(",\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],\"headers\":");
+            appendHeaders(json, mResponseHeaders);
+            json.append(",\"content\":{\"size\":").append(mBodySize).append(",\"mimeType\":");
+            appendString(json, mMimeType == null ? "" : mMimeType);
+            json.append("},\"redirectURL\":\"\",\"headersSize\":-1,\"bodySize\":").append(mBodySize).append('}');
+            json.append(",\"cache\":{},\"timings\":{\"blocked\":-1,\"dns\":-1,\"connect\":-1,\"ssl\":-1,\"send\":0");
+            json.append(",\"wait\":").append(toMillis(wait));
+            json.append(",\"receive\":").append(toMillis(receive));
+            json.append("}}");
+        }
+    }
+}
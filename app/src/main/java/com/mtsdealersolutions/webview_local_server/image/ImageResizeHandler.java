@@ -0,0 +1,367 @@
+package com.mtsdealersolutions.webview_local_server.image;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.cache.DiskCache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves resized variants of the images another handler serves.
+ * <p>
+ * <code>?w=</code> and <code>?h=</code> bound the width and height in pixels (the aspect ratio
+ * is kept and images are never enlarged), <code>?q=</code> sets the quality (1-100, default 80)
+ * and <code>?fm=jpeg</code> picks JPEG instead of the default WebP. Urls without these
+ * parameters, and urls that are not PNG, JPEG or WebP images, are passed through unchanged.
+ * <p>
+ * Images are decoded with <code>inSampleSize</code> so only about the requested resolution is
+ * ever held in memory, and are encoded on a small dedicated pool which also bounds how many
+ * bitmaps exist at once. Results are kept in a {@link DiskCache} keyed by the source's version
+ * (its ETag when known) and the parameters, and concurrent requests for the same variant share
+ * one encode. Until a variant is cached the original is served and the variant is encoded in
+ * the background. Transparent images asked for as JPEG are drawn over white.
+ */
+public class ImageResizeHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "ImageResizeHandler";
+
+    public static final long DEFAULT_MAX_CACHE_SIZE = 30 * 1024 * 1024;
+    public static final int DEFAULT_QUALITY = 80;
+    public static final int MAX_DIMENSION = 4096;
+
+    private static final ExecutorService ENCODE_EXECUTOR = new ThreadPoolExecutor(0, 2, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ImageResize");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final WebViewLocalServer.PathHandler mSource;
+    private final File mCacheDirectory;
+    private final long mMaxCacheSize;
+    private final String mSourceVersion;
+    private final ConcurrentHashMap<String, FutureTask<Boolean>> mEncoding = new ConcurrentHashMap<>();
+    private DiskCache mCache;
+    private boolean mCacheFailed;
+
+    /**
+     * @param source         serves the original images
+     * @param cacheDirectory a directory used only by this handler
+     * @param maxCacheSize   the most bytes of resized images kept on disk
+     * @param sourceVersion  changes whenever the originals may have changed, for example the
+     *                       app's version, used for sources without an ETag
+     */
+    public ImageResizeHandler(WebViewLocalServer.PathHandler source, File cacheDirectory, long maxCacheSize,
+                              String sourceVersion) {
+        if (source == null || cacheDirectory == null)
+            throw new IllegalArgumentException("source and cacheDirectory cannot be null");
+        mSource = source;
+        mCacheDirectory = cacheDirectory;
+        mMaxCacheSize = maxCacheSize;
+        mSourceVersion = sourceVersion == null ? "" : sourceVersion;
+    }
+
+    /**
+     * The parameters of a resized variant, null if the url asks for the original.
+     */
+    private static class Variant {
+        int width;
+        int height;
+        int quality;
+        Bitmap.CompressFormat format;
+
+        String getMimeType() {
+            return format == Bitmap.CompressFormat.JPEG ? "image/jpeg" : "image/webp";
+        }
+    }
+
+    private static Variant getVariant(Uri url) {
+        String path = url.getPath();
+        if (path == null) return null;
+        path = path.toLowerCase(Locale.US);
+        if (!path.endsWith(".png") && !path.endsWith(".jpg") && !path.endsWith(".jpeg") && !path.endsWith(".webp"))
+            return null;
+        if (url.getQueryParameter("w") == null && url.getQueryParameter("h") == null
+                && url.getQueryParameter("q") == null && url.getQueryParameter("fm") == null)
+            return null;
+
+        Variant variant = new Variant();
+        variant.width = parse(url.getQueryParameter("w"), 0, MAX_DIMENSION);
+        variant.height = parse(url.getQueryParameter("h"), 0, MAX_DIMENSION);
+        variant.quality = parse(url.getQueryParameter("q"), DEFAULT_QUALITY, 100);
+        if (variant.quality <= 0) variant.quality = DEFAULT_QUALITY;
+        variant.format = "jpeg".equals(url.getQueryParameter("fm")) || "jpg".equals(url.getQueryParameter("fm"))
+                ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.WEBP;
+        return variant;
+    }
+
+    private static int parse(String value, int defaultValue, int max) {
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(0, Math.min(max, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the original url, without the resize parameters
+     */
+    private static Uri getSourceUrl(Uri url) {
+        return url.buildUpon().clearQuery().build();
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        Variant variant = getVariant(url);
+        if (variant == null) return mSource.handle(url);
+
+        DiskCache cache = getCache();
+        if (cache == null) return null;
+        String key = getCacheKey(url, variant);
+        try {
+            DiskCache.Snapshot snapshot = cache.get(key);
+            if (snapshot != null) return snapshot.getBody();
+
+            // Only reached when the variant was not selected up front (before Lollipop) or was
+            // evicted since: this runs on the thread reading the body, never the intercepting one.
+            if (startEncode(cache, key, url, variant).get()) {
+                snapshot = cache.get(key);
+                if (snapshot != null) return snapshot.getBody();
+            }
+        } catch (IOException | ExecutionException e) {
+            Log.w(TAG, "Unable to resize " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The response is already labelled with the variant's type, the original cannot be sent.
+        return null;
+    }
+
+    /**
+     * Starts encoding a variant on the encode pool unless it is already being encoded.
+     *
+     * @return the encode, true once the variant is in the cache
+     */
+    private Future<Boolean> startEncode(final DiskCache cache, final String key, Uri url, final Variant variant) {
+        final Uri source = getSourceUrl(url);
+        FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                // A previous encode may have finished between the caller's lookup and now.
+                return cache.contains(key) || encode(cache, key, source, variant);
+            }
+        }) {
+            @Override
+            protected void done() {
+                mEncoding.remove(key, this);
+            }
+        };
+        FutureTask<Boolean> running = mEncoding.putIfAbsent(key, task);
+        if (running != null) return running;
+        ENCODE_EXECUTOR.execute(task);
+        return task;
+    }
+
+    private String getCacheKey(Uri url, Variant variant) {
+        Uri source = getSourceUrl(url);
+        Map<String, String> headers = mSource.getResponseHeaders(source);
+        String version = headers == null ? null : headers.get("ETag");
+        return source + "#" + (version == null ? mSourceVersion : version) + "#" + variant.width + "x"
+                + variant.height + "q" + variant.quality + variant.format;
+    }
+
+    private boolean encode(DiskCache cache, String key, Uri source, Variant variant) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (!decode(source, options) || options.outWidth <= 0 || options.outHeight <= 0) return false;
+
+        int[] size = getTargetSize(options.outWidth, options.outHeight, variant);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, size[0], size[1]);
+        Bitmap decoded = decodeBitmap(source, options);
+        if (decoded == null) return false;
+
+        Bitmap scaled = decoded;
+        try {
+            if (decoded.getWidth() != size[0] || decoded.getHeight() != size[1]) {
+                scaled = Bitmap.createScaledBitmap(decoded, size[0], size[1], true);
+            }
+            if (variant.format == Bitmap.CompressFormat.JPEG && scaled.hasAlpha()) {
+                Bitmap opaque = flatten(scaled);
+                if (scaled != decoded) scaled.recycle();
+                scaled = opaque;
+            }
+            DiskCache.Editor editor = cache.edit(key, new byte[0]);
+            try {
+                OutputStream out = new BufferedOutputStream(editor.getOutputStream());
+                if (!scaled.compress(variant.format, variant.quality, out)) throw new IOException("compress failed");
+                out.flush();
+                editor.commit();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                editor.abort();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to encode " + source, e);
+            return false;
+        } finally {
+            if (scaled != decoded) scaled.recycle();
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * JPEG has no alpha channel, encoders write transparent pixels as black. Draws
+     * <code>bitmap</code> over white instead, the usual page background.
+     */
+    static Bitmap flatten(Bitmap bitmap) {
+        Bitmap opaque = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(opaque);
+        canvas.drawColor(Color.WHITE);
+        canvas.drawBitmap(bitmap, 0, 0, null);
+        return opaque;
+    }
+
+    private boolean decode(Uri source, BitmapFactory.Options options) {
+        decodeBitmap(source, options);
+        return options.outWidth > 0;
+    }
+
+    private Bitmap decodeBitmap(Uri source, BitmapFactory.Options options) {
+        InputStream in = mSource.handle(source);
+        if (in == null) return null;
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the size that fits the requested bounds, keeping the aspect ratio and never larger
+     * than the original
+     */
+    private static int[] getTargetSize(int width, int height, Variant variant) {
+        float scale = 1;
+        if (variant.width > 0) scale = Math.min(scale, variant.width / (float) width);
+        if (variant.height > 0) scale = Math.min(scale, variant.height / (float) height);
+        return new int[]{Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale))};
+    }
+
+    /**
+     * @return the largest power of two that keeps the decoded image at least the target size
+     */
+    private static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return the disk cache, opening it on first use, or null if it cannot be opened
+     */
+    public synchronized DiskCache getCache() {
+        if (mCache == null && !mCacheFailed) {
+            try {
+                mCache = DiskCache.open(mCacheDirectory, 1, mMaxCacheSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open image cache in " + mCacheDirectory, e);
+                mCacheFailed = true;
+            }
+        }
+        return mCache;
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        Variant variant = getVariant(url);
+        return variant == null ? mSource.getMimeType(url) : variant.getMimeType();
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders(Uri url) {
+        Map<String, String> headers = mSource.getResponseHeaders(url);
+        if (getVariant(url) == null || headers == null) return headers;
+        // The original's length and ETag do not describe the variant.
+        headers = new HashMap<>(headers);
+        headers.remove("Content-Length");
+        headers.remove("ETag");
+        return headers;
+    }
+
+    @Override
+    public boolean isKnownMissing(Uri url) {
+        return mSource.isKnownMissing(url);
+    }
+
+    /**
+     * Serves the variant if it is cached. Otherwise starts encoding it and serves the original,
+     * with the original's type, so the intercepting thread never waits for an encode.
+     */
+    @TargetApi(21)
+    @Override
+    public Uri selectVariant(WebResourceRequest request) {
+        Uri url = request.getUrl();
+        Variant variant = getVariant(url);
+        // Explicit resize parameters take precedence over negotiated variants.
+        if (variant == null) return mSource.selectVariant(request);
+        DiskCache cache = getCache();
+        if (cache == null) return getSourceUrl(url);
+        String key = getCacheKey(url, variant);
+        if (cache.contains(key)) return url;
+        startEncode(cache, key, url, variant);
+        return getSourceUrl(url);
+    }
+
+    @Override
+    public String getVary(Uri url) {
+        return getVariant(url) == null ? mSource.getVary(url) : null;
+    }
+
+    @Override
+    public void prefetch(Uri url) {
+        Variant variant = getVariant(url);
+        if (variant == null) {
+            mSource.prefetch(url);
+            return;
+        }
+        DiskCache cache = getCache();
+        if (cache == null) return;
+        String key = getCacheKey(url, variant);
+        if (!cache.contains(key)) startEncode(cache, key, url, variant);
+    }
+}
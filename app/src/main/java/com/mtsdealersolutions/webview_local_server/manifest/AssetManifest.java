@@ -0,0 +1,140 @@
+package com.mtsdealersolutions.webview_local_server.manifest;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * The size, content hash, mime type and APK compression of every asset, read from the binary
+ * manifest the <code>generateAssetManifest</code> Gradle task writes at build time.
+ * <p>
+ * Format, all big endian:
+ * <pre>
+ *     int    magic 0x57564d46
+ *     int    version
+ *     int    mime type count, then each mime type as modified UTF-8
+ *     int    entry count, then for each entry:
+ *            UTF    path relative to the assets directory
+ *            long   size in bytes
+ *            long   first 8 bytes of the SHA-1 of the content
+ *            short  index of the mime type, -1 if unknown
+ *            byte   flags, {@link #FLAG_COMPRESSED} if the asset is deflated in the APK
+ * </pre>
+ */
+public class AssetManifest {
+
+    public static final String DEFAULT_PATH = "webview_local_server/asset_manifest.bin";
+    public static final int FLAG_COMPRESSED = 1;
+
+    private static final int MAGIC = 0x57564d46;
+    private static final int VERSION = 1;
+
+    private final HashMap<String, Entry> mEntries;
+
+    private AssetManifest(HashMap<String, Entry> entries) {
+        mEntries = entries;
+    }
+
+    /**
+     * Reads a manifest. The stream is closed.
+     */
+    public static AssetManifest read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not an asset manifest");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported asset manifest version " + version);
+
+            String[] mimeTypes = new String[in.readInt()];
+            for (int i = 0; i < mimeTypes.length; i++) {
+                mimeTypes[i] = in.readUTF().intern();
+            }
+            int count = in.readInt();
+            HashMap<String, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long hash = in.readLong();
+                int mime = in.readShort();
+                int flags = in.readByte();
+                entries.put(path, new Entry(size, hash, mime < 0 ? null : mimeTypes[mime], flags));
+            }
+            return new AssetManifest(entries);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param path the path of the asset relative to the assets directory
+     * @return the asset's entry, or null if there is no such asset
+     */
+    public Entry get(String path) {
+        while (path.startsWith("/")) path = path.substring(1);
+        return mEntries.get(path);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the paths of all assets
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    public static class Entry {
+        private final long mSize;
+        private final long mHash;
+        private final String mMimeType;
+        private final int mFlags;
+        private String mETag;
+
+        Entry(long size, long hash, String mimeType, int flags) {
+            mSize = size;
+            mHash = hash;
+            mMimeType = mimeType;
+            mFlags = flags;
+        }
+
+        /**
+         * @return the uncompressed size in bytes
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        public long getHash() {
+            return mHash;
+        }
+
+        /**
+         * @return a strong ETag derived from the content hash
+         */
+        public String getETag() {
+            if (mETag == null) mETag = "\"" + Long.toHexString(mHash) + "\"";
+            return mETag;
+        }
+
+        /**
+         * @return the mime type, or null if the build did not know it
+         */
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        /**
+         * @return true if the asset is deflated in the APK and cannot be opened as a file
+         * descriptor
+         */
+        public boolean isCompressed() {
+            return (mFlags & FLAG_COMPRESSED) != 0;
+        }
+    }
+}
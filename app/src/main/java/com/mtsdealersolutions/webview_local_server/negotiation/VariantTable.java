@@ -0,0 +1,208 @@
+package com.mtsdealersolutions.webview_local_server.negotiation;
+
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks which pre-built variant of an asset to serve for a request.
+ * <p>
+ * Variants are sibling assets found in the {@link AssetManifest}:
+ * <ul>
+ * <li><code>hero.avif</code> and <code>hero.webp</code> next to <code>hero.png</code> (or any
+ * other image) are served instead of it when the <code>Accept</code> header allows them, the
+ * smallest acceptable file wins.</li>
+ * <li><code>app.legacy.js</code> next to <code>app.js</code> is served instead of it to
+ * WebViews too old for ES modules (Chrome before 61), judged by the <code>User-Agent</code>.</li>
+ * </ul>
+ * The choice for every combination of capabilities is computed when the table is built, and
+ * the capabilities of each distinct pair of headers are parsed once, so negotiating a request
+ * is two map lookups.
+ */
+public class VariantTable {
+
+    public static final int CAPABILITY_AVIF = 1;
+    public static final int CAPABILITY_WEBP = 1 << 1;
+    public static final int CAPABILITY_MODERN_SCRIPT = 1 << 2;
+    private static final int CAPABILITY_COMBINATIONS = 1 << 3;
+
+    public static final int MIN_MODERN_CHROME_VERSION = 61;
+
+    private static final String[] IMAGE_EXTENSIONS = {"png", "jpg", "jpeg", "gif", "webp", "avif"};
+    private static final String LEGACY_SCRIPT_SUFFIX = ".legacy.js";
+    private static final Pattern CHROME_VERSION = Pattern.compile("Chrome/(\\d{1,6})");
+    private static final int MAX_FINGERPRINTS = 64;
+
+    private final Map<String, Negotiated> mNegotiated;
+    private final ConcurrentHashMap<String, Integer> mCapabilities = new ConcurrentHashMap<>();
+
+    private VariantTable(Map<String, Negotiated> negotiated) {
+        mNegotiated = negotiated;
+    }
+
+    /**
+     * The variants of one requested path.
+     */
+    private static class Negotiated {
+        // Indexed by capabilities.
+        final String[] choices = new String[CAPABILITY_COMBINATIONS];
+        String vary;
+    }
+
+    public static VariantTable build(AssetManifest manifest) {
+        // Group images by their path without extension.
+        Map<String, List<String>> images = new HashMap<>();
+        for (String path : manifest.getPaths()) {
+            String extension = getExtension(path);
+            if (extension == null || !isImage(extension)) continue;
+            String base = path.substring(0, path.length() - extension.length() - 1);
+            List<String> group = images.get(base);
+            if (group == null) images.put(base, group = new ArrayList<>());
+            group.add(path);
+        }
+
+        Map<String, Negotiated> negotiated = new HashMap<>();
+        for (List<String> group : images.values()) {
+            if (group.size() < 2) continue;
+            for (String requested : group) {
+                Negotiated entry = new Negotiated();
+                entry.vary = "Accept";
+                for (int capabilities = 0; capabilities < CAPABILITY_COMBINATIONS; capabilities++) {
+                    String best = requested;
+                    long bestSize = manifest.get(requested).getSize();
+                    for (String candidate : group) {
+                        String extension = getExtension(candidate);
+                        boolean acceptable = ("avif".equals(extension) && (capabilities & CAPABILITY_AVIF) != 0)
+                                || ("webp".equals(extension) && (capabilities & CAPABILITY_WEBP) != 0);
+                        long size = manifest.get(candidate).getSize();
+                        if (acceptable && size < bestSize) {
+                            best = candidate;
+                            bestSize = size;
+                        }
+                    }
+                    entry.choices[capabilities] = best;
+                }
+                negotiated.put(requested, entry);
+            }
+        }
+
+        for (String path : manifest.getPaths()) {
+            if (!path.endsWith(LEGACY_SCRIPT_SUFFIX)) continue;
+            String modern = path.substring(0, path.length() - LEGACY_SCRIPT_SUFFIX.length()) + ".js";
+            if (manifest.get(modern) == null) continue;
+            Negotiated entry = new Negotiated();
+            entry.vary = "User-Agent";
+            for (int capabilities = 0; capabilities < CAPABILITY_COMBINATIONS; capabilities++) {
+                entry.choices[capabilities] = (capabilities & CAPABILITY_MODERN_SCRIPT) != 0 ? modern : path;
+            }
+            negotiated.put(modern, entry);
+        }
+        return new VariantTable(negotiated);
+    }
+
+    /**
+     * @param path         the requested asset path
+     * @param capabilities from {@link #getCapabilities(String, String)}
+     * @return the path of the asset to serve
+     */
+    public String choose(String path, int capabilities) {
+        Negotiated entry = mNegotiated.get(path);
+        return entry == null ? path : entry.choices[capabilities & (CAPABILITY_COMBINATIONS - 1)];
+    }
+
+    /**
+     * @return the value of the Vary header for <code>path</code>, null if it has no variants
+     */
+    public String getVary(String path) {
+        Negotiated entry = mNegotiated.get(path);
+        return entry == null ? null : entry.vary;
+    }
+
+    /**
+     * @return the number of paths that have variants
+     */
+    public int size() {
+        return mNegotiated.size();
+    }
+
+    /**
+     * @return the capabilities the headers announce, cached per distinct pair of headers
+     */
+    public int getCapabilities(String accept, String userAgent) {
+        String fingerprint = accept + '\n' + userAgent;
+        Integer cached = mCapabilities.get(fingerprint);
+        if (cached != null) return cached;
+
+        int capabilities = 0;
+        if (accept != null) {
+            String lower = accept.toLowerCase(Locale.US);
+            if (isAccepted(lower, "image/avif")) capabilities |= CAPABILITY_AVIF;
+            if (isAccepted(lower, "image/webp")) capabilities |= CAPABILITY_WEBP;
+        }
+        Matcher chrome = userAgent == null ? null : CHROME_VERSION.matcher(userAgent);
+        if (chrome == null || !chrome.find() || Integer.parseInt(chrome.group(1)) >= MIN_MODERN_CHROME_VERSION) {
+            capabilities |= CAPABILITY_MODERN_SCRIPT;
+        }
+
+        // The headers hardly ever change, a full table means something varies per request.
+        if (mCapabilities.size() >= MAX_FINGERPRINTS) mCapabilities.clear();
+        mCapabilities.put(fingerprint, capabilities);
+        return capabilities;
+    }
+
+    /**
+     * Only an explicit media range counts, <code>image/*</code> and <code>*&#47;*</code> are
+     * sent by every WebView whatever it decodes.
+     *
+     * @param accept the lower case Accept header
+     * @return whether <code>type</code> is listed with a quality above 0
+     */
+    static boolean isAccepted(String accept, String type) {
+        int start = 0;
+        while (start < accept.length()) {
+            int end = accept.indexOf(',', start);
+            if (end == -1) end = accept.length();
+            String[] params = accept.substring(start, end).split(";");
+            if (params[0].trim().equals(type)) {
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=") && getQuality(param.substring(2).trim()) <= 0) return false;
+                }
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return the quality value, 0 if it cannot be parsed
+     */
+    private static float getQuality(String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String getExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot == -1 || dot < path.lastIndexOf('/')) return null;
+        return path.substring(dot + 1).toLowerCase(Locale.US);
+    }
+
+    private static boolean isImage(String extension) {
+        for (String image : IMAGE_EXTENSIONS) {
+            if (image.equals(extension)) return true;
+        }
+        return false;
+    }
+}
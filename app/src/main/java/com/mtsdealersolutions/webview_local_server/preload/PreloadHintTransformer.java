@@ -0,0 +1,72 @@
+package com.mtsdealersolutions.webview_local_server.preload;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.transform.HeadInjectionTransformer;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformer;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a <code>&lt;link rel="preload"&gt;</code> right after <code>&lt;head&gt;</code> for
+ * every resource {@link PreloadHints} predicts for the document, so Chromium requests them
+ * before it discovers them in the markup.
+ * <p>
+ * Only scripts, stylesheets, fonts and images are hinted, other types have no safe
+ * <code>as</code> value.
+ */
+public class PreloadHintTransformer extends HtmlTransformer {
+
+    private final PreloadHints mHints;
+
+    public PreloadHintTransformer(PreloadHints hints) {
+        if (hints == null)
+            throw new IllegalArgumentException("hints cannot be null");
+        mHints = hints;
+    }
+
+    @Override
+    public HtmlTransformer forDocument(Uri url) {
+        List<String> predicted = mHints.predict(url.toString());
+        if (predicted.isEmpty()) return this;
+
+        StringBuilder markup = new StringBuilder();
+        for (String resource : predicted) {
+            String as = getDestination(resource);
+            if (as == null) continue;
+            markup.append("<link rel=\"preload\" href=\"")
+                    .append(HeadInjectionTransformer.escapeAttribute(resource))
+                    .append("\" as=\"").append(as).append('"');
+            // Fonts are always fetched in cors mode, the hint must match to be used.
+            if ("font".equals(as)) markup.append(" crossorigin");
+            markup.append('>');
+        }
+        if (markup.length() == 0) return this;
+
+        final String links = markup.toString();
+        return new HtmlTransformer() {
+            @Override
+            public String afterStartTag(String tagName) {
+                return "head".equals(tagName) ? links : null;
+            }
+        };
+    }
+
+    /**
+     * @return the <code>as</code> value for <code>url</code>, or null to not hint it
+     */
+    protected String getDestination(String url) {
+        String path = Uri.parse(url).getPath();
+        if (path == null) return null;
+        path = path.toLowerCase(Locale.US);
+        if (path.endsWith(".js") || path.endsWith(".mjs")) return "script";
+        if (path.endsWith(".css")) return "style";
+        if (path.endsWith(".woff2") || path.endsWith(".woff") || path.endsWith(".ttf") || path.endsWith(".otf"))
+            return "font";
+        if (path.endsWith(".png") || path.endsWith(".jpg") || path.endsWith(".jpeg") || path.endsWith(".gif")
+                || path.endsWith(".webp") || path.endsWith(".svg"))
+            return "image";
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+package com.mtsdealersolutions.webview_local_server.preload;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.utils.AppVersion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Learns which sub-resources each document loads so they can be warmed before the WebView asks
+ * for them on the next load.
+ * <p>
+ * Every load of a document opens a session that collects the urls requested for it, in order.
+ * When the document loads again the session is folded into a short per-resource history of the
+ * last eight loads. A resource is predicted if the previous load used it or at least two of the
+ * last four did, so one-off requests are not predicted and resources that stop being used age
+ * out.
+ * <p>
+ * The model is bounded to a number of documents (least recently loaded are dropped) and
+ * resources per document, and is persisted in a small binary file that is discarded when the
+ * app build changes.
+ */
+public class PreloadHints {
+    private static final String TAG = "PreloadHints";
+
+    public static final int DEFAULT_MAX_DOCUMENTS = 32;
+    public static final int DEFAULT_MAX_RESOURCES = 48;
+
+    private static final int MAGIC = 0x57565048;
+    private static final int FORMAT_VERSION = 2;
+    // Sessions without a request for this long are considered finished when saving.
+    private static final long SESSION_IDLE_MILLIS = 10 * 1000;
+    private static final long MIN_SAVE_INTERVAL_MILLIS = 10 * 1000;
+
+    private final File mFile;
+    private final String mBuildVersion;
+    private final int mMaxDocuments;
+    private final int mMaxResources;
+    private final LinkedHashMap<String, Document> mDocuments = new LinkedHashMap<>(16, 0.75f, true);
+    private String mLastDocument;
+    private boolean mLoaded;
+    private boolean mDirty;
+    private long mLastSave;
+
+    private long mHits;
+    private long mMisses;
+    private long mWasted;
+
+    /**
+     * @param file         where the model is persisted, null to keep it in memory only
+     * @param buildVersion identifies the app build, a saved model of another build is discarded
+     */
+    public PreloadHints(File file, String buildVersion) {
+        this(file, buildVersion, DEFAULT_MAX_DOCUMENTS, DEFAULT_MAX_RESOURCES);
+    }
+
+    public PreloadHints(File file, String buildVersion, int maxDocuments, int maxResources) {
+        if (maxDocuments <= 0 || maxResources <= 0)
+            throw new IllegalArgumentException("maxDocuments and maxResources must be positive");
+        mFile = file;
+        mBuildVersion = buildVersion == null ? "" : buildVersion;
+        mMaxDocuments = maxDocuments;
+        mMaxResources = maxResources;
+    }
+
+    /**
+     * Creates hints persisted in the app's cache directory and versioned by the installed build.
+     */
+    public static PreloadHints forContext(Context context) {
+        String buildVersion = AppVersion.of(context);
+        if (buildVersion == null) {
+            Log.w(TAG, "Unable to read the app version, hints are not versioned");
+            buildVersion = "";
+        }
+        return new PreloadHints(new File(context.getCacheDir(), "webview_local_server_preload_hints"), buildVersion);
+    }
+
+    /**
+     * Starts a new load of <code>url</code>, finishing the previous load of it.
+     *
+     * @return the resources predicted for this load, in the order they were requested
+     */
+    public synchronized List<String> onDocument(String url) {
+        ensureLoaded();
+        Document document = mDocuments.get(url);
+        if (document == null) {
+            document = new Document();
+            mDocuments.put(url, document);
+            trimDocuments();
+        } else {
+            finishSession(document);
+        }
+        document.session = new LinkedHashSet<>();
+        document.predicted = predict(document);
+        document.lastActivity = System.currentTimeMillis();
+        mLastDocument = url;
+        return document.predicted;
+    }
+
+    /**
+     * Records that <code>url</code> was requested for a document.
+     *
+     * @param documentUrl the requesting document, usually the Referer, null or unknown to use
+     *                    the document that started loading last
+     */
+    public synchronized void onResource(String documentUrl, String url) {
+        Document document = documentUrl == null ? null : mDocuments.get(documentUrl);
+        if (document == null || document.session == null) {
+            document = mLastDocument == null ? null : mDocuments.get(mLastDocument);
+        }
+        if (document == null || document.session == null) return;
+        if (document.session.size() < mMaxResources) document.session.add(url);
+        document.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the resources predicted for the next load of <code>url</code>
+     */
+    public synchronized List<String> predict(String url) {
+        ensureLoaded();
+        Document document = mDocuments.get(url);
+        if (document == null) return Collections.emptyList();
+        if (document.predicted != null) return document.predicted;
+        return predict(document);
+    }
+
+    private List<String> predict(Document document) {
+        ArrayList<Map.Entry<String, Resource>> predicted = new ArrayList<>();
+        for (Map.Entry<String, Resource> entry : document.resources.entrySet()) {
+            int history = entry.getValue().history;
+            if ((history & 1) != 0 || Integer.bitCount(history & 0xf) >= 2) predicted.add(entry);
+        }
+        Collections.sort(predicted, new Comparator<Map.Entry<String, Resource>>() {
+            @Override
+            public int compare(Map.Entry<String, Resource> a, Map.Entry<String, Resource> b) {
+                return a.getValue().order - b.getValue().order;
+            }
+        });
+        ArrayList<String> urls = new ArrayList<>(predicted.size());
+        for (Map.Entry<String, Resource> entry : predicted) {
+            urls.add(entry.getKey());
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    private void finishSession(Document document) {
+        LinkedHashSet<String> session = document.session;
+        if (session == null) return;
+        document.session = null;
+
+        if (document.predicted != null) {
+            for (String url : document.predicted) {
+                if (session.contains(url)) mHits++;
+                else mWasted++;
+            }
+            for (String url : session) {
+                if (!document.predicted.contains(url)) mMisses++;
+            }
+            document.predicted = null;
+        }
+
+        Iterator<Map.Entry<String, Resource>> iterator = document.resources.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Resource resource = iterator.next().getValue();
+            resource.history = (resource.history << 1) & 0xff;
+            if (resource.history == 0) iterator.remove();
+        }
+        int order = 0;
+        for (String url : session) {
+            Resource resource = document.resources.get(url);
+            if (resource == null) {
+                if (document.resources.size() >= mMaxResources) continue;
+                resource = new Resource();
+                document.resources.put(url, resource);
+            }
+            resource.history |= 1;
+            resource.order = order++;
+        }
+        mDirty = true;
+    }
+
+    private void trimDocuments() {
+        Iterator<String> iterator = mDocuments.keySet().iterator();
+        while (mDocuments.size() > mMaxDocuments && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Writes the model if it changed and was not written recently. Sessions that have been idle
+     * for a while are folded in first. Call this off the main thread.
+     */
+    public void saveIfDirty() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - mLastSave < MIN_SAVE_INTERVAL_MILLIS) return;
+            for (Document document : mDocuments.values()) {
+                if (document.session != null && now - document.lastActivity > SESSION_IDLE_MILLIS) {
+                    finishSession(document);
+                }
+            }
+            if (!mDirty) return;
+        }
+        save();
+    }
+
+    /**
+     * Writes the model now. The file is replaced atomically.
+     */
+    public synchronized void save() {
+        if (mFile == null) return;
+        ensureLoaded();
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, mBuildVersion);
+                out.writeInt(mDocuments.size());
+                for (Map.Entry<String, Document> entry : mDocuments.entrySet()) {
+                    String documentUrl = entry.getKey();
+                    writeString(out, documentUrl);
+                    out.writeShort(entry.getValue().resources.size());
+                    for (Map.Entry<String, Resource> resource : entry.getValue().resources.entrySet()) {
+                        // Resources usually share the document's origin, store only what differs.
+                        String url = resource.getKey();
+                        int common = commonPrefix(documentUrl, url);
+                        out.writeShort(common);
+                        writeString(out, url.substring(common));
+                        out.writeByte(resource.getValue().history);
+                        out.writeShort(resource.getValue().order);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(mFile)) throw new IOException("Unable to replace " + mFile);
+            mDirty = false;
+            mLastSave = System.currentTimeMillis();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save preload hints", e);
+            tmp.delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) return;
+        mLoaded = true;
+        if (mFile == null) return;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            // No string is longer than the file, so a corrupt length cannot allocate more.
+            long limit = mFile.length();
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !mBuildVersion.equals(readString(in, limit))) {
+                // Another build's resources, start over.
+                return;
+            }
+            int documents = in.readInt();
+            for (int i = 0; i < documents; i++) {
+                String documentUrl = readString(in, limit);
+                Document document = new Document();
+                int resources = in.readUnsignedShort();
+                for (int j = 0; j < resources; j++) {
+                    int common = in.readUnsignedShort();
+                    String url = documentUrl.substring(0, common) + readString(in, limit);
+                    Resource resource = new Resource();
+                    resource.history = in.readUnsignedByte();
+                    resource.order = in.readUnsignedShort();
+                    if (document.resources.size() < mMaxResources) document.resources.put(url, resource);
+                }
+                mDocuments.put(documentUrl, document);
+            }
+            trimDocuments();
+        } catch (FileNotFoundException e) {
+            // Nothing learned yet.
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable preload hints", e);
+            mDocuments.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string. Unlike writeUTF it has no 64KB limit, data: and
+     * long query urls can exceed that.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long limit) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) throw new IOException("bad string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    /**
+     * Forgets everything learned, including the saved file.
+     */
+    public synchronized void clear() {
+        mDocuments.clear();
+        mLastDocument = null;
+        mLoaded = true;
+        mDirty = false;
+        if (mFile != null) mFile.delete();
+    }
+
+    /**
+     * @return predicted resources the finished loads requested
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return resources finished loads requested that were not predicted
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return predicted resources the finished loads did not request
+     */
+    public synchronized long getWastedCount() {
+        return mWasted;
+    }
+
+    /**
+     * @return the fraction of predictions that were used, 0 before any load finished
+     */
+    public synchronized float getPrecision() {
+        return mHits + mWasted == 0 ? 0 : mHits / (float) (mHits + mWasted);
+    }
+
+    /**
+     * @return the fraction of requested resources that were predicted, 0 before any load finished
+     */
+    public synchronized float getRecall() {
+        return mHits + mMisses == 0 ? 0 : mHits / (float) (mHits + mMisses);
+    }
+
+    private static class Document {
+        final LinkedHashMap<String, Resource> resources = new LinkedHashMap<>();
+        LinkedHashSet<String> session;
+        List<String> predicted;
+        long lastActivity;
+    }
+
+    private static class Resource {
+        // Bit 0 is the latest finished load.
+        int history;
+        int order;
+    }
+}
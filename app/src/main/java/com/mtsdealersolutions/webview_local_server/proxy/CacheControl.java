@@ -0,0 +1,118 @@
+package com.mtsdealersolutions.webview_local_server.proxy;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The parts of a response's caching headers the proxy cares about.
+ * <p>
+ * The proxy is a private cache, it serves one user, so <code>private</code> responses are
+ * stored and <code>s-maxage</code>, which only applies to shared caches, is ignored.
+ */
+public class CacheControl {
+
+    /**
+     * Larger ages are treated as this many seconds, so that ages in milliseconds cannot overflow.
+     */
+    public static final long MAX_DELTA_SECONDS = 1L << 31;
+
+    private final boolean mNoStore;
+    private final boolean mNoCache;
+    private final long mMaxAgeSeconds;
+    private final long mStaleWhileRevalidateSeconds;
+
+    private CacheControl(boolean noStore, boolean noCache, long maxAgeSeconds, long staleWhileRevalidateSeconds) {
+        mNoStore = noStore;
+        mNoCache = noCache;
+        mMaxAgeSeconds = maxAgeSeconds;
+        mStaleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+    }
+
+    /**
+     * @param cacheControl the Cache-Control header, may be null
+     * @param expires      the Expires header, used when there is no max-age, may be null
+     * @param date         the Date header, the base for Expires, may be null
+     * @param now          the current time in milliseconds
+     */
+    public static CacheControl parse(String cacheControl, String expires, String date, long now) {
+        boolean noStore = false;
+        boolean noCache = false;
+        long maxAge = -1;
+        long staleWhileRevalidate = 0;
+        boolean mustRevalidate = false;
+
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-store")) {
+                    noStore = true;
+                } else if (directive.equals("no-cache")) {
+                    noCache = true;
+                } else if (directive.equals("must-revalidate")) {
+                    mustRevalidate = true;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring(8));
+                } else if (directive.startsWith("stale-while-revalidate=")) {
+                    staleWhileRevalidate = Math.max(0, parseSeconds(directive.substring(23)));
+                }
+            }
+        }
+        if (mustRevalidate) staleWhileRevalidate = 0;
+        if (maxAge < 0 && expires != null) {
+            long expiresAt = parseDate(expires);
+            long dateAt = date == null ? now : parseDate(date);
+            if (expiresAt > 0 && dateAt > 0) maxAge = Math.min(MAX_DELTA_SECONDS, Math.max(0, (expiresAt - dateAt) / 1000));
+            else maxAge = 0;
+        }
+        return new CacheControl(noStore, noCache, Math.max(0, maxAge), staleWhileRevalidate);
+    }
+
+    /**
+     * @return false if the response must not be written to the cache
+     */
+    public boolean isStorable() {
+        return !mNoStore;
+    }
+
+    /**
+     * @return true if the response must be revalidated before every use
+     */
+    public boolean isNoCache() {
+        return mNoCache;
+    }
+
+    public long getMaxAgeSeconds() {
+        return mNoCache ? 0 : mMaxAgeSeconds;
+    }
+
+    public long getStaleWhileRevalidateSeconds() {
+        return mStaleWhileRevalidateSeconds;
+    }
+
+    private static long parseSeconds(String value) {
+        value = value.trim();
+        if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (value.length() == 0) return -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+        }
+        // Too many digits for a long is still a valid, very large age.
+        if (value.length() > 10) return MAX_DELTA_SECONDS;
+        return Math.min(MAX_DELTA_SECONDS, Long.parseLong(value));
+    }
+
+    private static long parseDate(String value) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.mtsdealersolutions.webview_local_server.proxy;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.cache.CachingInputStream;
+import com.mtsdealersolutions.webview_local_server.cache.DiskCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WebViewLocalServer.PathHandler} that fetches a remote origin itself and keeps the
+ * responses in a {@link DiskCache}, so CDN fonts, scripts and API GETs survive cold starts.
+ * <p>
+ * Caching follows the origin's Cache-Control (and Expires) headers: fresh entries are served
+ * from disk, stale entries inside their <code>stale-while-revalidate</code> window are served
+ * from disk while a background request refreshes them, and older entries are revalidated with
+ * a conditional request. If the origin cannot be reached a cached copy is served regardless of
+ * its age.
+ * <p>
+ * One copy is kept per url. If the origin sends <code>Vary</code>, the copy is only served to
+ * requests that send the same values for the named headers, other requests fetch and replace it.
+ * Redirects are followed, across protocols too, and the final response is served.
+ * <p>
+ * Only GET and HEAD requests are proxied, the server answers HEAD without contacting the
+ * origin. No cookies are sent, so use this for public resources.
+ */
+public class ProxyPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "ProxyPathHandler";
+
+    public static final long DEFAULT_MAX_CACHE_SIZE = 20 * 1024 * 1024;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+
+    // Bumped when the metadata layout of cached entries changes.
+    private static final int CACHE_VERSION = 2;
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final String[] FORWARDED_REQUEST_HEADERS = {"Accept", "Accept-Language", "User-Agent"};
+    private static final String[] PASSED_RESPONSE_HEADERS = {"Cache-Control", "ETag", "Last-Modified",
+            "Expires", "Content-Language", "Access-Control-Allow-Origin", "Timing-Allow-Origin", "Vary"};
+
+    private static final Executor REVALIDATION_EXECUTOR = newRevalidationExecutor();
+
+    /**
+     * Up to two threads, which exit after 30 seconds without work. A pool with fewer core than
+     * maximum threads and an unbounded queue would never start its second thread.
+     */
+    private static ThreadPoolExecutor newRevalidationExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ProxyRevalidation");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final File mCacheDirectory;
+    private final long mMaxCacheSize;
+    private final String mUpstreamOrigin;
+    private final int mTimeoutMillis;
+    private final ConcurrentHashMap<String, Boolean> mRevalidating = new ConcurrentHashMap<>();
+    private DiskCache mCache;
+    private boolean mCacheFailed;
+
+    /**
+     * @param cacheDirectory a directory used only by this handler
+     * @param maxCacheSize   the most bytes kept on disk
+     * @param upstreamOrigin fetch from this origin (example <code>http://127.0.0.1:8080</code>)
+     *                       instead of the requested one, null to fetch the requested url
+     * @param timeoutMillis  connect and read timeout for the origin
+     */
+    public ProxyPathHandler(File cacheDirectory, long maxCacheSize, String upstreamOrigin, int timeoutMillis) {
+        if (cacheDirectory == null)
+            throw new IllegalArgumentException("cacheDirectory cannot be null");
+        mCacheDirectory = cacheDirectory;
+        mMaxCacheSize = maxCacheSize;
+        mUpstreamOrigin = upstreamOrigin;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean shouldIntercept(WebResourceRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod());
+    }
+
+    @TargetApi(21)
+    @Override
+    public WebResourceResponse respond(WebResourceRequest request) {
+        Response response = load(request.getUrl(), request.getRequestHeaders());
+        if (response == null) {
+            return new WebResourceResponse("text/plain", "UTF-8", 502, "Bad Gateway",
+                    new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+        }
+        Entry entry = response.entry;
+        return new WebResourceResponse(entry.mimeType, entry.encoding, entry.statusCode,
+                entry.reasonPhrase, new HashMap<>(entry.headers), response.body);
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        Response response = load(url, null);
+        return response == null ? null : response.body;
+    }
+
+    /**
+     * Fetches <code>url</code> into the cache in the background unless a fresh copy is cached.
+     */
+    @Override
+    public void prefetch(Uri url) {
+        DiskCache cache = getCache();
+        if (cache == null) return;
+        String key = url.toString();
+        DiskCache.Snapshot snapshot = null;
+        try {
+            snapshot = cache.get(key);
+            if (snapshot != null) {
+                Entry cached = Entry.decode(snapshot.getMetadata());
+                if (cached.matches(null)
+                        && System.currentTimeMillis() - cached.fetchedAt < cached.maxAgeSeconds * 1000) return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read cached " + key, e);
+        } finally {
+            closeQuietly(snapshot);
+        }
+        revalidateAsync(key, url, null);
+    }
+
+    /**
+     * @return the disk cache, opening it on first use, or null if it cannot be opened
+     */
+    public synchronized DiskCache getCache() {
+        if (mCache == null && !mCacheFailed) {
+            try {
+                mCache = DiskCache.open(mCacheDirectory, CACHE_VERSION, mMaxCacheSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open proxy cache in " + mCacheDirectory, e);
+                mCacheFailed = true;
+            }
+        }
+        return mCache;
+    }
+
+    private Response load(Uri url, Map<String, String> requestHeaders) {
+        String key = url.toString();
+        DiskCache cache = getCache();
+        DiskCache.Snapshot snapshot = null;
+        Entry cached = null;
+        if (cache != null) {
+            try {
+                snapshot = cache.get(key);
+                if (snapshot != null) cached = Entry.decode(snapshot.getMetadata());
+                if (cached != null && !cached.matches(requestHeaders)) {
+                    // Another variant, fetched and stored in its place.
+                    closeQuietly(snapshot);
+                    snapshot = null;
+                    cached = null;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read cached " + key, e);
+                closeQuietly(snapshot);
+                snapshot = null;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (cached != null) {
+            long age = now - cached.fetchedAt;
+            if (age < cached.maxAgeSeconds * 1000) {
+                return new Response(cached, snapshot.getBody());
+            }
+            if (age < (cached.maxAgeSeconds + cached.staleWhileRevalidateSeconds) * 1000) {
+                revalidateAsync(key, url, requestHeaders);
+                return new Response(cached, snapshot.getBody());
+            }
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = open(url, requestHeaders, cached);
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                if (cached != null) {
+                    try {
+                        refreshCached(cache, key, snapshot, cached.refresh(connection, now));
+                    } catch (IOException e) {
+                        Log.w(TAG, "Unable to refresh cached " + key + ": " + e.getMessage());
+                    }
+                    closeQuietly(snapshot);
+                    snapshot = null;
+                    // Either the refreshed entry or, if that failed, the old one.
+                    DiskCache.Snapshot updated = cache.get(key);
+                    if (updated != null) {
+                        Entry entry = Entry.decode(updated.getMetadata());
+                        if (entry.matches(requestHeaders)) return new Response(entry, updated.getBody());
+                        updated.close();
+                    }
+                }
+                // Nothing left to answer the 304 with, ask again without validators.
+                connection = open(url, requestHeaders, null);
+            }
+            closeQuietly(snapshot);
+            return fetched(cache, key, connection, now, requestHeaders);
+        } catch (IOException e) {
+            if (connection != null) connection.disconnect();
+            closeQuietly(snapshot);
+            if (cached != null) {
+                Log.w(TAG, "Serving stale " + key + ", origin unreachable: " + e.getMessage());
+                // Reopened, the first snapshot may already have been consumed.
+                try {
+                    DiskCache.Snapshot stale = cache.get(key);
+                    if (stale != null) {
+                        Entry entry = Entry.decode(stale.getMetadata());
+                        if (entry.matches(requestHeaders)) return new Response(entry, stale.getBody());
+                        stale.close();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+            Log.e(TAG, "Unable to fetch " + key, e);
+            return null;
+        }
+    }
+
+    private Response fetched(DiskCache cache, String key, final HttpURLConnection connection, long now,
+                             Map<String, String> requestHeaders) throws IOException {
+        int statusCode = connection.getResponseCode();
+        Entry entry = Entry.from(connection, now, requestHeaders);
+        InputStream body = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body == null) body = new ByteArrayInputStream(new byte[0]);
+        body = new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+
+        if (statusCode < 200 || (statusCode >= 300 && statusCode < 400)) {
+            // WebResourceResponse does not accept these, the origin redirected too often or
+            // answered a request without validators with 304.
+            body.close();
+            return null;
+        }
+        if (cache != null && statusCode == HttpURLConnection.HTTP_OK && entry.isStorable) {
+            DiskCache.Editor editor = cache.edit(key, entry.encode());
+            body = new CachingInputStream(body, editor, mMaxCacheSize / 8);
+        }
+        return new Response(entry, body);
+    }
+
+    private void revalidateAsync(final String key, final Uri url, final Map<String, String> requestHeaders) {
+        if (mRevalidating.putIfAbsent(key, Boolean.TRUE) != null) return;
+        REVALIDATION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                DiskCache.Snapshot snapshot = null;
+                try {
+                    DiskCache cache = getCache();
+                    snapshot = cache.get(key);
+                    Entry cached = snapshot == null ? null : Entry.decode(snapshot.getMetadata());
+                    if (cached != null && !cached.matches(requestHeaders)) cached = null;
+                    long now = System.currentTimeMillis();
+                    HttpURLConnection connection = open(url, requestHeaders, cached);
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                        connection.disconnect();
+                        refreshCached(cache, key, snapshot, cached.refresh(connection, now));
+                        return;
+                    }
+                    if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        connection.disconnect();
+                        connection = open(url, requestHeaders, null);
+                    }
+                    Response response = fetched(cache, key, connection, now, requestHeaders);
+                    if (response != null) {
+                        // Reading to the end commits the entry.
+                        byte[] buffer = new byte[8 * 1024];
+                        while (response.body.read(buffer) != -1) ;
+                        response.body.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to revalidate " + key + ": " + e.getMessage());
+                } finally {
+                    closeQuietly(snapshot);
+                    mRevalidating.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites a cached entry with new metadata after the origin answered 304. The caller closes
+     * <code>snapshot</code>.
+     */
+    private static void refreshCached(DiskCache cache, String key, DiskCache.Snapshot snapshot, Entry refreshed)
+            throws IOException {
+        DiskCache.Editor editor = cache.edit(key, refreshed.encode());
+        try {
+            InputStream in = snapshot.getBody();
+            OutputStream out = editor.getOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            editor.commit();
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to the origin, following redirects itself since HttpURLConnection does not
+     * follow them from http to https or back.
+     */
+    private HttpURLConnection open(Uri url, Map<String, String> requestHeaders, Entry cached) throws IOException {
+        URL upstream = new URL(url.toString());
+        if (mUpstreamOrigin != null) {
+            upstream = new URL(mUpstreamOrigin + url.getEncodedPath()
+                    + (url.getQuery() == null ? "" : "?" + url.getEncodedQuery()));
+        }
+        for (int redirects = 0; ; redirects++) {
+            HttpURLConnection connection = connect(upstream, requestHeaders, cached);
+            int statusCode = connection.getResponseCode();
+            if (!isRedirect(statusCode)) return connection;
+            String location = connection.getHeaderField("Location");
+            connection.disconnect();
+            if (location == null || redirects == MAX_REDIRECTS)
+                throw new IOException("Unable to follow redirect " + statusCode + " from " + upstream);
+            upstream = new URL(upstream, location);
+            if (!"http".equals(upstream.getProtocol()) && !"https".equals(upstream.getProtocol()))
+                throw new IOException("Unable to follow redirect to " + upstream);
+        }
+    }
+
+    private HttpURLConnection connect(URL upstream, Map<String, String> requestHeaders, Entry cached)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) upstream.openConnection();
+        connection.setConnectTimeout(mTimeoutMillis);
+        connection.setReadTimeout(mTimeoutMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        for (String forwarded : FORWARDED_REQUEST_HEADERS) {
+            String value = header(requestHeaders, forwarded);
+            if (value != null) connection.setRequestProperty(forwarded, value);
+        }
+        if (cached != null) {
+            if (cached.etag != null) connection.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModified != null) connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+        }
+        return connection;
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        switch (statusCode) {
+            case HttpURLConnection.HTTP_MULT_CHOICE:
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case HttpURLConnection.HTTP_SEE_OTHER:
+            case 307:
+            case 308:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the value of request header <code>name</code> as sent to the origin, null if the
+     * request has none or the header is not forwarded
+     */
+    private static String forwardedHeader(Map<String, String> requestHeaders, String name) {
+        for (String forwarded : FORWARDED_REQUEST_HEADERS) {
+            if (forwarded.equalsIgnoreCase(name)) return header(requestHeaders, forwarded);
+        }
+        return null;
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    private static void closeQuietly(DiskCache.Snapshot snapshot) {
+        if (snapshot != null) snapshot.close();
+    }
+
+    private static class Response {
+        final Entry entry;
+        final InputStream body;
+
+        Response(Entry entry, InputStream body) {
+            this.entry = entry;
+            this.body = body;
+        }
+    }
+
+    /**
+     * What is stored ahead of each cached body.
+     */
+    private static class Entry {
+        int statusCode;
+        String reasonPhrase;
+        String mimeType;
+        String encoding;
+        Map<String, String> headers = new HashMap<>();
+        long fetchedAt;
+        long maxAgeSeconds;
+        long staleWhileRevalidateSeconds;
+        String etag;
+        String lastModified;
+        // Lower case names of the headers in Vary to the request's values, null if not sent.
+        Map<String, String> varied = new HashMap<>();
+        boolean isStorable;
+
+        static Entry from(HttpURLConnection connection, long now, Map<String, String> requestHeaders)
+                throws IOException {
+            Entry entry = new Entry();
+            entry.statusCode = connection.getResponseCode();
+            entry.reasonPhrase = connection.getResponseMessage();
+            if (entry.reasonPhrase == null || entry.reasonPhrase.length() == 0) entry.reasonPhrase = "OK";
+
+            String contentType = connection.getContentType();
+            if (contentType != null) {
+                String[] parts = contentType.split(";");
+                entry.mimeType = parts[0].trim();
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.toLowerCase(Locale.US).startsWith("charset=")) {
+                        entry.encoding = parameter.substring(8).replace("\"", "");
+                    }
+                }
+            }
+
+            Map<String, List<String>> fields = connection.getHeaderFields();
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                if (field.getKey() == null || field.getValue() == null || field.getValue().isEmpty()) continue;
+                for (String passed : PASSED_RESPONSE_HEADERS) {
+                    if (passed.equalsIgnoreCase(field.getKey())) {
+                        entry.headers.put(passed, field.getValue().get(field.getValue().size() - 1));
+                    }
+                }
+            }
+            entry.etag = entry.headers.get("ETag");
+            entry.lastModified = entry.headers.get("Last-Modified");
+            entry.applyCacheControl(connection, now);
+            String vary = entry.headers.get("Vary");
+            if (vary != null) {
+                for (String name : vary.split(",")) {
+                    name = name.trim().toLowerCase(Locale.US);
+                    if (name.equals("*")) entry.isStorable = false;
+                    else if (name.length() > 0) entry.varied.put(name, forwardedHeader(requestHeaders, name));
+                }
+            }
+            return entry;
+        }
+
+        /**
+         * @return true if this entry is the variant <code>requestHeaders</code> would get
+         */
+        boolean matches(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> varied : this.varied.entrySet()) {
+                String value = forwardedHeader(requestHeaders, varied.getKey());
+                if (value == null ? varied.getValue() != null : !value.equals(varied.getValue())) return false;
+            }
+            return true;
+        }
+
+        Entry refresh(HttpURLConnection notModified, long now) {
+            Entry entry = decodeCopy();
+            entry.applyCacheControl(notModified, now);
+            String etag = notModified.getHeaderField("ETag");
+            if (etag != null) {
+                entry.etag = etag;
+                entry.headers.put("ETag", etag);
+            }
+            return entry;
+        }
+
+        private void applyCacheControl(HttpURLConnection connection, long now) {
+            CacheControl cacheControl = CacheControl.parse(connection.getHeaderField("Cache-Control"),
+                    connection.getHeaderField("Expires"), connection.getHeaderField("Date"), now);
+            fetchedAt = now;
+            maxAgeSeconds = cacheControl.getMaxAgeSeconds();
+            staleWhileRevalidateSeconds = cacheControl.getStaleWhileRevalidateSeconds();
+            isStorable = cacheControl.isStorable();
+        }
+
+        private Entry decodeCopy() {
+            try {
+                return decode(encode());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(statusCode);
+            out.writeUTF(reasonPhrase);
+            writeNullable(out, mimeType);
+            writeNullable(out, encoding);
+            out.writeLong(fetchedAt);
+            out.writeLong(maxAgeSeconds);
+            out.writeLong(staleWhileRevalidateSeconds);
+            writeNullable(out, etag);
+            writeNullable(out, lastModified);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(varied.size());
+            for (Map.Entry<String, String> header : varied.entrySet()) {
+                out.writeUTF(header.getKey());
+                writeNullable(out, header.getValue());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Entry decode(byte[] metadata) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+            Entry entry = new Entry();
+            entry.statusCode = in.readInt();
+            entry.reasonPhrase = in.readUTF();
+            entry.mimeType = readNullable(in);
+            entry.encoding = readNullable(in);
+            entry.fetchedAt = in.readLong();
+            entry.maxAgeSeconds = in.readLong();
+            entry.staleWhileRevalidateSeconds = in.readLong();
+            entry.etag = readNullable(in);
+            entry.lastModified = readNullable(in);
+            int headerCount = in.readInt();
+            for (int i = 0; i < headerCount; i++) {
+                entry.headers.put(in.readUTF(), in.readUTF());
+            }
+            int variedCount = in.readInt();
+            for (int i = 0; i < variedCount; i++) {
+                entry.varied.put(in.readUTF(), readNullable(in));
+            }
+            entry.isStorable = true;
+            return entry;
+        }
+
+        private static void writeNullable(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) out.writeUTF(value);
+        }
+
+        private static String readNullable(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.mtsdealersolutions.webview_local_server.route;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the paths a {@link com.mtsdealersolutions.webview_local_server.WebViewLocalServer.PathHandler}
+ * serves. The <code>route-processor</code> annotation processor collects every annotated
+ * handler into a generated {@link RouterPathHandler} that dispatches with nested switches:
+ * <pre>
+ *     &#64;LocalRoute("/api/**")
+ *     public class ApiHandler extends WebViewLocalServer.PathHandler { ... }
+ *
+ *     server.createHost(builder, new LocalRoutes());
+ * </pre>
+ * A path is matched segment by segment: <code>*</code> matches any one segment and a trailing
+ * <code>**</code> matches one or more. Literal segments win over <code>*</code>, which wins over
+ * <code>**</code>. Two handlers declaring the same path fail the build.
+ * <p>
+ * Annotated classes must be public, not abstract and have a public no-argument constructor.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface LocalRoute {
+    /**
+     * @return the paths served, starting with <code>/</code>
+     */
+    String[] value();
+}
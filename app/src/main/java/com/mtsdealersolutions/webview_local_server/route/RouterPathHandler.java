@@ -0,0 +1,124 @@
+package com.mtsdealersolutions.webview_local_server.route;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link WebViewLocalServer.PathHandler} that hands each request to one of several handlers
+ * by its path. The routing code is generated from {@link LocalRoute} annotations, so no matcher
+ * is built at runtime.
+ * <p>
+ * The server resolves the route once per request, see {@link WebViewLocalServer#getHandler},
+ * and serves it with the matched handler as if it was registered on its own: its status,
+ * encoding, html transformers, CORS policy and deadline apply. The html transformers of the
+ * host the router is created for are added to every routed handler, its deadline and CORS
+ * policy apply to those that have none of their own. Requests no handler matches are not
+ * intercepted.
+ * <p>
+ * The methods below route each call themselves, for code that holds the router rather than
+ * the server.
+ */
+public abstract class RouterPathHandler extends WebViewLocalServer.PathHandler {
+
+    /**
+     * @param segments the decoded path segments of the url
+     * @return the handler for the path, or null if none matches
+     */
+    protected abstract WebViewLocalServer.PathHandler route(List<String> segments);
+
+    /**
+     * @return the paths routed, in the order they were declared
+     */
+    public abstract List<String> getRoutes();
+
+    /**
+     * @return every handler routed to, each once
+     */
+    public abstract List<WebViewLocalServer.PathHandler> getHandlers();
+
+    /**
+     * @return the handler for <code>url</code>, or null if none matches
+     */
+    public WebViewLocalServer.PathHandler route(Uri url) {
+        return route(url.getPathSegments());
+    }
+
+    @TargetApi(21)
+    @Override
+    public boolean shouldIntercept(WebResourceRequest request) {
+        WebViewLocalServer.PathHandler handler = route(request.getUrl());
+        return handler != null && handler.shouldIntercept(request);
+    }
+
+    @TargetApi(21)
+    @Override
+    public WebResourceResponse respond(WebResourceRequest request) {
+        WebViewLocalServer.PathHandler handler = route(request.getUrl());
+        return handler == null ? null : handler.respond(request);
+    }
+
+    @TargetApi(21)
+    @Override
+    public InputStream handle(WebResourceRequest request) {
+        WebViewLocalServer.PathHandler handler = route(request.getUrl());
+        return handler == null ? null : handler.handle(request);
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null ? null : handler.handle(url);
+    }
+
+    @Override
+    public ResponseBody handleBody(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null ? null : handler.handleBody(url);
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null ? null : handler.getMimeType(url);
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null ? getResponseHeaders() : handler.getResponseHeaders(url);
+    }
+
+    @TargetApi(21)
+    @Override
+    public Uri selectVariant(WebResourceRequest request) {
+        WebViewLocalServer.PathHandler handler = route(request.getUrl());
+        return handler == null ? request.getUrl() : handler.selectVariant(request);
+    }
+
+    @Override
+    public boolean isKnownMissing(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null || handler.isKnownMissing(url);
+    }
+
+    @Override
+    public String getVary(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        return handler == null ? null : handler.getVary(url);
+    }
+
+    @Override
+    public void prefetch(Uri url) {
+        WebViewLocalServer.PathHandler handler = route(url);
+        if (handler != null) handler.prefetch(url);
+    }
+}
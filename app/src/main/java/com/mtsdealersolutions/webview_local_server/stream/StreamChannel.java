@@ -0,0 +1,267 @@
+package com.mtsdealersolutions.webview_local_server.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded byte pipe between a producer thread and the WebView reading a response body.
+ * <p>
+ * The producer writes through {@link #getWriter()}, the WebView reads {@link #getReader()}.
+ * When the buffer is full the writer either blocks until the page has read enough
+ * ({@link Backpressure#BLOCK}) or drops the write ({@link Backpressure#DROP}), for data where
+ * only the latest values matter. Dropping writes report it: {@link Writer#offer} and
+ * {@link Writer#write(String)} return false, the plain OutputStream writes throw
+ * {@link OverflowException}. Closing the reader, which the WebView does when the request
+ * is cancelled, cancels the channel: writes then fail with {@link CancelledException} so the
+ * producer stops.
+ */
+public class StreamChannel {
+
+    public static final int DEFAULT_CAPACITY = 256 * 1024;
+
+    public enum Backpressure {
+        /**
+         * Writers wait for free space.
+         */
+        BLOCK,
+        /**
+         * Writes that do not fit are dropped whole.
+         */
+        DROP
+    }
+
+    /**
+     * Thrown to a writer once the reader went away.
+     */
+    public static class CancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CancelledException() {
+            super("The reader closed the stream");
+        }
+    }
+
+    /**
+     * Thrown by the OutputStream writes of a {@link Backpressure#DROP} channel when the bytes
+     * did not fit and were dropped. The channel stays usable.
+     */
+    public static class OverflowException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OverflowException(int length) {
+            super("Dropped " + length + " bytes, the reader is behind");
+        }
+    }
+
+    private final byte[] mBuffer;
+    private final Backpressure mBackpressure;
+    private final Writer mWriter = new Writer();
+    private final Reader mReader = new Reader();
+    private int mReadPosition;
+    private int mCount;
+    private boolean mWriterClosed;
+    private boolean mCancelled;
+    private IOException mError;
+    private long mWritten;
+    private long mDropped;
+
+    public StreamChannel() {
+        this(DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    /**
+     * @param capacity     the most bytes buffered between writer and reader
+     * @param backpressure what writes do when the buffer is full
+     */
+    public StreamChannel(int capacity, Backpressure backpressure) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (backpressure == null)
+            throw new IllegalArgumentException("backpressure cannot be null");
+        mBuffer = new byte[capacity];
+        mBackpressure = backpressure;
+    }
+
+    public Writer getWriter() {
+        return mWriter;
+    }
+
+    public InputStream getReader() {
+        return mReader;
+    }
+
+    /**
+     * Ends the body with an error, the reader's next read throws it.
+     */
+    public synchronized void fail(IOException error) {
+        if (mWriterClosed) return;
+        mError = error;
+        mWriterClosed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return the bytes accepted from the writer so far
+     */
+    public synchronized long getWrittenBytes() {
+        return mWritten;
+    }
+
+    /**
+     * @return the bytes dropped because the buffer was full
+     */
+    public synchronized long getDroppedBytes() {
+        return mDropped;
+    }
+
+    private synchronized boolean write(byte[] b, int off, int len) throws IOException {
+        if (len > mBuffer.length && mBackpressure == Backpressure.DROP) {
+            mDropped += len;
+            return false;
+        }
+        while (len > 0) {
+            if (mCancelled) throw new CancelledException();
+            if (mWriterClosed) throw new IOException("Writer is closed");
+            int free = mBuffer.length - mCount;
+            if (mBackpressure == Backpressure.DROP && free < len) {
+                mDropped += len;
+                return false;
+            }
+            if (free == 0) {
+                waitForChange();
+                continue;
+            }
+            int writePosition = (mReadPosition + mCount) % mBuffer.length;
+            int count = Math.min(Math.min(len, free), mBuffer.length - writePosition);
+            System.arraycopy(b, off, mBuffer, writePosition, count);
+            mCount += count;
+            mWritten += count;
+            off += count;
+            len -= count;
+            notifyAll();
+        }
+        return true;
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (mCount == 0) {
+            if (mCancelled) return -1;
+            if (mWriterClosed) {
+                if (mError != null) throw mError;
+                return -1;
+            }
+            waitForChange();
+        }
+        int count = Math.min(Math.min(len, mCount), mBuffer.length - mReadPosition);
+        System.arraycopy(mBuffer, mReadPosition, b, off, count);
+        mReadPosition = (mReadPosition + count) % mBuffer.length;
+        mCount -= count;
+        notifyAll();
+        return count;
+    }
+
+    private void waitForChange() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * The producer's end of the channel.
+     */
+    public class Writer extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * @throws OverflowException if the channel drops writes and the bytes did not fit
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!StreamChannel.this.write(b, off, len)) throw new OverflowException(len);
+        }
+
+        /**
+         * Writes <code>text</code> as UTF-8. With {@link Backpressure#DROP} the text is
+         * written whole or not at all.
+         *
+         * @return false if the text was dropped
+         */
+        public boolean write(String text) throws IOException {
+            byte[] bytes = text.getBytes("UTF-8");
+            return StreamChannel.this.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Writes <code>len</code> bytes, whole or not at all with {@link Backpressure#DROP}.
+         *
+         * @return false if the bytes were dropped
+         */
+        public boolean offer(byte[] b, int off, int len) throws IOException {
+            return StreamChannel.this.write(b, off, len);
+        }
+
+        /**
+         * @return true once the reader went away and the producer should stop
+         */
+        public boolean isCancelled() {
+            return StreamChannel.this.isCancelled();
+        }
+
+        /**
+         * Ends the body. The reader reads what is buffered and then sees the end of the stream.
+         */
+        @Override
+        public void close() {
+            synchronized (StreamChannel.this) {
+                mWriterClosed = true;
+                StreamChannel.this.notifyAll();
+            }
+        }
+    }
+
+    private class Reader extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return StreamChannel.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (StreamChannel.this) {
+                return mCount;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (StreamChannel.this) {
+                // Closing before the writer finished means the request was cancelled.
+                if (!mWriterClosed) mCancelled = true;
+                mCount = 0;
+                StreamChannel.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.mtsdealersolutions.webview_local_server.stream;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WebViewLocalServer.PathHandler} whose body is written by Java code while the page
+ * reads it, so large data can be streamed to <code>fetch()</code> instead of being passed
+ * through <code>addJavascriptInterface</code> as one String:
+ * <pre>
+ *     new StreamingPathHandler("application/x-ndjson") {
+ *         protected void produce(Uri url, StreamChannel.Writer out) throws IOException {
+ *             for (Row row : rows) {
+ *                 out.write(row.toJson() + "\n");
+ *             }
+ *         }
+ *     };
+ * </pre>
+ * Every request runs {@link #produce} on its own background thread. The body is complete when
+ * produce returns, an exception ends it with an error, and a page that stops reading cancels it
+ * (writes throw {@link StreamChannel.CancelledException}).
+ * <p>
+ * The shared pool runs at most {@link #MAX_SHARED_PRODUCERS} producers at once. A request
+ * beyond that, or one the given executor rejects, gets a body that fails on the first read
+ * rather than a thread of its own. With {@link StreamChannel.Backpressure#DROP} the bytes a
+ * producer dropped are passed to {@link #onDropped} when it returns.
+ */
+public abstract class StreamingPathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "StreamingPathHandler";
+
+    public static final int MAX_SHARED_PRODUCERS = 16;
+
+    private static final Executor PRODUCER_EXECUTOR = new ThreadPoolExecutor(0, MAX_SHARED_PRODUCERS, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StreamingProducer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int mCapacity;
+    private final StreamChannel.Backpressure mBackpressure;
+    private final Executor mExecutor;
+
+    public StreamingPathHandler(String mimeType) {
+        this(mimeType, StreamChannel.DEFAULT_CAPACITY, StreamChannel.Backpressure.BLOCK, null);
+    }
+
+    /**
+     * @param mimeType     the mime type of the bodies
+     * @param capacity     the most bytes buffered per request
+     * @param backpressure what writes do when the page reads slower than the producer writes
+     * @param executor     runs the producers, null for a shared pool with a thread per stream,
+     *                     bounded to {@link #MAX_SHARED_PRODUCERS} streams
+     */
+    public StreamingPathHandler(String mimeType, int capacity, StreamChannel.Backpressure backpressure,
+                                Executor executor) {
+        super(mimeType, null, null, 200, "OK", noStore());
+        mCapacity = capacity;
+        mBackpressure = backpressure;
+        mExecutor = executor == null ? PRODUCER_EXECUTOR : executor;
+    }
+
+    private static Map<String, String> noStore() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        return headers;
+    }
+
+    /**
+     * Writes the body for <code>url</code>. Runs on a background thread.
+     *
+     * @param url the requested url
+     * @param out where the body is written, closed when this returns
+     */
+    protected abstract void produce(Uri url, StreamChannel.Writer out) throws IOException;
+
+    /**
+     * Called on the producer thread when a producer that dropped writes returns. Logs by default.
+     *
+     * @param url          the requested url
+     * @param droppedBytes the bytes dropped because the page read slower than they were written
+     */
+    protected void onDropped(Uri url, long droppedBytes) {
+        Log.w(TAG, "Producer for " + url + " dropped " + droppedBytes + " bytes");
+    }
+
+    @Override
+    public InputStream handle(final Uri url) {
+        final StreamChannel channel = new StreamChannel(mCapacity, mBackpressure);
+        Runnable producer = new Runnable() {
+            @Override
+            public void run() {
+                StreamChannel.Writer out = channel.getWriter();
+                try {
+                    produce(url, out);
+                    out.close();
+                    long dropped = channel.getDroppedBytes();
+                    if (dropped > 0) onDropped(url, dropped);
+                } catch (StreamChannel.CancelledException e) {
+                    // The page went away.
+                } catch (IOException e) {
+                    Log.w(TAG, "Producer for " + url + " failed", e);
+                    channel.fail(e);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Producer for " + url + " crashed", e);
+                    channel.fail(new IOException(e.toString()));
+                }
+            }
+        };
+        try {
+            mExecutor.execute(producer);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Too many streams, rejecting " + url);
+            channel.fail(new IOException("Too many concurrent streams"));
+        }
+        return channel.getReader();
+    }
+}
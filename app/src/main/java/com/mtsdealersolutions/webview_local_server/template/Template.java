@@ -0,0 +1,131 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.utils.PooledByteArrayOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+/**
+ * A compiled template.
+ * <p>
+ * The source is parsed once into a flat instruction list of pre-encoded literal byte runs and
+ * named values, so rendering is a single pass that copies bytes and looks up values without
+ * building any intermediate strings.
+ * <p>
+ * Syntax:
+ * <ul>
+ * <li><code>{{name}}</code> writes the value of <code>name</code>, html escaped.</li>
+ * <li><code>{{{name}}}</code> writes the value of <code>name</code> as is, for example JSON.</li>
+ * </ul>
+ * Missing values are written as nothing.
+ */
+public class Template {
+
+    private static final String CHARSET = "UTF-8";
+
+    // For each instruction either mLiterals[i] or mNames[i] is set.
+    private final byte[][] mLiterals;
+    private final String[] mNames;
+    private final boolean[] mRaw;
+    private final int mLiteralLength;
+
+    private Template(byte[][] literals, String[] names, boolean[] raw, int literalLength) {
+        mLiterals = literals;
+        mNames = names;
+        mRaw = raw;
+        mLiteralLength = literalLength;
+    }
+
+    /**
+     * Reads and compiles a template. The stream is closed.
+     */
+    public static Template compile(InputStream source) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = source.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return compile(bytes.toString(CHARSET));
+        } finally {
+            source.close();
+        }
+    }
+
+    public static Template compile(String source) throws UnsupportedEncodingException {
+        ArrayList<byte[]> literals = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Boolean> raw = new ArrayList<>();
+        int literalLength = 0;
+
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf("{{", position);
+            boolean isRaw = open != -1 && source.startsWith("{{{", open);
+            int close = open == -1 ? -1 : source.indexOf(isRaw ? "}}}" : "}}", open);
+            if (open == -1 || close == -1) {
+                open = source.length();
+            }
+            if (open > position) {
+                byte[] literal = source.substring(position, open).getBytes(CHARSET);
+                literals.add(literal);
+                names.add(null);
+                raw.add(false);
+                literalLength += literal.length;
+            }
+            if (open == source.length()) break;
+
+            String name = source.substring(open + (isRaw ? 3 : 2), close).trim();
+            literals.add(null);
+            names.add(name);
+            raw.add(isRaw);
+            position = close + (isRaw ? 3 : 2);
+        }
+
+        boolean[] rawArray = new boolean[raw.size()];
+        for (int i = 0; i < rawArray.length; i++) {
+            rawArray[i] = raw.get(i);
+        }
+        return new Template(literals.toArray(new byte[literals.size()][]),
+                names.toArray(new String[names.size()]), rawArray, literalLength);
+    }
+
+    /**
+     * Renders the template for <code>url</code> into <code>out</code>.
+     */
+    public void render(PooledByteArrayOutputStream out, TemplateValues values, Uri url) {
+        for (int i = 0; i < mLiterals.length; i++) {
+            byte[] literal = mLiterals[i];
+            if (literal != null) {
+                out.write(literal, 0, literal.length);
+            } else {
+                CharSequence value = values.getValue(mNames[i], url);
+                if (value != null) out.writeUtf8(value, !mRaw[i]);
+            }
+        }
+    }
+
+    /**
+     * @return an estimate of the memory held by the compiled template
+     */
+    public long getSizeBytes() {
+        long size = mLiteralLength + mLiterals.length * 16L;
+        for (String name : mNames) {
+            if (name != null) size += name.length() * 2;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the template writes besides its values
+     */
+    public int getLiteralLength() {
+        return mLiteralLength;
+    }
+}
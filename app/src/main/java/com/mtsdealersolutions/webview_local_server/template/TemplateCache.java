@@ -0,0 +1,210 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import com.mtsdealersolutions.webview_local_server.chromium.AndroidProtocolHandler;
+import com.mtsdealersolutions.webview_local_server.utils.TrimmableCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles templates on first use and keeps them until their source changes.
+ * <p>
+ * The source's version of a compiled template is checked at most once per revalidation
+ * interval, so serving a cached template costs no file system access. Templates from an
+ * {@link AssetSource} are never checked.
+ */
+public class TemplateCache implements TrimmableCache {
+
+    public static final long DEFAULT_REVALIDATE_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    /**
+     * Never checks whether a compiled template's source changed.
+     */
+    public static final long NEVER_REVALIDATE = -1;
+
+    private final TemplateSource mSource;
+    private final long mRevalidateNanos;
+    private final long mMaxBytes;
+    // In access order, so trimming drops the least recently used templates first.
+    private final LinkedHashMap<String, Entry> mTemplates = new LinkedHashMap<>(16, 0.75f, true);
+
+    public TemplateCache(TemplateSource source) {
+        this(source, source instanceof AssetSource ? NEVER_REVALIDATE : DEFAULT_REVALIDATE_MILLIS);
+    }
+
+    /**
+     * @param revalidateMillis how long a compiled template is used before its source's version
+     *                         is checked again, 0 to check on every request or
+     *                         {@link #NEVER_REVALIDATE}
+     */
+    public TemplateCache(TemplateSource source, long revalidateMillis) {
+        this(source, revalidateMillis, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes the most compiled templates may hold, see {@link Template#getSizeBytes()}
+     */
+    public TemplateCache(TemplateSource source, long revalidateMillis, long maxBytes) {
+        if (source == null)
+            throw new IllegalArgumentException("source cannot be null");
+        mSource = source;
+        mRevalidateNanos = revalidateMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(revalidateMillis);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param path the path of the template in the source
+     * @return the compiled template, compiling it if it is new or its source changed
+     * @throws IOException if the source cannot be read
+     */
+    public Template get(String path) throws IOException {
+        Entry entry;
+        synchronized (mTemplates) {
+            entry = mTemplates.get(path);
+        }
+        long now = System.nanoTime();
+        if (entry != null && (mRevalidateNanos < 0 || now - entry.checkedAt < mRevalidateNanos)) {
+            return entry.template;
+        }
+        long version = mSource.getVersion(path);
+        if (entry != null && entry.version == version) {
+            entry.checkedAt = now;
+            return entry.template;
+        }
+        // Two threads may compile the same template at once, both results are equivalent.
+        Template template = Template.compile(mSource.open(path));
+        synchronized (mTemplates) {
+            mTemplates.put(path, new Entry(version, template, now));
+            if (getSizeBytes() > mMaxBytes) trimToSize(mMaxBytes);
+        }
+        return template;
+    }
+
+    /**
+     * Drops the compiled template for <code>path</code>.
+     */
+    public void invalidate(String path) {
+        synchronized (mTemplates) {
+            mTemplates.remove(path);
+        }
+    }
+
+    /**
+     * Drops every compiled template.
+     */
+    public void clear() {
+        synchronized (mTemplates) {
+            mTemplates.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (mTemplates) {
+            return mTemplates.size();
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        long size = 0;
+        synchronized (mTemplates) {
+            for (Entry entry : mTemplates.values()) {
+                size += entry.template.getSizeBytes();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getMaxSizeBytes() {
+        return mMaxBytes;
+    }
+
+    @Override
+    public void trimToSize(long maxBytes) {
+        synchronized (mTemplates) {
+            long size = getSizeBytes();
+            Iterator<Entry> entries = mTemplates.values().iterator();
+            while (size > maxBytes && entries.hasNext()) {
+                size -= entries.next().template.getSizeBytes();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * A {@link TemplateSource} for templates stored as files, versioned by modification time and
+     * size. Paths that resolve outside the directory, through <code>..</code> or links, are not
+     * found.
+     */
+    public static class FileSource implements TemplateSource {
+        private final File mDirectory;
+
+        public FileSource(File directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            File file = resolve(path);
+            if (file == null) throw new FileNotFoundException(path);
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public long getVersion(String path) {
+            File file;
+            try {
+                file = resolve(path);
+            } catch (IOException e) {
+                return 0;
+            }
+            return file == null ? 0 : file.lastModified() * 31 + file.length();
+        }
+
+        private File resolve(String path) throws IOException {
+            File file = new File(mDirectory, path).getCanonicalFile();
+            return file.getPath().startsWith(mDirectory.getCanonicalPath() + File.separator) ? file : null;
+        }
+    }
+
+    /**
+     * A {@link TemplateSource} for templates packaged in the application's assets. Packaged
+     * assets cannot change while the process runs, so templates are compiled exactly once.
+     */
+    public static class AssetSource implements TemplateSource {
+        private final AndroidProtocolHandler mProtocolHandler;
+
+        public AssetSource(AndroidProtocolHandler protocolHandler) {
+            mProtocolHandler = protocolHandler;
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            return mProtocolHandler.openAsset(path);
+        }
+
+        @Override
+        public long getVersion(String path) {
+            return 0;
+        }
+    }
+
+    private static class Entry {
+        final long version;
+        final Template template;
+        volatile long checkedAt;
+
+        Entry(long version, Template template, long checkedAt) {
+            this.version = version;
+            this.template = template;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
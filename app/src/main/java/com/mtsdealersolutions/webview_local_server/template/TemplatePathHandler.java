@@ -0,0 +1,90 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.utils.BufferPool;
+import com.mtsdealersolutions.webview_local_server.utils.PooledByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A {@link WebViewLocalServer.PathHandler} that renders compiled templates into pooled buffers.
+ * <p>
+ * By default the template path is the request path without its leading '/'. Override
+ * {@link #getTemplatePath(Uri)} to map urls differently.
+ */
+public class TemplatePathHandler extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "TemplatePathHandler";
+
+    private final TemplateCache mCache;
+    private final TemplateValues mValues;
+    private final BufferPool mBufferPool;
+
+    public TemplatePathHandler(TemplateCache cache, TemplateValues values, BufferPool bufferPool) {
+        this(cache, values, bufferPool, "text/html", null);
+    }
+
+    public TemplatePathHandler(TemplateCache cache, TemplateValues values, BufferPool bufferPool,
+                               String mimeType, Map<String, String> responseHeaders) {
+        super(mimeType, null, null, 200, "OK", responseHeaders);
+        if (cache == null || values == null || bufferPool == null)
+            throw new IllegalArgumentException("cache, values and bufferPool cannot be null");
+        mCache = cache;
+        mValues = values;
+        mBufferPool = bufferPool;
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        return render(getTemplatePath(url), url);
+    }
+
+    /**
+     * @param path the path of the template in the cache's source
+     * @param url  the url being rendered, passed on to the {@link TemplateValues}
+     * @return the rendered body, or null if the template cannot be loaded
+     */
+    public InputStream render(String path, Uri url) {
+        Template template;
+        try {
+            template = mCache.get(path);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to load template: " + path);
+            return null;
+        }
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(mBufferPool);
+        try {
+            template.render(out, mValues, url);
+        } catch (RuntimeException e) {
+            out.recycle();
+            throw e;
+        }
+        return out.toInputStream();
+    }
+
+    /**
+     * Compiles the template for <code>url</code> ahead of its first request.
+     */
+    @Override
+    public void prefetch(Uri url) {
+        String path = getTemplatePath(url);
+        try {
+            mCache.get(path);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to prefetch template: " + path);
+        }
+    }
+
+    protected String getTemplatePath(Uri url) {
+        String path = url.getPath();
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    public TemplateCache getTemplateCache() {
+        return mCache;
+    }
+}
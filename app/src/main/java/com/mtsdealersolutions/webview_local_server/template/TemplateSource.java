@@ -0,0 +1,23 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where a {@link TemplateCache} loads template sources from.
+ */
+public interface TemplateSource {
+
+    /**
+     * @param path the path of the template
+     * @return the template source, the caller closes it
+     */
+    InputStream open(String path) throws IOException;
+
+    /**
+     * A value that changes whenever the source at <code>path</code> changes, for example the
+     * file's modification time. Compiled templates are dropped once their version changes.
+     * Sources that cannot change, like packaged assets, can return a constant.
+     */
+    long getVersion(String path);
+}
@@ -0,0 +1,19 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import android.net.Uri;
+
+/**
+ * Supplies the values of a {@link Template} while it renders.
+ * <p>
+ * Called on the WebView's loading threads, possibly several at once.
+ */
+public interface TemplateValues {
+
+    /**
+     * @param name the name used in the template, example <code>title</code> for
+     *             <code>{{title}}</code>
+     * @param url  the url being rendered
+     * @return the value, or null to write nothing
+     */
+    CharSequence getValue(String name, Uri url);
+}
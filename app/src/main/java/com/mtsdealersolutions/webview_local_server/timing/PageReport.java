@@ -0,0 +1,197 @@
+package com.mtsdealersolutions.webview_local_server.timing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The resources one page loaded, each with the timings the browser measured for it joined
+ * with the server's record of the same request.
+ * <p>
+ * Browser times are milliseconds since the page's time origin. Server times are milliseconds
+ * since the request matched a handler. The two clocks are not comparable, their durations are.
+ */
+public class PageReport {
+    private final String mPageUrl;
+    private final ArrayList<ResourceTiming> mResources = new ArrayList<>();
+
+    PageReport(String pageUrl) {
+        mPageUrl = pageUrl;
+    }
+
+    public String getPageUrl() {
+        return mPageUrl;
+    }
+
+    public synchronized List<ResourceTiming> getResources() {
+        return Collections.unmodifiableList(new ArrayList<>(mResources));
+    }
+
+    synchronized void add(ResourceTiming timing) {
+        mResources.add(timing);
+    }
+
+    /**
+     * @return the time the browser spent waiting for first bytes that was not spent producing
+     * them, summed over the resources the server served
+     */
+    public synchronized double getTotalOverheadMillis() {
+        double total = 0;
+        for (ResourceTiming timing : mResources) {
+            if (timing.isMatched()) total += Math.max(0, timing.getOverheadMillis());
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder(mPageUrl).append('\n');
+        report.append(String.format(Locale.US, "%9s %9s %9s %9s %9s  %s%n",
+                "start", "wait", "handler", "1st byte", "overhead", "url"));
+        for (ResourceTiming timing : mResources) {
+            if (timing.isMatched()) {
+                report.append(String.format(Locale.US, "%9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                        timing.getStartTime(), timing.getWaitMillis(), timing.getServerHandlerMillis(),
+                        timing.getServerFirstByteMillis(), timing.getOverheadMillis(), timing.getUrl()));
+            } else {
+                report.append(String.format(Locale.US, "%9.1f %9.1f %9s %9s %9s  %s%n",
+                        timing.getStartTime(), timing.getWaitMillis(), "-", "-", "-", timing.getUrl()));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * One resource of a page.
+     */
+    public static class ResourceTiming {
+        private final String mUrl;
+        private final String mInitiatorType;
+        private final double mStartTime;
+        private final double mRequestStart;
+        private final double mResponseStart;
+        private final double mResponseEnd;
+        private final long mDecodedBodySize;
+        private final long mRequestId;
+        private final double mServerHandlerMillis;
+        private final double mServerFirstByteMillis;
+        private final double mServerCloseMillis;
+        private final long mServerBytes;
+        private final int mStatus;
+
+        ResourceTiming(String url, String initiatorType, double startTime, double requestStart, double responseStart,
+                       double responseEnd, long decodedBodySize, ResourceTimingBridge.Record record) {
+            mUrl = url;
+            mInitiatorType = initiatorType;
+            mStartTime = startTime;
+            mRequestStart = requestStart;
+            mResponseStart = responseStart;
+            mResponseEnd = responseEnd;
+            mDecodedBodySize = decodedBodySize;
+            if (record == null) {
+                mRequestId = -1;
+                mServerHandlerMillis = mServerFirstByteMillis = mServerCloseMillis = -1;
+                mServerBytes = -1;
+                mStatus = 0;
+            } else {
+                mRequestId = record.mId;
+                mServerHandlerMillis = record.getHandlerMillis();
+                mServerFirstByteMillis = record.getFirstByteMillis();
+                mServerCloseMillis = record.getCloseMillis();
+                mServerBytes = record.mBytes;
+                mStatus = record.mStatus;
+            }
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * @return what requested the resource (script, img, fetch ...)
+         */
+        public String getInitiatorType() {
+            return mInitiatorType;
+        }
+
+        public double getStartTime() {
+            return mStartTime;
+        }
+
+        public double getRequestStart() {
+            return mRequestStart;
+        }
+
+        public double getResponseStart() {
+            return mResponseStart;
+        }
+
+        public double getResponseEnd() {
+            return mResponseEnd;
+        }
+
+        public long getDecodedBodySize() {
+            return mDecodedBodySize;
+        }
+
+        /**
+         * @return whether the server's record of the request was found
+         */
+        public boolean isMatched() {
+            return mRequestId != -1;
+        }
+
+        /**
+         * @return the id the server gave the request, -1 if it has no record of it
+         */
+        public long getRequestId() {
+            return mRequestId;
+        }
+
+        /**
+         * @return the time from the request starting to the first byte, as the browser saw it
+         */
+        public double getWaitMillis() {
+            double start = mRequestStart > 0 ? mRequestStart : mStartTime;
+            return mResponseStart > 0 ? mResponseStart - start : mResponseEnd - start;
+        }
+
+        /**
+         * @return the time the handler took to return the response
+         */
+        public double getServerHandlerMillis() {
+            return mServerHandlerMillis;
+        }
+
+        /**
+         * @return the time until the WebView read the first byte of the body
+         */
+        public double getServerFirstByteMillis() {
+            return mServerFirstByteMillis;
+        }
+
+        /**
+         * @return the time until the WebView closed the body
+         */
+        public double getServerCloseMillis() {
+            return mServerCloseMillis;
+        }
+
+        public long getServerBytes() {
+            return mServerBytes;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return the part of {@link #getWaitMillis()} not spent in the server before the first
+         * byte was read, that is time spent in Chromium and crossing into Java
+         */
+        public double getOverheadMillis() {
+            return getWaitMillis() - mServerFirstByteMillis;
+        }
+    }
+}
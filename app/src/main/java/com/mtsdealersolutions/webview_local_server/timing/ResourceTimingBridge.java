@@ -0,0 +1,355 @@
+package com.mtsdealersolutions.webview_local_server.timing;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.transform.HeadInjectionTransformer;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformer;
+import com.mtsdealersolutions.webview_local_server.utils.MeasuredInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Joins the Resource Timing entries the browser records for a page with the server's own
+ * timings of the same requests, to tell how much of a slow resource was spent in the handler
+ * and how much in Chromium and the crossing into Java.
+ * <p>
+ * Host the bridge on a path of the app's origin and install it on the server:
+ * <pre>
+ *     server.createHost(builder.setUrlVirtualPath("__timing"), bridge);
+ *     server.setResourceTimingBridge(bridge);
+ * </pre>
+ * Every intercepted response then carries a <code>Server-Timing: lsrv;desc="{id}"</code>
+ * header identifying the request. <code>{path}/collector.js</code> serves a script, added to
+ * pages with {@link #getHtmlTransformer(String)}, that observes the page's resource entries and
+ * reports them to <code>{path}/report</code>. A request the browser does not expose the header
+ * for is matched by url to the latest request for it.
+ * <p>
+ * Reports are sent as GET requests, the WebView does not show request bodies to the server,
+ * and are split to keep urls short. Only the most recent requests and pages are kept.
+ */
+@TargetApi(21)
+public class ResourceTimingBridge extends WebViewLocalServer.PathHandler {
+    private static final String TAG = "ResourceTimingBridge";
+
+    public static final int DEFAULT_MAX_REQUESTS = 2048;
+    public static final int DEFAULT_MAX_PAGES = 16;
+
+    static final String SERVER_TIMING_NAME = "lsrv";
+
+    private static final String COLLECTOR = "(function () {\n"
+            + "  var script = document.currentScript;\n"
+            + "  if (!script || !window.performance || !window.PerformanceObserver) return;\n"
+            + "  var base = script.src.replace(/collector\\.js([?#].*)?$/, '');\n"
+            + "  var page = encodeURIComponent(location.href), load = Date.now(), pending = [], timer = 0;\n"
+            + "  function field(value) { return String(value === undefined ? '' : value).replace(/[\\t\\n]/g, ' '); }\n"
+            + "  function time(value) { return value ? value.toFixed(2) : '0'; }\n"
+            + "  function id(entry) {\n"
+            + "    var timings = entry.serverTiming || [];\n"
+            + "    for (var i = 0; i < timings.length; i++) {\n"
+            + "      if (timings[i].name === '" + SERVER_TIMING_NAME + "') return timings[i].description;\n"
+            + "    }\n"
+            + "    return '';\n"
+            + "  }\n"
+            + "  function add(entries) {\n"
+            + "    for (var i = 0; i < entries.length; i++) {\n"
+            + "      var entry = entries[i];\n"
+            + "      if (entry.name.indexOf(base) === 0) continue;\n"
+            + "      pending.push([id(entry), entry.name, entry.initiatorType || 'navigation', time(entry.startTime),\n"
+            + "          time(entry.requestStart), time(entry.responseStart), time(entry.responseEnd),\n"
+            + "          entry.decodedBodySize || 0].map(field).join('\\t'));\n"
+            + "    }\n"
+            + "    clearTimeout(timer);\n"
+            + "    timer = setTimeout(flush, 1000);\n"
+            + "  }\n"
+            + "  function send(rows) {\n"
+            + "    var url = base + 'report?page=' + page + '&load=' + load + '&d=' + encodeURIComponent(rows.join('\\n'));\n"
+            + "    if (window.fetch) fetch(url, {keepalive: true, cache: 'no-store'})['catch'](function () {});\n"
+            + "    else new Image().src = url;\n"
+            + "  }\n"
+            + "  function flush() {\n"
+            + "    clearTimeout(timer);\n"
+            + "    var rows = [], length = 0;\n"
+            + "    while (pending.length) {\n"
+            + "      var row = encodeURIComponent(pending[0]).length + 3;\n"
+            + "      if (rows.length && length + row > 1800) {\n"
+            + "        send(rows);\n"
+            + "        rows = [];\n"
+            + "        length = 0;\n"
+            + "      }\n"
+            + "      rows.push(pending.shift());\n"
+            + "      length += row;\n"
+            + "    }\n"
+            + "    if (rows.length) send(rows);\n"
+            + "  }\n"
+            + "  add(performance.getEntriesByType('resource'));\n"
+            + "  new PerformanceObserver(function (list) { add(list.getEntries()); }).observe({entryTypes: ['resource']});\n"
+            + "  addEventListener('load', function () {\n"
+            + "    setTimeout(function () { add(performance.getEntriesByType('navigation')); flush(); }, 0);\n"
+            + "  });\n"
+            + "  document.addEventListener('visibilitychange', function () {\n"
+            + "    if (document.visibilityState === 'hidden') flush();\n"
+            + "  });\n"
+            + "})();\n";
+
+    private final int mMaxRequests;
+    private final int mMaxPages;
+    private final AtomicLong mNextId = new AtomicLong(1);
+    private final LinkedHashMap<Long, Record> mRecords = new LinkedHashMap<>();
+    private final HashMap<String, Record> mLatestByUrl = new HashMap<>();
+    private final LinkedHashMap<String, PageLoad> mPages = new LinkedHashMap<>(16, 0.75f, true);
+
+    public ResourceTimingBridge() {
+        this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param maxRequests the number of server records kept to be joined with reports
+     * @param maxPages    the number of page reports kept
+     */
+    public ResourceTimingBridge(int maxRequests, int maxPages) {
+        if (maxRequests <= 0 || maxPages <= 0)
+            throw new IllegalArgumentException("maxRequests and maxPages must be positive");
+        mMaxRequests = maxRequests;
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * @return the script reporting the page's resource timings, it must be served as
+     * <code>collector.js</code> from the path the bridge is hosted on
+     */
+    public static String getCollectorScript() {
+        return COLLECTOR;
+    }
+
+    /**
+     * @param scriptUrl the url of <code>collector.js</code> on the path the bridge is hosted on
+     * @return a transformer adding the collector to the top of every document
+     */
+    public HtmlTransformer getHtmlTransformer(String scriptUrl) {
+        return HeadInjectionTransformer.script(scriptUrl);
+    }
+
+    /**
+     * Gives the request an id, adds it to the response's headers and times the body. Called by
+     * the server for every request it intercepts.
+     *
+     * @param matchedNanos {@link System#nanoTime()} when the request matched a handler
+     * @return <code>response</code>
+     */
+    public WebResourceResponse record(WebResourceRequest request, long matchedNanos, WebResourceResponse response) {
+        if (response == null) return response;
+        Record record = new Record(mNextId.getAndIncrement(), request.getUrl().toString(), matchedNanos,
+                System.nanoTime(), response.getStatusCode() <= 0 ? 200 : response.getStatusCode());
+
+        Map<String, String> headers = response.getResponseHeaders();
+        headers = headers == null ? new HashMap<String, String>() : new HashMap<>(headers);
+        // No dur: the headers are sent before a lazily opened body has produced anything, the
+        // time to the first byte is in the record instead.
+        headers.put("Server-Timing", SERVER_TIMING_NAME + ";desc=\"" + record.mId + "\"");
+        // Without it the browser hides server timings of cross origin resources.
+        headers.put("Timing-Allow-Origin", "*");
+        response.setResponseHeaders(headers);
+
+        InputStream body = response.getData();
+        if (body == null) {
+            record.mClosedNanos = record.mReturnedNanos;
+        } else {
+            response.setData(new MeasuredInputStream(body, record));
+        }
+        synchronized (this) {
+            mRecords.put(record.mId, record);
+            mLatestByUrl.put(record.mUrl, record);
+            while (mRecords.size() > mMaxRequests) {
+                Record oldest = mRecords.remove(mRecords.keySet().iterator().next());
+                if (mLatestByUrl.get(oldest.mUrl) == oldest) mLatestByUrl.remove(oldest.mUrl);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public WebResourceResponse respond(WebResourceRequest request) {
+        Uri url = request.getUrl();
+        if (!"report".equals(url.getLastPathSegment())) return null;
+
+        String page = url.getQueryParameter("page");
+        String data = url.getQueryParameter("d");
+        if (page != null && data != null) report(page, url.getQueryParameter("load"), data);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        return new WebResourceResponse("text/plain", "UTF-8", 204, "No Content", headers,
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Override
+    public InputStream handle(Uri url) {
+        if (!"collector.js".equals(url.getLastPathSegment())) return null;
+        try {
+            return new ByteArrayInputStream(COLLECTOR.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public String getMimeType(Uri url) {
+        return "text/javascript";
+    }
+
+    /**
+     * Joins the rows of a report with the server's records and adds them to the page's report.
+     *
+     * @param load identifies the load of the page, a new load starts a new report
+     * @param data rows of tab separated id, url, initiator type, start time, request start,
+     *             response start, response end and decoded body size
+     */
+    void report(String pageUrl, String load, String data) {
+        ArrayList<PageReport.ResourceTiming> timings = new ArrayList<>();
+        for (String row : data.split("\n")) {
+            String[] fields = row.split("\t", -1);
+            if (fields.length < 8) continue;
+            try {
+                Record record = null;
+                synchronized (this) {
+                    if (!fields[0].isEmpty()) record = mRecords.get(Long.parseLong(fields[0]));
+                    if (record == null) record = mLatestByUrl.get(fields[1]);
+                }
+                timings.add(new PageReport.ResourceTiming(fields[1], fields[2], Double.parseDouble(fields[3]),
+                        Double.parseDouble(fields[4]), Double.parseDouble(fields[5]), Double.parseDouble(fields[6]),
+                        Long.parseLong(fields[7]), record));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring malformed timing " + row);
+            }
+        }
+
+        PageReport report;
+        synchronized (this) {
+            PageLoad page = mPages.get(pageUrl);
+            if (page == null || (load != null && !load.equals(page.mLoad))) {
+                page = new PageLoad(load, new PageReport(pageUrl));
+                mPages.put(pageUrl, page);
+                while (mPages.size() > mMaxPages) {
+                    mPages.remove(mPages.keySet().iterator().next());
+                }
+            }
+            report = page.mReport;
+        }
+        for (PageReport.ResourceTiming timing : timings) {
+            report.add(timing);
+        }
+    }
+
+    /**
+     * @return the report of the latest load of <code>pageUrl</code>, null if none was received
+     */
+    public synchronized PageReport getPageReport(String pageUrl) {
+        PageLoad page = mPages.get(pageUrl);
+        return page == null ? null : page.mReport;
+    }
+
+    /**
+     * @return the reports of the pages kept, least recently reported first
+     */
+    public synchronized List<PageReport> getPageReports() {
+        ArrayList<PageReport> reports = new ArrayList<>(mPages.size());
+        for (PageLoad page : mPages.values()) {
+            reports.add(page.mReport);
+        }
+        return reports;
+    }
+
+    /**
+     * Forgets the server records and page reports.
+     */
+    public synchronized void clear() {
+        mRecords.clear();
+        mLatestByUrl.clear();
+        mPages.clear();
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    static class Record implements MeasuredInputStream.Listener {
+        final long mId;
+        final String mUrl;
+        final long mMatchedNanos;
+        final long mReturnedNanos;
+        final int mStatus;
+        volatile long mFirstByteNanos;
+        volatile long mClosedNanos;
+        volatile long mBytes;
+
+        Record(long id, String url, long matchedNanos, long returnedNanos, int status) {
+            mId = id;
+            mUrl = url;
+            mMatchedNanos = matchedNanos;
+            mReturnedNanos = returnedNanos;
+            mStatus = status;
+        }
+
+        @Override
+        public void onFirstByte(long nanos) {
+            mFirstByteNanos = nanos;
+        }
+
+        @Override
+        public void onBytes(long count) {
+            mBytes += count;
+        }
+
+        @Override
+        public void onClosed(long nanos) {
+            mClosedNanos = nanos;
+        }
+
+        /**
+         * @return the time until the response was returned, a lazily opened body is only
+         * opened afterwards
+         */
+        double getHandlerMillis() {
+            return toMillis(mReturnedNanos - mMatchedNanos);
+        }
+
+        /**
+         * @return the time until the first byte was read, the handler time if none was (yet)
+         */
+        double getFirstByteMillis() {
+            long firstByte = mFirstByteNanos;
+            return toMillis((firstByte == 0 ? mReturnedNanos : firstByte) - mMatchedNanos);
+        }
+
+        /**
+         * @return the time until the body was closed, -1 if it is still open
+         */
+        double getCloseMillis() {
+            long closed = mClosedNanos;
+            return closed == 0 ? -1 : toMillis(closed - mMatchedNanos);
+        }
+    }
+
+    private static class PageLoad {
+        final String mLoad;
+        final PageReport mReport;
+
+        PageLoad(String load, PageReport report) {
+            mLoad = load;
+            mReport = report;
+        }
+    }
+}
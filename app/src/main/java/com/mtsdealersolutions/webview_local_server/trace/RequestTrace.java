@@ -0,0 +1,191 @@
+package com.mtsdealersolutions.webview_local_server.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recorded sequence of intercepted requests, in the order Chromium made them.
+ * <p>
+ * Traces are stored as text, one request per line, so they can be edited by hand and replayed
+ * anywhere with {@link TraceReplayer}:
+ * <pre>
+ *     offset-micros  intercept-micros  thread  flags  method  url  headers
+ * </pre>
+ * Fields are separated by tabs and the url and headers are form encoded. Flags hold
+ * <code>m</code> for main frame requests and <code>g</code> for requests with a user gesture.
+ */
+public class RequestTrace {
+    private static final String HEADER = "#webview-local-server-trace 1";
+
+    private final List<Entry> mEntries;
+
+    public RequestTrace(List<Entry> entries) {
+        mEntries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the number of distinct threads that made the requests
+     */
+    public int getThreadCount() {
+        ArrayList<String> threads = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (!threads.contains(entry.getThread())) threads.add(entry.getThread());
+        }
+        return threads.size();
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        for (Entry entry : mEntries) {
+            out.write(Long.toString(entry.mOffsetMicros));
+            out.write('\t');
+            out.write(Long.toString(entry.mInterceptMicros));
+            out.write('\t');
+            out.write(encode(entry.mThread));
+            out.write('\t');
+            out.write(entry.mForMainFrame ? "m" : "-");
+            out.write(entry.mHasGesture ? "g" : "-");
+            out.write('\t');
+            out.write(entry.mMethod);
+            out.write('\t');
+            out.write(encode(entry.mUrl));
+            out.write('\t');
+            StringBuilder headers = new StringBuilder();
+            for (Map.Entry<String, String> header : entry.mHeaders.entrySet()) {
+                if (headers.length() > 0) headers.append('&');
+                headers.append(encode(header.getKey())).append('=').append(encode(header.getValue()));
+            }
+            out.write(headers.toString());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    public static RequestTrace read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        String line = reader.readLine();
+        if (!HEADER.equals(line)) throw new IOException("Not a request trace: " + line);
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 7) throw new IOException("Malformed trace line: " + line);
+            try {
+                LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+                if (!fields[6].isEmpty()) {
+                    for (String pair : fields[6].split("&")) {
+                        int equals = pair.indexOf('=');
+                        if (equals == -1) throw new IOException("Malformed header: " + pair);
+                        headers.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+                    }
+                }
+                entries.add(new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), decode(fields[2]),
+                        fields[3].indexOf('m') != -1, fields[3].indexOf('g') != -1, fields[4], decode(fields[5]),
+                        headers));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed trace line: " + line, e);
+            }
+        }
+        return new RequestTrace(entries);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * One intercepted request.
+     */
+    public static class Entry {
+        private final long mOffsetMicros;
+        private final long mInterceptMicros;
+        private final String mThread;
+        private final boolean mForMainFrame;
+        private final boolean mHasGesture;
+        private final String mMethod;
+        private final String mUrl;
+        private final Map<String, String> mHeaders;
+
+        /**
+         * @param offsetMicros    when the request was made, relative to the start of the trace
+         * @param interceptMicros how long <code>shouldInterceptRequest</code> took for it
+         * @param thread          the name of the thread that made it
+         */
+        public Entry(long offsetMicros, long interceptMicros, String thread, boolean forMainFrame, boolean hasGesture,
+                     String method, String url, Map<String, String> headers) {
+            mOffsetMicros = offsetMicros;
+            mInterceptMicros = interceptMicros;
+            mThread = thread == null ? "" : thread;
+            mForMainFrame = forMainFrame;
+            mHasGesture = hasGesture;
+            mMethod = method == null ? "GET" : method;
+            mUrl = url;
+            mHeaders = headers == null ? Collections.<String, String>emptyMap()
+                    : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        }
+
+        public long getOffsetMicros() {
+            return mOffsetMicros;
+        }
+
+        public long getInterceptMicros() {
+            return mInterceptMicros;
+        }
+
+        public String getThread() {
+            return mThread;
+        }
+
+        public boolean isForMainFrame() {
+            return mForMainFrame;
+        }
+
+        public boolean hasGesture() {
+            return mHasGesture;
+        }
+
+        public String getMethod() {
+            return mMethod;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public Map<String, String> getHeaders() {
+            return mHeaders;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mtsdealersolutions.webview_local_server.trace;
+
+import android.annotation.TargetApi;
+import android.webkit.WebResourceRequest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Records the requests a WebView makes so the load can be replayed later with
+ * {@link TraceReplayer}. Install it with
+ * {@link com.mtsdealersolutions.webview_local_server.config.ServerWebViewClient#setTraceRecorder}.
+ * <p>
+ * Recording stops once the trace holds the maximum number of requests, call {@link #reset()} to
+ * start over.
+ */
+public class TraceRecorder {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final int mMaxEntries;
+    private final ArrayList<RequestTrace.Entry> mEntries = new ArrayList<>();
+    private long mStartNanos = System.nanoTime();
+
+    public TraceRecorder() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public TraceRecorder(int maxEntries) {
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Records a request that was intercepted from <code>startNanos</code> to
+     * <code>endNanos</code>, both {@link System#nanoTime()} values.
+     */
+    @TargetApi(21)
+    public void record(WebResourceRequest request, long startNanos, long endNanos) {
+        String thread = Thread.currentThread().getName();
+        synchronized (this) {
+            if (mEntries.size() >= mMaxEntries) return;
+            mEntries.add(new RequestTrace.Entry((startNanos - mStartNanos) / 1000, (endNanos - startNanos) / 1000,
+                    thread, request.isForMainFrame(), request.hasGesture(), request.getMethod(),
+                    request.getUrl().toString(), request.getRequestHeaders()));
+        }
+    }
+
+    /**
+     * Drops everything recorded and restarts the trace clock.
+     */
+    public synchronized void reset() {
+        mEntries.clear();
+        mStartNanos = System.nanoTime();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized RequestTrace getTrace() {
+        return new RequestTrace(mEntries);
+    }
+
+    public void writeTo(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            getTrace().write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.mtsdealersolutions.webview_local_server.trace;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a {@link RequestTrace} against a server the way Chromium issues requests during a
+ * page load: concurrently, from several threads, at the recorded pace. Every body is read to
+ * the end, like the WebView does.
+ * <pre>
+ *     TraceReplayer.Report report = new TraceReplayer(server)
+ *             .setIterations(20)
+ *             .replay(trace);
+ *     Log.i(TAG, report.toString());
+ * </pre>
+ * Time to first byte is measured from when the request is due until the first byte of its body
+ * was read, so time spent waiting for a busy thread counts, as it does in the WebView. A page is
+ * complete once the last body requested after its main frame request was read.
+ * <p>
+ * The server needs the real framework classes, so replay on a device or emulator, or on a JVM
+ * with Robolectric, with hosts pointing at stand-in assets.
+ */
+@TargetApi(21)
+public class TraceReplayer {
+    private final WebViewLocalServer mServer;
+    private int mThreads;
+    private float mTimeScale = 1;
+    private int mIterations = 1;
+    private int mWarmupIterations;
+
+    public TraceReplayer(WebViewLocalServer server) {
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+        mServer = server;
+    }
+
+    /**
+     * @param threads the number of threads issuing requests, 0 (the default) to use as many as
+     *                the trace was recorded with
+     */
+    public TraceReplayer setThreads(int threads) {
+        mThreads = threads;
+        return this;
+    }
+
+    /**
+     * @param timeScale multiplies the recorded gaps between requests, 0 issues every request at
+     *                  once, 1 (the default) keeps the recorded pace
+     */
+    public TraceReplayer setTimeScale(float timeScale) {
+        mTimeScale = timeScale;
+        return this;
+    }
+
+    /**
+     * @param iterations how many times the trace is replayed into the report
+     */
+    public TraceReplayer setIterations(int iterations) {
+        mIterations = iterations;
+        return this;
+    }
+
+    /**
+     * @param warmupIterations how many times the trace is replayed before measuring
+     */
+    public TraceReplayer setWarmupIterations(int warmupIterations) {
+        mWarmupIterations = warmupIterations;
+        return this;
+    }
+
+    public Report replay(RequestTrace trace) throws InterruptedException {
+        int threads = mThreads > 0 ? mThreads : Math.max(1, trace.getThreadCount());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TraceReplayer-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (int i = 0; i < mWarmupIterations; i++) {
+                replayOnce(trace, executor, new Results(trace.size()));
+            }
+            Results results = new Results(trace.size() * mIterations);
+            for (int i = 0; i < mIterations; i++) {
+                replayOnce(trace, executor, results);
+            }
+            return results.toReport();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void replayOnce(RequestTrace trace, ExecutorService executor, final Results results)
+            throws InterruptedException {
+        List<RequestTrace.Entry> entries = trace.getEntries();
+        final CountDownLatch done = new CountDownLatch(entries.size());
+        ArrayList<Page> pages = new ArrayList<>();
+        Page page = null;
+        long start = System.nanoTime();
+
+        for (final RequestTrace.Entry entry : entries) {
+            final long due = start + (long) (entry.getOffsetMicros() * 1000 * mTimeScale);
+            long wait = due - System.nanoTime();
+            if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+
+            if (entry.isForMainFrame() || page == null) {
+                page = new Page(due);
+                pages.add(page);
+            }
+            final Page owner = page;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(load(entry, due, results));
+                    } finally {
+                        owner.finished(System.nanoTime());
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        for (Page finished : pages) {
+            results.addPage(finished.getDuration());
+        }
+    }
+
+    /**
+     * @return the time to first byte in nanoseconds, or -1 if the request was not answered
+     */
+    private long load(RequestTrace.Entry entry, long due, Results results) {
+        WebResourceResponse response;
+        try {
+            response = mServer.shouldInterceptRequest(new ReplayedRequest(entry));
+        } catch (RuntimeException e) {
+            results.mErrors.incrementAndGet();
+            return -1;
+        }
+        if (response == null) return -1;
+        InputStream body = response.getData();
+        if (body == null) return System.nanoTime() - due;
+
+        long firstByte = -1;
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                if (firstByte == -1) firstByte = System.nanoTime() - due;
+                results.mBytes.addAndGet(count);
+            }
+        } catch (IOException e) {
+            results.mErrors.incrementAndGet();
+        } finally {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return firstByte == -1 ? System.nanoTime() - due : firstByte;
+    }
+
+    private static class Page {
+        final long mStartNanos;
+        long mCompleteNanos;
+
+        Page(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        synchronized void finished(long nanos) {
+            mCompleteNanos = Math.max(mCompleteNanos, nanos);
+        }
+
+        synchronized long getDuration() {
+            return mCompleteNanos - mStartNanos;
+        }
+    }
+
+    private static class Results {
+        final long[] mTtfb;
+        int mTtfbCount;
+        int mRequests;
+        final ArrayList<Long> mPages = new ArrayList<>();
+        final AtomicLong mBytes = new AtomicLong();
+        final AtomicInteger mErrors = new AtomicInteger();
+
+        Results(int capacity) {
+            mTtfb = new long[capacity];
+        }
+
+        synchronized void add(long ttfb) {
+            mRequests++;
+            if (ttfb >= 0) mTtfb[mTtfbCount++] = ttfb;
+        }
+
+        synchronized void addPage(long nanos) {
+            mPages.add(nanos);
+        }
+
+        synchronized Report toReport() {
+            long[] ttfb = Arrays.copyOf(mTtfb, mTtfbCount);
+            long[] pages = new long[mPages.size()];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = mPages.get(i);
+            }
+            return new Report(mRequests, mErrors.get(), mBytes.get(), ttfb, pages);
+        }
+    }
+
+    /**
+     * The latencies measured by a replay, in nanoseconds.
+     */
+    public static class Report {
+        private final int mRequests;
+        private final int mErrors;
+        private final long mBytes;
+        private final long[] mTtfb;
+        private final long[] mPageComplete;
+
+        Report(int requests, int errors, long bytes, long[] ttfb, long[] pageComplete) {
+            mRequests = requests;
+            mErrors = errors;
+            mBytes = bytes;
+            mTtfb = ttfb;
+            mPageComplete = pageComplete;
+            Arrays.sort(mTtfb);
+            Arrays.sort(mPageComplete);
+        }
+
+        public int getRequestCount() {
+            return mRequests;
+        }
+
+        /**
+         * @return the number of requests the server answered
+         */
+        public int getAnsweredCount() {
+            return mTtfb.length;
+        }
+
+        /**
+         * @return the number of requests that threw or failed while reading the body
+         */
+        public int getErrorCount() {
+            return mErrors;
+        }
+
+        public long getBytesRead() {
+            return mBytes;
+        }
+
+        /**
+         * @param percentile between 0 and 100, for example 99.9
+         */
+        public long getTimeToFirstByte(double percentile) {
+            return percentile(mTtfb, percentile);
+        }
+
+        /**
+         * @param percentile between 0 and 100, for example 99.9
+         */
+        public long getPageComplete(double percentile) {
+            return percentile(mPageComplete, percentile);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d requests, %d answered, %d errors, %d bytes%n"
+                            + "ttfb          p50 %.3fms  p99 %.3fms  p999 %.3fms%n"
+                            + "page complete p50 %.3fms  p99 %.3fms  p999 %.3fms (%d pages)",
+                    mRequests, getAnsweredCount(), mErrors, mBytes,
+                    getTimeToFirstByte(50) / 1e6, getTimeToFirstByte(99) / 1e6, getTimeToFirstByte(99.9) / 1e6,
+                    getPageComplete(50) / 1e6, getPageComplete(99) / 1e6, getPageComplete(99.9) / 1e6,
+                    mPageComplete.length);
+        }
+    }
+
+    private static class ReplayedRequest implements WebResourceRequest {
+        private final RequestTrace.Entry mEntry;
+        private final Uri mUrl;
+
+        ReplayedRequest(RequestTrace.Entry entry) {
+            mEntry = entry;
+            mUrl = Uri.parse(entry.getUrl());
+        }
+
+        @Override
+        public Uri getUrl() {
+            return mUrl;
+        }
+
+        @Override
+        public boolean isForMainFrame() {
+            return mEntry.isForMainFrame();
+        }
+
+        @Override
+        public boolean isRedirect() {
+            return false;
+        }
+
+        @Override
+        public boolean hasGesture() {
+            return mEntry.hasGesture();
+        }
+
+        @Override
+        public String getMethod() {
+            return mEntry.getMethod();
+        }
+
+        @Override
+        public Map<String, String> getRequestHeaders() {
+            return mEntry.getHeaders();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+/**
+ * Writes fixed markup at the top of the document's <code>&lt;head&gt;</code>, for example a
+ * bootstrap script or a <code>&lt;base href&gt;</code> tag.
+ */
+public class HeadInjectionTransformer extends HtmlTransformer {
+
+    private final String mMarkup;
+
+    /**
+     * @param markup the markup written directly after the <code>&lt;head&gt;</code> start tag
+     */
+    public HeadInjectionTransformer(String markup) {
+        if (markup == null)
+            throw new IllegalArgumentException("markup cannot be null");
+        mMarkup = markup;
+    }
+
+    /**
+     * @param href the base url of the document
+     * @return a transformer that injects <code>&lt;base href="{href}"&gt;</code>
+     */
+    public static HeadInjectionTransformer baseHref(String href) {
+        return new HeadInjectionTransformer("<base href=\"" + escapeAttribute(href) + "\">");
+    }
+
+    /**
+     * @param src the url of the script
+     * @return a transformer that injects <code>&lt;script src="{src}"&gt;&lt;/script&gt;</code>
+     */
+    public static HeadInjectionTransformer script(String src) {
+        return new HeadInjectionTransformer("<script src=\"" + escapeAttribute(src) + "\"></script>");
+    }
+
+    @Override
+    public String afterStartTag(String tagName) {
+        return "head".equals(tagName) ? mMarkup : null;
+    }
+
+    public static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+    }
+}
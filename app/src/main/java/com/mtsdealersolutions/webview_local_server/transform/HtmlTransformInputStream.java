@@ -0,0 +1,435 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Runs a list of {@link HtmlTransformer}s over an html body while it is being read.
+ * <p>
+ * The source is read one chunk at a time and fed through a small byte level tokenizer that only
+ * understands what it needs to find tags: start and end tags, quoted attribute values, comments,
+ * declarations and the raw text of script/style/textarea/title elements. Output is produced as
+ * soon as each chunk is tokenized, so the document is never buffered as a whole and the first
+ * bytes reach the WebView as early as they would without the transform.
+ * <p>
+ * The tokenizer works on any ASCII compatible encoding (UTF-8, ISO-8859-1 ...).
+ */
+public class HtmlTransformInputStream extends FilterInputStream {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_TAG_NAME = 32;
+
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int START_TAG_NAME = 2;
+    private static final int IN_START_TAG = 3;
+    private static final int IN_DOUBLE_QUOTE = 4;
+    private static final int IN_SINGLE_QUOTE = 5;
+    private static final int END_TAG_NAME = 6;
+    private static final int IN_END_TAG = 7;
+    private static final int BANG = 8;
+    private static final int BANG_DASH = 9;
+    private static final int COMMENT = 10;
+    private static final int DECLARATION = 11;
+    private static final int RAW_TEXT = 12;
+    private static final int RAW_TEXT_LT = 13;
+    private static final int RAW_TEXT_END_NAME = 14;
+    private static final int IN_UNQUOTED_VALUE = 15;
+
+    private final HtmlTransformer[] mTransformers;
+    private final String mCharset;
+
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private byte[] mOut = new byte[CHUNK_SIZE * 2];
+    private int mOutPos;
+    private int mOutLimit;
+    private boolean mEof;
+
+    private int mState = TEXT;
+    private final char[] mName = new char[MAX_TAG_NAME];
+    private int mNameLength;
+    // Bytes held back until we know whether markup has to be inserted in front of them.
+    private final byte[] mPending = new byte[MAX_TAG_NAME + 2];
+    private int mPendingLength;
+    private boolean mPendingSlash;
+    private boolean mAfterEquals;
+    // The last byte written inside the current start tag was whitespace.
+    private boolean mAfterSpace;
+    private int mDashes;
+    private String mRawTextTag;
+    private int mRawTextMatched;
+
+    /**
+     * @param in           the html body
+     * @param transformers the transformers to run, in order
+     * @param charset      the charset used to encode inserted markup, null for UTF-8
+     */
+    public HtmlTransformInputStream(InputStream in, List<HtmlTransformer> transformers, String charset) {
+        super(in);
+        mTransformers = transformers.toArray(new HtmlTransformer[transformers.size()]);
+        mCharset = charset == null ? "UTF-8" : charset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) return -1;
+        return mOut[mOutPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int count = Math.min(len, mOutLimit - mOutPos);
+        System.arraycopy(mOut, mOutPos, b, off, count);
+        mOutPos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int count = (int) Math.min(n - skipped, mOutLimit - mOutPos);
+            mOutPos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mOutLimit - mOutPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Makes sure there is transformed output to read.
+     *
+     * @return false once the source is exhausted and all output has been read
+     */
+    private boolean fill() throws IOException {
+        while (mOutPos == mOutLimit) {
+            if (mEof) return false;
+            mOutPos = 0;
+            mOutLimit = 0;
+            int count = in.read(mChunk, 0, mChunk.length);
+            if (count < 0) {
+                mEof = true;
+                flushPending();
+                if (mPendingSlash) {
+                    mPendingSlash = false;
+                    write((byte) '/');
+                }
+            } else {
+                consume(count);
+            }
+        }
+        return true;
+    }
+
+    private void consume(int count) throws UnsupportedEncodingException {
+        int i = 0;
+        while (i < count) {
+            if (mState == TEXT || mState == RAW_TEXT) {
+                // Fast path, copy runs of text up to the next tag in one go.
+                int start = i;
+                while (i < count && mChunk[i] != '<') i++;
+                write(mChunk, start, i - start);
+                if (i == count) break;
+            }
+            consume(mChunk[i++]);
+        }
+    }
+
+    private void consume(byte b) throws UnsupportedEncodingException {
+        char c = (char) (b & 0xff);
+        switch (mState) {
+            case TEXT:
+                if (c == '<') {
+                    hold(b);
+                    mState = TAG_OPEN;
+                } else {
+                    write(b);
+                }
+                break;
+            case TAG_OPEN:
+                if (c == '/') {
+                    hold(b);
+                    mNameLength = 0;
+                    mState = END_TAG_NAME;
+                } else if (isLetter(c)) {
+                    flushPending();
+                    write(b);
+                    mNameLength = 0;
+                    appendName(c);
+                    mState = START_TAG_NAME;
+                } else if (c == '!') {
+                    flushPending();
+                    write(b);
+                    mState = BANG;
+                } else {
+                    flushPending();
+                    mState = TEXT;
+                    consume(b);
+                }
+                break;
+            case START_TAG_NAME:
+                if (isWhitespace(c)) {
+                    write(b);
+                    mAfterEquals = false;
+                    mAfterSpace = true;
+                    mState = IN_START_TAG;
+                } else if (c == '/') {
+                    mPendingSlash = true;
+                    mAfterEquals = false;
+                    mAfterSpace = false;
+                    mState = IN_START_TAG;
+                } else if (c == '>') {
+                    closeStartTag(b);
+                } else {
+                    write(b);
+                    appendName(c);
+                }
+                break;
+            case IN_START_TAG:
+                if (c == '>') {
+                    closeStartTag(b);
+                    break;
+                }
+                if (mPendingSlash) {
+                    mPendingSlash = false;
+                    write((byte) '/');
+                }
+                if (c == '/' && !mAfterEquals) {
+                    mPendingSlash = true;
+                    break;
+                }
+                write(b);
+                mAfterSpace = isWhitespace(c);
+                if (c == '"') {
+                    mAfterEquals = false;
+                    mState = IN_DOUBLE_QUOTE;
+                } else if (c == '\'') {
+                    mAfterEquals = false;
+                    mState = IN_SINGLE_QUOTE;
+                } else if (c == '=') {
+                    mAfterEquals = true;
+                } else if (mAfterEquals && !isWhitespace(c)) {
+                    mAfterEquals = false;
+                    mState = IN_UNQUOTED_VALUE;
+                }
+                break;
+            case IN_UNQUOTED_VALUE:
+                if (c == '>') {
+                    closeStartTag(b);
+                } else {
+                    write(b);
+                    mAfterSpace = isWhitespace(c);
+                    if (mAfterSpace) mState = IN_START_TAG;
+                }
+                break;
+            case IN_DOUBLE_QUOTE:
+                write(b);
+                if (c == '"') mState = IN_START_TAG;
+                break;
+            case IN_SINGLE_QUOTE:
+                write(b);
+                if (c == '\'') mState = IN_START_TAG;
+                break;
+            case END_TAG_NAME:
+                if (c == '>' || c == '/' || isWhitespace(c)) {
+                    closeEndTagName(nameString());
+                    write(b);
+                    mState = c == '>' ? TEXT : IN_END_TAG;
+                } else if (mNameLength == MAX_TAG_NAME) {
+                    // Not a tag any transformer cares about, stop holding it back.
+                    flushPending();
+                    write(b);
+                    mState = IN_END_TAG;
+                } else {
+                    hold(b);
+                    appendName(c);
+                }
+                break;
+            case IN_END_TAG:
+                write(b);
+                if (c == '>') mState = TEXT;
+                break;
+            case BANG:
+                write(b);
+                mState = c == '-' ? BANG_DASH : c == '>' ? TEXT : DECLARATION;
+                break;
+            case BANG_DASH:
+                write(b);
+                if (c == '-') {
+                    // Counted as if the opening dashes closed it too: <!--> and <!---> are
+                    // complete empty comments.
+                    mDashes = 2;
+                    mState = COMMENT;
+                } else {
+                    mState = c == '>' ? TEXT : DECLARATION;
+                }
+                break;
+            case COMMENT:
+                write(b);
+                if (c == '>' && mDashes >= 2) {
+                    mState = TEXT;
+                } else if (c == '-') {
+                    mDashes++;
+                } else {
+                    mDashes = 0;
+                }
+                break;
+            case DECLARATION:
+                write(b);
+                if (c == '>') mState = TEXT;
+                break;
+            case RAW_TEXT:
+                if (c == '<') {
+                    hold(b);
+                    mState = RAW_TEXT_LT;
+                } else {
+                    write(b);
+                }
+                break;
+            case RAW_TEXT_LT:
+                if (c == '/') {
+                    hold(b);
+                    mRawTextMatched = 0;
+                    mState = RAW_TEXT_END_NAME;
+                } else {
+                    flushPending();
+                    mState = RAW_TEXT;
+                    consume(b);
+                }
+                break;
+            case RAW_TEXT_END_NAME:
+                if (mRawTextMatched == mRawTextTag.length()) {
+                    if (c == '>' || c == '/' || isWhitespace(c)) {
+                        closeEndTagName(mRawTextTag);
+                        write(b);
+                        mRawTextTag = null;
+                        mState = c == '>' ? TEXT : IN_END_TAG;
+                        break;
+                    }
+                } else if (toLowerCase(c) == mRawTextTag.charAt(mRawTextMatched)) {
+                    hold(b);
+                    mRawTextMatched++;
+                    break;
+                }
+                flushPending();
+                mState = RAW_TEXT;
+                consume(b);
+                break;
+        }
+    }
+
+    private void closeStartTag(byte gt) throws UnsupportedEncodingException {
+        String name = nameString();
+        for (HtmlTransformer transformer : mTransformers) {
+            String attributes = transformer.getExtraAttributes(name);
+            if (attributes != null && attributes.length() > 0) {
+                if (!mAfterSpace) write((byte) ' ');
+                write(attributes);
+                mAfterSpace = false;
+            }
+        }
+        mAfterSpace = false;
+        if (mPendingSlash) {
+            mPendingSlash = false;
+            write((byte) '/');
+        }
+        write(gt);
+        for (HtmlTransformer transformer : mTransformers) {
+            String markup = transformer.afterStartTag(name);
+            if (markup != null) write(markup);
+        }
+        if (name.equals("script") || name.equals("style")
+                || name.equals("textarea") || name.equals("title")) {
+            mRawTextTag = name;
+            mState = RAW_TEXT;
+        } else {
+            mState = TEXT;
+        }
+    }
+
+    private void closeEndTagName(String name) throws UnsupportedEncodingException {
+        for (HtmlTransformer transformer : mTransformers) {
+            String markup = transformer.beforeEndTag(name);
+            if (markup != null) write(markup);
+        }
+        flushPending();
+    }
+
+    private void appendName(char c) {
+        if (mNameLength < MAX_TAG_NAME) mName[mNameLength++] = toLowerCase(c);
+    }
+
+    private String nameString() {
+        return new String(mName, 0, mNameLength);
+    }
+
+    private void hold(byte b) {
+        mPending[mPendingLength++] = b;
+    }
+
+    private void flushPending() {
+        for (int i = 0; i < mPendingLength; i++) {
+            write(mPending[i]);
+        }
+        mPendingLength = 0;
+    }
+
+    private void write(String markup) throws UnsupportedEncodingException {
+        byte[] bytes = markup.getBytes(mCharset);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, mOut, mOutLimit, length);
+        mOutLimit += length;
+    }
+
+    private void write(byte b) {
+        ensureCapacity(1);
+        mOut[mOutLimit++] = b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mOutLimit + extra > mOut.length) {
+            byte[] grown = new byte[Math.max(mOut.length * 2, mOutLimit + extra)];
+            System.arraycopy(mOut, 0, grown, 0, mOutLimit);
+            mOut = grown;
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
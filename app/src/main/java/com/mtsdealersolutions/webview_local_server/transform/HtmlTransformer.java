@@ -0,0 +1,65 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import android.net.Uri;
+
+import java.util.Map;
+
+/**
+ * A stage that rewrites <code>text/html</code> responses while they are being streamed to the
+ * WebView.
+ * <p>
+ * Transformers never see the whole document. The {@link HtmlTransformInputStream} tokenizes the
+ * body incrementally and calls back for every tag it passes, so a transformer can only add
+ * markup next to tags or add attributes to start tags. Tag names are always lower case.
+ * <p>
+ * A transformer is shared by every response of the host it was added to, so these methods may
+ * be called from several threads at once and should not keep per-document state. Transformers
+ * that depend on the document return a transformer for it from {@link #forDocument(Uri)}.
+ */
+public abstract class HtmlTransformer {
+
+    /**
+     * Called once per response before it is streamed.
+     *
+     * @param url the url of the document
+     * @return the transformer to use for this document, this by default
+     */
+    public HtmlTransformer forDocument(Uri url) {
+        return this;
+    }
+
+    /**
+     * Called on the transformer returned by {@link #forDocument(Uri)} before the response is
+     * built, to send headers that must match the rewritten document. Not called on
+     * {@link android.webkit.WebViewClient#shouldInterceptRequest(android.webkit.WebView, String)}
+     * which cannot send headers.
+     *
+     * @param headers the response headers, may be changed
+     */
+    public void addResponseHeaders(Map<String, String> headers) {
+    }
+
+    /**
+     * @param tagName the lower case name of the start tag being closed
+     * @return attributes to append to the start tag (example <code>nonce="abc"</code>), or null
+     */
+    public String getExtraAttributes(String tagName) {
+        return null;
+    }
+
+    /**
+     * @param tagName the lower case name of the start tag that was just written
+     * @return markup to write directly after the start tag, or null
+     */
+    public String afterStartTag(String tagName) {
+        return null;
+    }
+
+    /**
+     * @param tagName the lower case name of the end tag about to be written
+     * @return markup to write directly before the end tag, or null
+     */
+    public String beforeEndTag(String tagName) {
+        return null;
+    }
+}
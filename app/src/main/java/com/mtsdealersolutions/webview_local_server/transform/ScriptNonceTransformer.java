@@ -0,0 +1,97 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import android.net.Uri;
+
+import java.security.SecureRandom;
+import java.util.Map;
+
+/**
+ * Adds a fresh <code>nonce</code> attribute to every <code>&lt;script&gt;</code> and
+ * <code>&lt;style&gt;</code> start tag of a document and sends the matching
+ * <code>Content-Security-Policy</code> header with the same response.
+ * <p>
+ * A new nonce is drawn for every document, so a nonce seen in one page cannot be used to
+ * inject a script into the next one. The policy is a template in which every
+ * <code>{nonce}</code> is replaced by the document's nonce.
+ */
+public class ScriptNonceTransformer extends HtmlTransformer {
+
+    public static final String DEFAULT_POLICY = "script-src 'nonce-{nonce}'";
+
+    private static final String NONCE = "{nonce}";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String mPolicy;
+
+    /**
+     * Uses the {@link #DEFAULT_POLICY}.
+     */
+    public ScriptNonceTransformer() {
+        this(DEFAULT_POLICY);
+    }
+
+    /**
+     * @param policy the <code>Content-Security-Policy</code>, with <code>{nonce}</code> where
+     *               the document's nonce goes
+     */
+    public ScriptNonceTransformer(String policy) {
+        if (policy == null || !policy.contains(NONCE))
+            throw new IllegalArgumentException("policy must contain " + NONCE);
+        mPolicy = policy;
+    }
+
+    public String getPolicy() {
+        return mPolicy;
+    }
+
+    @Override
+    public HtmlTransformer forDocument(Uri url) {
+        return new Document(newNonce(), mPolicy);
+    }
+
+    /**
+     * @return 144 random bits, base64 encoded
+     */
+    static String newNonce() {
+        byte[] bytes = new byte[18];
+        RANDOM.nextBytes(bytes);
+        StringBuilder nonce = new StringBuilder(24);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            nonce.append(BASE64[bits >> 18 & 0x3f]).append(BASE64[bits >> 12 & 0x3f])
+                    .append(BASE64[bits >> 6 & 0x3f]).append(BASE64[bits & 0x3f]);
+        }
+        return nonce.toString();
+    }
+
+    /**
+     * The transformer of one document.
+     */
+    public static class Document extends HtmlTransformer {
+        private final String mNonce;
+        private final String mPolicy;
+        private final String mAttribute;
+
+        Document(String nonce, String policy) {
+            mNonce = nonce;
+            mPolicy = policy.replace(NONCE, nonce);
+            mAttribute = "nonce=\"" + nonce + "\"";
+        }
+
+        public String getNonce() {
+            return mNonce;
+        }
+
+        @Override
+        public void addResponseHeaders(Map<String, String> headers) {
+            headers.put("Content-Security-Policy", mPolicy);
+        }
+
+        @Override
+        public String getExtraAttributes(String tagName) {
+            return "script".equals(tagName) || "style".equals(tagName) ? mAttribute : null;
+        }
+    }
+}
@@ -32,6 +32,8 @@ import java.util.Map;
 
 public class LocalWebView extends WebView {
 
+    private static boolean sUseSharedServer;
+
     private WebViewLocalServer mWebViewLocalServer;
 
     public LocalWebView(Context context) {
@@ -63,20 +65,56 @@ public class LocalWebView extends WebView {
 
     private void init(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes, boolean privateBrowsing) {
 
-        mWebViewLocalServer = new WebViewLocalServer(getContext());
+        if (sUseSharedServer) {
+            mWebViewLocalServer = WebViewLocalServer.acquireShared(getContext());
+        } else {
+            mWebViewLocalServer = new WebViewLocalServer(getContext());
+        }
 
         ConfigWebViewUtil.setDefaultAppSettings(this);
 
     }
 
+    /**
+     * Whether LocalWebViews created from now on use the process wide shared
+     * {@link WebViewLocalServer} instead of creating their own, default is false.
+     * The reference is released in {@link #destroy()}.
+     *
+     * @param useSharedServer true to share one server across views
+     */
+    public static void setUseSharedServer(boolean useSharedServer) {
+        sUseSharedServer = useSharedServer;
+    }
+
+    public static boolean isUsingSharedServer() {
+        return sUseSharedServer;
+    }
+
     public WebViewLocalServer getWebViewLocalServer() {
         return mWebViewLocalServer;
     }
 
+    /**
+     * Replaces the view's server. A shared server must be passed with its own reference from
+     * {@link WebViewLocalServer#acquireShared(android.content.Context)}, the view releases the
+     * server it holds when it is replaced or destroyed. Passing the server the view already
+     * holds does nothing, do not acquire another reference for it.
+     */
     public void setWebViewLocalServer(WebViewLocalServer webViewLocalServer) {
+        if (webViewLocalServer == mWebViewLocalServer) return;
+        if (mWebViewLocalServer != null) mWebViewLocalServer.release();
         mWebViewLocalServer = webViewLocalServer;
     }
 
+    @Override
+    public void destroy() {
+        if (mWebViewLocalServer != null) {
+            mWebViewLocalServer.release();
+            mWebViewLocalServer = null;
+        }
+        super.destroy();
+    }
+
     @Override
     public void loadUrl(String url) {
         if (!TextUtils.isEmpty(url) && url.startsWith("file://")) {
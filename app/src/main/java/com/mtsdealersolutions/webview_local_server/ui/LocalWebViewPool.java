@@ -0,0 +1,314 @@
+package com.mtsdealersolutions.webview_local_server.ui;
+
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.webkit.CookieManager;
+import android.webkit.WebStorage;
+import android.webkit.WebView;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.config.ServerWebViewClient;
+import com.mtsdealersolutions.webview_local_server.utils.ConfigWebViewUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps ready to use {@link LocalWebView}s so opening a screen does not pay for creating and
+ * configuring a WebView.
+ * <p>
+ * Views are created while the main thread is idle, with a {@link MutableContextWrapper} around
+ * the application context, and are rebound to the caller's context when they are handed out.
+ * Optionally every pooled view loads a shell page ahead of time, which needs the shared server,
+ * see {@link #setShellUrl(String)}.
+ * <p>
+ * WebViews belong to the main thread, so every method of this class must be called on it.
+ * <pre>
+ *     LocalWebViewPool pool = new LocalWebViewPool(getApplicationContext(), 2);
+ *     pool.prewarm();
+ *     ...
+ *     LocalWebView webView = pool.acquire(activity);
+ *     ...
+ *     pool.recycle(webView);
+ * </pre>
+ */
+public class LocalWebViewPool {
+    private static final String TAG = "LocalWebViewPool";
+
+    private final Context mApplicationContext;
+    private final int mMaxSize;
+    private final ArrayList<LocalWebView> mViews = new ArrayList<>();
+    private final HashMap<LocalWebView, PooledClient> mClients = new HashMap<>();
+    private String mShellUrl;
+    private boolean mClearBrowsingData;
+
+    private boolean mIdleHandlerQueued;
+    private int mHits;
+    private int mMisses;
+    private int mCreated;
+    private long mCreateNanos;
+
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            // One view per idle pass, creating a WebView takes long enough to drop frames.
+            if (mViews.size() < mMaxSize) {
+                mViews.add(create());
+            }
+            mIdleHandlerQueued = mViews.size() < mMaxSize;
+            return mIdleHandlerQueued;
+        }
+    };
+
+    /**
+     * @param context used for its application context, which pooled views are bound to
+     * @param maxSize the most views kept ready at a time
+     */
+    public LocalWebViewPool(Context context, int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize cannot be negative");
+        mApplicationContext = context.getApplicationContext();
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Loads <code>shellUrl</code> into every pooled view ahead of time, for example a page served
+     * by the local server that the app then navigates within. Views handed out before the
+     * shell is set are not affected.
+     * <p>
+     * Pooled views load the shell before anyone can create hosts on their server, so a shell
+     * served by the local server needs {@link LocalWebView#setUseSharedServer(boolean)} and its
+     * host created on the shared server before {@link #prewarm()}. Views with their own server
+     * get an empty server that cannot serve it.
+     *
+     * @param shellUrl the url to preload, null to leave pooled views empty (default)
+     */
+    public void setShellUrl(String shellUrl) {
+        if (!TextUtils.isEmpty(shellUrl) && !LocalWebView.isUsingSharedServer())
+            Log.w(TAG, "Pooled views only serve the shell from the shared server, see LocalWebView.setUseSharedServer()");
+        mShellUrl = shellUrl;
+    }
+
+    public String getShellUrl() {
+        return mShellUrl;
+    }
+
+    /**
+     * Whether {@link #recycle(LocalWebView)} also deletes cookies and web storage (local storage,
+     * databases, app cache), default is false. Both are kept per process, not per view, so this
+     * also clears them for every other WebView, and a newly created view would see them as
+     * well. Turn it on when only one view is used at a time and pages must not see what the
+     * previous screen stored.
+     */
+    public void setClearBrowsingDataOnRecycle(boolean clearBrowsingData) {
+        mClearBrowsingData = clearBrowsingData;
+    }
+
+    public boolean isClearingBrowsingDataOnRecycle() {
+        return mClearBrowsingData;
+    }
+
+    /**
+     * Fills the pool up to its max size, one view per main thread idle pass.
+     */
+    public void prewarm() {
+        if (mIdleHandlerQueued || mViews.size() >= mMaxSize) return;
+        mIdleHandlerQueued = true;
+        final MessageQueue.IdleHandler idleHandler = mIdleHandler;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Looper.myQueue().addIdleHandler(idleHandler);
+        } else {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    Looper.myQueue().addIdleHandler(idleHandler);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands out a pooled view, or creates one if the pool is empty, and refills the pool in the
+     * background.
+     *
+     * @param context the context the view is used with, usually the Activity
+     * @return a view bound to <code>context</code>
+     */
+    public LocalWebView acquire(Context context) {
+        LocalWebView view;
+        if (!mViews.isEmpty()) {
+            view = mViews.remove(mViews.size() - 1);
+            PooledClient client = mClients.remove(view);
+            // Handed out before its page loaded, clear what we can now.
+            if (client != null && !client.finish()) view.clearHistory();
+            mHits++;
+        } else {
+            view = create();
+            mMisses++;
+        }
+        ((MutableContextWrapper) view.getContext()).setBaseContext(context);
+        prewarm();
+        return view;
+    }
+
+    /**
+     * Returns a view handed out by {@link #acquire(Context)}. It is detached, emptied and
+     * rebound to the application context so it does not leak the Activity, then pooled, or
+     * destroyed if the pool is full.
+     * <p>
+     * History, the current page, settings, form data, the WebViewClient, WebChromeClient and
+     * listeners are reset; cookies and web storage only with
+     * {@link #setClearBrowsingDataOnRecycle(boolean)}. A view that did not use the shared server
+     * gets a new {@link WebViewLocalServer} so hosts do not carry over. Javascript interfaces
+     * cannot be listed and must be removed by the caller.
+     */
+    public void recycle(LocalWebView view) {
+        if (view == null) return;
+        ViewParent parent = view.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(view);
+        }
+        if (mViews.size() >= mMaxSize || !(view.getContext() instanceof MutableContextWrapper)) {
+            view.destroy();
+            return;
+        }
+
+        view.stopLoading();
+        ((MutableContextWrapper) view.getContext()).setBaseContext(mApplicationContext);
+        WebViewLocalServer server = view.getWebViewLocalServer();
+        if (server == null || !server.isShared()) {
+            server = new WebViewLocalServer(mApplicationContext);
+            view.setWebViewLocalServer(server);
+        }
+        view.setWebChromeClient(null);
+        view.setDownloadListener(null);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) view.setFindListener(null);
+        view.clearMatches();
+        view.clearFormData();
+        view.clearSslPreferences();
+        ConfigWebViewUtil.setDefaultAppSettings(view);
+        if (mClearBrowsingData) clearBrowsingData();
+
+        // History is cleared once the page below has committed, before that the current entry
+        // is still the caller's page and would stay in the history.
+        load(view, TextUtils.isEmpty(mShellUrl) ? "about:blank" : mShellUrl);
+        mViews.add(view);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void clearBrowsingData() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            CookieManager.getInstance().removeAllCookies(null);
+        } else {
+            CookieManager.getInstance().removeAllCookie();
+        }
+        WebStorage.getInstance().deleteAllData();
+    }
+
+    private void load(LocalWebView view, String url) {
+        PooledClient client = new PooledClient(view.getWebViewLocalServer());
+        view.setWebViewClient(client);
+        mClients.put(view, client);
+        view.loadUrl(url);
+    }
+
+    /**
+     * Destroys every pooled view, for example when the app is trimming memory.
+     */
+    public void clear() {
+        for (LocalWebView view : mViews) {
+            view.destroy();
+        }
+        mViews.clear();
+        mClients.clear();
+    }
+
+    public int size() {
+        return mViews.size();
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return how many {@link #acquire(Context)} calls were served from the pool
+     */
+    public int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return how many {@link #acquire(Context)} calls had to create a view
+     */
+    public int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return hits / acquires, 0 before the first acquire
+     */
+    public float getHitRate() {
+        int acquires = mHits + mMisses;
+        return acquires == 0 ? 0 : (float) mHits / acquires;
+    }
+
+    /**
+     * @return the average time it took to create and configure a view
+     */
+    public long getAverageCreateMillis() {
+        return mCreated == 0 ? 0 : mCreateNanos / mCreated / 1000000;
+    }
+
+    /**
+     * @return the estimated time pool hits saved, hits * average create time
+     */
+    public long getSavedLatencyMillis() {
+        return mHits * getAverageCreateMillis();
+    }
+
+    private LocalWebView create() {
+        long start = System.nanoTime();
+        LocalWebView view = new LocalWebView(new MutableContextWrapper(mApplicationContext));
+        mCreateNanos += System.nanoTime() - start;
+        mCreated++;
+        if (!TextUtils.isEmpty(mShellUrl)) {
+            load(view, mShellUrl);
+        }
+        return view;
+    }
+
+    /**
+     * Clears the history of a pooled view once the page it loads while pooled has finished.
+     */
+    private static class PooledClient extends ServerWebViewClient {
+        private boolean mPending = true;
+
+        PooledClient(WebViewLocalServer server) {
+            super(server);
+        }
+
+        @Override
+        public void onPageFinished(WebView view, String url) {
+            if (finish()) return;
+            view.clearHistory();
+        }
+
+        /**
+         * @return whether the history was cleared already
+         */
+        boolean finish() {
+            boolean finished = !mPending;
+            mPending = false;
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+/**
+ * Identifies the installed build of the app, for versioning what is cached across launches.
+ * <p>
+ * This is public only so the cache and preload packages can share it; it is not part of the
+ * library's API.
+ */
+public final class AppVersion {
+
+    private AppVersion() {
+    }
+
+    /**
+     * @return a string that changes with every install or update of the app, or null if the
+     * package cannot be read
+     */
+    public static String of(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return getVersionCode(info) + "-" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.P)
+    private static long getVersionCode(PackageInfo info) {
+        // versionCode drops the major version that getLongVersionCode() includes.
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? info.getLongVersionCode() : info.versionCode;
+    }
+}
@@ -0,0 +1,95 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import java.util.ArrayList;
+
+/**
+ * A small, bounded pool of byte arrays used for response bodies that are produced in memory.
+ * <p>
+ * Reusing the arrays keeps large renders from churning the heap on every request. Arrays larger
+ * than {@link #getMaxBufferSize()} are never kept.
+ */
+public class BufferPool implements TrimmableCache {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_POOLED_BYTES = 4 * 1024 * 1024;
+
+    private final ArrayList<byte[]> mBuffers = new ArrayList<>();
+    private final int mBufferSize;
+    private final int mMaxBufferSize;
+    private final long mMaxPooledBytes;
+    private long mPooledBytes;
+
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * @param bufferSize     size of newly allocated buffers
+     * @param maxBufferSize  buffers larger than this are dropped instead of pooled
+     * @param maxPooledBytes the most bytes the pool holds on to while idle
+     */
+    public BufferPool(int bufferSize, int maxBufferSize, long maxPooledBytes) {
+        mBufferSize = bufferSize;
+        mMaxBufferSize = maxBufferSize;
+        mMaxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @param minSize the minimum length of the array
+     * @return a pooled array of at least <code>minSize</code> bytes, or a new one
+     */
+    public byte[] acquire(int minSize) {
+        synchronized (mBuffers) {
+            for (int i = mBuffers.size() - 1; i >= 0; i--) {
+                byte[] buffer = mBuffers.get(i);
+                if (buffer.length >= minSize) {
+                    mBuffers.remove(i);
+                    mPooledBytes -= buffer.length;
+                    return buffer;
+                }
+            }
+        }
+        return new byte[Math.max(minSize, mBufferSize)];
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not touch it afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length > mMaxBufferSize) return;
+        synchronized (mBuffers) {
+            if (mPooledBytes + buffer.length > mMaxPooledBytes) return;
+            mBuffers.add(buffer);
+            mPooledBytes += buffer.length;
+        }
+    }
+
+    /**
+     * Drops pooled arrays until at most <code>maxPooledBytes</code> are held.
+     */
+    @Override
+    public void trimToSize(long maxPooledBytes) {
+        synchronized (mBuffers) {
+            while (mPooledBytes > maxPooledBytes && !mBuffers.isEmpty()) {
+                mPooledBytes -= mBuffers.remove(0).length;
+            }
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        synchronized (mBuffers) {
+            return mPooledBytes;
+        }
+    }
+
+    @Override
+    public long getMaxSizeBytes() {
+        return mMaxPooledBytes;
+    }
+
+    public int getMaxBufferSize() {
+        return mMaxBufferSize;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reports when a response body's first byte is read, how many bytes are read and when it is
+ * closed, for recorders timing the server's responses. Times are {@link System#nanoTime()}.
+ */
+public class MeasuredInputStream extends FilterInputStream {
+
+    public interface Listener {
+        /**
+         * Called once, on the reading thread, when the first bytes were read or skipped.
+         */
+        void onFirstByte(long nanos);
+
+        /**
+         * Called on the reading thread for every read or skip that returned bytes.
+         */
+        void onBytes(long count);
+
+        /**
+         * Called once, by the first call to {@link #close()}.
+         */
+        void onClosed(long nanos);
+    }
+
+    private final Listener mListener;
+    private boolean mRead;
+    private boolean mClosed;
+
+    public MeasuredInputStream(InputStream in, Listener listener) {
+        super(in);
+        if (listener == null)
+            throw new IllegalArgumentException("listener cannot be null");
+        mListener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) count(count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) count(skipped);
+        return skipped;
+    }
+
+    private void count(long bytes) {
+        if (!mRead) {
+            mRead = true;
+            mListener.onFirstByte(System.nanoTime());
+        }
+        mListener.onBytes(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            boolean first;
+            synchronized (this) {
+                first = !mClosed;
+                mClosed = true;
+            }
+            if (first) mListener.onClosed(System.nanoTime());
+        }
+    }
+}
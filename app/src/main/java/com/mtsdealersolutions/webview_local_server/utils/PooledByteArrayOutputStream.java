@@ -0,0 +1,168 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An output stream that writes into arrays borrowed from a {@link BufferPool} and can then be
+ * served as a response body with {@link #toInputStream()}. The array goes back to the pool once
+ * the body has been read to the end or closed.
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+
+    private final BufferPool mPool;
+    private byte[] mBuffer;
+    private int mCount;
+
+    public PooledByteArrayOutputStream(BufferPool pool) {
+        mPool = pool;
+        mBuffer = pool.acquire(0);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    /**
+     * Writes <code>value</code> as UTF-8 without allocating an intermediate byte array.
+     *
+     * @param escapeHtml whether to escape <code>&amp; &lt; &gt; " '</code>
+     */
+    public void writeUtf8(CharSequence value, boolean escapeHtml) {
+        int length = value.length();
+        // Worst case is 3 bytes per char, or 6 for an escaped char ("&quot;").
+        ensureCapacity(length * (escapeHtml ? 6 : 3));
+        byte[] buffer = mBuffer;
+        int count = mCount;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escapeHtml && (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'')) {
+                    String entity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;"
+                            : c == '"' ? "&quot;" : "&#39;";
+                    for (int j = 0; j < entity.length(); j++) {
+                        buffer[count++] = (byte) entity.charAt(j);
+                    }
+                } else {
+                    buffer[count++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate has no UTF-8 encoding, write U+FFFD like a decoder would.
+                buffer[count++] = (byte) 0xef;
+                buffer[count++] = (byte) 0xbf;
+                buffer[count++] = (byte) 0xbd;
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        mCount = count;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Hands the written bytes over to a body stream. This output stream must not be used
+     * afterwards.
+     */
+    public InputStream toInputStream() {
+        byte[] buffer = mBuffer;
+        mBuffer = null;
+        return new PooledInputStream(mPool, buffer, mCount);
+    }
+
+    /**
+     * Returns the buffer to the pool without producing a body, for example after a failed render.
+     */
+    public void recycle() {
+        if (mBuffer != null) {
+            mPool.release(mBuffer);
+            mBuffer = null;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mCount + extra > mBuffer.length) {
+            byte[] grown = mPool.acquire(Math.max(mBuffer.length * 2, mCount + extra));
+            System.arraycopy(mBuffer, 0, grown, 0, mCount);
+            mPool.release(mBuffer);
+            mBuffer = grown;
+        }
+    }
+
+    private static class PooledInputStream extends InputStream {
+        private final BufferPool mPool;
+        private byte[] mBuffer;
+        private final int mCount;
+        private int mPos;
+
+        PooledInputStream(BufferPool pool, byte[] buffer, int count) {
+            mPool = pool;
+            mBuffer = buffer;
+            mCount = count;
+        }
+
+        @Override
+        public synchronized int read() {
+            if (mBuffer == null || mPos >= mCount) {
+                close();
+                return -1;
+            }
+            return mBuffer[mPos++] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            if (mBuffer == null || mPos >= mCount) {
+                close();
+                return -1;
+            }
+            int n = Math.min(len, mCount - mPos);
+            System.arraycopy(mBuffer, mPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public synchronized long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, mCount - mPos));
+            mPos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public synchronized int available() {
+            return mBuffer == null ? 0 : mCount - mPos;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mBuffer != null) {
+                mPool.release(mBuffer);
+                mBuffer = null;
+            }
+        }
+    }
+}
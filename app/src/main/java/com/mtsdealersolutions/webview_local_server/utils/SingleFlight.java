@@ -0,0 +1,352 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent requests for the same key into one.
+ * <p>
+ * The first caller of {@link #open(String, Producer)} for a key runs the producer. Callers that
+ * arrive while that body is still being read join it instead of producing their own: the body
+ * is read once into a chunked buffer that every reader consumes at its own pace. Whichever
+ * reader is furthest ahead pulls the next chunk from the source.
+ * <p>
+ * Once the buffered part of a body grows past the cap no new readers can join it, and chunks
+ * that every remaining reader has passed are freed, so a large body is only held in memory
+ * while it is shared.
+ */
+public class SingleFlight {
+
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 2 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Produces the body for a key, called at most once per flight.
+     */
+    public interface Producer {
+        /**
+         * @return the body, or null if there is none
+         */
+        InputStream produce();
+    }
+
+    private final ConcurrentHashMap<String, Flight> mFlights = new ConcurrentHashMap<>();
+    private final int mMaxBufferedBytes;
+    private final AtomicLong mProduced = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    public SingleFlight() {
+        this(DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    /**
+     * @param maxBufferedBytes the size up to which a body can still be joined
+     */
+    public SingleFlight(int maxBufferedBytes) {
+        mMaxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Callers that join a flight wait until its producer returned. If it returned null they get
+     * null as well, if it threw they get the same exception.
+     *
+     * @param key      identifies the body, usually the url
+     * @param producer produces the body if no read of <code>key</code> is in flight
+     * @return a reader of the body, or null if the producer returned none
+     */
+    public InputStream open(String key, Producer producer) {
+        while (true) {
+            Flight flight = mFlights.get(key);
+            if (flight != null) {
+                InputStream reader = flight.join();
+                if (reader != null) {
+                    mCoalesced.incrementAndGet();
+                    return reader;
+                }
+                if (flight.isMissing()) return null;
+                // Finished or closed to new readers meanwhile.
+                mFlights.remove(key, flight);
+                continue;
+            }
+
+            Flight created = new Flight(key);
+            if (mFlights.putIfAbsent(key, created) != null) continue;
+
+            InputStream reader = created.addReader();
+            InputStream source;
+            try {
+                mProduced.incrementAndGet();
+                source = producer.produce();
+            } catch (RuntimeException | Error e) {
+                created.fail(e);
+                throw e;
+            }
+            created.start(source);
+            if (source == null) return null;
+            return reader;
+        }
+    }
+
+    /**
+     * @return how many times a producer ran
+     */
+    public long getProducedCount() {
+        return mProduced.get();
+    }
+
+    /**
+     * @return how many readers joined a body another caller produced
+     */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    /**
+     * @return the number of bodies currently in flight
+     */
+    public int getInFlightCount() {
+        return mFlights.size();
+    }
+
+    private class Flight {
+        private final String mKey;
+        private final ArrayList<byte[]> mChunks = new ArrayList<>();
+        private final ArrayList<Reader> mReaders = new ArrayList<>();
+        // Chunks before this index have been freed.
+        private int mFirstChunk;
+        private long mLength;
+        private boolean mStarted;
+        private InputStream mSource;
+        private boolean mPulling;
+        private boolean mDone;
+        private boolean mJoinable = true;
+        private IOException mError;
+        // What the producer threw, rethrown to the callers that joined.
+        private Throwable mFailure;
+        // The producer returned no body.
+        private boolean mMissing;
+
+        Flight(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Waits for the producer, then adds a reader.
+         *
+         * @return the reader, or null if the flight cannot be joined or has no body
+         */
+        synchronized InputStream join() {
+            boolean interrupted = false;
+            while (!mStarted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The producer always returns or throws, so keep waiting for it.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (mFailure instanceof RuntimeException) throw (RuntimeException) mFailure;
+            if (mFailure instanceof Error) throw (Error) mFailure;
+            return addReader();
+        }
+
+        synchronized InputStream addReader() {
+            if (!mJoinable) return null;
+            Reader reader = new Reader(this);
+            mReaders.add(reader);
+            return reader;
+        }
+
+        synchronized boolean isMissing() {
+            return mMissing;
+        }
+
+        synchronized void start(InputStream source) {
+            mStarted = true;
+            mSource = source;
+            if (source == null) {
+                mMissing = mFailure == null;
+                finish();
+            }
+            notifyAll();
+        }
+
+        synchronized void fail(Throwable failure) {
+            mFailure = failure;
+            start(null);
+        }
+
+        int read(Reader reader, byte[] b, int off, int len) throws IOException {
+            synchronized (this) {
+                while (true) {
+                    if (reader.mClosed) return -1;
+                    if (reader.mPosition < mLength) {
+                        return copy(reader, b, off, len);
+                    }
+                    if (mError != null) throw mError;
+                    if (mDone) return -1;
+                    if (!mStarted || mPulling) {
+                        waitForData();
+                        continue;
+                    }
+                    break;
+                }
+                mPulling = true;
+            }
+            pull();
+            return read(reader, b, off, len);
+        }
+
+        /**
+         * Reads the next run of bytes from the source into the tail chunk, outside the lock.
+         */
+        private void pull() {
+            byte[] tail;
+            int tailOffset;
+            synchronized (this) {
+                tailOffset = (int) (mLength % CHUNK_SIZE);
+                if (tailOffset == 0) {
+                    tail = new byte[CHUNK_SIZE];
+                    mChunks.add(tail);
+                } else {
+                    tail = mChunks.get(mChunks.size() - 1);
+                }
+            }
+            int count;
+            IOException error = null;
+            try {
+                // Only indexes below mLength are ever read by other readers.
+                count = mSource.read(tail, tailOffset, CHUNK_SIZE - tailOffset);
+            } catch (IOException e) {
+                count = -1;
+                error = e;
+            }
+            synchronized (this) {
+                mPulling = false;
+                if (mDone) {
+                    // Every reader closed while this read was running.
+                    closeSource();
+                } else if (error != null) {
+                    mError = error;
+                    finish();
+                } else if (count == -1) {
+                    finish();
+                } else {
+                    mLength += count;
+                    if (mJoinable && mLength > mMaxBufferedBytes) {
+                        mJoinable = false;
+                        mFlights.remove(mKey, this);
+                    }
+                    freePassedChunks();
+                }
+                notifyAll();
+            }
+        }
+
+        private int copy(Reader reader, byte[] b, int off, int len) {
+            int copied = 0;
+            while (copied < len && reader.mPosition < mLength) {
+                int chunk = (int) (reader.mPosition / CHUNK_SIZE);
+                int chunkOffset = (int) (reader.mPosition % CHUNK_SIZE);
+                int count = (int) Math.min(Math.min(len - copied, CHUNK_SIZE - chunkOffset), mLength - reader.mPosition);
+                System.arraycopy(mChunks.get(chunk), chunkOffset, b, off + copied, count);
+                copied += count;
+                reader.mPosition += count;
+            }
+            if (!mJoinable) freePassedChunks();
+            return copied;
+        }
+
+        private void freePassedChunks() {
+            if (mJoinable) return;
+            long slowest = mLength;
+            for (Reader reader : mReaders) {
+                slowest = Math.min(slowest, reader.mPosition);
+            }
+            int passed = (int) (slowest / CHUNK_SIZE);
+            while (mFirstChunk < passed) {
+                mChunks.set(mFirstChunk++, null);
+            }
+        }
+
+        synchronized void close(Reader reader) {
+            if (reader.mClosed) return;
+            reader.mClosed = true;
+            mReaders.remove(reader);
+            if (mReaders.isEmpty() && !mDone) {
+                // Nobody is left to read the rest.
+                finish();
+            } else {
+                freePassedChunks();
+            }
+            notifyAll();
+        }
+
+        private void finish() {
+            mDone = true;
+            mJoinable = false;
+            mFlights.remove(mKey, this);
+            if (!mPulling) closeSource();
+        }
+
+        private void closeSource() {
+            if (mSource == null) return;
+            try {
+                mSource.close();
+            } catch (IOException ignored) {
+            }
+            mSource = null;
+        }
+
+        private void waitForData() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        synchronized int available(Reader reader) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, mLength - reader.mPosition));
+        }
+    }
+
+    private static class Reader extends InputStream {
+        private final Flight mFlight;
+        private long mPosition;
+        private boolean mClosed;
+
+        Reader(Flight flight) {
+            mFlight = flight;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return mFlight.read(this, b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return mFlight.available(this);
+        }
+
+        @Override
+        public void close() {
+            mFlight.close(this);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the response bodies a server has open and, when leak detection is enabled, reports
+ * bodies that were garbage collected without being closed.
+ * <p>
+ * Leak detection keeps a weak reference and the allocation site of every open body, so it is
+ * meant for debug builds. A leaked body's underlying stream is closed when the leak is found,
+ * releasing its file descriptor.
+ */
+public class StreamTracker {
+
+    private static final String TAG = "StreamTracker";
+
+    private final AtomicInteger mOpen = new AtomicInteger();
+    private final AtomicInteger mPeakOpen = new AtomicInteger();
+    private final AtomicLong mOpened = new AtomicLong();
+    private final AtomicLong mLeaked = new AtomicLong();
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<>();
+    private final Set<Tracked> mTracked = Collections.newSetFromMap(new ConcurrentHashMap<Tracked, Boolean>());
+    private volatile boolean mLeakDetection;
+
+    public void setLeakDetectionEnabled(boolean enabled) {
+        mLeakDetection = enabled;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return mLeakDetection;
+    }
+
+    /**
+     * Records that <code>owner</code> opened <code>stream</code>.
+     *
+     * @param owner  the body handed to the WebView
+     * @param stream the stream to close if <code>owner</code> leaks
+     * @param url    the url the body was served for, used in leak reports
+     * @return a token to pass to {@link #closed(Object)}
+     */
+    public Object opened(Object owner, Closeable stream, String url) {
+        mOpened.incrementAndGet();
+        int open = mOpen.incrementAndGet();
+        int peak;
+        while (open > (peak = mPeakOpen.get()) && !mPeakOpen.compareAndSet(peak, open)) {
+            // Retry until the peak is at least open.
+        }
+        if (!mLeakDetection) return null;
+
+        reportLeaks();
+        Tracked tracked = new Tracked(owner, mQueue, stream, url);
+        mTracked.add(tracked);
+        return tracked;
+    }
+
+    /**
+     * Records that the body opened with <code>token</code> was closed.
+     */
+    public void closed(Object token) {
+        if (token != null && !mTracked.remove(token)) {
+            // Already reported as leaked.
+            return;
+        }
+        mOpen.decrementAndGet();
+    }
+
+    /**
+     * Reports and closes bodies that were collected without being closed. Called on every
+     * {@link #opened}, call it directly to check at a specific point.
+     *
+     * @return the number of leaks found
+     */
+    public int reportLeaks() {
+        int found = 0;
+        Tracked tracked;
+        while ((tracked = (Tracked) mQueue.poll()) != null) {
+            if (!mTracked.remove(tracked)) continue;
+            found++;
+            mLeaked.incrementAndGet();
+            mOpen.decrementAndGet();
+            Log.w(TAG, "Response body for " + tracked.mUrl + " was never closed", tracked.mAllocationSite);
+            try {
+                tracked.mStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of bodies opened and not closed yet
+     */
+    public int getOpenCount() {
+        return mOpen.get();
+    }
+
+    /**
+     * @return the highest number of bodies open at the same time
+     */
+    public int getPeakOpenCount() {
+        return mPeakOpen.get();
+    }
+
+    /**
+     * @return the number of bodies opened so far
+     */
+    public long getOpenedCount() {
+        return mOpened.get();
+    }
+
+    /**
+     * @return the number of bodies found leaked
+     */
+    public long getLeakedCount() {
+        return mLeaked.get();
+    }
+
+    private static class Tracked extends WeakReference<Object> {
+        private final Closeable mStream;
+        private final String mUrl;
+        private final Throwable mAllocationSite;
+
+        Tracked(Object owner, ReferenceQueue<Object> queue, Closeable stream, String url) {
+            super(owner, queue);
+            mStream = stream;
+            mUrl = url;
+            mAllocationSite = new Throwable("Opened here");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+/**
+ * In-memory state of the server that can shrink when the system is low on memory.
+ *
+ * @see com.mtsdealersolutions.webview_local_server.WebViewLocalServer#registerCache(TrimmableCache)
+ */
+public interface TrimmableCache {
+
+    /**
+     * @return an estimate of the bytes currently held
+     */
+    long getSizeBytes();
+
+    /**
+     * @return the most bytes the cache is configured to hold, memory pressure trims the cache to
+     * a share of it
+     */
+    long getMaxSizeBytes();
+
+    /**
+     * Evicts entries until at most <code>maxBytes</code> are held, 0 to drop everything.
+     */
+    void trimToSize(long maxBytes);
+}
@@ -0,0 +1,79 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+import com.mtsdealersolutions.webview_local_server.template.TemplateSource;
+import com.mtsdealersolutions.webview_local_server.template.TemplateValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class AssetManifestTest {
+
+    private static final TemplateValues VALUES = new TemplateValues() {
+        @Override
+        public CharSequence getValue(String name, Uri url) {
+            return "Local";
+        }
+    };
+
+    private static String read(WebResourceResponse response) throws IOException {
+        InputStream data = response == null ? null : response.getData();
+        if (data == null) return null;
+        int first = data.read();
+        if (first == -1) return "";
+        return (char) first + TestStreams.readString(data);
+    }
+
+    @Test
+    public void templatesFromAnotherSourceAreServedWithAManifest() throws IOException {
+        TestAssets assets = new TestAssets().add("www/app.js", "run()").addManifest();
+        WebViewLocalServer server = new WebViewLocalServer(assets);
+        server.createHost(new WebViewLocalServer.TemplateBuilder()
+                .setTemplateValues(VALUES)
+                .setTemplateSource(new TemplateSource() {
+                    @Override
+                    public InputStream open(String path) throws IOException {
+                        if (!path.equals("www/index.html")) throw new FileNotFoundException(path);
+                        return TestStreams.stream("<h1>{{title}}</h1>");
+                    }
+
+                    @Override
+                    public long getVersion(String path) {
+                        return 1;
+                    }
+                })
+                .setAssetManifest(AssetManifest.DEFAULT_PATH)
+                .setDomain("manifest.test").clearSubDomain());
+
+        assertEquals("<h1>Local</h1>", read(server.shouldInterceptRequest(new TestRequest("https://manifest.test/index.html"))));
+        assertEquals("run()", read(server.shouldInterceptRequest(new TestRequest("https://manifest.test/app.js"))));
+    }
+
+    @Test
+    public void assetsMissingFromTheManifestAreNotOpened() throws IOException {
+        TestAssets assets = new TestAssets().add("www/app.js", "run()").add("www/stale.js", "old()")
+                .addManifest("www/stale.js");
+        WebViewLocalServer server = new WebViewLocalServer(assets);
+        server.createHost(new WebViewLocalServer.AssetsBuilder()
+                .setAssetManifest(AssetManifest.DEFAULT_PATH)
+                .setDomain("manifest.test").clearSubDomain());
+
+        WebResourceResponse response = server.shouldInterceptRequest(new TestRequest("https://manifest.test/stale.js"));
+        read(response);
+        assertEquals(0, assets.getOpenCount("www/stale.js"));
+        WebResourceResponse served = server.shouldInterceptRequest(new TestRequest("https://manifest.test/app.js"));
+        assertEquals("5", served.getResponseHeaders().get("Content-Length"));
+        assertEquals("run()", read(served));
+    }
+}
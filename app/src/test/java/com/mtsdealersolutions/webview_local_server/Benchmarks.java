@@ -0,0 +1,51 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal timing for benchmark tests. Benchmarks are skipped unless the build runs with
+ * <code>-Pbenchmark</code>, and print their results instead of asserting on them.
+ */
+public final class Benchmarks {
+
+    // Results are kept so the timed work cannot be optimized away.
+    public static volatile Object sSink;
+
+    private Benchmarks() {
+    }
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue("run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * Runs <code>task</code> <code>warmup</code> times, then times <code>iterations</code> runs.
+     *
+     * @return the average nanoseconds per run
+     */
+    public static double measure(String name, int warmup, int iterations, Callable<?> task) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < warmup; i++) {
+            sink = task.call();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = task.call();
+        }
+        double nanos = (System.nanoTime() - start) / (double) iterations;
+        sSink = sink;
+        report(name, nanos);
+        return nanos;
+    }
+
+    public static void report(String name, double nanosPerRun) {
+        System.out.println(String.format(Locale.US, "[benchmark] %-50s %12.2f us/op", name, nanosPerRun / 1000));
+    }
+
+    public static void report(String name, String value) {
+        System.out.println(String.format(Locale.US, "[benchmark] %-50s %s", name, value));
+    }
+}
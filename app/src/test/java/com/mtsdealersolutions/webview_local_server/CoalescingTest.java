@@ -0,0 +1,123 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CoalescingTest {
+
+    private static final String SCRIPT = "console.log('shared');";
+
+    /**
+     * Counts handle() calls, each body blocks until the gate opens.
+     */
+    private static class CountingHandler extends WebViewLocalServer.PathHandler {
+        final AtomicInteger invocations = new AtomicInteger();
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        CountingHandler() {
+            super("application/javascript", "UTF-8", null, 200, "OK", null);
+        }
+
+        @Override
+        public InputStream handle(Uri url) {
+            invocations.incrementAndGet();
+            return new ByteArrayInputStream(SCRIPT.getBytes(TestStreams.UTF_8)) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+        }
+    }
+
+    private static WebViewLocalServer server(CountingHandler handler, boolean coalesce) {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.AssetsBuilder()
+                .setDomain("coalesce.test").clearSubDomain()
+                .setCoalesceRequests(coalesce), handler);
+        return server;
+    }
+
+    private static List<Future<String>> readConcurrently(ExecutorService executor, final WebViewLocalServer server,
+                                                         int readers) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    WebResourceResponse response = server.shouldInterceptRequest(
+                            new TestRequest("https://coalesce.test/app.js"));
+                    return TestStreams.readString(response.getData());
+                }
+            }));
+        }
+        return results;
+    }
+
+    @Test
+    public void concurrentRequestsInvokeTheHandlerOnce() throws Exception {
+        CountingHandler handler = new CountingHandler();
+        WebViewLocalServer server = server(handler, true);
+        int readers = 12;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<String>> results = readConcurrently(executor, server, readers);
+            // Every reader has joined the first one's body before it is released.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (server.getSingleFlight().getCoalescedCount() < readers - 1) {
+                assertTrue("readers did not join", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            handler.gate.countDown();
+            for (Future<String> result : results) {
+                assertEquals(SCRIPT, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, handler.invocations.get());
+        assertEquals(0, server.getSingleFlight().getInFlightCount());
+    }
+
+    @Test
+    public void withoutCoalescingEachRequestInvokesTheHandler() throws Exception {
+        CountingHandler handler = new CountingHandler();
+        handler.gate.countDown();
+        WebViewLocalServer server = server(handler, false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (Future<String> result : readConcurrently(executor, server, 4)) {
+                assertEquals(SCRIPT, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(4, handler.invocations.get());
+    }
+}
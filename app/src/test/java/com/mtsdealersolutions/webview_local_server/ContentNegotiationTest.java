@@ -0,0 +1,72 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+import com.mtsdealersolutions.webview_local_server.negotiation.VariantTable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContentNegotiationTest {
+
+    private static final String CHROME = "Mozilla/5.0 (Linux; Android 10) Chrome/90.0.4430.91 Mobile Safari/537.36";
+
+    private TestAssets mAssets;
+    private WebViewLocalServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mAssets = new TestAssets()
+                .add("www/hero.png", "png png png png png png")
+                .add("www/hero.webp", "webp webp webp")
+                .add("www/hero.avif", "avif")
+                .addManifest();
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(new WebViewLocalServer.AssetsBuilder()
+                .setAssetManifest(AssetManifest.DEFAULT_PATH)
+                .setContentNegotiation(true)
+                .setDomain("negotiation.test").clearSubDomain());
+    }
+
+    private String serve(String accept) throws IOException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(
+                new TestRequest("https://negotiation.test/hero.png").header("Accept", accept)
+                        .header("User-Agent", CHROME));
+        assertEquals("Accept", response.getResponseHeaders().get("Vary"));
+        return TestStreams.readString(response.getData());
+    }
+
+    @Test
+    public void theSmallestAcceptedVariantIsServed() throws IOException {
+        assertEquals("avif", serve("image/avif,image/webp,image/apng,image/*,*/*;q=0.8"));
+        assertEquals("webp webp webp", serve("image/webp,image/*,*/*;q=0.8"));
+        assertEquals("png png png png png png", serve("image/*,*/*;q=0.8"));
+    }
+
+    @Test
+    public void typesWithZeroQualityAreRefused() throws IOException {
+        assertEquals("webp webp webp", serve("image/avif;q=0,image/webp,*/*;q=0.8"));
+        assertEquals("webp webp webp", serve("image/avif; q=0.0, image/webp;q=0.5"));
+        assertEquals("png png png png png png", serve("image/avif;q=0,image/webp;q=0"));
+        assertEquals("avif", serve("image/avif;q=0.1"));
+    }
+
+    @Test
+    public void capabilitiesParseQualityValues() throws IOException {
+        VariantTable table = VariantTable.build(AssetManifest.read(mAssets.openAsset(AssetManifest.DEFAULT_PATH)));
+        assertEquals(VariantTable.CAPABILITY_WEBP,
+                table.getCapabilities("image/avif;q=0, image/webp", CHROME) & ~VariantTable.CAPABILITY_MODERN_SCRIPT);
+        assertEquals(0, table.getCapabilities("image/avif;q=abc,image/webpx", CHROME)
+                & ~VariantTable.CAPABILITY_MODERN_SCRIPT);
+        assertEquals(VariantTable.CAPABILITY_AVIF, table.getCapabilities("IMAGE/AVIF;Q=1", CHROME)
+                & ~VariantTable.CAPABILITY_MODERN_SCRIPT);
+    }
+}
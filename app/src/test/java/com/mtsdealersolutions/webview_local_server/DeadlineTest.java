@@ -0,0 +1,172 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+import com.mtsdealersolutions.webview_local_server.deadline.DeadlineFallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeadlineTest {
+
+    private static final long SLOW_MILLIS = 1000;
+    private static final long BUDGET_MILLIS = 100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicLong mDelayMillis = new AtomicLong(SLOW_MILLIS);
+    private WebViewLocalServer mServer;
+    private TestHttpServer mOrigin;
+
+    @Before
+    public void setUp() {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mOrigin != null) mOrigin.close();
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(mDelayMillis.get());
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private WebResourceResponse timedRequest(String url) {
+        long start = System.nanoTime();
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest(url));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("waited " + elapsedMillis + "ms", elapsedMillis < SLOW_MILLIS / 2);
+        return response;
+    }
+
+    private static WebViewLocalServer.Builder host(String domain) {
+        return new WebViewLocalServer.ResBuilder().setDomain(domain).clearSubDomain()
+                .setDeadline(BUDGET_MILLIS, DeadlineFallback.serviceUnavailable(1));
+    }
+
+    @Test
+    public void slowBodiesFromHandleRunOutOfTime() throws IOException {
+        mServer.createHost(host("lazy.test"), new WebViewLocalServer.PathHandler("text/plain", null, null, 200,
+                "OK", null) {
+            @Override
+            public InputStream handle(Uri url) {
+                pause();
+                return TestStreams.stream("late");
+            }
+        });
+        assertEquals(503, timedRequest("https://lazy.test/report").getStatusCode());
+
+        mDelayMillis.set(0);
+        assertEquals("late", TestStreams.readString(timedRequest("https://lazy.test/report").getData()));
+    }
+
+    @Test
+    public void slowRespondHandlersRunOutOfTime() throws IOException {
+        mServer.createHost(host("respond.test"), new WebViewLocalServer.PathHandler() {
+            @Override
+            public WebResourceResponse respond(WebResourceRequest request) {
+                pause();
+                return new WebResourceResponse("text/plain", "UTF-8", 200, "OK", new HashMap<String, String>(),
+                        new ByteArrayInputStream("answered".getBytes(TestStreams.UTF_8)));
+            }
+
+            @Override
+            public InputStream handle(Uri url) {
+                throw new AssertionError("answered by respond()");
+            }
+        });
+        assertEquals(503, timedRequest("https://respond.test/data").getStatusCode());
+
+        mDelayMillis.set(0);
+        assertEquals("answered", TestStreams.readString(timedRequest("https://respond.test/data").getData()));
+    }
+
+    @Test
+    public void slowHandleBodyHandlersRunOutOfTime() {
+        mServer.createHost(host("body.test"), new WebViewLocalServer.PathHandler() {
+            @Override
+            public ResponseBody handleBody(Uri url) {
+                pause();
+                return ResponseBody.of("body".getBytes(TestStreams.UTF_8));
+            }
+
+            @Override
+            public InputStream handle(Uri url) {
+                throw new AssertionError("answered by handleBody()");
+            }
+        });
+        assertEquals(503, timedRequest("https://body.test/data").getStatusCode());
+        assertEquals(1, mServer.getHandlerWatchdog().getTimeoutCount());
+    }
+
+    @Test
+    public void proxyRoutesHonourTheirDeadline() throws IOException {
+        mOrigin = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                pause();
+                return TestHttpServer.Reply.ok("font").header("Cache-Control", "max-age=60");
+            }
+        });
+        mServer.createHost(new WebViewLocalServer.ProxyBuilder()
+                .setDomain("cdn.test")
+                .setUpstreamOrigin(mOrigin.getOrigin())
+                .setCacheDirectory(mFolder.newFolder())
+                .setDeadline(BUDGET_MILLIS, DeadlineFallback.gatewayTimeout(1)));
+
+        WebResourceResponse response = timedRequest("https://cdn.test/font.woff2");
+        assertEquals(504, response.getStatusCode());
+        assertEquals("1", response.getResponseHeaders().get("Retry-After"));
+    }
+
+    @Test
+    public void overrunsReportStuckHandlersWithTheirStacks() {
+        mServer.createHost(host("stuck.test"), new WebViewLocalServer.PathHandler() {
+            @Override
+            public InputStream handle(Uri url) {
+                pause();
+                return null;
+            }
+        });
+        ShadowLog.clear();
+        timedRequest("https://stuck.test/page");
+
+        boolean reported = false;
+        for (ShadowLog.LogItem item : ShadowLog.getLogsForTag("HandlerWatchdog")) {
+            if (item.msg.contains("stuck") && item.msg.contains("https://stuck.test/page")) {
+                reported = true;
+                assertTrue(item.throwable.getStackTrace().length > 0);
+            }
+        }
+        assertTrue("no stuck handler was reported", reported);
+        assertEquals(1, mServer.getHandlerWatchdog().getStuckCount());
+        assertFalse(mServer.getHandlerWatchdog().getRunningRoutes().isEmpty());
+    }
+}
@@ -0,0 +1,144 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class HeadRequestTest {
+
+    private static final String SCRIPT = "document.title = 'head';";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestAssets mAssets;
+    private WebViewLocalServer mServer;
+    private TestHttpServer mOrigin;
+
+    @Before
+    public void setUp() {
+        mAssets = new TestAssets().add("www/app.js", SCRIPT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mOrigin != null) mOrigin.close();
+    }
+
+    private void serveAssets(boolean manifest) {
+        WebViewLocalServer.AssetsBuilder builder = new WebViewLocalServer.AssetsBuilder();
+        if (manifest) builder.setAssetManifest(AssetManifest.DEFAULT_PATH);
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(builder.setDomain("head.test").clearSubDomain());
+    }
+
+    private WebResourceResponse head(String url) throws IOException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest("HEAD", url));
+        assertEquals(0, TestStreams.readFully(response.getData()).length);
+        return response;
+    }
+
+    @Test
+    public void theManifestAnswersWithoutOpeningAssets() throws IOException {
+        mAssets.addManifest();
+        serveAssets(true);
+        assertEquals(404, head("https://head.test/missing.js").getStatusCode());
+        WebResourceResponse response = head("https://head.test/app.js");
+        assertEquals(200, response.getStatusCode());
+        assertEquals(String.valueOf(SCRIPT.length()), response.getResponseHeaders().get("Content-Length"));
+        assertEquals(0, mAssets.getOpenCount("www/app.js"));
+    }
+
+    @Test
+    public void unknownResourcesAreOkWithoutALength() throws IOException {
+        serveAssets(false);
+        WebResourceResponse response = head("https://head.test/missing.js");
+        assertEquals(200, response.getStatusCode());
+        assertNull(response.getResponseHeaders().get("Content-Length"));
+        assertEquals(0, mAssets.getOpenCount("www/app.js"));
+    }
+
+    @Test
+    public void handlersAreNotInvoked() throws IOException {
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("body.test").clearSubDomain(),
+                new WebViewLocalServer.PathHandler() {
+                    @Override
+                    public WebResourceResponse respond(WebResourceRequest request) {
+                        throw new AssertionError("respond called for " + request.getMethod());
+                    }
+
+                    @Override
+                    public InputStream handle(WebResourceRequest request) {
+                        throw new AssertionError("handle called for " + request.getMethod());
+                    }
+
+                    @Override
+                    public InputStream handle(Uri url) {
+                        throw new AssertionError("handle called for " + url);
+                    }
+                });
+        assertEquals(200, head("https://body.test/page").getStatusCode());
+    }
+
+    @Test
+    public void knownLengthsAreSent() throws IOException {
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("body.test").clearSubDomain(),
+                new WebViewLocalServer.PathHandler() {
+                    @Override
+                    public ResponseBody handleBody(Uri url) {
+                        return "/known".equals(url.getPath()) ? ResponseBody.of(SCRIPT.getBytes(TestStreams.UTF_8)) : null;
+                    }
+
+                    @Override
+                    public InputStream handle(Uri url) {
+                        return null;
+                    }
+                });
+        assertEquals(String.valueOf(SCRIPT.length()),
+                head("https://body.test/known").getResponseHeaders().get("Content-Length"));
+        WebResourceResponse response = head("https://body.test/unknown");
+        assertEquals(200, response.getStatusCode());
+        assertNull(response.getResponseHeaders().get("Content-Length"));
+    }
+
+    @Test
+    public void proxiedRequestsDoNotReachTheOrigin() throws IOException {
+        mOrigin = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                return TestHttpServer.Reply.ok("font").header("Cache-Control", "max-age=60");
+            }
+        });
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(new WebViewLocalServer.ProxyBuilder()
+                .setDomain("cdn.test")
+                .setUpstreamOrigin(mOrigin.getOrigin())
+                .setCacheDirectory(mFolder.newFolder()));
+
+        assertEquals(200, head("https://cdn.test/font.woff2").getStatusCode());
+        assertEquals(0, mOrigin.getRequestCount());
+        assertEquals("font", TestStreams.readString(
+                mServer.shouldInterceptRequest(new TestRequest("https://cdn.test/font.woff2")).getData()));
+        assertEquals(1, mOrigin.getRequestCount());
+    }
+}
@@ -0,0 +1,113 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.content.ComponentCallbacks2;
+
+import com.mtsdealersolutions.webview_local_server.utils.BufferPool;
+import com.mtsdealersolutions.webview_local_server.utils.TrimmableCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class MemoryTrimTest {
+
+    /**
+     * Holds {@link #mSize} bytes until trimmed, refilled by the test.
+     */
+    private static class FakeCache implements TrimmableCache {
+        long mSize;
+        long mLastTrim = -1;
+
+        @Override
+        public long getSizeBytes() {
+            return mSize;
+        }
+
+        @Override
+        public long getMaxSizeBytes() {
+            return 1000;
+        }
+
+        @Override
+        public void trimToSize(long maxBytes) {
+            mLastTrim = maxBytes;
+            mSize = Math.min(mSize, maxBytes);
+        }
+    }
+
+    private WebViewLocalServer mServer;
+    private FakeCache mCache;
+
+    @Before
+    public void setUp() {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        mCache = new FakeCache();
+        mServer.registerCache(mCache);
+    }
+
+    private long trim(int level) {
+        mCache.mSize = 1000;
+        mCache.mLastTrim = -1;
+        mServer.onTrimMemory(level);
+        return mCache.mSize;
+    }
+
+    @Test
+    public void everyLevelKeepsItsShareOfTheMaximum() {
+        assertEquals(1000, trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE - 1));
+        assertEquals(-1, mCache.mLastTrim);
+        assertEquals(750, trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(500, trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(250, trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(500, trim(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(250, trim(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(100, trim(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(0, trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void repeatedCallbacksAtOneLevelDoNotKeepShrinking() {
+        mCache.mSize = 1000;
+        for (int i = 0; i < 5; i++) {
+            mServer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+            assertEquals(500, mCache.mLastTrim);
+        }
+        assertEquals(500, mCache.mSize);
+    }
+
+    @Test
+    public void bufferPoolIsTrimmedAndFootprintReported() {
+        BufferPool pool = new BufferPool(1024, 4096, 8 * 1024);
+        mServer.unregisterCache(mCache);
+        mServer.registerCache(pool);
+        for (int i = 0; i < 8; i++) {
+            pool.release(new byte[1024]);
+        }
+        assertEquals(8 * 1024, pool.getSizeBytes());
+
+        mServer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(4 * 1024, pool.getSizeBytes());
+        mServer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(4 * 1024, pool.getSizeBytes());
+        mServer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, pool.getSizeBytes());
+    }
+
+    @Test
+    public void releasedPrivateServersStopListeningForMemoryCallbacks() {
+        mCache.mSize = 1000;
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(500, mCache.mLastTrim);
+
+        mServer.release();
+        assertEquals(0, mCache.mLastTrim);
+        mCache.mLastTrim = -1;
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(-1, mCache.mLastTrim);
+    }
+}
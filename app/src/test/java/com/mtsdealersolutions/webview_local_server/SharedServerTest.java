@@ -0,0 +1,157 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.template.TemplateSource;
+import com.mtsdealersolutions.webview_local_server.template.TemplateValues;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SharedServerTest {
+
+    private final Context mContext = RuntimeEnvironment.application;
+
+    @After
+    public void releaseAll() {
+        WebViewLocalServer server = WebViewLocalServer.acquireShared(mContext);
+        while (server.getSharedReferenceCount() > 0) {
+            server.release();
+        }
+    }
+
+    @Test
+    public void sharedServerIsReferenceCounted() {
+        WebViewLocalServer first = WebViewLocalServer.acquireShared(mContext);
+        WebViewLocalServer second = WebViewLocalServer.acquireShared(mContext);
+        assertSame(first, second);
+        assertEquals(2, first.getSharedReferenceCount());
+
+        first.release();
+        assertTrue(first.isShared());
+        second.release();
+        assertFalse(first.isShared());
+
+        WebViewLocalServer next = WebViewLocalServer.acquireShared(mContext);
+        assertNotSame(first, next);
+        assertEquals(1, next.getSharedReferenceCount());
+    }
+
+    @Test
+    public void releasingAPrivateServerLeavesTheSharedOneAlone() {
+        WebViewLocalServer shared = WebViewLocalServer.acquireShared(mContext);
+        new WebViewLocalServer(mContext).release();
+        assertEquals(1, shared.getSharedReferenceCount());
+    }
+
+    @Test
+    public void hostsAreCreatedOncePerName() {
+        WebViewLocalServer server = WebViewLocalServer.acquireShared(mContext);
+        WebViewLocalServer.Server first = server.getOrCreateHost("web",
+                new WebViewLocalServer.AssetsBuilder().setUrlVirtualPath("web"));
+        // A second view gets the same host, with the same random subdomain.
+        WebViewLocalServer.Server second = server.getOrCreateHost("web",
+                new WebViewLocalServer.AssetsBuilder().setUrlVirtualPath("web"));
+        assertSame(first, second);
+        assertSame(first, server.getHost("web"));
+        assertEquals(first.getServerUri(WebViewLocalServer.UrlProtocol.HTTPS, null), second.getServerUri(WebViewLocalServer.UrlProtocol.HTTPS, null));
+    }
+
+    private static final TemplateValues VALUES = new TemplateValues() {
+        @Override
+        public CharSequence getValue(String name, Uri url) {
+            return "Local";
+        }
+    };
+
+    private static final TemplateSource PAGE = new TemplateSource() {
+        @Override
+        public InputStream open(String path) throws IOException {
+            if (!path.endsWith("index.html")) throw new FileNotFoundException(path);
+            StringBuilder page = new StringBuilder("<html><head><title>{{title}}</title></head><body>");
+            for (int i = 0; i < 400; i++) {
+                page.append("<p class=row>{{title}} row ").append(i).append("</p>");
+            }
+            return TestStreams.stream(page.append("</body></html>").toString());
+        }
+
+        @Override
+        public long getVersion(String path) {
+            return 1;
+        }
+    };
+
+    /**
+     * What a view does before its first paint: set up the host and load its page.
+     */
+    private static WebViewLocalServer.Server openView(WebViewLocalServer server) throws IOException {
+        WebViewLocalServer.Server host = server.getOrCreateHost("web", new WebViewLocalServer.TemplateBuilder()
+                .setTemplateValues(VALUES)
+                .setTemplateSource(PAGE)
+                .setUrlVirtualPath("web"));
+        Uri page = host.getServerUri(WebViewLocalServer.UrlProtocol.HTTPS, "index.html");
+        TestStreams.readFully(server.shouldInterceptRequest(new TestRequest(page.toString()).mainFrame()).getData());
+        return host;
+    }
+
+    /**
+     * The Nth view's setup and first page load, and the cache memory held once ten views are
+     * open. Memory counts the registered caches ({@link WebViewLocalServer#getMemoryFootprint()}),
+     * not the rest of each server's heap.
+     */
+    @Test
+    public void nthViewCost() throws Exception {
+        Benchmarks.assumeEnabled();
+        Benchmarks.measure("private server: host + first page load", 50, 500, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                WebViewLocalServer server = new WebViewLocalServer(mContext);
+                WebViewLocalServer.Server host = openView(server);
+                server.release();
+                return host;
+            }
+        });
+        // Held like an Application would, so the server stays warm between views.
+        WebViewLocalServer.acquireShared(mContext);
+        Benchmarks.measure("shared server: host + first page load", 50, 500, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                WebViewLocalServer server = WebViewLocalServer.acquireShared(mContext);
+                WebViewLocalServer.Server host = openView(server);
+                server.release();
+                return host;
+            }
+        });
+
+        long privateFootprint = 0;
+        List<WebViewLocalServer> open = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            WebViewLocalServer server = new WebViewLocalServer(mContext);
+            openView(server);
+            privateFootprint += server.getMemoryFootprint();
+            open.add(server);
+        }
+        for (WebViewLocalServer server : open) server.release();
+        Benchmarks.report("cache memory of 10 views, private servers", privateFootprint + " bytes");
+        Benchmarks.report("cache memory of 10 views, shared server",
+                WebViewLocalServer.acquireShared(mContext).getMemoryFootprint() + " bytes");
+    }
+}
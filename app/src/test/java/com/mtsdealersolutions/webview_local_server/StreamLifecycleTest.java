@@ -0,0 +1,134 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.utils.StreamTracker;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StreamLifecycleTest {
+
+    private static final String CONTENT = "body { color: red; }";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private final AtomicInteger mInvocations = new AtomicInteger();
+    private WebViewLocalServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mFolder.newFile("style.css");
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(CONTENT.getBytes(TestStreams.UTF_8));
+        out.close();
+
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        // Every body holds a real file descriptor.
+        mServer.createHost(new WebViewLocalServer.AssetsBuilder().setDomain("fd.test").clearSubDomain(),
+                new WebViewLocalServer.PathHandler("text/css", "UTF-8", null, 200, "OK", null) {
+                    @Override
+                    public InputStream handle(Uri url) {
+                        mInvocations.incrementAndGet();
+                        try {
+                            return new FileInputStream(mFile);
+                        } catch (FileNotFoundException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                });
+    }
+
+    private static int openFileDescriptors() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds == null ? -1 : fds.length;
+    }
+
+    private WebResourceResponse request() {
+        return mServer.shouldInterceptRequest(new TestRequest("https://fd.test/style.css"));
+    }
+
+    @Test
+    public void streamingManyResponsesKeepsTheDescriptorCountFlat() throws IOException {
+        Assume.assumeTrue("needs /proc/self/fd", openFileDescriptors() > 0);
+        int responses = 100000;
+        // Warm up class loading and lazily opened files before the baseline.
+        for (int i = 0; i < 1000; i++) {
+            TestStreams.readFully(request().getData());
+        }
+        int before = openFileDescriptors();
+        int highest = before;
+        for (int i = 0; i < responses; i++) {
+            InputStream body = request().getData();
+            if (i % 2 == 0) {
+                assertEquals(CONTENT, TestStreams.readString(body));
+            } else {
+                // Chromium closes bodies it cancels without reading them to the end.
+                body.read();
+                body.close();
+            }
+            if (i % 10000 == 0) highest = Math.max(highest, openFileDescriptors());
+        }
+        int after = openFileDescriptors();
+
+        StreamTracker tracker = mServer.getStreamTracker();
+        assertEquals(0, tracker.getOpenCount());
+        assertEquals(1, tracker.getPeakOpenCount());
+        assertEquals(responses + 1000, tracker.getOpenedCount());
+        // A little slack for descriptors the JVM opens on its own.
+        assertTrue("descriptors grew from " + before + " to " + after, after <= before + 8);
+        assertTrue("descriptors peaked at " + highest + " from " + before, highest <= before + 8);
+    }
+
+    @Test
+    public void bodiesClosedBeforeTheFirstReadNeverInvokeTheHandler() throws IOException {
+        request().getData().close();
+        assertEquals(0, mInvocations.get());
+        assertEquals(0, mServer.getStreamTracker().getOpenedCount());
+    }
+
+    @Test
+    public void leakedBodiesAreReportedAndTheirStreamsClosed() throws Exception {
+        StreamTracker tracker = mServer.getStreamTracker();
+        tracker.setLeakDetectionEnabled(true);
+        openAndDrop();
+        assertEquals(1, tracker.getOpenCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        int leaks = 0;
+        while (leaks == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            leaks = tracker.reportLeaks();
+        }
+        assertEquals(1, leaks);
+        assertEquals(1, tracker.getLeakedCount());
+        assertEquals(0, tracker.getOpenCount());
+    }
+
+    private void openAndDrop() throws IOException {
+        // Reads one byte so the handler opens the file, then loses the body.
+        request().getData().read();
+    }
+}
@@ -0,0 +1,113 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import com.mtsdealersolutions.webview_local_server.chromium.AndroidProtocolHandler;
+import com.mtsdealersolutions.webview_local_server.manifest.AssetManifest;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in packaged assets, served from memory and counting how often each is opened.
+ */
+public class TestAssets extends AndroidProtocolHandler {
+
+    private final Map<String, byte[]> mAssets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> mOpens = new ConcurrentHashMap<>();
+
+    public TestAssets() {
+        super(RuntimeEnvironment.application);
+    }
+
+    public TestAssets add(String path, String content) {
+        return add(path, content.getBytes(TestStreams.UTF_8));
+    }
+
+    public TestAssets add(String path, byte[] content) {
+        mAssets.put(path, content);
+        return this;
+    }
+
+    /**
+     * Adds an asset manifest at {@link AssetManifest#DEFAULT_PATH} listing the assets added so
+     * far, except <code>unlisted</code>.
+     */
+    public TestAssets addManifest(String... unlisted) throws IOException {
+        Map<String, byte[]> listed = new LinkedHashMap<>(mAssets);
+        for (String path : unlisted) listed.remove(path);
+        List<String> mimeTypes = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String path : listed.keySet()) {
+            String mimeType = mimeType(path);
+            if (!mimeTypes.contains(mimeType)) mimeTypes.add(mimeType);
+        }
+        out.writeInt(0x57564d46);
+        out.writeInt(1);
+        out.writeInt(mimeTypes.size());
+        for (String mimeType : mimeTypes) out.writeUTF(mimeType);
+        out.writeInt(listed.size());
+        for (Map.Entry<String, byte[]> asset : listed.entrySet()) {
+            out.writeUTF(asset.getKey());
+            out.writeLong(asset.getValue().length);
+            out.writeLong(hash(asset.getValue()));
+            out.writeShort(mimeTypes.indexOf(mimeType(asset.getKey())));
+            out.writeByte(0);
+        }
+        out.flush();
+        return add(AssetManifest.DEFAULT_PATH, bytes.toByteArray());
+    }
+
+    public int getOpenCount(String path) {
+        AtomicInteger opens = mOpens.get(path);
+        return opens == null ? 0 : opens.get();
+    }
+
+    @Override
+    public InputStream openAsset(String path) throws IOException {
+        while (path.startsWith("/")) path = path.substring(1);
+        byte[] content = mAssets.get(path);
+        if (content == null) throw new FileNotFoundException(path);
+        AtomicInteger opens = mOpens.get(path);
+        if (opens == null) {
+            mOpens.put(path, new AtomicInteger());
+            opens = mOpens.get(path);
+        }
+        opens.incrementAndGet();
+        return new ByteArrayInputStream(content);
+    }
+
+    private static String mimeType(String path) {
+        if (path.endsWith(".html")) return "text/html";
+        if (path.endsWith(".js")) return "application/javascript";
+        if (path.endsWith(".css")) return "text/css";
+        if (path.endsWith(".json")) return "application/json";
+        if (path.endsWith(".png")) return "image/png";
+        if (path.endsWith(".webp")) return "image/webp";
+        return "application/octet-stream";
+    }
+
+    private static long hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            long hash = 0;
+            for (int i = 0; i < 8; i++) hash = (hash << 8) | (digest[i] & 0xff);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A stand-in HTTP/1.1 origin on the loopback interface. Every connection is answered by the
+ * {@link Handler} on its own thread and closed after one response.
+ */
+public class TestHttpServer implements Closeable {
+
+    public interface Handler {
+        Reply handle(Request request) throws IOException;
+    }
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        private final Map<String, String> mHeaders;
+        public final byte[] body;
+
+        Request(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            mHeaders = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return the header, matched case-insensitively, or null
+         */
+        public String header(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Reply {
+        public final int status;
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public final byte[] body;
+
+        public Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public static Reply ok(String body) {
+            return new Reply(200, body.getBytes(TestStreams.UTF_8)).header("Content-Type", "text/plain; charset=utf-8");
+        }
+
+        public static Reply status(int status) {
+            return new Reply(status, new byte[0]);
+        }
+
+        public Reply header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket mSocket;
+    private final Handler mHandler;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+
+    public TestHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = mSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    Thread connection = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "TestHttpServer connection");
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+        }, "TestHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return <code>http://127.0.0.1:{port}</code>
+     */
+    public String getOrigin() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort();
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String[] requestLine = readLine(in).split(" ");
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)).length() > 0) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[0];
+            if (headers.containsKey("content-length")) {
+                body = new byte[Integer.parseInt(headers.get("content-length"))];
+                int read = 0;
+                while (read < body.length) {
+                    int count = in.read(body, read, body.length - read);
+                    if (count < 0) break;
+                    read += count;
+                }
+            }
+            Request request = new Request(requestLine[0], requestLine[1], headers, body);
+            mRequests.add(request);
+
+            Reply reply = mHandler.handle(request);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StringBuilder head = new StringBuilder("HTTP/1.1 ").append(reply.status).append(" Status\r\n");
+            for (Map.Entry<String, String> header : reply.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(reply.body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+            out.write(head.toString().getBytes(TestStreams.UTF_8));
+            if (!"HEAD".equals(request.method)) out.write(reply.body);
+            OutputStream socketOut = socket.getOutputStream();
+            socketOut.write(out.toByteArray());
+            socketOut.flush();
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+}
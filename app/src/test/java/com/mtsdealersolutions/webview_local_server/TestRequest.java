@@ -0,0 +1,67 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link WebResourceRequest} as the WebView would pass it to
+ * <code>shouldInterceptRequest</code>.
+ */
+public class TestRequest implements WebResourceRequest {
+    private final Uri mUrl;
+    private final String mMethod;
+    private final Map<String, String> mHeaders = new HashMap<>();
+    private boolean mForMainFrame;
+
+    public TestRequest(String url) {
+        this("GET", url);
+    }
+
+    public TestRequest(String method, String url) {
+        mMethod = method;
+        mUrl = Uri.parse(url);
+    }
+
+    public TestRequest header(String name, String value) {
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    public TestRequest mainFrame() {
+        mForMainFrame = true;
+        return this;
+    }
+
+    @Override
+    public Uri getUrl() {
+        return mUrl;
+    }
+
+    @Override
+    public boolean isForMainFrame() {
+        return mForMainFrame;
+    }
+
+    @Override
+    public boolean isRedirect() {
+        return false;
+    }
+
+    @Override
+    public boolean hasGesture() {
+        return false;
+    }
+
+    @Override
+    public String getMethod() {
+        return mMethod;
+    }
+
+    @Override
+    public Map<String, String> getRequestHeaders() {
+        return mHeaders;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+public final class TestStreams {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TestStreams() {
+    }
+
+    /**
+     * Reads and closes <code>in</code>.
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String readString(InputStream in) throws IOException {
+        return new String(readFully(in), UTF_8);
+    }
+
+    public static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(UTF_8));
+    }
+}
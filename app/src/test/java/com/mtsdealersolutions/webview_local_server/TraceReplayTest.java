@@ -0,0 +1,96 @@
+package com.mtsdealersolutions.webview_local_server;
+
+import com.mtsdealersolutions.webview_local_server.trace.RequestTrace;
+import com.mtsdealersolutions.webview_local_server.trace.TraceReplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the checked-in <code>traces/page_load.trace</code>, two page loads of a small app,
+ * against stand-in assets.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TraceReplayTest {
+
+    private static final String INDEX = "<html><script src=app.js></script></html>";
+    private static final String SCRIPT = "document.title = 'traced';";
+    private static final String STYLE = "body { margin: 0 }";
+    private static final byte[] LOGO = new byte[20000];
+
+    private RequestTrace mTrace;
+    private WebViewLocalServer mServer;
+    private TestAssets mAssets;
+
+    @Before
+    public void setUp() throws IOException {
+        InputStreamReader in = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("traces/page_load.trace"), TestStreams.UTF_8);
+        mTrace = RequestTrace.read(in);
+        in.close();
+
+        mAssets = new TestAssets()
+                .add("www/index.html", INDEX)
+                .add("www/app.js", SCRIPT)
+                .add("www/style.css", STYLE)
+                .add("www/logo.png", LOGO);
+        mServer = new WebViewLocalServer(mAssets);
+        mServer.createHost(new WebViewLocalServer.AssetsBuilder().setDomain("trace.test").clearSubDomain());
+    }
+
+    @Test
+    public void theCheckedInTraceParses() throws IOException {
+        assertEquals(7, mTrace.size());
+        assertEquals(2, mTrace.getThreadCount());
+        RequestTrace.Entry second = mTrace.getEntries().get(5);
+        assertTrue(second.isForMainFrame());
+        assertTrue(second.hasGesture());
+        assertEquals("https://trace.test/index.html?page=2", second.getUrl());
+        assertEquals("image/webp,image/*", mTrace.getEntries().get(3).getHeaders().get("Accept"));
+
+        StringWriter written = new StringWriter();
+        mTrace.write(written);
+        StringWriter rewritten = new StringWriter();
+        RequestTrace.read(new StringReader(written.toString())).write(rewritten);
+        assertEquals(written.toString(), rewritten.toString());
+    }
+
+    @Test
+    public void everyLocalRequestIsAnsweredAndRead() throws InterruptedException {
+        TraceReplayer.Report report = new TraceReplayer(mServer)
+                .setTimeScale(0)
+                .setWarmupIterations(1)
+                .setIterations(3)
+                .replay(mTrace);
+
+        assertEquals(21, report.getRequestCount());
+        // The font is on a host the server does not handle, the WebView would load it itself.
+        assertEquals(18, report.getAnsweredCount());
+        assertEquals(0, report.getErrorCount());
+        long pageBytes = 2 * INDEX.length() + 2 * SCRIPT.length() + STYLE.length() + LOGO.length;
+        assertEquals(3 * pageBytes, report.getBytesRead());
+        assertTrue(report.getTimeToFirstByte(50) > 0);
+        assertTrue(report.getTimeToFirstByte(99.9) <= report.getPageComplete(99.9));
+        // Warmup and three measured replays of the first page, the second opens no new assets.
+        assertEquals(4, mAssets.getOpenCount("www/logo.png"));
+    }
+
+    @Test
+    public void theRecordedPaceIsKept() throws InterruptedException {
+        TraceReplayer.Report report = new TraceReplayer(mServer).replay(mTrace);
+
+        // The second page's script was requested 40ms after its main frame.
+        assertTrue(report.toString(), report.getPageComplete(100) >= 40000000L);
+        assertEquals(6, report.getAnsweredCount());
+    }
+}
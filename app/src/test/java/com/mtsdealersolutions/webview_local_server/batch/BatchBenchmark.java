@@ -0,0 +1,70 @@
+package com.mtsdealersolutions.webview_local_server.batch;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Serving a page's icons in one batch against requesting each one. Both go through
+ * {@link WebViewLocalServer#shouldInterceptRequest}, the WebView's own per-request cost, which
+ * batching also saves, is not part of the measurement.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BatchBenchmark {
+
+    private static final String ICON = "<svg xmlns=\"http://www.w3.org/2000/svg\"><path d=\"M0 0h24v24H0z\"/></svg>";
+
+    @Test
+    public void batchAgainstIndividualRequests() throws Exception {
+        Benchmarks.assumeEnabled();
+        final WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.ResBuilder().setDomain("bench.test").clearSubDomain()
+                .setUrlVirtualPath("www"), new WebViewLocalServer.PathHandler("image/svg+xml", null, null, 200,
+                "OK", null) {
+            @Override
+            public InputStream handle(Uri url) {
+                return TestStreams.stream(ICON);
+            }
+        });
+        server.createHost(new WebViewLocalServer.ResBuilder().setDomain("bench.test").clearSubDomain()
+                .setUrlVirtualPath("_batch"), new BatchPathHandler(server));
+
+        for (final int count : new int[]{10, 100, 256}) {
+            final String[] urls = new String[count];
+            Uri.Builder batchUrl = Uri.parse("https://bench.test/_batch/fetch").buildUpon();
+            for (int i = 0; i < count; i++) {
+                urls[i] = "https://bench.test/www/icons/" + i + ".svg";
+                batchUrl.appendQueryParameter("u", "/www/icons/" + i + ".svg");
+            }
+            final String batch = batchUrl.build().toString();
+
+            Benchmarks.measure(count + " icons, one request each", 20, 50, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    int bytes = 0;
+                    for (String url : urls) {
+                        bytes += TestStreams.readFully(server.shouldInterceptRequest(new TestRequest(url)).getData()).length;
+                    }
+                    return bytes;
+                }
+            });
+            Benchmarks.measure(count + " icons, one batch", 20, 50, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return TestStreams.readFully(server.shouldInterceptRequest(new TestRequest(batch)).getData()).length;
+                }
+            });
+        }
+    }
+}
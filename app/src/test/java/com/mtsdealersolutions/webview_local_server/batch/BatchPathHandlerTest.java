@@ -0,0 +1,160 @@
+package com.mtsdealersolutions.webview_local_server.batch;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchPathHandlerTest {
+
+    private final AtomicInteger mServed = new AtomicInteger();
+    private WebViewLocalServer mServer;
+
+    @Before
+    public void setUp() {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        WebViewLocalServer.PathHandler files = new WebViewLocalServer.PathHandler() {
+            @Override
+            public WebResourceResponse respond(WebResourceRequest request) {
+                if (!"/www/created".equals(request.getUrl().getPath())) return null;
+                mServed.incrementAndGet();
+                return new WebResourceResponse("text/plain", "UTF-8", 201, "Created", new HashMap<String, String>(),
+                        new ByteArrayInputStream("made".getBytes(TestStreams.UTF_8)));
+            }
+
+            @Override
+            public String getMimeType(Uri url) {
+                return url.getPath().endsWith(".html") ? "text/html" : "text/plain";
+            }
+
+            @Override
+            public InputStream handle(Uri url) {
+                mServed.incrementAndGet();
+                return TestStreams.stream(url.getPath().endsWith(".html")
+                        ? "<html><body>page</body></html>" : "file " + url.getLastPathSegment());
+            }
+        };
+        files.addHtmlTransformer(new HtmlTransformer() {
+            @Override
+            public String afterStartTag(String tagName) {
+                return "body".equals(tagName) ? "<i>injected</i>" : null;
+            }
+        });
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("batch.test").clearSubDomain()
+                .setUrlVirtualPath("www"), files);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("other.test").clearSubDomain(), files);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("batch.test").clearSubDomain()
+                .setUrlVirtualPath("_batch"), new BatchPathHandler(mServer, 4));
+    }
+
+    private WebResourceResponse batch(String... urls) {
+        Uri.Builder url = Uri.parse("https://batch.test/_batch/fetch").buildUpon();
+        for (String u : urls) url.appendQueryParameter("u", u);
+        return mServer.shouldInterceptRequest(new TestRequest(url.build().toString()));
+    }
+
+    /**
+     * @return status, content type and body of each entry, in order
+     */
+    private static List<String[]> decode(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(TestStreams.readFully(body)));
+        List<String[]> entries = new ArrayList<>();
+        while (in.available() > 0) {
+            int status = in.readUnsignedShort();
+            byte[] type = new byte[in.readUnsignedShort()];
+            in.readFully(type);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int length;
+            while ((length = in.readInt()) != 0 && length != 0xffffffff) {
+                byte[] chunk = new byte[length];
+                in.readFully(chunk);
+                content.write(chunk);
+            }
+            entries.add(new String[]{String.valueOf(status), new String(type, TestStreams.UTF_8),
+                    length == 0 ? new String(content.toByteArray(), TestStreams.UTF_8) : null});
+        }
+        return entries;
+    }
+
+    @Test
+    public void entriesAreAnsweredAsThePageWouldBeAnswered() throws IOException {
+        WebResourceResponse response = batch("/www/a.txt", "/www/page.html", "/www/created", "/missing");
+        assertEquals(200, response.getStatusCode());
+        List<String[]> entries = decode(response.getData());
+
+        assertEquals(4, entries.size());
+        assertEquals("200", entries.get(0)[0]);
+        assertEquals("file a.txt", entries.get(0)[2]);
+        assertEquals("text/html", entries.get(1)[1]);
+        assertEquals("<html><body><i>injected</i>page</body></html>", entries.get(1)[2]);
+        assertEquals("201", entries.get(2)[0]);
+        assertEquals("made", entries.get(2)[2]);
+        assertEquals("404", entries.get(3)[0]);
+    }
+
+    @Test
+    public void fullUrlsOnTheBatchOriginAreServed() throws IOException {
+        List<String[]> entries = decode(batch("https://batch.test/www/b.txt").getData());
+        assertEquals("file b.txt", entries.get(0)[2]);
+    }
+
+    @Test
+    public void urlsOnOtherOriginsRefuseTheBatch() throws IOException {
+        for (String other : new String[]{"https://other.test/secret.txt", "http://batch.test/www/a.txt",
+                "https://batch.test:8443/www/a.txt"}) {
+            WebResourceResponse response = batch("/www/a.txt", other);
+            assertEquals(other, 400, response.getStatusCode());
+            assertTrue(TestStreams.readString(response.getData()).contains(other));
+        }
+        assertEquals(0, mServed.get());
+    }
+
+    @Test
+    public void batchesOverTheLimitAreRefusedWhole() throws IOException {
+        WebResourceResponse response = batch("/www/1", "/www/2", "/www/3", "/www/4", "/www/5");
+        assertEquals(400, response.getStatusCode());
+        assertEquals("Batch lists 5 urls, at most 4 are served", TestStreams.readString(response.getData()));
+        assertEquals(0, mServed.get());
+
+        assertEquals(4, decode(batch("/www/1", "/www/2", "/www/3", "/www/4").getData()).size());
+    }
+
+    @Test
+    public void batchesCannotListBatches() throws IOException {
+        List<String[]> entries = decode(batch("/_batch/fetch?u=/www/a.txt").getData());
+        assertEquals("404", entries.get(0)[0]);
+        assertEquals(0, mServed.get());
+    }
+
+    @Test
+    public void theLoaderIsServedAsScript() throws IOException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(
+                new TestRequest("https://batch.test/_batch/loader.js"));
+        assertEquals("text/javascript", response.getMimeType());
+        assertEquals(BatchPathHandler.getLoaderScript(), TestStreams.readString(response.getData()));
+    }
+}
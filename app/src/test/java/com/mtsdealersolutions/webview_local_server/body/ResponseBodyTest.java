@@ -0,0 +1,140 @@
+package com.mtsdealersolutions.webview_local_server.body;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class ResponseBodyTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File file() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(CONTENT.getBytes(TestStreams.UTF_8));
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void byteRangesAreServedFromMemory() throws IOException {
+        ResponseBody body = ResponseBody.of(CONTENT.getBytes(TestStreams.UTF_8), 10, 5);
+        assertTrue(body.isInMemory());
+        assertEquals(5, body.getLength());
+        assertEquals("abcde", TestStreams.readString(body.openStream()));
+        try {
+            ResponseBody.of(new byte[4], 2, 3);
+            fail("accepted a range past the end of the bytes");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void buffersAreReadBetweenPositionAndLimitAndLeftAlone() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(CONTENT.getBytes(TestStreams.UTF_8));
+        buffer.position(2).limit(6);
+        ResponseBody body = ResponseBody.of(buffer);
+        assertEquals(4, body.getLength());
+        assertEquals("2345", TestStreams.readString(body.openStream()));
+        assertEquals("2345", TestStreams.readString(body.openStream()));
+        assertEquals(2, buffer.position());
+        assertEquals(6, buffer.limit());
+    }
+
+    @Test
+    public void rangesOfOneDescriptorAreReadIndependently() throws IOException {
+        FileInputStream in = new FileInputStream(file());
+        InputStream first = ResponseBody.of(in.getFD(), 0, 10, null).openStream();
+        InputStream second = ResponseBody.of(in.getFD(), 10, 10, null).openStream();
+        byte[] buffer = new byte[4];
+
+        assertEquals(4, first.read(buffer));
+        assertEquals("0123", new String(buffer, TestStreams.UTF_8));
+        assertEquals(4, second.read(buffer));
+        assertEquals("abcd", new String(buffer, TestStreams.UTF_8));
+        assertEquals(2, second.skip(2));
+        assertEquals("456789", TestStreams.readString(first));
+        assertEquals("ghij", TestStreams.readString(second));
+        // Positional reads, the descriptor's own position never moved.
+        assertEquals(CONTENT, TestStreams.readString(in));
+    }
+
+    @Test
+    public void theOwnerIsClosedOnce() throws IOException {
+        final AtomicInteger closes = new AtomicInteger();
+        final FileInputStream in = new FileInputStream(file());
+        ResponseBody body = ResponseBody.of(in.getFD(), 0, CONTENT.length(), new Closeable() {
+            @Override
+            public void close() throws IOException {
+                closes.incrementAndGet();
+                in.close();
+            }
+        });
+        assertEquals(CONTENT, TestStreams.readString(body.openStream()));
+        body.close();
+        assertEquals(1, closes.get());
+
+        ResponseBody unopened = ResponseBody.of(new ByteArrayInputStream(new byte[3]) {
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        }, 3);
+        assertFalse(unopened.isInMemory());
+        unopened.close();
+        assertEquals(2, closes.get());
+    }
+
+    @Test
+    public void theServerSendsTheLength() throws IOException {
+        final File file = file();
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.ResBuilder().setDomain("body.test").clearSubDomain(),
+                new BodyPathHandler() {
+                    @Override
+                    public ResponseBody handleBody(Uri url) {
+                        if ("/memory".equals(url.getPath())) return ResponseBody.of(CONTENT.getBytes(TestStreams.UTF_8));
+                        if ("/file".equals(url.getPath())) return ResponseBody.of(file);
+                        return null;
+                    }
+                });
+
+        for (String path : new String[]{"/memory", "/file"}) {
+            WebResourceResponse response = server.shouldInterceptRequest(new TestRequest("https://body.test" + path));
+            assertEquals(path, "20", response.getResponseHeaders().get("Content-Length"));
+            assertEquals(path, CONTENT, TestStreams.readString(response.getData()));
+        }
+        // Bytes in memory need no lazy stream.
+        assertTrue(server.shouldInterceptRequest(new TestRequest("https://body.test/memory")).getData()
+                instanceof ByteArrayInputStream);
+    }
+}
@@ -0,0 +1,251 @@
+package com.mtsdealersolutions.webview_local_server.bundle;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestHttpServer;
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Publishes releases with {@link BundlePublisher} and updates from them, through a
+ * {@link DirectoryBundleSource} or over http from a local stand-in update server.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BundleUpdaterTest {
+
+    private static final String INDEX_1 = "<html><script src=app.js></script>v1</html>";
+    private static final String INDEX_2 = "<html><script src=app.js></script>v2</html>";
+    private static final String STYLE = "body { margin: 0 }";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mReleases;
+    private File mWeb1;
+    private File mWeb2;
+    private BundleStore mStore;
+    private BundlePublisher mPublisher;
+    private TestHttpServer mUpdateServer;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] script = new byte[64 * 1024];
+        for (int i = 0; i < script.length; i++) script[i] = (byte) ('a' + i % 26);
+        mWeb1 = mFolder.newFolder("web", "1");
+        write(mWeb1, "index.html", INDEX_1.getBytes(TestStreams.UTF_8));
+        write(mWeb1, "app.js", script);
+        write(mWeb1, "css/style.css", STYLE.getBytes(TestStreams.UTF_8));
+
+        // One line of the script changes, the style stays and an image is added.
+        script[1000] = '!';
+        mWeb2 = mFolder.newFolder("web", "2");
+        write(mWeb2, "index.html", INDEX_2.getBytes(TestStreams.UTF_8));
+        write(mWeb2, "app.js", script);
+        write(mWeb2, "css/style.css", STYLE.getBytes(TestStreams.UTF_8));
+        write(mWeb2, "img/logo.png", new byte[3000]);
+
+        mReleases = mFolder.newFolder("releases");
+        mPublisher = new BundlePublisher(mReleases);
+        mStore = new BundleStore(new File(mFolder.getRoot(), "store"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mUpdateServer != null) mUpdateServer.close();
+    }
+
+    private static void write(File root, String path, byte[] content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+
+    private BundleUpdater.Result update() throws IOException {
+        return new BundleUpdater(mStore, new DirectoryBundleSource(mReleases)).update();
+    }
+
+    private static String read(ResponseBody body) throws IOException {
+        return TestStreams.readString(body.openStream());
+    }
+
+    @Test
+    public void updatesDownloadOnlyWhatChanged() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        BundleUpdater.Result first = update();
+        assertEquals("1", first.getVersion());
+        assertEquals(3, first.getDownloadedCount());
+        assertNull(update());
+
+        mPublisher.publish("2", mWeb2, mWeb1);
+        BundleUpdater.Result second = update();
+        assertEquals(1, second.getReusedCount());
+        assertEquals(1, second.getPatchedCount());
+        assertEquals(2, second.getDownloadedCount());
+        assertTrue(second.toString(), second.getDownloadedBytes() < 16 * 1024);
+        assertEquals("2", mStore.getCurrentVersion());
+        assertEquals(0, mStore.getDrainingCount());
+    }
+
+    @Test
+    public void theLiveVersionIsServedAndSurvivesRestarts() throws IOException {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.BundleBuilder().setBundleStore(mStore)
+                .setDomain("bundle.test").clearSubDomain());
+        mPublisher.publish("1", mWeb1);
+        update();
+
+        WebResourceResponse response = server.shouldInterceptRequest(new TestRequest("https://bundle.test/index.html"));
+        assertEquals(String.valueOf(INDEX_1.length()), response.getResponseHeaders().get("Content-Length"));
+        assertEquals(INDEX_1, TestStreams.readString(response.getData()));
+        response.getData().close();
+
+        mStore = new BundleStore(mStore.getRoot());
+        assertEquals("1", mStore.getCurrentVersion());
+        assertEquals(STYLE, read(new BundlePathHandler(mStore, null, null)
+                .handleBody(Uri.parse("https://bundle.test/css/style.css"))));
+    }
+
+    @Test
+    public void requestsKeepReadingTheVersionTheyStartedWith() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        update();
+        BundlePathHandler handler = new BundlePathHandler(mStore, null, null);
+        ResponseBody inFlight = handler.handleBody(Uri.parse("https://bundle.test/index.html"));
+        InputStream body = inFlight.openStream();
+
+        mPublisher.publish("2", mWeb2, mWeb1);
+        update();
+        assertEquals(1, mStore.getDrainingCount());
+        assertEquals(INDEX_2, read(handler.handleBody(Uri.parse("https://bundle.test/index.html"))));
+        assertEquals(INDEX_1, TestStreams.readString(body));
+
+        body.close();
+        inFlight.openStream().close();
+        assertEquals(0, mStore.getDrainingCount());
+        assertEquals(1, new File(mStore.getRoot(), "versions").list().length);
+    }
+
+    @Test
+    public void leasesOnlyReleaseOnce() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        update();
+        BundleStore.Lease first = mStore.acquire();
+        BundleStore.Lease second = mStore.acquire();
+        first.close();
+        first.close();
+        try {
+            first.getVersion();
+            fail("read a version through a closed lease");
+        } catch (IllegalStateException expected) {
+        }
+
+        mPublisher.publish("2", mWeb2, mWeb1);
+        update();
+        // The second lease still holds version 1, a double close must not have dropped it.
+        assertEquals(1, mStore.getDrainingCount());
+        assertEquals(INDEX_1, TestStreams.readString(new FileInputStream(second.getVersion().getFile("index.html"))));
+        second.close();
+        assertEquals(0, mStore.getDrainingCount());
+    }
+
+    @Test
+    public void aDamagedInstallIsDroppedOnLoad() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        update();
+        BundleStore.Lease lease = mStore.acquire();
+        File script = lease.getVersion().getFile("app.js");
+        lease.close();
+        RandomAccessFile file = new RandomAccessFile(script, "rw");
+        file.setLength(100);
+        file.close();
+
+        mStore = new BundleStore(mStore.getRoot());
+        assertNull(mStore.getCurrentVersion());
+        assertFalse(script.exists());
+        // The next update installs the version again.
+        assertEquals(3, update().getDownloadedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void downloadsStopAtTheManifestSize() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        final DirectoryBundleSource releases = new DirectoryBundleSource(mReleases);
+        BundleSource endless = new BundleSource() {
+            @Override
+            public InputStream open(String path) throws IOException {
+                if (!path.startsWith("files/")) return releases.open(path);
+                return new InputStream() {
+                    @Override
+                    public int read() {
+                        return 'x';
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        Arrays.fill(b, off, off + len, (byte) 'x');
+                        return len;
+                    }
+                };
+            }
+        };
+        try {
+            new BundleUpdater(mStore, endless).update();
+            fail("installed a file longer than its manifest entry");
+        } catch (IOException expected) {
+        }
+        assertNull(mStore.getCurrentVersion());
+    }
+
+    @Test
+    public void updatesOverHttpFromAStandInServer() throws IOException {
+        mPublisher.publish("1", mWeb1);
+        update();
+        mPublisher.publish("2", mWeb2, mWeb1);
+        mUpdateServer = new TestHttpServer(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) throws IOException {
+                File file = new File(mReleases, request.path.substring("/web/".length()));
+                if (!file.isFile()) return TestHttpServer.Reply.status(404);
+                return new TestHttpServer.Reply(200, TestStreams.readFully(new FileInputStream(file)));
+            }
+        });
+
+        BundleUpdater.Result result = new BundleUpdater(mStore,
+                new HttpBundleSource(mUpdateServer.getOrigin() + "/web")).update();
+        assertNotNull(result);
+        assertEquals("2", mStore.getCurrentVersion());
+        assertEquals(1, result.getPatchedCount());
+        // latest, the manifest, the script's patch, index.html's patch (too small to publish)
+        // and the two downloaded files, nothing for the reused style.
+        assertEquals(6, mUpdateServer.getRequestCount());
+    }
+}
@@ -0,0 +1,289 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static void put(DiskCache cache, String key, String body) throws IOException {
+        DiskCache.Editor editor = cache.edit(key, new byte[]{1});
+        editor.getOutputStream().write(body.getBytes(TestStreams.UTF_8));
+        editor.commit();
+    }
+
+    private static String read(DiskCache cache, String key) throws IOException {
+        DiskCache.Snapshot snapshot = cache.get(key);
+        return snapshot == null ? null : TestStreams.readString(snapshot.getBody());
+    }
+
+    @Test
+    public void committedEntriesSurviveReopening() throws IOException {
+        File directory = mFolder.newFolder("cache");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        cache.close();
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        assertEquals("alpha", read(reopened, "a"));
+        reopened.close();
+    }
+
+    @Test
+    public void openingADirectoryTwiceSharesOneCache() throws IOException {
+        File directory = mFolder.newFolder("shared");
+        DiskCache first = DiskCache.open(directory, 1, 1024 * 1024);
+        // An edit in flight in the first opener.
+        DiskCache.Editor editor = first.edit("a", new byte[0]);
+        editor.getOutputStream().write("alpha".getBytes(TestStreams.UTF_8));
+
+        DiskCache second = DiskCache.open(new File(directory.getParentFile(), "./shared"), 1, 1024 * 1024);
+        assertSame(first, second);
+        // The second open did not delete the first one's temporary file.
+        editor.commit();
+        assertEquals("alpha", read(second, "a"));
+
+        first.close();
+        assertTrue(second.contains("a"));
+        put(second, "b", "beta");
+        second.close();
+        try {
+            second.get("a");
+            fail("closed by the last close");
+        } catch (IllegalStateException expected) {
+        }
+
+        DiskCache third = DiskCache.open(directory, 1, 1024 * 1024);
+        assertNotSame(first, third);
+        assertEquals("beta", read(third, "b"));
+        third.close();
+    }
+
+    @Test
+    public void anotherAppVersionCannotShareAnOpenDirectory() throws IOException {
+        File directory = mFolder.newFolder("versions");
+        DiskCache cache = DiskCache.open(directory, 1, 1024);
+        try {
+            DiskCache.open(directory, 2, 1024);
+            fail("opened with another app version");
+        } catch (IOException expected) {
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void aLockedDirectoryIsRefused() throws IOException {
+        File directory = mFolder.newFolder("locked");
+        RandomAccessFile lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+        FileLock lock = lockFile.getChannel().lock();
+        try {
+            DiskCache.open(directory, 1, 1024);
+            fail("opened a directory locked by someone else");
+        } catch (IOException expected) {
+        } finally {
+            lock.release();
+            lockFile.close();
+        }
+        DiskCache cache = DiskCache.open(directory, 1, 1024);
+        cache.close();
+    }
+
+    @Test
+    public void orphanedTemporaryFilesAreDeletedOnOpen() throws IOException {
+        File directory = mFolder.newFolder("orphans");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        DiskCache.Editor editor = cache.edit("a", new byte[0]);
+        editor.getOutputStream().write(1);
+        cache.close();
+        File[] before = directory.listFiles();
+        assertNotNull(before);
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        for (File file : directory.listFiles()) {
+            assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+        }
+        assertNull(read(reopened, "a"));
+        reopened.close();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        File directory = mFolder.newFolder("evict");
+        DiskCache cache = DiskCache.open(directory, 1, 100);
+        put(cache, "a", "0123456789012345678901234");
+        put(cache, "b", "0123456789012345678901234");
+        read(cache, "a");
+        put(cache, "c", "0123456789012345678901234");
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.size() <= 100);
+        cache.close();
+    }
+
+    /**
+     * Copies the directory as it is on disk right now, as if the process died at this instant,
+     * without the lock file the dead process held.
+     */
+    private File crash(File directory) throws IOException {
+        File copy = mFolder.newFolder();
+        for (File file : directory.listFiles()) {
+            if (file.getName().equals("lock")) continue;
+            FileOutputStream out = new FileOutputStream(new File(copy, file.getName()));
+            out.write(TestStreams.readFully(new FileInputStream(file)));
+            out.close();
+        }
+        return copy;
+    }
+
+    private static void append(File file, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(text.getBytes(TestStreams.UTF_8));
+        out.close();
+    }
+
+    @Test
+    public void aCrashKeepsCommittedEntriesAndDropsEditsInFlight() throws IOException {
+        File directory = mFolder.newFolder("crash");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        put(cache, "b", "beta");
+        read(cache, "a");
+        DiskCache.Editor editor = cache.edit("c", new byte[0]);
+        editor.getOutputStream().write("half of gam".getBytes(TestStreams.UTF_8));
+        File crashed = crash(directory);
+        editor.abort();
+        cache.close();
+
+        DiskCache recovered = DiskCache.open(crashed, 1, 1024 * 1024);
+        assertEquals("alpha", read(recovered, "a"));
+        assertEquals("beta", read(recovered, "b"));
+        assertNull(read(recovered, "c"));
+        assertEquals(2, recovered.getEntryCount());
+        for (File file : crashed.listFiles()) {
+            assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+        }
+        recovered.close();
+    }
+
+    @Test
+    public void aTornJournalLineIsDropped() throws IOException {
+        File directory = mFolder.newFolder("torn");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        cache.close();
+        // The process died halfway through appending a line.
+        append(new File(directory, "journal"), "CLEAN 3400330d1d");
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        assertEquals("alpha", read(reopened, "a"));
+        assertEquals(1, reopened.getEntryCount());
+        reopened.close();
+        String journal = TestStreams.readString(new FileInputStream(new File(directory, "journal")));
+        assertFalse(journal, journal.contains("CLEAN 3400330d1d"));
+    }
+
+    @Test
+    public void entriesTheJournalNeverRecordedAreDeleted() throws IOException {
+        File directory = mFolder.newFolder("unrecorded");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        cache.close();
+        // Renamed into place right before a crash, the CLEAN line was never written.
+        File unrecorded = new File(directory, DiskCache.hash("b") + ".e");
+        append(unrecorded, "whatever");
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        assertFalse(unrecorded.exists());
+        assertNull(read(reopened, "b"));
+        assertEquals("alpha", read(reopened, "a"));
+        reopened.close();
+    }
+
+    @Test
+    public void truncatedEntriesAreDroppedOnOpen() throws IOException {
+        File directory = mFolder.newFolder("truncated");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        put(cache, "b", "beta");
+        cache.close();
+        RandomAccessFile entry = new RandomAccessFile(new File(directory, DiskCache.hash("a") + ".e"), "rw");
+        entry.setLength(entry.length() - 2);
+        entry.close();
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        assertNull(read(reopened, "a"));
+        assertEquals("beta", read(reopened, "b"));
+        assertEquals(1, reopened.getEntryCount());
+        reopened.close();
+    }
+
+    @Test
+    public void entriesWithACorruptHeaderAreRemovedWhenRead() throws IOException {
+        File directory = mFolder.newFolder("corrupt");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        RandomAccessFile entry = new RandomAccessFile(new File(directory, DiskCache.hash("a") + ".e"), "rw");
+        entry.writeInt(0);
+        entry.close();
+
+        assertNull(read(cache, "a"));
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void anUnreadableJournalStartsOver() throws IOException {
+        File directory = mFolder.newFolder("unreadable");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        cache.close();
+        FileOutputStream journal = new FileOutputStream(new File(directory, "journal"));
+        journal.write("garbage\n".getBytes(TestStreams.UTF_8));
+        journal.close();
+
+        DiskCache reopened = DiskCache.open(directory, 1, 1024 * 1024);
+        assertEquals(0, reopened.getEntryCount());
+        assertFalse(new File(directory, DiskCache.hash("a") + ".e").exists());
+        put(reopened, "b", "beta");
+        reopened.close();
+        DiskCache again = DiskCache.open(directory, 1, 1024 * 1024);
+        assertEquals("beta", read(again, "b"));
+        again.close();
+    }
+
+    @Test
+    public void bodyLengthsComeFromTheIndex() throws IOException {
+        File directory = mFolder.newFolder("lengths");
+        DiskCache cache = DiskCache.open(directory, 1, 1024 * 1024);
+        put(cache, "a", "alpha");
+        assertEquals(5, cache.getBodyLength("a", 1));
+        assertEquals(-1, cache.getBodyLength("b", 1));
+        cache.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.body.ResponseBody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskCachedPathHandlerTest {
+
+    private static final Uri PAGE = Uri.parse("https://app.test/report.html");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicInteger mRenders = new AtomicInteger();
+    private File mDirectory;
+    private DiskCachedPathHandler mHandler;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("rendered");
+        mHandler = new DiskCachedPathHandler(new WebViewLocalServer.PathHandler() {
+            @Override
+            public InputStream handle(Uri url) {
+                mRenders.incrementAndGet();
+                return TestStreams.stream("<p>rendered " + url.getPath() + "</p>");
+            }
+        }, mDirectory, 1024 * 1024, 1, DiskCachedPathHandler.URL_KEY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHandler.getCache().close();
+    }
+
+    @Test
+    public void aMissIsStoredAndLaterServedWithItsLength() throws IOException {
+        assertNull(mHandler.handleBody(PAGE));
+        assertEquals("<p>rendered /report.html</p>", TestStreams.readString(mHandler.handle(PAGE)));
+
+        ResponseBody cached = mHandler.handleBody(PAGE);
+        assertNotNull(cached);
+        assertEquals(28, cached.getLength());
+        assertEquals("<p>rendered /report.html</p>", TestStreams.readString(cached.openStream()));
+        assertEquals(1, mRenders.get());
+    }
+
+    @Test
+    public void handleBodyOnlyConsultsTheIndex() throws IOException {
+        TestStreams.readString(mHandler.handle(PAGE));
+        File entry = new File(mDirectory, DiskCache.hash(PAGE.toString()) + ".e");
+        assertTrue(entry.delete());
+
+        // The intercepting thread does not notice, the file is only opened when the body is read.
+        ResponseBody body = mHandler.handleBody(PAGE);
+        assertEquals(28, body.getLength());
+        try {
+            body.openStream();
+            fail("served a body the cache lost");
+        } catch (IOException expected) {
+        }
+        assertNull(mHandler.handleBody(PAGE));
+    }
+
+    @Test
+    public void anEntryReplacedWithAnotherLengthIsNotServed() throws IOException {
+        TestStreams.readString(mHandler.handle(PAGE));
+        ResponseBody body = mHandler.handleBody(PAGE);
+        DiskCache.Editor editor = mHandler.getCache().edit(PAGE.toString(), new byte[0]);
+        editor.getOutputStream().write("<p>shorter</p>".getBytes(TestStreams.UTF_8));
+        editor.commit();
+        try {
+            body.openStream();
+            fail("served a body of another length than announced");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void bodiesSurviveRestarts() throws IOException {
+        TestStreams.readString(mHandler.handle(PAGE));
+        mHandler.getCache().close();
+
+        mHandler = new DiskCachedPathHandler(mHandler.getDelegate(), mDirectory, 1024 * 1024, 1,
+                DiskCachedPathHandler.URL_KEY);
+        assertEquals("<p>rendered /report.html</p>", TestStreams.readString(mHandler.handleBody(PAGE).openStream()));
+        assertEquals(1, mRenders.get());
+    }
+}
@@ -0,0 +1,92 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * One process of {@link SharedResponseCacheStressTest}: writes and reads random keys of a
+ * shared cache and exits with status 2 if it ever reads a body that is not the one stored
+ * under the key.
+ * <pre>
+ *     SharedCacheWorker file size seed iterations keys
+ * </pre>
+ */
+public class SharedCacheWorker {
+
+    static String key(int index) {
+        return "/resource/" + index;
+    }
+
+    static String mimeType(int index) {
+        return "application/x-" + index;
+    }
+
+    /**
+     * Every key has its own length and bytes, so a body of another key or a torn one is noticed.
+     */
+    static byte[] body(int index) {
+        byte[] body = new byte[100 + (index * 997) % 3000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (index * 31 + i);
+        }
+        return body;
+    }
+
+    /**
+     * @return null if <code>entry</code> is the one stored under <code>index</code> or was
+     * dropped while it was read, what is wrong with it otherwise
+     */
+    static String check(SharedResponseCache.Entry entry, int index) {
+        if (!mimeType(index).equals(entry.getMimeType())) return "mime type " + entry.getMimeType();
+        byte[] expected = body(index);
+        if (entry.getLength() != expected.length) return "length " + entry.getLength();
+        InputStream in = entry.getBody();
+        byte[] actual = new byte[expected.length];
+        try {
+            int read = 0;
+            while (read < actual.length) {
+                int count = in.read(actual, read, actual.length - read);
+                if (count == -1) return "ended after " + read + " bytes";
+                read += count;
+            }
+        } catch (IOException e) {
+            // Reset while it was read, reported instead of wrong bytes.
+            return null;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (actual[i] != expected[i]) return "byte " + i;
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SharedResponseCache cache = SharedResponseCache.open(new File(args[0]), "stress", Integer.parseInt(args[1]));
+        Random random = new Random(Long.parseLong(args[2]));
+        int iterations = Integer.parseInt(args[3]);
+        int keys = Integer.parseInt(args[4]);
+        int puts = 0;
+        int hits = 0;
+        for (int i = 0; i < iterations; i++) {
+            int index = random.nextInt(keys);
+            if (random.nextInt(4) == 0) {
+                byte[] body = body(index);
+                cache.put(key(index), mimeType(index), body, 0, body.length);
+                puts++;
+                continue;
+            }
+            SharedResponseCache.Entry entry = cache.get(key(index));
+            if (entry == null) continue;
+            hits++;
+            String problem = check(entry, index);
+            if (problem != null) {
+                System.out.println("corrupt " + key(index) + ": " + problem);
+                System.exit(2);
+            }
+        }
+        System.out.println("puts " + puts + " hits " + hits + " retries " + cache.getRetryCount()
+                + " resets " + cache.getResetCount());
+        System.exit(0);
+    }
+}
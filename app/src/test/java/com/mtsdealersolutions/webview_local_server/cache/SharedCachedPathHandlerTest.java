@@ -0,0 +1,154 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SharedCachedPathHandlerTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SharedResponseCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = SharedResponseCache.open(mFolder.newFile(), "1", 1024 * 1024);
+    }
+
+    private static WebViewLocalServer.PathHandler renderer(final AtomicInteger renders) {
+        return new WebViewLocalServer.PathHandler("text/css", null, null, 200, "OK", null) {
+            @Override
+            public InputStream handle(Uri url) {
+                renders.incrementAndGet();
+                return TestStreams.stream("body { /* " + url.getPath() + " */ }");
+            }
+        };
+    }
+
+    /**
+     * A process's server, its host gets a random subdomain.
+     */
+    private Uri serve(AtomicInteger renders, DiskCachedPathHandler.KeyFunction keyFunction) {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        WebViewLocalServer.Server host = server.createHost(new WebViewLocalServer.ResBuilder().setUrlVirtualPath("www"),
+                new SharedCachedPathHandler(renderer(renders), mCache, SharedCachedPathHandler.DEFAULT_MAX_ENTRY_SIZE,
+                        keyFunction));
+        mServers[mServerCount++] = server;
+        return host.getServerUri(WebViewLocalServer.UrlProtocol.HTTPS, "site.css");
+    }
+
+    private final WebViewLocalServer[] mServers = new WebViewLocalServer[2];
+    private int mServerCount;
+
+    private WebResourceResponse get(int server, Uri url) {
+        return mServers[server].shouldInterceptRequest(new TestRequest(url.toString()));
+    }
+
+    @Test
+    public void eachRequestLooksTheCacheUpOnce() throws IOException {
+        AtomicInteger renders = new AtomicInteger();
+        Uri url = serve(renders, SharedCachedPathHandler.PATH_KEY);
+
+        WebResourceResponse miss = get(0, url);
+        assertEquals("body { /* /www/site.css */ }", TestStreams.readString(miss.getData()));
+        assertEquals(1, mCache.getMissCount() + mCache.getHitCount());
+
+        WebResourceResponse hit = get(0, url);
+        assertEquals("text/css", hit.getMimeType());
+        assertEquals("28", hit.getResponseHeaders().get("Content-Length"));
+        assertEquals("body { /* /www/site.css */ }", TestStreams.readString(hit.getData()));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount() + mCache.getHitCount());
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void processesWithTheirOwnSubdomainsShareEntries() throws IOException {
+        AtomicInteger firstRenders = new AtomicInteger();
+        AtomicInteger secondRenders = new AtomicInteger();
+        Uri first = serve(firstRenders, SharedCachedPathHandler.PATH_KEY);
+        Uri second = serve(secondRenders, SharedCachedPathHandler.PATH_KEY);
+        assertNotEquals(first.getAuthority(), second.getAuthority());
+
+        TestStreams.readString(get(0, first).getData());
+        assertEquals("body { /* /www/site.css */ }", TestStreams.readString(get(1, second).getData()));
+        assertEquals(1, firstRenders.get());
+        assertEquals(0, secondRenders.get());
+    }
+
+    @Test
+    public void urlsWithoutAKeyAreNotStored() throws IOException {
+        AtomicInteger renders = new AtomicInteger();
+        Uri url = serve(renders, new DiskCachedPathHandler.KeyFunction() {
+            @Override
+            public String getKey(Uri url) {
+                return null;
+            }
+        });
+        TestStreams.readString(get(0, url).getData());
+        TestStreams.readString(get(0, url).getData());
+        assertEquals(2, renders.get());
+        assertEquals(0, mCache.getDataSize());
+        assertEquals(0, mCache.getMissCount() + mCache.getHitCount());
+    }
+
+    @Test
+    public void bodiesCutShortAreNotStored() throws IOException {
+        AtomicInteger renders = new AtomicInteger();
+        Uri url = serve(renders, SharedCachedPathHandler.PATH_KEY);
+        InputStream body = get(0, url).getData();
+        body.read(new byte[4]);
+        body.close();
+        TestStreams.readString(get(0, url).getData());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void missingBodiesAreLeftToTheServerAndNotStored() throws IOException {
+        final AtomicInteger renders = new AtomicInteger();
+        SharedCachedPathHandler handler = new SharedCachedPathHandler(
+                new WebViewLocalServer.PathHandler("text/css", null, null, 200, "OK", null) {
+                    @Override
+                    public InputStream handle(Uri url) {
+                        renders.incrementAndGet();
+                        return null;
+                    }
+                }, mCache);
+        assertTrue(handler.isCoalescingRequests());
+        Uri url = Uri.parse("https://app.test/www/missing.css");
+        assertNull(handler.handleBody(url));
+        assertNull(handler.handle(url));
+
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        Uri served = server.createHost(new WebViewLocalServer.ResBuilder().setUrlVirtualPath("www"), handler)
+                .getServerUri(WebViewLocalServer.UrlProtocol.HTTPS, "missing.css");
+        for (int i = 0; i < 2; i++) {
+            InputStream body = server.shouldInterceptRequest(new TestRequest(served.toString())).getData();
+            assertEquals("", body == null ? "" : TestStreams.readString(body));
+        }
+        assertEquals(3, renders.get());
+        assertEquals(0, mCache.getDataSize());
+    }
+}
@@ -0,0 +1,63 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link SharedCacheWorker}s in their own JVMs against one small cache, so they keep
+ * filling and resetting it while the others read.
+ */
+public class SharedResponseCacheStressTest {
+
+    private static final int PROCESSES = 4;
+    private static final int SIZE = 256 * 1024;
+    private static final int KEYS = 200;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void processesNeverReadEachOthersHalfWrittenEntries() throws Exception {
+        File file = new File(mFolder.getRoot(), "shared");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    SharedCacheWorker.class.getName(), file.getPath(), String.valueOf(SIZE), String.valueOf(i),
+                    "50000", String.valueOf(KEYS)).redirectErrorStream(true).start());
+        }
+
+        long hits = 0;
+        for (Process process : processes) {
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            StringBuilder lines = new StringBuilder();
+            String line;
+            while ((line = output.readLine()) != null) lines.append(line).append('\n');
+            assertTrue("worker did not finish", process.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(lines.toString(), 0, process.exitValue());
+            String[] counts = lines.toString().trim().split(" ");
+            hits += Long.parseLong(counts[3]);
+        }
+        assertTrue("the workers never read each other's entries", hits > 0);
+
+        // What the last writers left is intact.
+        SharedResponseCache cache = SharedResponseCache.open(file, "stress", SIZE);
+        for (int i = 0; i < KEYS; i++) {
+            SharedResponseCache.Entry entry = cache.get(SharedCacheWorker.key(i));
+            if (entry != null) assertNull(SharedCacheWorker.check(entry, i));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.mtsdealersolutions.webview_local_server.cache;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SharedResponseCacheTest {
+
+    private static final int SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SharedResponseCache open(File file) throws IOException {
+        return SharedResponseCache.open(file, "1", SIZE);
+    }
+
+    private static void put(SharedResponseCache cache, String key, String body) throws IOException {
+        byte[] bytes = body.getBytes(TestStreams.UTF_8);
+        assertTrue(cache.put(key, "text/plain", bytes, 0, bytes.length));
+    }
+
+    private static String read(SharedResponseCache cache, String key) throws IOException {
+        SharedResponseCache.Entry entry = cache.get(key);
+        return entry == null ? null : TestStreams.readString(entry.getBody());
+    }
+
+    /**
+     * @return the offset of the only used index slot in <code>file</code>
+     */
+    private static int usedSlot(RandomAccessFile file) throws IOException {
+        int found = -1;
+        int slotCount = 64;
+        for (int i = 0; i < slotCount; i++) {
+            int slot = SharedResponseCache.HEADER_SIZE + i * SharedResponseCache.SLOT_SIZE;
+            file.seek(slot + SharedResponseCache.SLOT_HASH);
+            if (file.readLong() == 0) continue;
+            assertEquals("more than one slot is used", -1, found);
+            found = slot;
+        }
+        assertTrue(found != -1);
+        return found;
+    }
+
+    private static int readInt(RandomAccessFile file, int position) throws IOException {
+        file.seek(position);
+        return file.readInt();
+    }
+
+    private static void writeInt(RandomAccessFile file, int position, int value) throws IOException {
+        file.seek(position);
+        file.writeInt(value);
+    }
+
+    /**
+     * A copy of <code>source</code> with the used slot left as a writer that died would leave it.
+     */
+    private File crashedCopy(File source, boolean tornSlot) throws IOException {
+        File copy = mFolder.newFile();
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = new FileOutputStream(copy);
+        out.write(TestStreams.readFully(in));
+        out.close();
+        in.close();
+
+        RandomAccessFile file = new RandomAccessFile(copy, "rw");
+        int slot = usedSlot(file);
+        writeInt(file, slot + SharedResponseCache.SLOT_SEQUENCE,
+                readInt(file, slot + SharedResponseCache.SLOT_SEQUENCE) | 1);
+        if (tornSlot) {
+            // The hash of a new key was written, the entry offset not yet.
+            file.seek(slot + SharedResponseCache.SLOT_HASH);
+            long hash = file.readLong();
+            file.seek(slot + SharedResponseCache.SLOT_HASH);
+            file.writeLong(hash + 1);
+        }
+        file.close();
+        return copy;
+    }
+
+    @Test
+    public void entriesAreReplacedAndKeptApart() throws IOException {
+        SharedResponseCache cache = open(mFolder.newFile());
+        put(cache, "/a", "alpha");
+        put(cache, "/b", "beta");
+        put(cache, "/a", "alpha 2");
+        assertEquals("alpha 2", read(cache, "/a"));
+        assertEquals("beta", read(cache, "/b"));
+        assertNull(read(cache, "/c"));
+        assertEquals("text/plain", cache.get("/b").getMimeType());
+    }
+
+    @Test
+    public void slotsLeftOddByADeadWriterAreRepairedOnOpen() throws IOException {
+        File file = mFolder.newFile();
+        put(open(file), "/page", "kept");
+
+        SharedResponseCache reopened = open(crashedCopy(file, false));
+        assertEquals("kept", read(reopened, "/page"));
+        assertEquals(0, reopened.getRetryCount());
+        RandomAccessFile raw = new RandomAccessFile(reopened.getFile(), "r");
+        assertEquals(0, readInt(raw, usedSlot(raw) + SharedResponseCache.SLOT_SEQUENCE) & 1);
+        raw.close();
+    }
+
+    @Test
+    public void tornSlotsResetTheCacheOnOpen() throws IOException {
+        File file = mFolder.newFile();
+        SharedResponseCache cache = open(file);
+        put(cache, "/page", "torn");
+
+        SharedResponseCache reopened = open(crashedCopy(file, true));
+        assertEquals(cache.getEpoch() + 1, reopened.getEpoch());
+        assertNull(read(reopened, "/page"));
+        assertEquals(0, reopened.getDataSize());
+        put(reopened, "/page", "again");
+        assertEquals("again", read(reopened, "/page"));
+    }
+
+    @Test
+    public void writingASlotLeftOddLeavesItEven() throws IOException {
+        File file = mFolder.newFile();
+        SharedResponseCache cache = open(file);
+        put(cache, "/page", "first");
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        int slot = usedSlot(raw);
+        // A writer in another process died halfway, readers cannot trust the slot.
+        writeInt(raw, slot + SharedResponseCache.SLOT_SEQUENCE, readInt(raw, slot + SharedResponseCache.SLOT_SEQUENCE) | 1);
+        assertNull(read(cache, "/page"));
+        assertTrue(cache.getRetryCount() > 0);
+
+        put(cache, "/page", "second");
+        assertEquals(0, readInt(raw, slot + SharedResponseCache.SLOT_SEQUENCE) & 1);
+        assertEquals("second", read(cache, "/page"));
+        raw.close();
+    }
+
+    @Test
+    public void bodiesReadAcrossAResetFail() throws IOException {
+        SharedResponseCache cache = open(mFolder.newFile());
+        put(cache, "/big", new String(new char[10000]).replace('\0', 'x'));
+        SharedResponseCache.Entry entry = cache.get("/big");
+        assertNotNull(entry);
+        java.io.InputStream body = entry.getBody();
+        body.read(new byte[100]);
+        cache.clear();
+        try {
+            body.read(new byte[100]);
+            throw new AssertionError("read bytes of a dropped entry");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.mtsdealersolutions.webview_local_server.content;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContentPathHandlerTest {
+
+    private static final String AUTHORITY = "com.example.photos";
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static File sFiles;
+
+    /**
+     * Serves the files of {@link #sFiles} by path, <code>broken/...</code> with a descriptor
+     * that is already closed.
+     */
+    public static class StandInProvider extends ContentProvider {
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return uri.getPath().endsWith(".jpg") ? "image/jpeg" : "text/plain";
+        }
+
+        @Override
+        public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+            String path = uri.getPath();
+            if (path.startsWith("/broken/")) {
+                ParcelFileDescriptor closed = ParcelFileDescriptor.open(new File(sFiles, path.substring(8)),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+                try {
+                    closed.close();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                return new AssetFileDescriptor(closed, 4, 10);
+            }
+            File file = new File(sFiles, path);
+            if (!file.isFile()) throw new FileNotFoundException(path);
+            return new AssetFileDescriptor(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY),
+                    0, file.length());
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private ContentPathHandler mHandler;
+
+    @Before
+    public void setUp() throws IOException {
+        sFiles = mFolder.getRoot();
+        write("photo.jpg");
+        new File(sFiles, "photosets").mkdir();
+        write("photosets/1.jpg");
+        Robolectric.buildContentProvider(StandInProvider.class).create(AUTHORITY);
+        mHandler = new ContentPathHandler(RuntimeEnvironment.application.getContentResolver(), AUTHORITY, "/photos/");
+    }
+
+    private static void write(String path) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(sFiles, path));
+        out.write(CONTENT.getBytes(TestStreams.UTF_8));
+        out.close();
+    }
+
+    @Test
+    public void virtualPathsOnlyMatchWholeSegments() {
+        assertEquals("content://" + AUTHORITY + "/photo.jpg",
+                mHandler.getContentUri(Uri.parse("https://app.test/photos/photo.jpg")).toString());
+        assertEquals("content://" + AUTHORITY + "/photosets/1.jpg",
+                mHandler.getContentUri(Uri.parse("https://app.test/photosets/1.jpg")).toString());
+        assertEquals("content://" + AUTHORITY + "/",
+                mHandler.getContentUri(Uri.parse("https://app.test/photos")).toString());
+    }
+
+    @Test
+    public void servesTheProvidersFile() throws IOException {
+        WebResourceResponse response = mHandler.respond(new TestRequest("https://app.test/photos/photo.jpg"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("image/jpeg", response.getMimeType());
+        assertEquals(String.valueOf(CONTENT.length()), response.getResponseHeaders().get("Content-Length"));
+        assertEquals(CONTENT, TestStreams.readString(response.getData()));
+        assertEquals(CONTENT, TestStreams.readString(mHandler.handle(Uri.parse("https://app.test/photos/photo.jpg"))));
+    }
+
+    @Test
+    public void servesByteRanges() throws IOException {
+        WebResourceResponse response = mHandler.respond(new TestRequest("https://app.test/photos/photo.jpg")
+                .header("Range", "bytes=10-14"));
+        assertEquals(206, response.getStatusCode());
+        assertEquals("bytes 10-14/20", response.getResponseHeaders().get("Content-Range"));
+        assertEquals("abcde", TestStreams.readString(response.getData()));
+
+        WebResourceResponse suffix = mHandler.respond(new TestRequest("https://app.test/photos/photo.jpg")
+                .header("Range", "bytes=-3"));
+        assertEquals("hij", TestStreams.readString(suffix.getData()));
+
+        WebResourceResponse unsatisfiable = mHandler.respond(new TestRequest("https://app.test/photos/photo.jpg")
+                .header("Range", "bytes=50-"));
+        assertEquals(416, unsatisfiable.getStatusCode());
+    }
+
+    @Test
+    public void headRequestsGetTheHeadersThroughTheServer() throws IOException {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.ResBuilder().setDomain("app.test").clearSubDomain()
+                .setUrlVirtualPath("photos"), mHandler);
+
+        WebResourceResponse response = server.shouldInterceptRequest(
+                new TestRequest("HEAD", "https://app.test/photos/photo.jpg"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("image/jpeg", response.getMimeType());
+        assertEquals("", TestStreams.readString(response.getData()));
+        assertNull(server.shouldInterceptRequest(new TestRequest("POST", "https://app.test/photos/photo.jpg")));
+    }
+
+    @Test
+    public void missingFilesAreNotFound() {
+        assertEquals(404, mHandler.respond(new TestRequest("https://app.test/photos/missing.jpg")).getStatusCode());
+        assertNull(mHandler.handle(Uri.parse("https://app.test/photos/missing.jpg")));
+    }
+
+    @Test
+    public void unreadableDescriptorsAreAnErrorNotACrash() {
+        assertEquals(500, mHandler.respond(new TestRequest("https://app.test/photos/broken/photo.jpg")).getStatusCode());
+        assertNull(mHandler.handle(Uri.parse("https://app.test/photos/broken/photo.jpg")));
+    }
+}
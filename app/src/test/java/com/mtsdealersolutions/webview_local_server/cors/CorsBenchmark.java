@@ -0,0 +1,105 @@
+package com.mtsdealersolutions.webview_local_server.cors;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A fetch-heavy page from another origin: a preflight and 30 API calls, each read to the end.
+ * Before host CORS policies the handler answered OPTIONS and added the CORS headers to every
+ * response itself; with a policy the server does both. Also compares checking the 30 resources
+ * with HEAD against reading them with GET.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CorsBenchmark {
+
+    private static final String APP = "https://app.example.com";
+    private static final int CALLS = 30;
+    private static final byte[] ITEM = new byte[4096];
+
+    private static class ApiHandler extends WebViewLocalServer.PathHandler {
+        ApiHandler() {
+            super("application/json", null, null, 200, "OK", null);
+        }
+
+        @Override
+        public InputStream handle(Uri url) {
+            return new ByteArrayInputStream(ITEM);
+        }
+    }
+
+    /**
+     * How a handler served CORS without a policy.
+     */
+    private static class HandmadeCorsHandler extends ApiHandler {
+        @Override
+        public WebResourceResponse respond(WebResourceRequest request) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Access-Control-Allow-Origin", APP);
+            headers.put("Vary", "Origin");
+            if ("OPTIONS".equals(request.getMethod())) {
+                headers.put("Access-Control-Allow-Methods", "GET, HEAD, POST");
+                headers.put("Access-Control-Allow-Headers", "Authorization");
+                return new WebResourceResponse("text/plain", "UTF-8", 204, "No Content", headers,
+                        new ByteArrayInputStream(new byte[0]));
+            }
+            return new WebResourceResponse("application/json", "UTF-8", 200, "OK", headers,
+                    new ByteArrayInputStream(ITEM));
+        }
+    }
+
+    private static Callable<Object> page(final WebViewLocalServer server, final String method) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                int bytes = TestStreams.readFully(server.shouldInterceptRequest(new TestRequest("OPTIONS",
+                        "https://api.test/items").header("Origin", APP)
+                        .header("Access-Control-Request-Method", "GET")).getData()).length;
+                for (int i = 0; i < CALLS; i++) {
+                    bytes += TestStreams.readFully(server.shouldInterceptRequest(new TestRequest(method,
+                            "https://api.test/items/" + i).header("Origin", APP)
+                            .header("Authorization", "Bearer t")).getData()).length;
+                }
+                return bytes;
+            }
+        };
+    }
+
+    @Test
+    public void fetchHeavyPage() throws Exception {
+        Benchmarks.assumeEnabled();
+        WebViewLocalServer before = new WebViewLocalServer(RuntimeEnvironment.application);
+        before.createHost(new WebViewLocalServer.ResBuilder().setDomain("api.test").clearSubDomain(),
+                new HandmadeCorsHandler());
+        WebViewLocalServer after = new WebViewLocalServer(RuntimeEnvironment.application);
+        after.createHost(new WebViewLocalServer.ResBuilder().setDomain("api.test").clearSubDomain()
+                .setCorsPolicy(new CorsPolicy.Builder().setAllowedOrigins(APP)
+                        .setAllowedHeaders("Authorization").build()), new ApiHandler());
+
+        // Alternated, the first rounds also warm the JIT.
+        for (int round = 1; round <= 3; round++) {
+            Benchmarks.measure("round " + round + ": handler answers CORS, preflight + " + CALLS + " GETs", 50, 200,
+                    page(before, "GET"));
+            Benchmarks.measure("round " + round + ": host CorsPolicy, preflight + " + CALLS + " GETs", 50, 200,
+                    page(after, "GET"));
+            Benchmarks.measure("round " + round + ": host CorsPolicy, preflight + " + CALLS + " HEADs", 50, 200,
+                    page(after, "HEAD"));
+        }
+    }
+}
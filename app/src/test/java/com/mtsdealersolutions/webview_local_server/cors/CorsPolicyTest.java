@@ -0,0 +1,124 @@
+package com.mtsdealersolutions.webview_local_server.cors;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class CorsPolicyTest {
+
+    private static final String APP = "https://app.example.com";
+
+    private final CorsPolicy mPolicy = new CorsPolicy.Builder()
+            .setAllowedOrigins(APP)
+            .setAllowedMethods("GET", "POST")
+            .setAllowedHeaders("Content-Type")
+            .setMaxAge(600)
+            .build();
+
+    private static WebResourceResponse response(String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        return new WebResourceResponse("application/json", "UTF-8", 200, "OK", map,
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    private WebResourceResponse apply(WebResourceResponse response) {
+        mPolicy.apply(new TestRequest("https://api.test/items").header("Origin", APP), response);
+        return response;
+    }
+
+    @Test
+    public void preflightsFromAllowedOriginsAreAnswered() throws Exception {
+        WebResourceResponse allowed = mPolicy.preflight(new TestRequest("OPTIONS", "https://api.test/items")
+                .header("Origin", APP).header("Access-Control-Request-Method", "POST"));
+        assertEquals(204, allowed.getStatusCode());
+        assertEquals(APP, allowed.getResponseHeaders().get("Access-Control-Allow-Origin"));
+        assertEquals("GET, POST", allowed.getResponseHeaders().get("Access-Control-Allow-Methods"));
+        assertEquals("Content-Type", allowed.getResponseHeaders().get("Access-Control-Allow-Headers"));
+        assertEquals("600", allowed.getResponseHeaders().get("Access-Control-Max-Age"));
+        assertEquals("", TestStreams.readString(allowed.getData()));
+
+        WebResourceResponse refused = mPolicy.preflight(new TestRequest("OPTIONS", "https://api.test/items")
+                .header("Origin", "https://evil.test").header("Access-Control-Request-Method", "POST"));
+        assertEquals(403, refused.getStatusCode());
+        assertNull(refused.getResponseHeaders().get("Access-Control-Allow-Origin"));
+    }
+
+    @Test
+    public void varyIsMergedWhateverItsCase() {
+        Map<String, String> headers = apply(response("vary", "Accept-Encoding")).getResponseHeaders();
+        assertEquals("Accept-Encoding, Origin", headers.get("Vary"));
+        assertFalse(headers.containsKey("vary"));
+
+        assertEquals("origin, Accept", apply(response("VARY", "origin, Accept")).getResponseHeaders().get("Vary"));
+        assertEquals("*", apply(response("Vary", "*")).getResponseHeaders().get("Vary"));
+        assertEquals("Origin", apply(response()).getResponseHeaders().get("Vary"));
+    }
+
+    @Test
+    public void theHandlersCorsHeadersAreReplaced() {
+        Map<String, String> headers = apply(response("access-control-allow-origin", "*", "ETag", "\"1\""))
+                .getResponseHeaders();
+        assertEquals(APP, headers.get("Access-Control-Allow-Origin"));
+        assertFalse(headers.containsKey("access-control-allow-origin"));
+        assertEquals("\"1\"", headers.get("ETag"));
+    }
+
+    @Test
+    public void hostsAnswerPreflightsWithoutTheirHandler() throws Exception {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.ResBuilder().setDomain("api.test").clearSubDomain()
+                .setCorsPolicy(mPolicy), new WebViewLocalServer.PathHandler("application/json", null, null, 200,
+                "OK", Collections.singletonMap("vary", "Accept")) {
+            @Override
+            public InputStream handle(Uri url) {
+                return TestStreams.stream("[]");
+            }
+
+            @Override
+            public boolean shouldIntercept(WebResourceRequest request) {
+                return !"OPTIONS".equals(request.getMethod());
+            }
+        });
+
+        WebResourceResponse preflight = server.shouldInterceptRequest(new TestRequest("OPTIONS",
+                "https://api.test/items").header("Origin", APP).header("Access-Control-Request-Method", "GET"));
+        assertEquals(204, preflight.getStatusCode());
+
+        WebResourceResponse response = server.shouldInterceptRequest(
+                new TestRequest("https://api.test/items").header("Origin", APP));
+        assertEquals(APP, response.getResponseHeaders().get("Access-Control-Allow-Origin"));
+        assertEquals("Accept, Origin", response.getResponseHeaders().get("Vary"));
+        assertEquals("[]", TestStreams.readString(response.getData()));
+    }
+
+    @Test
+    public void otherOriginsGetNoHeaders() {
+        WebResourceResponse response = response("vary", "Accept");
+        mPolicy.apply(new TestRequest("https://api.test/items").header("Origin", "https://evil.test"), response);
+        assertEquals("Accept", response.getResponseHeaders().get("vary"));
+        assertNull(response.getResponseHeaders().get("Access-Control-Allow-Origin"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.mtsdealersolutions.webview_local_server.har;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class HarRecorderTest {
+
+    private static final long RENDER_MILLIS = 200;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private WebViewLocalServer mServer;
+    private HarRecorder mRecorder;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("har.test").clearSubDomain(),
+                new WebViewLocalServer.PathHandler("text/plain", null, null, 200, "OK", null) {
+                    @Override
+                    public InputStream handle(Uri url) {
+                        try {
+                            Thread.sleep(RENDER_MILLIS);
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                        return TestStreams.stream("rendered");
+                    }
+                });
+        mRecorder = new HarRecorder(mFolder.newFolder(), "session");
+        mServer.setHarRecorder(mRecorder);
+    }
+
+    @Test
+    public void entriesWaitForTheFirstByteOfLazyBodies() throws IOException, JSONException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest("https://har.test/report?q=3"));
+        assertEquals("rendered", TestStreams.readString(response.getData()));
+        response.getData().close();
+        mRecorder.close();
+        assertEquals(1, mRecorder.getWrittenCount());
+
+        FileInputStream in = new FileInputStream(mRecorder.getCurrentFile());
+        JSONObject entry = new JSONObject(TestStreams.readString(in)).getJSONObject("log")
+                .getJSONArray("entries").getJSONObject(0);
+        in.close();
+        assertEquals("https://har.test/report?q=3", entry.getJSONObject("request").getString("url"));
+        assertEquals("3", entry.getJSONObject("request").getJSONArray("queryString").getJSONObject(0)
+                .getString("value"));
+        assertEquals(8, entry.getJSONObject("response").getInt("bodySize"));
+        double wait = entry.getJSONObject("timings").getDouble("wait");
+        assertTrue(String.valueOf(wait), wait >= RENDER_MILLIS);
+    }
+
+    private static JSONObject readHar(File file) throws IOException, JSONException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new JSONObject(TestStreams.readString(in)).getJSONObject("log");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void headersAreEscapedAndUnreadBodiesRecordedOnClose() throws IOException, JSONException {
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("headers.test").clearSubDomain(),
+                new WebViewLocalServer.PathHandler("text/plain", null, null, 200, "OK",
+                        Collections.singletonMap("X-Note", "say \"hi\"\n\u2028")) {
+                    @Override
+                    public InputStream handle(Uri url) {
+                        return TestStreams.stream("unread");
+                    }
+                });
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest("https://headers.test/note")
+                .header("Accept", "text/*"));
+        response.getData().close();
+        mRecorder.close();
+
+        JSONObject entry = readHar(mRecorder.getCurrentFile()).getJSONArray("entries").getJSONObject(0);
+        assertEquals("say \"hi\"\n\u2028", entry.getJSONObject("response").getJSONArray("headers")
+                .getJSONObject(0).getString("value"));
+        assertEquals("text/*", entry.getJSONObject("request").getJSONArray("headers").getJSONObject(0)
+                .getString("value"));
+        assertEquals(0, entry.getJSONObject("response").getInt("bodySize"));
+    }
+
+    @Test
+    public void filesRotatePastTheSizeLimitAndStayValid() throws IOException, JSONException {
+        File directory = mFolder.newFolder();
+        // Every write goes past the limit and rotates the file.
+        HarRecorder recorder = new HarRecorder(directory, "rotating", 1, 3, 64);
+        mServer.setHarRecorder(recorder);
+        int requests = 5;
+        for (int i = 0; i < requests; i++) {
+            WebResourceResponse response = mServer.shouldInterceptRequest(
+                    new TestRequest("https://har.test/page/" + i));
+            response.getData().close();
+        }
+        recorder.close();
+
+        assertEquals(requests, recorder.getWrittenCount() + recorder.getDroppedCount());
+        assertFalse(recorder.getCurrentFile().exists());
+        String[] files = directory.list();
+        Arrays.sort(files);
+        assertTrue(Arrays.toString(files), files.length <= 2);
+        for (String name : files) {
+            assertTrue(name, readHar(new File(directory, name)).getJSONArray("entries").length() > 0);
+        }
+        JSONArray newest = readHar(new File(directory, "rotating.1.har")).getJSONArray("entries");
+        assertEquals("https://har.test/page/" + (requests - 1),
+                newest.getJSONObject(newest.length() - 1).getJSONObject("request").getString("url"));
+    }
+}
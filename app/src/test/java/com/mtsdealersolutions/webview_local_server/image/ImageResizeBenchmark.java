@@ -0,0 +1,81 @@
+package com.mtsdealersolutions.webview_local_server.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * What a thumbnail costs: the bitmap held while decoding a 4000x3000 photo for a 320 pixel
+ * wide variant, with and without <code>inSampleSize</code>, and how long a variant takes to
+ * serve the first time (decode and encode) against from the disk cache.
+ * <p>
+ * The test runtime's codecs are not the device's, so the latencies only compare against each
+ * other. The bitmap sizes are exact.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ImageResizeBenchmark {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void decodeMemoryAndLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        final byte[] photo = ImageResizeHandlerTest.png(4000, 3000);
+
+        BitmapFactory.Options full = new BitmapFactory.Options();
+        Bitmap original = BitmapFactory.decodeStream(new ByteArrayInputStream(photo), null, full);
+        BitmapFactory.Options sampled = new BitmapFactory.Options();
+        sampled.inSampleSize = 8;
+        Bitmap thumbnail = BitmapFactory.decodeStream(new ByteArrayInputStream(photo), null, sampled);
+        Benchmarks.report("decode 4000x3000: bitmap held", String.format(Locale.US, "%d KB (%dx%d)",
+                original.getByteCount() / 1024, original.getWidth(), original.getHeight()));
+        Benchmarks.report("decode with inSampleSize=8: bitmap held", String.format(Locale.US, "%d KB (%dx%d)",
+                thumbnail.getByteCount() / 1024, thumbnail.getWidth(), thumbnail.getHeight()));
+
+        final ImageResizeHandler handler = new ImageResizeHandler(new WebViewLocalServer.PathHandler() {
+            @Override
+            public InputStream handle(Uri url) {
+                return new ByteArrayInputStream(photo);
+            }
+        }, mFolder.newFolder("images"), 64 * 1024 * 1024, "1");
+        final int[] width = {0};
+        Benchmarks.measure("first request: decode, scale and encode", 1, 10, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                // A new width each time, so every run misses the cache.
+                return read(handler.handle(Uri.parse("https://app.test/photo.png?fm=jpeg&w=" + (320 + width[0]++))));
+            }
+        });
+        Benchmarks.measure("later requests: served from the disk cache", 10, 200, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return read(handler.handle(Uri.parse("https://app.test/photo.png?fm=jpeg&w=320")));
+            }
+        });
+        handler.getCache().close();
+    }
+
+    private static long read(InputStream in) throws Exception {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) total += count;
+        in.close();
+        return total;
+    }
+}
@@ -0,0 +1,165 @@
+package com.mtsdealersolutions.webview_local_server.image;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImageResizeHandlerTest {
+
+    private static final String PHOTO = "https://app.test/www/photo.png";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicInteger mSourceOpens = new AtomicInteger();
+    private volatile CountDownLatch mSourceGate = new CountDownLatch(0);
+    private ImageResizeHandler mHandler;
+
+    static byte[] png(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    static int[] size(InputStream image) throws IOException {
+        BufferedImage decoded = ImageIO.read(image);
+        return new int[]{decoded.getWidth(), decoded.getHeight()};
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        final byte[] photo = png(1600, 1200);
+        WebViewLocalServer.PathHandler source = new WebViewLocalServer.PathHandler() {
+            @Override
+            public InputStream handle(Uri url) {
+                mSourceOpens.incrementAndGet();
+                try {
+                    mSourceGate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return url.getPath().equals("/www/photo.png") ? new ByteArrayInputStream(photo) : null;
+            }
+
+            @Override
+            public String getMimeType(Uri url) {
+                return "image/png";
+            }
+        };
+        mHandler = new ImageResizeHandler(source, mFolder.newFolder("images"), 1024 * 1024, "1");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHandler.getCache().close();
+    }
+
+    @Test
+    public void theOriginalIsServedWhileTheVariantIsEncoded() throws Exception {
+        mSourceGate = new CountDownLatch(1);
+        TestRequest request = new TestRequest(PHOTO + "?w=400&fm=jpeg");
+
+        // Returns at once although the source is still blocked.
+        Uri selected = mHandler.selectVariant(request);
+        assertEquals(Uri.parse(PHOTO), selected);
+        assertEquals("image/png", mHandler.getMimeType(selected));
+        mSourceGate.countDown();
+
+        InputStream variant = mHandler.handle(request.getUrl());
+        assertNotNull(variant);
+        int[] size = size(variant);
+        assertEquals(400, size[0]);
+        assertEquals(300, size[1]);
+        assertEquals(request.getUrl(), mHandler.selectVariant(request));
+        assertEquals("image/jpeg", mHandler.getMimeType(request.getUrl()));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneEncode() throws Exception {
+        mSourceGate = new CountDownLatch(1);
+        final Uri url = Uri.parse(PHOTO + "?w=200&fm=jpeg");
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(readers.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws IOException {
+                    return size(mHandler.handle(url));
+                }
+            }));
+        }
+        mHandler.prefetch(url);
+        Thread.sleep(100);
+        mSourceGate.countDown();
+        for (Future<int[]> result : results) assertEquals(200, result.get(5, TimeUnit.SECONDS)[0]);
+        readers.shutdown();
+        // One encode reads the source twice: once for its bounds, once to decode it.
+        assertEquals(2, mSourceOpens.get());
+    }
+
+    @Test
+    public void failedVariantsAreNeverLabelledAsTheVariant() throws Exception {
+        // The source cannot be decoded, so this variant always fails.
+        TestRequest request = new TestRequest("https://app.test/www/missing.png?w=400");
+        assertNull(mHandler.handle(request.getUrl()));
+
+        Uri selected = mHandler.selectVariant(request);
+        assertEquals(Uri.parse("https://app.test/www/missing.png"), selected);
+        assertEquals("image/png", mHandler.getMimeType(selected));
+        assertEquals(0, mHandler.getCache().getEntryCount());
+    }
+
+    @Test
+    public void urlsWithoutParametersPassThrough() throws IOException {
+        TestRequest request = new TestRequest(PHOTO);
+        assertEquals(request.getUrl(), mHandler.selectVariant(request));
+        assertEquals(1600, size(mHandler.handle(request.getUrl()))[0]);
+        assertEquals(0, mHandler.getCache().getEntryCount());
+        // Not an image, the source gets the url with its parameters.
+        assertNull(mHandler.handle(Uri.parse("https://app.test/www/notes.txt?w=1")));
+    }
+
+    @Test
+    public void transparentImagesAreFlattenedForJpeg() {
+        Bitmap transparent = Bitmap.createBitmap(40, 30, Bitmap.Config.ARGB_8888);
+        transparent.setHasAlpha(true);
+        Bitmap flattened = ImageResizeHandler.flatten(transparent);
+        assertFalse(flattened.hasAlpha());
+        assertEquals(40, flattened.getWidth());
+        assertEquals(30, flattened.getHeight());
+    }
+}
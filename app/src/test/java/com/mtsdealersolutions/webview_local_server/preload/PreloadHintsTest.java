@@ -0,0 +1,143 @@
+package com.mtsdealersolutions.webview_local_server.preload;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreloadHintsTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static void load(PreloadHints hints, String document, List<String> resources) {
+        hints.onDocument(document);
+        for (String resource : resources) {
+            hints.onResource(document, resource);
+        }
+    }
+
+    /**
+     * Pages with a fixed core of resources, a few that load on some visits only and the odd
+     * one-off request, loaded in random order across documents.
+     */
+    @Test
+    public void simulatedBrowsingIsPredictedAccurately() {
+        Random random = new Random(42);
+        PreloadHints hints = new PreloadHints(null, "1");
+        String[] documents = new String[8];
+        for (int d = 0; d < documents.length; d++) {
+            documents[d] = "https://app.test/page" + d + ".html";
+        }
+
+        int loads = 2000;
+        for (int i = 0; i < loads; i++) {
+            int d = random.nextInt(documents.length);
+            List<String> session = new ArrayList<>();
+            for (int r = 0; r < 12; r++) {
+                session.add("https://app.test/page" + d + "/core" + r + ".js");
+            }
+            for (int r = 0; r < 3; r++) {
+                // Mostly there, like an image behind a feature flag.
+                if (random.nextInt(10) < 8) session.add("https://app.test/page" + d + "/usual" + r + ".png");
+            }
+            if (random.nextInt(10) == 0) session.add("https://app.test/once/" + i + ".json");
+            load(hints, documents[d], session);
+        }
+
+        assertTrue("precision " + hints.getPrecision(), hints.getPrecision() > 0.9f);
+        assertTrue("recall " + hints.getRecall(), hints.getRecall() > 0.9f);
+        assertTrue(hints.getHitCount() > 0);
+    }
+
+    @Test
+    public void predictionsFollowRequestOrder() {
+        PreloadHints hints = new PreloadHints(null, "1");
+        List<String> resources = Arrays.asList("https://app.test/c.css", "https://app.test/a.js", "https://app.test/b.js");
+        load(hints, "https://app.test/", resources);
+        assertEquals(resources, hints.onDocument("https://app.test/"));
+    }
+
+    @Test
+    public void resourcesThatStopLoadingAgeOut() {
+        PreloadHints hints = new PreloadHints(null, "1");
+        String document = "https://app.test/";
+        List<String> old = Collections.singletonList("https://app.test/old.js");
+        List<String> current = Collections.singletonList("https://app.test/new.js");
+        for (int i = 0; i < 4; i++) load(hints, document, old);
+        for (int i = 0; i < 3; i++) load(hints, document, current);
+        assertEquals(current, hints.onDocument(document));
+    }
+
+    @Test
+    public void documentsAreBounded() {
+        PreloadHints hints = new PreloadHints(null, "1", 2, 48);
+        load(hints, "https://app.test/a", Collections.singletonList("https://app.test/a.js"));
+        load(hints, "https://app.test/b", Collections.singletonList("https://app.test/b.js"));
+        load(hints, "https://app.test/c", Collections.singletonList("https://app.test/c.js"));
+        assertTrue(hints.predict("https://app.test/a").isEmpty());
+    }
+
+    @Test
+    public void savedHintsAreLoadedByTheSameBuildOnly() throws IOException {
+        File file = new File(mFolder.getRoot(), "hints");
+        PreloadHints hints = new PreloadHints(file, "build-1");
+        List<String> resources = Arrays.asList("https://app.test/a.js", "https://cdn.test/lib.js");
+        load(hints, "https://app.test/", resources);
+        hints.onDocument("https://app.test/");
+        hints.save();
+
+        assertEquals(resources, new PreloadHints(file, "build-1").predict("https://app.test/"));
+        assertTrue(new PreloadHints(file, "build-2").predict("https://app.test/").isEmpty());
+    }
+
+    @Test
+    public void urlsLongerThan64KBAreSaved() throws IOException {
+        File file = new File(mFolder.getRoot(), "hints");
+        StringBuilder data = new StringBuilder("data:image/svg+xml,");
+        while (data.length() < 70 * 1024) data.append("%3Csvg%3Eé");
+        String document = "https://app.test/?state=" + data;
+        List<String> resources = Arrays.asList(data.toString(), "https://app.test/a.js");
+
+        PreloadHints hints = new PreloadHints(file, "1");
+        load(hints, document, resources);
+        hints.onDocument(document);
+        hints.save();
+        assertTrue(file.length() > 64 * 1024);
+
+        PreloadHints loaded = new PreloadHints(file, "1");
+        assertEquals(resources, loaded.predict(document));
+    }
+
+    @Test
+    public void corruptFilesAreDiscarded() throws IOException {
+        File file = new File(mFolder.getRoot(), "hints");
+        PreloadHints hints = new PreloadHints(file, "1");
+        load(hints, "https://app.test/", Collections.singletonList("https://app.test/a.js"));
+        hints.onDocument("https://app.test/");
+        hints.save();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // The length of the first document url.
+        raf.seek(17);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+
+        PreloadHints loaded = new PreloadHints(file, "1");
+        assertFalse(loaded.predict("https://app.test/").contains("https://app.test/a.js"));
+    }
+}
@@ -0,0 +1,56 @@
+package com.mtsdealersolutions.webview_local_server.proxy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheControlTest {
+
+    @Test
+    public void privateResponsesAreStoredByThisPrivateCache() {
+        CacheControl cacheControl = CacheControl.parse("private, max-age=60", null, null, 0);
+        assertTrue(cacheControl.isStorable());
+        assertEquals(60, cacheControl.getMaxAgeSeconds());
+    }
+
+    @Test
+    public void noStoreIsNotStored() {
+        assertFalse(CacheControl.parse("no-store", null, null, 0).isStorable());
+    }
+
+    @Test
+    public void sharedMaxAgeIsIgnored() {
+        assertEquals(10, CacheControl.parse("s-maxage=600, max-age=10", null, null, 0).getMaxAgeSeconds());
+        assertEquals(0, CacheControl.parse("s-maxage=600", null, null, 0).getMaxAgeSeconds());
+    }
+
+    @Test
+    public void hugeAgesAreClampedSoMillisecondsDoNotOverflow() {
+        CacheControl cacheControl = CacheControl.parse(
+                "max-age=99999999999999999999, stale-while-revalidate=9223372036854775807", null, null, 0);
+        assertEquals(CacheControl.MAX_DELTA_SECONDS, cacheControl.getMaxAgeSeconds());
+        assertEquals(CacheControl.MAX_DELTA_SECONDS, cacheControl.getStaleWhileRevalidateSeconds());
+        long freshMillis = (cacheControl.getMaxAgeSeconds() + cacheControl.getStaleWhileRevalidateSeconds()) * 1000;
+        assertTrue(freshMillis > 0);
+    }
+
+    @Test
+    public void malformedAgesAreIgnored() {
+        assertEquals(0, CacheControl.parse("max-age=-5", null, null, 0).getMaxAgeSeconds());
+        assertEquals(0, CacheControl.parse("max-age=1e3", null, null, 0).getMaxAgeSeconds());
+    }
+
+    @Test
+    public void expiresIsRelativeToDate() {
+        CacheControl cacheControl = CacheControl.parse(null, "Thu, 01 Jan 2015 00:10:00 GMT",
+                "Thu, 01 Jan 2015 00:00:00 GMT", 0);
+        assertEquals(600, cacheControl.getMaxAgeSeconds());
+    }
+
+    @Test
+    public void noCacheIsNeverFresh() {
+        assertEquals(0, CacheControl.parse("no-cache, max-age=60", null, null, 0).getMaxAgeSeconds());
+    }
+}
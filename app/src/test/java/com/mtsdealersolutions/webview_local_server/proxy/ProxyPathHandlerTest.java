@@ -0,0 +1,158 @@
+package com.mtsdealersolutions.webview_local_server.proxy;
+
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestHttpServer;
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProxyPathHandlerTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestHttpServer mOrigin;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mOrigin != null) mOrigin.close();
+    }
+
+    private ProxyPathHandler proxy(TestHttpServer.Handler origin) throws IOException {
+        mOrigin = new TestHttpServer(origin);
+        return new ProxyPathHandler(mFolder.newFolder(), ProxyPathHandler.DEFAULT_MAX_CACHE_SIZE,
+                mOrigin.getOrigin(), 5000);
+    }
+
+    private static String body(WebResourceResponse response) throws IOException {
+        return TestStreams.readString(response.getData());
+    }
+
+    @Test
+    public void privateResponsesAreServedFromTheCache() throws IOException {
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                return TestHttpServer.Reply.ok("font").header("Cache-Control", "private, max-age=60");
+            }
+        });
+        assertEquals("font", body(proxy.respond(new TestRequest("https://cdn.test/font.woff"))));
+        assertEquals("font", body(proxy.respond(new TestRequest("https://cdn.test/font.woff"))));
+        assertEquals(1, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void hugeMaxAgeStaysFresh() throws IOException {
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                return TestHttpServer.Reply.ok("lib").header("Cache-Control", "max-age=99999999999999999999");
+            }
+        });
+        body(proxy.respond(new TestRequest("https://cdn.test/lib.js")));
+        body(proxy.respond(new TestRequest("https://cdn.test/lib.js")));
+        assertEquals(1, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void variantsAreOnlyServedToMatchingRequests() throws IOException {
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                return TestHttpServer.Reply.ok("text:" + request.header("Accept-Language"))
+                        .header("Cache-Control", "max-age=60").header("Vary", "Accept-Language");
+            }
+        });
+        String url = "https://cdn.test/strings.json";
+        assertEquals("text:en", body(proxy.respond(new TestRequest(url).header("Accept-Language", "en"))));
+        assertEquals("text:fr", body(proxy.respond(new TestRequest(url).header("accept-language", "fr"))));
+        assertEquals(2, mOrigin.getRequestCount());
+        assertEquals("text:fr", body(proxy.respond(new TestRequest(url).header("Accept-Language", "fr"))));
+        assertEquals(2, mOrigin.getRequestCount());
+        assertEquals("text:null", body(proxy.respond(new TestRequest(url))));
+        assertEquals(3, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void redirectsAreFollowed() throws IOException {
+        final String[] origin = new String[1];
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                if (request.path.equals("/old")) {
+                    return TestHttpServer.Reply.status(301).header("Location", "/older");
+                }
+                if (request.path.equals("/older")) {
+                    return TestHttpServer.Reply.status(308).header("Location", origin[0] + "/new");
+                }
+                return TestHttpServer.Reply.ok("moved").header("Cache-Control", "max-age=60");
+            }
+        });
+        origin[0] = mOrigin.getOrigin();
+        WebResourceResponse response = proxy.respond(new TestRequest("https://cdn.test/old"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("moved", body(response));
+    }
+
+    @Test
+    public void endlessRedirectsAreABadGateway() throws IOException {
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                return TestHttpServer.Reply.status(302).header("Location", "/loop");
+            }
+        });
+        assertEquals(502, proxy.respond(new TestRequest("https://cdn.test/loop")).getStatusCode());
+    }
+
+    @Test
+    public void notModifiedRefreshesTheCachedCopy() throws IOException {
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                if ("\"v1\"".equals(request.header("If-None-Match"))) {
+                    return TestHttpServer.Reply.status(304).header("Cache-Control", "max-age=60");
+                }
+                return TestHttpServer.Reply.ok("app").header("ETag", "\"v1\"").header("Cache-Control", "max-age=0");
+            }
+        });
+        assertEquals("app", body(proxy.respond(new TestRequest("https://cdn.test/app.js"))));
+        WebResourceResponse revalidated = proxy.respond(new TestRequest("https://cdn.test/app.js"));
+        assertEquals(200, revalidated.getStatusCode());
+        assertEquals("app", body(revalidated));
+        assertEquals("app", body(proxy.respond(new TestRequest("https://cdn.test/app.js"))));
+        assertEquals(2, mOrigin.getRequestCount());
+        assertEquals("\"v1\"", mOrigin.getRequests().get(1).header("If-None-Match"));
+    }
+
+    @Test
+    public void notModifiedWithoutACachedCopyIsFetchedAgain() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        ProxyPathHandler proxy = proxy(new TestHttpServer.Handler() {
+            @Override
+            public TestHttpServer.Reply handle(TestHttpServer.Request request) {
+                // A confused intermediary answers the first request with 304.
+                if (requests.getAndIncrement() == 0) return TestHttpServer.Reply.status(304);
+                return TestHttpServer.Reply.ok("data");
+            }
+        });
+        WebResourceResponse response = proxy.respond(new TestRequest("https://cdn.test/data.json"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("data", body(response));
+        assertNull(mOrigin.getRequests().get(1).header("If-None-Match"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.mtsdealersolutions.webview_local_server.route;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.android.UriMatcher;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The generated {@link LocalRoutes} against a {@link UriMatcher} holding the same paths, as
+ * the server would register them one host per handler. Urls are parsed, and their segments
+ * split, before timing, the server does that once per request either way.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RouterBenchmark {
+
+    private static final String[] PATHS = {"/api/orders/42", "/api/users/7", "/api/users/7/avatar",
+            "/static/app.js", "/slow", "/missing/page"};
+
+    @Test
+    public void generatedRouterAgainstUriMatcher() throws Exception {
+        Benchmarks.assumeEnabled();
+        final LocalRoutes routes = new LocalRoutes();
+        final UriMatcher matcher = new UriMatcher(null);
+        // UriMatcher tries paths in the order they were added, longer paths go first so it
+        // matches what the generated router does.
+        List<String> paths = new ArrayList<>(routes.getRoutes());
+        Collections.sort(paths, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        for (String route : paths) {
+            matcher.addURI("https", "bench.test", route, routes.route(Uri.parse("https://bench.test"
+                    + route.replace("**", "x").replace("*", "x"))));
+        }
+        final Uri[] urls = new Uri[PATHS.length];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = Uri.parse("https://bench.test" + PATHS[i]);
+            urls[i].getPathSegments();
+        }
+        for (int i = 0; i < urls.length; i++) {
+            if (routes.route(urls[i]) != matcher.match(urls[i])) throw new AssertionError(PATHS[i]);
+        }
+
+        final int lookups = 10000;
+        // Alternated, so neither gets all the late JIT work; compare the later rounds.
+        for (int round = 1; round <= 3; round++) {
+            double uriMatcher = Benchmarks.measure("round " + round + ": UriMatcher, " + lookups + " lookups", 50, 200,
+                    new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            Object last = null;
+                            for (int i = 0; i < lookups; i++) {
+                                synchronized (matcher) {
+                                    last = matcher.match(urls[i % urls.length]);
+                                }
+                            }
+                            return last;
+                        }
+                    });
+            double generated = Benchmarks.measure("round " + round + ": LocalRoutes, " + lookups + " lookups", 50, 200,
+                    new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            WebViewLocalServer.PathHandler last = null;
+                            for (int i = 0; i < lookups; i++) {
+                                last = routes.route(urls[i % urls.length]);
+                            }
+                            return last;
+                        }
+                    });
+            Benchmarks.report("round " + round + ": UriMatcher per lookup", uriMatcher / lookups);
+            Benchmarks.report("round " + round + ": LocalRoutes per lookup", generated / lookups);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.mtsdealersolutions.webview_local_server.route;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+import com.mtsdealersolutions.webview_local_server.cors.CorsPolicy;
+import com.mtsdealersolutions.webview_local_server.deadline.DeadlineFallback;
+import com.mtsdealersolutions.webview_local_server.transform.HtmlTransformer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Serves the {@link LocalRoutes} the processor generates from the handlers below.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RouterPathHandlerTest {
+
+    @LocalRoute("/api/**")
+    public static class ApiHandler extends WebViewLocalServer.PathHandler {
+        public ApiHandler() {
+            super("application/json", "ISO-8859-1", null, 202, "Accepted", null);
+        }
+
+        @Override
+        public InputStream handle(Uri url) {
+            return TestStreams.stream("{\"api\":\"" + url.getPath() + "\"}");
+        }
+    }
+
+    @LocalRoute({"/api/users/*", "/api/users/*/avatar"})
+    public static class UserHandler extends WebViewLocalServer.PathHandler {
+        @Override
+        public InputStream handle(Uri url) {
+            return TestStreams.stream("user " + url.getPathSegments().get(2) + " " + url.getLastPathSegment());
+        }
+    }
+
+    @LocalRoute("/static/*")
+    public static class StaticHandler extends WebViewLocalServer.PathHandler {
+        public StaticHandler() {
+            super("text/html", null, null, 200, "OK", null);
+            setCorsPolicy(new CorsPolicy.Builder().setAllowedOrigins("https://static.test").build());
+            addHtmlTransformer(new HtmlTransformer() {
+                @Override
+                public String afterStartTag(String tagName) {
+                    return "body".equals(tagName) ? "<i>static</i>" : null;
+                }
+            });
+        }
+
+        @Override
+        public InputStream handle(Uri url) {
+            return TestStreams.stream("<html><body>" + url.getLastPathSegment() + "</body></html>");
+        }
+    }
+
+    @LocalRoute("/slow")
+    public static class SlowHandler extends WebViewLocalServer.PathHandler {
+        public SlowHandler() {
+            setDeadline(100, DeadlineFallback.serviceUnavailable(1));
+        }
+
+        @Override
+        public InputStream handle(Uri url) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return TestStreams.stream("late");
+        }
+    }
+
+    /**
+     * Counts how often the server asks for a route.
+     */
+    private static class CountingRouter extends RouterPathHandler {
+        final LocalRoutes mRoutes = new LocalRoutes();
+        final AtomicInteger mLookups = new AtomicInteger();
+
+        @Override
+        protected WebViewLocalServer.PathHandler route(List<String> segments) {
+            mLookups.incrementAndGet();
+            return mRoutes.route(segments);
+        }
+
+        @Override
+        public List<String> getRoutes() {
+            return mRoutes.getRoutes();
+        }
+
+        @Override
+        public List<WebViewLocalServer.PathHandler> getHandlers() {
+            return mRoutes.getHandlers();
+        }
+    }
+
+    private WebViewLocalServer mServer;
+    private CountingRouter mRouter;
+
+    @Before
+    public void setUp() {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        mRouter = new CountingRouter();
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("routes.test").clearSubDomain()
+                .setCorsPolicy(new CorsPolicy.Builder().setAllowedOrigins("https://host.test").build()), mRouter);
+    }
+
+    private WebResourceResponse get(String path) {
+        return mServer.shouldInterceptRequest(new TestRequest("https://routes.test" + path));
+    }
+
+    @Test
+    public void theGeneratedRouterMatchesLiteralsBeforeWildcards() throws IOException {
+        assertEquals("[/api/**, /api/users/*, /api/users/*/avatar, /slow, /static/*]",
+                String.valueOf(new java.util.TreeSet<>(mRouter.getRoutes())));
+        assertEquals(4, mRouter.getHandlers().size());
+        assertEquals("user 7 7", TestStreams.readString(get("/api/users/7").getData()));
+        assertEquals("user 7 avatar", TestStreams.readString(get("/api/users/7/avatar").getData()));
+        assertEquals("{\"api\":\"/api/users/7/posts\"}", TestStreams.readString(get("/api/users/7/posts").getData()));
+        assertNull(get("/elsewhere"));
+        assertNull(get("/static/a/b"));
+    }
+
+    @Test
+    public void routedHandlersAnswerWithTheirOwnStatusAndEncoding() throws IOException {
+        WebResourceResponse response = get("/api/orders");
+        assertEquals(202, response.getStatusCode());
+        assertEquals("Accepted", response.getReasonPhrase());
+        assertEquals("ISO-8859-1", response.getEncoding());
+        assertEquals("application/json", response.getMimeType());
+        assertEquals("{\"api\":\"/api/orders\"}", TestStreams.readString(response.getData()));
+    }
+
+    @Test
+    public void theRouteIsResolvedOncePerRequest() throws IOException {
+        TestStreams.readString(get("/api/users/7/avatar").getData());
+        assertEquals(1, mRouter.mLookups.get());
+        TestStreams.readString(get("/static/page.html").getData());
+        assertEquals(2, mRouter.mLookups.get());
+    }
+
+    @Test
+    public void routedHandlersKeepTheirHtmlTransformers() throws IOException {
+        assertEquals("<html><body><i>static</i>page.html</body></html>",
+                TestStreams.readString(get("/static/page.html").getData()));
+    }
+
+    @Test
+    public void routedHandlersKeepTheirCorsPolicyAndGetTheHostsOtherwise() {
+        WebResourceResponse own = mServer.shouldInterceptRequest(new TestRequest("https://routes.test/static/page.html")
+                .header("Origin", "https://static.test"));
+        assertEquals("https://static.test", own.getResponseHeaders().get("Access-Control-Allow-Origin"));
+        WebResourceResponse refused = mServer.shouldInterceptRequest(new TestRequest("https://routes.test/static/page.html")
+                .header("Origin", "https://host.test"));
+        assertNull(refused.getResponseHeaders().get("Access-Control-Allow-Origin"));
+
+        WebResourceResponse host = mServer.shouldInterceptRequest(new TestRequest("https://routes.test/api/orders")
+                .header("Origin", "https://host.test"));
+        assertEquals("https://host.test", host.getResponseHeaders().get("Access-Control-Allow-Origin"));
+        WebResourceResponse preflight = mServer.shouldInterceptRequest(new TestRequest("OPTIONS",
+                "https://routes.test/static/page.html").header("Origin", "https://static.test")
+                .header("Access-Control-Request-Method", "GET"));
+        assertEquals("https://static.test", preflight.getResponseHeaders().get("Access-Control-Allow-Origin"));
+    }
+
+    @Test
+    public void routedHandlersKeepTheirDeadline() {
+        long start = System.nanoTime();
+        WebResourceResponse response = get("/slow");
+        assertEquals(503, response.getStatusCode());
+        assertTrue((System.nanoTime() - start) / 1000000 < 500);
+        assertEquals(1, mServer.getHandlerWatchdog().getTimeoutCount());
+    }
+}
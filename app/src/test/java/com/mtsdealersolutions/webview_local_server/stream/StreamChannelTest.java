@@ -0,0 +1,111 @@
+package com.mtsdealersolutions.webview_local_server.stream;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamChannelTest {
+
+    @Test
+    public void blockingWritesPassEveryByteThroughASmallBuffer() throws Exception {
+        final StreamChannel channel = new StreamChannel(64, StreamChannel.Backpressure.BLOCK);
+        final byte[] expected = new byte[100000];
+        for (int i = 0; i < expected.length; i++) expected[i] = (byte) i;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int off = 0; off < expected.length; off += 1000) {
+                        channel.getWriter().write(expected, off, 1000);
+                    }
+                    channel.getWriter().close();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        producer.start();
+        assertArrayEquals(expected, TestStreams.readFully(channel.getReader()));
+        producer.join();
+        assertEquals(expected.length, channel.getWrittenBytes());
+        assertEquals(0, channel.getDroppedBytes());
+    }
+
+    @Test
+    public void droppedWritesAreReported() throws IOException {
+        StreamChannel channel = new StreamChannel(10, StreamChannel.Backpressure.DROP);
+        StreamChannel.Writer out = channel.getWriter();
+        assertTrue(out.write("12345678"));
+        assertFalse(out.write("abc"));
+        assertFalse(out.offer(new byte[3], 0, 3));
+        try {
+            out.write(new byte[3]);
+            fail("dropped bytes silently");
+        } catch (StreamChannel.OverflowException expected) {
+        }
+        try {
+            out.write(new byte[20], 0, 20);
+            fail("dropped a write larger than the buffer silently");
+        } catch (StreamChannel.OverflowException expected) {
+        }
+        assertEquals(29, channel.getDroppedBytes());
+
+        // Still usable once the page caught up.
+        InputStream in = channel.getReader();
+        assertEquals('1', in.read());
+        out.write(new byte[]{'9', '0', '!'});
+        out.close();
+        assertEquals("2345678" + "90!", TestStreams.readString(in));
+    }
+
+    @Test
+    public void closingTheReaderCancelsTheWriter() throws Exception {
+        final StreamChannel channel = new StreamChannel(4, StreamChannel.Backpressure.BLOCK);
+        final AtomicReference<IOException> thrown = new AtomicReference<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) channel.getWriter().write(new byte[4]);
+                } catch (IOException e) {
+                    thrown.set(e);
+                }
+            }
+        });
+        producer.start();
+        channel.getReader().read(new byte[2]);
+        channel.getReader().close();
+        producer.join(5000);
+        assertTrue(thrown.get() instanceof StreamChannel.CancelledException);
+        assertTrue(channel.isCancelled());
+    }
+
+    @Test
+    public void failuresReachTheReaderAfterBufferedBytes() throws IOException {
+        StreamChannel channel = new StreamChannel();
+        channel.getWriter().write("partial");
+        channel.fail(new IOException("producer failed"));
+        InputStream in = channel.getReader();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) read.write(buffer, 0, count);
+            fail("the failure was not reported");
+        } catch (IOException expected) {
+            assertEquals("producer failed", expected.getMessage());
+        }
+        assertEquals("partial", read.toString("UTF-8"));
+    }
+}
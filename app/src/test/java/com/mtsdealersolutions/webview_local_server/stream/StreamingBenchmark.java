@@ -0,0 +1,86 @@
+package com.mtsdealersolutions.webview_local_server.stream;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Streaming rows to the page against handing them over as one String, the way an
+ * <code>addJavascriptInterface</code> method returns them. The page can only start on the
+ * String once all of it was built and converted, the stream delivers the first rows at once.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StreamingBenchmark {
+
+    private static final int ROWS = 100000;
+    private static final Uri URL = Uri.parse("https://app.test/data/rows");
+
+    private static String row(int i) {
+        return "{\"id\":" + i + ",\"name\":\"Item " + i + "\",\"price\":" + (i * 7 % 1000) + ".99}\n";
+    }
+
+    @Test
+    public void streamAgainstJavascriptInterfaceString() throws Exception {
+        Benchmarks.assumeEnabled();
+        final long[] firstByte = new long[1];
+
+        double whole = Benchmarks.measure("JS interface: build String + marshal " + ROWS + " rows", 3, 20,
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        StringBuilder json = new StringBuilder();
+                        for (int i = 0; i < ROWS; i++) json.append(row(i));
+                        // The bridge copies the returned String into the page's heap.
+                        return json.toString().getBytes("UTF-8");
+                    }
+                });
+
+        final StreamingPathHandler handler = new StreamingPathHandler("application/x-ndjson") {
+            @Override
+            protected void produce(Uri url, StreamChannel.Writer out) throws IOException {
+                for (int i = 0; i < ROWS; i++) out.write(row(i));
+            }
+        };
+        double streamed = Benchmarks.measure("StreamingPathHandler: stream " + ROWS + " rows", 3, 20,
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        long start = System.nanoTime();
+                        InputStream body = handler.handle(URL);
+                        byte[] buffer = new byte[16 * 1024];
+                        long total = 0;
+                        int count = body.read(buffer);
+                        firstByte[0] = System.nanoTime() - start;
+                        while (count != -1) {
+                            total += count;
+                            count = body.read(buffer);
+                        }
+                        body.close();
+                        return total;
+                    }
+                });
+
+        Benchmarks.report("JS interface: time until the page can read", whole);
+        Benchmarks.report("StreamingPathHandler: time to first byte", firstByte[0]);
+        Benchmarks.report("JS interface: payload held at once",
+                String.format(Locale.US, "%d KB", payloadBytes() / 1024));
+        Benchmarks.report("StreamingPathHandler: payload held at once",
+                String.format(Locale.US, "%d KB", StreamChannel.DEFAULT_CAPACITY / 1024));
+        Benchmarks.sSink = streamed;
+    }
+
+    private static long payloadBytes() {
+        long bytes = 0;
+        for (int i = 0; i < ROWS; i++) bytes += row(i).length();
+        return bytes;
+    }
+}
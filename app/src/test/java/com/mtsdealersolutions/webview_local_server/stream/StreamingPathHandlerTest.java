@@ -0,0 +1,125 @@
+package com.mtsdealersolutions.webview_local_server.stream;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class StreamingPathHandlerTest {
+
+    private static final Uri URL = Uri.parse("https://app.test/data/rows");
+
+    @Test
+    public void theProducerWritesTheBody() throws IOException {
+        StreamingPathHandler handler = new StreamingPathHandler("application/x-ndjson") {
+            @Override
+            protected void produce(Uri url, StreamChannel.Writer out) throws IOException {
+                for (int i = 0; i < 1000; i++) out.write("{\"row\":" + i + "}\n");
+            }
+        };
+        String body = TestStreams.readString(handler.handle(URL));
+        assertTrue(body.startsWith("{\"row\":0}\n"));
+        assertTrue(body.endsWith("{\"row\":999}\n"));
+        assertEquals("no-store", handler.getResponseHeaders().get("Cache-Control"));
+    }
+
+    @Test
+    public void droppedBytesAreReportedWhenTheProducerReturns() throws Exception {
+        final AtomicLong dropped = new AtomicLong(-1);
+        final CountDownLatch reported = new CountDownLatch(1);
+        StreamingPathHandler handler = new StreamingPathHandler("application/x-ndjson", 16,
+                StreamChannel.Backpressure.DROP, null) {
+            @Override
+            protected void produce(Uri url, StreamChannel.Writer out) throws IOException {
+                // Nobody reads until the producer returned, everything past 16 bytes is dropped.
+                for (int i = 0; i < 10; i++) out.write("0123456789\n");
+            }
+
+            @Override
+            protected void onDropped(Uri url, long droppedBytes) {
+                dropped.set(droppedBytes);
+                reported.countDown();
+            }
+        };
+        InputStream body = handler.handle(URL);
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+        assertEquals(99, dropped.get());
+        assertEquals("0123456789\n", TestStreams.readString(body));
+    }
+
+    @Test
+    public void theSharedPoolRejectsStreamsPastItsBound() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        StreamingPathHandler handler = new StreamingPathHandler("text/plain") {
+            @Override
+            protected void produce(Uri url, StreamChannel.Writer out) throws IOException {
+                started.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                out.write("done");
+            }
+        };
+        int streams = StreamingPathHandler.MAX_SHARED_PRODUCERS + 4;
+        InputStream[] bodies = new InputStream[streams];
+        for (int i = 0; i < streams; i++) bodies[i] = handler.handle(URL);
+        Thread.sleep(200);
+        assertTrue("started " + started.get(), started.get() <= StreamingPathHandler.MAX_SHARED_PRODUCERS);
+        release.countDown();
+
+        int served = 0;
+        int rejected = 0;
+        for (InputStream body : bodies) {
+            try {
+                assertEquals("done", TestStreams.readString(body));
+                served++;
+            } catch (IOException e) {
+                assertEquals("Too many concurrent streams", e.getMessage());
+                rejected++;
+            }
+        }
+        assertEquals(started.get(), served);
+        assertTrue("rejected " + rejected, rejected >= 4);
+    }
+
+    @Test
+    public void aRejectingExecutorFailsTheBody() {
+        StreamingPathHandler handler = new StreamingPathHandler("text/plain", 1024,
+                StreamChannel.Backpressure.BLOCK, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }) {
+            @Override
+            protected void produce(Uri url, StreamChannel.Writer out) {
+                fail("rejected producers do not run");
+            }
+        };
+        try {
+            handler.handle(URL).read();
+            fail("read a rejected stream");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.utils.BufferPool;
+import com.mtsdealersolutions.webview_local_server.utils.PooledByteArrayOutputStream;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Compiled template rendering against rendering with <code>String.replace</code>.
+ */
+public class TemplateBenchmark {
+
+    @Test
+    public void compiledAgainstStringReplace() throws Exception {
+        Benchmarks.assumeEnabled();
+        StringBuilder page = new StringBuilder("<html><head><title>{{title}}</title></head><body>");
+        for (int i = 0; i < 200; i++) {
+            page.append("<section><h2>Section ").append(i).append("</h2><p>Lorem ipsum dolor sit amet, ")
+                    .append("consectetur adipiscing elit.</p>");
+            if (i % 20 == 0) page.append("<p>{{user}} - {{date}}</p>");
+        }
+        page.append("<script>var config = {{{config}}};</script></body></html>");
+        final String source = page.toString();
+        final String[] names = {"title", "user", "date", "config"};
+        final String[] values = {"Dashboard", "Jane", "2020-01-01", "{\"a\":1,\"b\":[1,2,3]}"};
+
+        final Template template = Template.compile(source);
+        final BufferPool pool = new BufferPool();
+        final TemplateValues templateValues = new TemplateValues() {
+            @Override
+            public CharSequence getValue(String name, Uri url) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(name)) return values[i];
+                }
+                return null;
+            }
+        };
+
+        Benchmarks.measure("String.replace render + UTF-8 encode", 2000, 20000, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                String html = source;
+                for (int i = 0; i < names.length; i++) {
+                    html = html.replace("{{{" + names[i] + "}}}", values[i]).replace("{{" + names[i] + "}}", values[i]);
+                }
+                return html.getBytes("UTF-8");
+            }
+        });
+        Benchmarks.measure("compiled template render", 2000, 20000, new Callable<Object>() {
+            @Override
+            public Object call() {
+                PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(pool);
+                template.render(out, templateValues, null);
+                int size = out.size();
+                out.recycle();
+                return size;
+            }
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TemplateCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class CountingSource implements TemplateSource {
+        final AtomicInteger versionChecks = new AtomicInteger();
+        final AtomicInteger opens = new AtomicInteger();
+        volatile long version = 1;
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            opens.incrementAndGet();
+            return TestStreams.stream("<p>" + path + " v" + version + "</p>");
+        }
+
+        @Override
+        public long getVersion(String path) {
+            versionChecks.incrementAndGet();
+            return version;
+        }
+    }
+
+    @Test
+    public void cachedTemplatesAreServedWithoutAskingTheSource() throws IOException {
+        CountingSource source = new CountingSource();
+        TemplateCache cache = new TemplateCache(source, 60000);
+        Template first = cache.get("a.html");
+        for (int i = 0; i < 100; i++) {
+            assertSame(first, cache.get("a.html"));
+        }
+        assertEquals(1, source.versionChecks.get());
+        assertEquals(1, source.opens.get());
+    }
+
+    @Test
+    public void changedSourcesAreRecompiledOnceTheIntervalPassed() throws IOException {
+        CountingSource source = new CountingSource();
+        TemplateCache cache = new TemplateCache(source, 0);
+        Template first = cache.get("a.html");
+        assertSame(first, cache.get("a.html"));
+        assertEquals(1, source.opens.get());
+
+        source.version = 2;
+        Template second = cache.get("a.html");
+        assertNotSame(first, second);
+        assertEquals(2, source.opens.get());
+        assertEquals(3, source.versionChecks.get());
+    }
+
+    @Test
+    public void assetTemplatesAreNeverRevalidated() throws IOException {
+        final AtomicInteger versionChecks = new AtomicInteger();
+        TemplateCache cache = new TemplateCache(new TemplateCache.AssetSource(null) {
+            @Override
+            public InputStream open(String path) {
+                return TestStreams.stream("asset");
+            }
+
+            @Override
+            public long getVersion(String path) {
+                versionChecks.incrementAndGet();
+                return 0;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            cache.get("a.html");
+        }
+        assertEquals(1, versionChecks.get());
+    }
+
+    @Test
+    public void trimmingDropsTheLeastRecentlyUsedTemplates() throws IOException {
+        CountingSource source = new CountingSource();
+        TemplateCache cache = new TemplateCache(source, TemplateCache.NEVER_REVALIDATE);
+        cache.get("a.html");
+        long templateSize = cache.getSizeBytes();
+        cache.get("b.html");
+        cache.get("c.html");
+        cache.get("a.html");
+
+        cache.trimToSize(2 * templateSize);
+        assertEquals(2, cache.size());
+        cache.get("a.html");
+        cache.get("c.html");
+        assertEquals(3, source.opens.get());
+        cache.get("b.html");
+        assertEquals(4, source.opens.get());
+    }
+
+    @Test
+    public void fileSourcesStayInTheirDirectory() throws IOException {
+        File directory = mFolder.newFolder("templates");
+        write(new File(directory, "page.html"), "<p>page</p>");
+        write(mFolder.newFile("secret.xml"), "<secret/>");
+        TemplateCache cache = new TemplateCache(new TemplateCache.FileSource(directory));
+
+        cache.get("page.html");
+        assertEquals(1, cache.size());
+        for (String path : new String[]{"../secret.xml", "sub/../../secret.xml",
+                URLDecoder.decode("..%2Fsecret.xml", "UTF-8"), "../templates"}) {
+            try {
+                cache.get(path);
+                fail(path + " was read");
+            } catch (FileNotFoundException expected) {
+            }
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(TestStreams.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void staysWithinItsMaximum() throws IOException {
+        TemplateCache cache = new TemplateCache(new CountingSource(), TemplateCache.NEVER_REVALIDATE, 200);
+        for (int i = 0; i < 50; i++) {
+            cache.get("page" + i + ".html");
+            assertTrue(cache.getSizeBytes() <= 200);
+        }
+    }
+
+    @Test
+    public void trimDropsTemplates() throws IOException {
+        TemplateCache cache = new TemplateCache(new CountingSource(), TemplateCache.NEVER_REVALIDATE);
+        cache.get("a.html");
+        cache.get("b.html");
+        cache.trimToSize(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+    }
+}
@@ -0,0 +1,59 @@
+package com.mtsdealersolutions.webview_local_server.template;
+
+import android.net.Uri;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.utils.BufferPool;
+import com.mtsdealersolutions.webview_local_server.utils.PooledByteArrayOutputStream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TemplateTest {
+
+    static String render(String source, final Map<String, String> values) throws IOException {
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(new BufferPool());
+        Template.compile(source).render(out, new TemplateValues() {
+            @Override
+            public CharSequence getValue(String name, Uri url) {
+                return values.get(name);
+            }
+        }, null);
+        return TestStreams.readString(out.toInputStream());
+    }
+
+    @Test
+    public void escapesValuesUnlessRaw() throws IOException {
+        Map<String, String> values = new HashMap<>();
+        values.put("title", "<b>\"Tom\" & 'Jerry'</b>");
+        values.put("config", "{\"a\":\"<x>\"}");
+        assertEquals("<h1>&lt;b&gt;&quot;Tom&quot; &amp; &#39;Jerry&#39;&lt;/b&gt;</h1><script>var c = {\"a\":\"<x>\"};</script>",
+                render("<h1>{{ title }}</h1><script>var c = {{{config}}};</script>", values));
+    }
+
+    @Test
+    public void missingValuesAndUnclosedTagsAreWrittenAsIs() throws IOException {
+        assertEquals("a  b {{open", render("a {{missing}} b {{open", new HashMap<String, String>()));
+    }
+
+    @Test
+    public void encodesNonAsciiLikeStringGetBytes() throws IOException {
+        Map<String, String> values = new HashMap<>();
+        values.put("v", "é€😀");
+        assertEquals("é€😀", render("{{v}}", values));
+    }
+
+    @Test
+    public void loneSurrogatesBecomeReplacementCharacters() throws IOException {
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(new BufferPool());
+        out.writeUtf8("a\ud83db\ude00", false);
+        assertArrayEquals(new byte[]{'a', (byte) 0xef, (byte) 0xbf, (byte) 0xbd, 'b', (byte) 0xef, (byte) 0xbf, (byte) 0xbd},
+                TestStreams.readFully(out.toInputStream()));
+    }
+}
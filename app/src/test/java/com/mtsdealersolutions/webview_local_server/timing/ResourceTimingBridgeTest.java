@@ -0,0 +1,109 @@
+package com.mtsdealersolutions.webview_local_server.timing;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ResourceTimingBridgeTest {
+
+    private static final long RENDER_MILLIS = 200;
+    private static final String PAGE = "https://timing.test/index.html";
+
+    private WebViewLocalServer mServer;
+    private ResourceTimingBridge mBridge;
+
+    @Before
+    public void setUp() {
+        mServer = new WebViewLocalServer(RuntimeEnvironment.application);
+        mBridge = new ResourceTimingBridge();
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("timing.test").clearSubDomain()
+                .setUrlVirtualPath("__timing"), mBridge);
+        mServer.createHost(new WebViewLocalServer.ResBuilder().setDomain("timing.test").clearSubDomain()
+                .setUrlVirtualPath("reports"), new WebViewLocalServer.PathHandler("text/plain", null, null, 200,
+                "OK", null) {
+            @Override
+            public InputStream handle(Uri url) {
+                // Only runs once the body is read, after the response was returned.
+                try {
+                    Thread.sleep(RENDER_MILLIS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return TestStreams.stream("rendered");
+            }
+        });
+        mServer.setResourceTimingBridge(mBridge);
+    }
+
+    private static long requestId(WebResourceResponse response) {
+        String serverTiming = response.getResponseHeaders().get("Server-Timing");
+        assertTrue(serverTiming, serverTiming.startsWith("lsrv;desc=\""));
+        return Long.parseLong(serverTiming.substring(11, serverTiming.length() - 1));
+    }
+
+    private static String row(long id, String url) {
+        return (id < 0 ? "" : String.valueOf(id)) + "\t" + url + "\tfetch\t10\t11\t300\t320\t8";
+    }
+
+    @Test
+    public void serverTimingHasNoDurationBeforeTheBodyIsOpened() throws IOException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest("https://timing.test/reports/q3"));
+        String serverTiming = response.getResponseHeaders().get("Server-Timing");
+        assertFalse(serverTiming, serverTiming.contains("dur"));
+        assertEquals("*", response.getResponseHeaders().get("Timing-Allow-Origin"));
+        assertEquals("rendered", TestStreams.readString(response.getData()));
+    }
+
+    @Test
+    public void theReportCarriesTheTimeToTheFirstByte() throws IOException {
+        WebResourceResponse response = mServer.shouldInterceptRequest(new TestRequest("https://timing.test/reports/q3"));
+        long id = requestId(response);
+        assertEquals("rendered", TestStreams.readString(response.getData()));
+        response.getData().close();
+
+        mBridge.report(PAGE, "1", row(id, "https://timing.test/reports/q3"));
+        PageReport.ResourceTiming timing = mBridge.getPageReport(PAGE).getResources().get(0);
+        assertTrue(timing.isMatched());
+        assertEquals(id, timing.getRequestId());
+        assertTrue(String.valueOf(timing.getServerHandlerMillis()), timing.getServerHandlerMillis() < RENDER_MILLIS);
+        assertTrue(String.valueOf(timing.getServerFirstByteMillis()),
+                timing.getServerFirstByteMillis() >= RENDER_MILLIS);
+        assertTrue(timing.getServerCloseMillis() >= timing.getServerFirstByteMillis());
+        assertEquals(8, timing.getServerBytes());
+        assertEquals(200, timing.getStatus());
+    }
+
+    @Test
+    public void entriesWithoutAnIdAreMatchedByUrl() throws IOException {
+        WebResourceResponse first = mServer.shouldInterceptRequest(new TestRequest("https://timing.test/reports/q4"));
+        TestStreams.readString(first.getData());
+        WebResourceResponse latest = mServer.shouldInterceptRequest(new TestRequest("https://timing.test/reports/q4"));
+        TestStreams.readString(latest.getData());
+
+        mBridge.report(PAGE, "1", row(-1, "https://timing.test/reports/q4") + "\n"
+                + row(-1, "https://elsewhere.test/font.woff2"));
+        PageReport report = mBridge.getPageReport(PAGE);
+        assertEquals(requestId(latest), report.getResources().get(0).getRequestId());
+        assertFalse(report.getResources().get(1).isMatched());
+
+        mBridge.report(PAGE, "2", row(requestId(first), "https://timing.test/reports/q4"));
+        assertEquals(1, mBridge.getPageReport(PAGE).getResources().size());
+    }
+}
@@ -0,0 +1,60 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import com.mtsdealersolutions.webview_local_server.Benchmarks;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Throughput of the streaming html rewrite on a multi-MB document, against reading it as is.
+ */
+public class HtmlTransformBenchmark {
+
+    @Test
+    public void multiMegabyteDocument() throws Exception {
+        Benchmarks.assumeEnabled();
+        StringBuilder html = new StringBuilder("<!doctype html><html><head><title>t</title></head><body>");
+        int i = 0;
+        while (html.length() < 4 * 1024 * 1024) {
+            html.append("<div class=\"row r").append(i).append("\"><a href=\"/item/").append(i)
+                    .append("\">Item ").append(i).append("</a><!-- c --><img src=\"/i/").append(i).append(".png\"></div>");
+            if (i++ % 50 == 0) html.append("<script>track(").append(i).append(");</script>");
+        }
+        html.append("</body></html>");
+        final byte[] body = html.toString().getBytes(TestStreams.UTF_8);
+        final List<HtmlTransformer> transformers = Arrays.asList(
+                HeadInjectionTransformer.script("/boot.js"), new ScriptNonceTransformer().forDocument(null));
+        final byte[] buffer = new byte[8192];
+
+        double plain = Benchmarks.measure("read 4MB html", 5, 20, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return drain(new ByteArrayInputStream(body), buffer);
+            }
+        });
+        double transformed = Benchmarks.measure("transform 4MB html", 5, 20, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return drain(new HtmlTransformInputStream(new ByteArrayInputStream(body), transformers, "UTF-8"), buffer);
+            }
+        });
+        Benchmarks.report("transform throughput", String.format(Locale.US, "%.0f MB/s (plain read %.0f MB/s)",
+                body.length / transformed * 1000, body.length / plain * 1000));
+    }
+
+    private static long drain(InputStream in, byte[] buffer) throws Exception {
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            total += count;
+        }
+        return total;
+    }
+}
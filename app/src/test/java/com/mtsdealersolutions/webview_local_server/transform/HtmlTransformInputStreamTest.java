@@ -0,0 +1,92 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class HtmlTransformInputStreamTest {
+
+    private static final HtmlTransformer NONCE = new HtmlTransformer() {
+        @Override
+        public String getExtraAttributes(String tagName) {
+            return "script".equals(tagName) ? "nonce=\"n\"" : null;
+        }
+    };
+
+    private static String transform(String html, HtmlTransformer... transformers) throws IOException {
+        return TestStreams.readString(new HtmlTransformInputStream(TestStreams.stream(html),
+                Arrays.asList(transformers), "UTF-8"));
+    }
+
+    @Test
+    public void injectsAfterHeadAndAddsAttributes() throws IOException {
+        assertEquals("<html><HEAD lang=en><base href=\"/a/\"><script src=x nonce=\"n\"></script></HEAD></html>",
+                transform("<html><HEAD lang=en><script src=x></script></HEAD></html>",
+                        HeadInjectionTransformer.baseHref("/a/"), NONCE));
+    }
+
+    @Test
+    public void leavesCommentsAndScriptTextAlone() throws IOException {
+        String html = "<!-- <head> <script> --><script>var s = \"<head><script>\";</script><head></head>";
+        assertEquals("<!-- <head> <script> --><script nonce=\"n\">var s = \"<head><script>\";</script><head><i></i></head>",
+                transform(html, new HeadInjectionTransformer("<i></i>"), NONCE));
+    }
+
+    @Test
+    public void selfClosingAndQuotedAttributes() throws IOException {
+        assertEquals("<script data-x=\"a>b\" nonce=\"n\"/>", transform("<script data-x=\"a>b\" />", NONCE));
+        assertEquals("<script src=x nonce=\"n\"></script><script nonce=\"n\">",
+                transform("<script src=x ></script><script>", NONCE));
+    }
+
+    @Test
+    public void abruptlyClosedEmptyCommentsEndTheComment() throws IOException {
+        assertEquals("<!--><head><i></i></head>", transform("<!--><head></head>", new HeadInjectionTransformer("<i></i>")));
+        assertEquals("<!---><script nonce=\"n\"></script>", transform("<!---><script></script>", NONCE));
+        assertEquals("<!-- a > b --><script nonce=\"n\"></script>", transform("<!-- a > b --><script></script>", NONCE));
+    }
+
+    @Test
+    public void sameOutputWhateverTheReadSizes() throws IOException {
+        StringBuilder html = new StringBuilder("<html><head></head><body>");
+        for (int i = 0; i < 2000; i++) {
+            html.append("<p class='c").append(i).append("'>é ").append(i).append("</p><script>f(").append(i).append(")</script>");
+        }
+        html.append("</body></html>");
+        String expected = transform(html.toString(), HeadInjectionTransformer.script("/boot.js"), NONCE);
+
+        // A source returning one byte at a time splits every tag across reads.
+        InputStream trickle = new FilterInputStream(TestStreams.stream(html.toString())) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        InputStream in = new HtmlTransformInputStream(trickle,
+                Arrays.asList(HeadInjectionTransformer.script("/boot.js"), NONCE), "UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        assertEquals(expected, new String(out.toByteArray(), TestStreams.UTF_8));
+    }
+
+    @Test
+    public void withoutMatchesTheBodyIsUnchanged() throws IOException {
+        byte[] body = "<html><body><p>plain</p></body></html>".getBytes(TestStreams.UTF_8);
+        byte[] transformed = TestStreams.readFully(new HtmlTransformInputStream(new ByteArrayInputStream(body),
+                Collections.<HtmlTransformer>singletonList(NONCE), "UTF-8"));
+        assertEquals(new String(body, TestStreams.UTF_8), new String(transformed, TestStreams.UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+package com.mtsdealersolutions.webview_local_server.transform;
+
+import android.net.Uri;
+import android.webkit.WebResourceResponse;
+
+import com.mtsdealersolutions.webview_local_server.TestRequest;
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScriptNonceTransformerTest {
+
+    private static final String PAGE = "<html><head><script src=\"a.js\"></script><style>p{}</style></head>"
+            + "<body><p>text</p><script>run()</script></body></html>";
+
+    private static final Pattern NONCE = Pattern.compile("nonce=\"([^\"]+)\"");
+
+    @Test
+    public void eachDocumentGetsItsOwnNonce() {
+        ScriptNonceTransformer transformer = new ScriptNonceTransformer();
+        String first = ((ScriptNonceTransformer.Document) transformer.forDocument(null)).getNonce();
+        String second = ((ScriptNonceTransformer.Document) transformer.forDocument(null)).getNonce();
+        assertNotEquals(first, second);
+        assertEquals(24, first.length());
+    }
+
+    @Test
+    public void headerMatchesTheNonceOfTheSameResponse() throws Exception {
+        WebViewLocalServer server = new WebViewLocalServer(RuntimeEnvironment.application);
+        server.createHost(new WebViewLocalServer.AssetsBuilder()
+                .setDomain("nonce.test").clearSubDomain()
+                .addHtmlTransformer(new ScriptNonceTransformer("script-src 'nonce-{nonce}'; style-src 'nonce-{nonce}'")),
+                new WebViewLocalServer.PathHandler("text/html", "UTF-8", null, 200, "OK", null) {
+                    @Override
+                    public InputStream handle(Uri url) {
+                        return TestStreams.stream(PAGE);
+                    }
+                });
+
+        String previous = null;
+        for (int i = 0; i < 3; i++) {
+            WebResourceResponse response = server.shouldInterceptRequest(new TestRequest("https://nonce.test/index.html"));
+            String html = TestStreams.readString(response.getData());
+            Matcher matcher = NONCE.matcher(html);
+            Map<String, Integer> nonces = new HashMap<>();
+            while (matcher.find()) {
+                Integer count = nonces.get(matcher.group(1));
+                nonces.put(matcher.group(1), count == null ? 1 : count + 1);
+            }
+            assertEquals("one nonce per document: " + html, 1, nonces.size());
+            String nonce = nonces.keySet().iterator().next();
+            assertEquals(3, (int) nonces.get(nonce));
+            assertEquals("script-src 'nonce-" + nonce + "'; style-src 'nonce-" + nonce + "'",
+                    response.getResponseHeaders().get("Content-Security-Policy"));
+            assertTrue(!nonce.equals(previous));
+            previous = nonce;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void policyWithoutNonceIsRejected() {
+        new ScriptNonceTransformer("script-src 'self'");
+    }
+}
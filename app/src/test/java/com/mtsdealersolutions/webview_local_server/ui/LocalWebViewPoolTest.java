@@ -0,0 +1,124 @@
+package com.mtsdealersolutions.webview_local_server.ui;
+
+import android.app.Activity;
+import android.content.Context;
+import android.webkit.CookieManager;
+import android.webkit.WebChromeClient;
+import android.webkit.WebViewClient;
+
+import com.mtsdealersolutions.webview_local_server.WebViewLocalServer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowWebView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocalWebViewPoolTest {
+
+    private final Context mContext = RuntimeEnvironment.application;
+
+    @After
+    public void tearDown() {
+        LocalWebView.setUseSharedServer(false);
+        CookieManager.getInstance().removeAllCookies(null);
+    }
+
+    @Test
+    public void historyIsClearedOnceThePooledPageFinished() {
+        LocalWebViewPool pool = new LocalWebViewPool(mContext, 1);
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        LocalWebView view = pool.acquire(activity);
+        view.loadUrl("https://app.test/screen1");
+        view.setWebChromeClient(new WebChromeClient());
+
+        pool.recycle(view);
+        ShadowWebView shadow = shadowOf(view);
+        assertEquals("about:blank", shadow.getLastLoadedUrl());
+        assertNull(shadow.getWebChromeClient());
+        assertTrue(shadow.wasClearFormDataCalled());
+        // Cleared too early the caller's page would stay in the history.
+        assertFalse(shadow.wasClearHistoryCalled());
+
+        WebViewClient client = shadow.getWebViewClient();
+        client.onPageFinished(view, "about:blank");
+        assertTrue(shadow.wasClearHistoryCalled());
+        assertSame(mContext, ((android.content.MutableContextWrapper) view.getContext()).getBaseContext());
+    }
+
+    @Test
+    public void viewHandedOutBeforeItsPageFinishedIsClearedOnAcquire() {
+        LocalWebViewPool pool = new LocalWebViewPool(mContext, 1);
+        LocalWebView view = pool.acquire(Robolectric.setupActivity(Activity.class));
+        pool.recycle(view);
+
+        assertSame(view, pool.acquire(Robolectric.setupActivity(Activity.class)));
+        assertTrue(shadowOf(view).wasClearHistoryCalled());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void browsingDataIsOnlyClearedWhenAskedFor() {
+        CookieManager cookies = CookieManager.getInstance();
+        LocalWebViewPool pool = new LocalWebViewPool(mContext, 2);
+
+        cookies.setCookie("https://app.test", "session=1");
+        pool.recycle(pool.acquire(mContext));
+        assertNotNull(cookies.getCookie("https://app.test"));
+
+        pool.setClearBrowsingDataOnRecycle(true);
+        pool.recycle(pool.acquire(mContext));
+        assertNull(cookies.getCookie("https://app.test"));
+    }
+
+    @Test
+    public void privateServersAreReplacedAndFullPoolsDestroy() {
+        LocalWebViewPool pool = new LocalWebViewPool(mContext, 1);
+        LocalWebView first = pool.acquire(mContext);
+        LocalWebView second = pool.acquire(mContext);
+        com.mtsdealersolutions.webview_local_server.WebViewLocalServer server = first.getWebViewLocalServer();
+
+        pool.recycle(first);
+        assertEquals(1, pool.size());
+        assertTrue(server != first.getWebViewLocalServer());
+
+        pool.recycle(second);
+        assertEquals(1, pool.size());
+        assertTrue(shadowOf(second).wasDestroyCalled());
+    }
+
+    @Test
+    public void shellIsLoadedThroughTheServer() {
+        LocalWebView.setUseSharedServer(true);
+        LocalWebViewPool pool = new LocalWebViewPool(mContext, 1);
+        pool.setShellUrl("https://app.test/shell.html");
+        LocalWebView view = pool.acquire(mContext);
+        assertEquals("https://app.test/shell.html", shadowOf(view).getLastLoadedUrl());
+        assertTrue(shadowOf(view).getWebViewClient() instanceof com.mtsdealersolutions.webview_local_server.config.ServerWebViewClient);
+        view.destroy();
+    }
+
+    @Test
+    public void settingTheServerAViewHoldsKeepsOneReference() {
+        LocalWebView.setUseSharedServer(true);
+        LocalWebView view = new LocalWebView(mContext);
+        WebViewLocalServer server = view.getWebViewLocalServer();
+        assertEquals(1, server.getSharedReferenceCount());
+        view.setWebViewLocalServer(server);
+        assertEquals(1, server.getSharedReferenceCount());
+        view.destroy();
+        assertFalse(server.isShared());
+    }
+}
@@ -0,0 +1,93 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeasuredInputStreamTest {
+
+    private static class CountingListener implements MeasuredInputStream.Listener {
+        int mFirstBytes;
+        long mFirstByteNanos;
+        long mBytes;
+        int mCloses;
+        long mClosedNanos;
+
+        @Override
+        public void onFirstByte(long nanos) {
+            mFirstBytes++;
+            mFirstByteNanos = nanos;
+        }
+
+        @Override
+        public void onBytes(long count) {
+            mBytes += count;
+        }
+
+        @Override
+        public void onClosed(long nanos) {
+            mCloses++;
+            mClosedNanos = nanos;
+        }
+    }
+
+    @Test
+    public void readsAndSkipsAreCountedAndTheFirstByteReportedOnce() throws IOException {
+        CountingListener listener = new CountingListener();
+        long opened = System.nanoTime();
+        InputStream in = new MeasuredInputStream(TestStreams.stream("0123456789"), listener);
+        assertEquals(0, listener.mFirstBytes);
+
+        assertEquals('0', in.read());
+        assertEquals(3, in.skip(3));
+        assertEquals(4, in.read(new byte[4], 0, 4));
+        assertEquals("89", TestStreams.readString(in));
+        assertEquals(-1, in.read());
+
+        assertEquals(1, listener.mFirstBytes);
+        assertTrue(listener.mFirstByteNanos >= opened);
+        assertEquals(10, listener.mBytes);
+    }
+
+    @Test
+    public void onlyTheFirstCloseIsReported() throws IOException {
+        CountingListener listener = new CountingListener();
+        InputStream in = new MeasuredInputStream(TestStreams.stream(""), listener);
+        assertEquals(-1, in.read());
+        in.close();
+        long closed = listener.mClosedNanos;
+        in.close();
+
+        assertEquals(0, listener.mFirstBytes);
+        assertEquals(0, listener.mBytes);
+        assertEquals(1, listener.mCloses);
+        assertEquals(closed, listener.mClosedNanos);
+    }
+
+    @Test
+    public void aFailingCloseIsStillReported() {
+        CountingListener listener = new CountingListener();
+        InputStream in = new MeasuredInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                throw new IOException("broken pipe");
+            }
+        }, listener);
+        try {
+            in.close();
+        } catch (IOException expected) {
+        }
+        assertEquals(1, listener.mCloses);
+    }
+}
@@ -0,0 +1,309 @@
+package com.mtsdealersolutions.webview_local_server.utils;
+
+import com.mtsdealersolutions.webview_local_server.TestStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) body[i] = (byte) (i * 31 + 7);
+        return body;
+    }
+
+    /**
+     * A source that blocks its first read until released.
+     */
+    private static class GatedStream extends ByteArrayInputStream {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        GatedStream(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            // Short reads, so readers interleave.
+            return super.read(b, off, Math.min(len, 1000));
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+
+    private static class CountingProducer implements SingleFlight.Producer {
+        final AtomicInteger invocations = new AtomicInteger();
+        final List<GatedStream> produced = new ArrayList<>();
+        final byte[] body;
+
+        CountingProducer(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public synchronized InputStream produce() {
+            invocations.incrementAndGet();
+            GatedStream stream = new GatedStream(body);
+            produced.add(stream);
+            return stream;
+        }
+    }
+
+    @Test
+    public void concurrentReadersShareOneInvocation() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final byte[] expected = body(100 * 1024);
+        final CountingProducer producer = new CountingProducer(expected);
+        final int readers = 16;
+        final CountDownLatch opened = new CountDownLatch(readers);
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        InputStream in = singleFlight.open("https://app.test/app.js", producer);
+                        opened.countDown();
+                        return TestStreams.readFully(in);
+                    }
+                }));
+            }
+            assertTrue(opened.await(10, TimeUnit.SECONDS));
+            producer.produced.get(0).gate.countDown();
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(expected, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, producer.invocations.get());
+        assertEquals(1, singleFlight.getProducedCount());
+        assertEquals(readers - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+        assertTrue(producer.produced.get(0).closed.get());
+    }
+
+    @Test
+    public void finishedBodiesAreProducedAgain() throws IOException {
+        SingleFlight singleFlight = new SingleFlight();
+        CountingProducer producer = new CountingProducer(body(10));
+        for (int i = 0; i < 3; i++) {
+            InputStream in = singleFlight.open("key", producer);
+            producer.produced.get(i).gate.countDown();
+            TestStreams.readFully(in);
+        }
+        assertEquals(3, producer.invocations.get());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void bodiesPastTheCapCannotBeJoined() throws IOException {
+        SingleFlight singleFlight = new SingleFlight(16 * 1024);
+        byte[] expected = body(64 * 1024);
+        CountingProducer producer = new CountingProducer(expected);
+        InputStream first = singleFlight.open("key", producer);
+        producer.produced.get(0).gate.countDown();
+        byte[] head = new byte[20 * 1024];
+        int read = 0;
+        while (read < head.length) read += first.read(head, read, head.length - read);
+
+        // Joining now would mean holding the whole 20KB read so far for the new reader.
+        InputStream second = singleFlight.open("key", producer);
+        assertEquals(2, producer.invocations.get());
+        producer.produced.get(1).gate.countDown();
+        assertArrayEquals(expected, TestStreams.readFully(second));
+
+        byte[] rest = TestStreams.readFully(first);
+        assertArrayEquals(Arrays.copyOfRange(expected, head.length, expected.length), rest);
+        assertArrayEquals(Arrays.copyOf(expected, head.length), head);
+    }
+
+    @Test
+    public void readersThatJoinedBeforeTheCapStillGetEveryByte() throws IOException {
+        SingleFlight singleFlight = new SingleFlight(16 * 1024);
+        byte[] expected = body(64 * 1024);
+        CountingProducer producer = new CountingProducer(expected);
+        InputStream fast = singleFlight.open("key", producer);
+        InputStream slow = singleFlight.open("key", producer);
+        producer.produced.get(0).gate.countDown();
+        assertArrayEquals(expected, TestStreams.readFully(fast));
+        assertArrayEquals(expected, TestStreams.readFully(slow));
+        assertEquals(1, producer.invocations.get());
+    }
+
+    @Test
+    public void sourceErrorsReachEveryReader() throws IOException {
+        SingleFlight singleFlight = new SingleFlight();
+        SingleFlight.Producer failing = new SingleFlight.Producer() {
+            @Override
+            public InputStream produce() {
+                return new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("origin went away");
+                    }
+                };
+            }
+        };
+        InputStream first = singleFlight.open("key", failing);
+        InputStream second = singleFlight.open("key", failing);
+        for (InputStream in : new InputStream[]{first, second}) {
+            try {
+                in.read(new byte[10]);
+                fail("read past a failed source");
+            } catch (IOException expected) {
+                assertEquals("origin went away", expected.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void closingEveryReaderClosesTheSource() throws IOException {
+        SingleFlight singleFlight = new SingleFlight();
+        CountingProducer producer = new CountingProducer(body(100));
+        InputStream first = singleFlight.open("key", producer);
+        InputStream second = singleFlight.open("key", producer);
+        first.close();
+        assertEquals(false, producer.produced.get(0).closed.get());
+        second.close();
+        assertTrue(producer.produced.get(0).closed.get());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void missingBodiesAreNotShared() {
+        SingleFlight singleFlight = new SingleFlight();
+        SingleFlight.Producer none = new SingleFlight.Producer() {
+            @Override
+            public InputStream produce() {
+                return null;
+            }
+        };
+        assertNull(singleFlight.open("key", none));
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void joinersWaitingOnAFailingProducerGetItsFailure() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CountDownLatch producing = new CountDownLatch(1);
+        final CountDownLatch fail = new CountDownLatch(1);
+        final SingleFlight.Producer failing = new SingleFlight.Producer() {
+            @Override
+            public InputStream produce() {
+                producing.countDown();
+                try {
+                    fail.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                throw new IllegalStateException("handler failed");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<InputStream> first = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return singleFlight.open("key", failing);
+                }
+            });
+            assertTrue(producing.await(10, TimeUnit.SECONDS));
+            Future<InputStream> joiner = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return singleFlight.open("key", failing);
+                }
+            });
+            // Let the joiner block on the flight before the producer fails.
+            Thread.sleep(100);
+            fail.countDown();
+            for (Future<InputStream> result : Arrays.asList(first, joiner)) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    fail("got a body from a failed producer");
+                } catch (ExecutionException expected) {
+                    assertEquals("handler failed", expected.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, singleFlight.getProducedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void joinersWaitingOnAMissingBodyGetNull() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CountDownLatch producing = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        final SingleFlight.Producer none = new SingleFlight.Producer() {
+            @Override
+            public InputStream produce() {
+                producing.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return null;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<InputStream> first = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return singleFlight.open("key", none);
+                }
+            });
+            assertTrue(producing.await(10, TimeUnit.SECONDS));
+            Future<InputStream> joiner = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() {
+                    return singleFlight.open("key", none);
+                }
+            });
+            Thread.sleep(100);
+            answer.countDown();
+            assertNull(first.get(10, TimeUnit.SECONDS));
+            assertNull(joiner.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, singleFlight.getProducedCount());
+    }
+}
@@ -0,0 +1,336 @@
+package com.mtsdealersolutions.webview_local_server.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a <code>RouterPathHandler</code> from every class annotated with
+ * <code>@LocalRoute</code>. The router matches paths with nested string switches built from the
+ * declared paths, so nothing is matched through a trie at runtime and conflicting paths fail
+ * the build.
+ * <p>
+ * The router is named <code>LocalRoutes</code> and placed in the package of the first
+ * annotated class, pass <code>-AlocalRoutes.className=com.example.MyRoutes</code> to name it.
+ */
+@SupportedAnnotationTypes(LocalRouteProcessor.LOCAL_ROUTE)
+@SupportedOptions(LocalRouteProcessor.OPTION_CLASS_NAME)
+public class LocalRouteProcessor extends AbstractProcessor {
+    static final String LOCAL_ROUTE = "com.mtsdealersolutions.webview_local_server.route.LocalRoute";
+    static final String OPTION_CLASS_NAME = "localRoutes.className";
+    private static final String PATH_HANDLER = "com.mtsdealersolutions.webview_local_server.WebViewLocalServer.PathHandler";
+    private static final String ROUTER = "com.mtsdealersolutions.webview_local_server.route.RouterPathHandler";
+
+    private final Node mRoot = new Node(0);
+    private final LinkedHashMap<String, String> mHandlerFields = new LinkedHashMap<>();
+    private final List<String> mRoutes = new ArrayList<>();
+    private String mFirstPackage;
+    private boolean mGenerated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(LOCAL_ROUTE);
+        if (annotation == null || annotations.isEmpty()) return false;
+
+        List<TypeElement> handlers = new ArrayList<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (isValidHandler(element)) handlers.add((TypeElement) element);
+        }
+        // Declaration order is not stable across builds, sort so the output is.
+        Collections.sort(handlers, new Comparator<TypeElement>() {
+            @Override
+            public int compare(TypeElement a, TypeElement b) {
+                return a.getQualifiedName().toString().compareTo(b.getQualifiedName().toString());
+            }
+        });
+        for (TypeElement handler : handlers) {
+            addRoutes(handler, annotation);
+        }
+
+        if (!mGenerated && !mRoutes.isEmpty()) {
+            mGenerated = true;
+            generate();
+        }
+        return true;
+    }
+
+    private boolean isValidHandler(Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, "@LocalRoute can only be used on classes");
+            return false;
+        }
+        TypeElement type = (TypeElement) element;
+        Set<Modifier> modifiers = type.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(element, "@LocalRoute classes must be public and not abstract");
+            return false;
+        }
+        if (type.getEnclosingElement().getKind() != ElementKind.PACKAGE && !modifiers.contains(Modifier.STATIC)) {
+            error(element, "@LocalRoute classes nested in another class must be static");
+            return false;
+        }
+        TypeElement pathHandler = processingEnv.getElementUtils().getTypeElement(PATH_HANDLER);
+        if (pathHandler != null && !processingEnv.getTypeUtils().isAssignable(type.asType(), pathHandler.asType())) {
+            error(element, "@LocalRoute classes must extend WebViewLocalServer.PathHandler");
+            return false;
+        }
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            error(element, "@LocalRoute classes need a public constructor without arguments");
+            return false;
+        }
+        return true;
+    }
+
+    private void addRoutes(TypeElement handler, TypeElement annotation) {
+        String className = handler.getQualifiedName().toString();
+        String field = mHandlerFields.get(className);
+        if (field == null) {
+            field = "handler" + mHandlerFields.size();
+            mHandlerFields.put(className, field);
+        }
+        if (mFirstPackage == null) {
+            mFirstPackage = processingEnv.getElementUtils().getPackageOf(handler).getQualifiedName().toString();
+        }
+
+        for (String path : getPaths(handler, annotation)) {
+            if (!path.startsWith("/") || path.length() < 2 || path.contains("//") || path.endsWith("/")) {
+                error(handler, "Invalid @LocalRoute path \"" + path + "\", paths look like /a/*/b or /a/**");
+                continue;
+            }
+            String[] segments = path.substring(1).split("/");
+            Node node = mRoot;
+            Route route = new Route(path, className, field);
+            String conflict = null;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("**")) {
+                    if (i != segments.length - 1) {
+                        error(handler, "Invalid @LocalRoute path \"" + path + "\", ** can only be the last segment");
+                        route = null;
+                        break;
+                    }
+                    if (node.mRest != null) conflict = node.mRest.mPath + " of " + node.mRest.mClassName;
+                    else node.mRest = route;
+                    route = null;
+                    break;
+                }
+                node = node.child(segment);
+            }
+            if (route != null) {
+                if (node.mExact != null) conflict = node.mExact.mPath + " of " + node.mExact.mClassName;
+                else node.mExact = route;
+            }
+            if (conflict != null) {
+                error(handler, "@LocalRoute path \"" + path + "\" conflicts with " + conflict);
+            } else {
+                mRoutes.add(path);
+            }
+        }
+    }
+
+    private static List<String> getPaths(TypeElement handler, TypeElement annotation) {
+        List<String> paths = new ArrayList<>();
+        for (AnnotationMirror mirror : handler.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(annotation)) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (!entry.getKey().getSimpleName().contentEquals("value")) continue;
+                Object value = entry.getValue().getValue();
+                if (value instanceof List) {
+                    for (Object item : (List<?>) value) {
+                        paths.add(String.valueOf(((AnnotationValue) item).getValue()));
+                    }
+                } else {
+                    paths.add(String.valueOf(value));
+                }
+            }
+        }
+        return paths;
+    }
+
+    private void generate() {
+        String qualifiedName = processingEnv.getOptions().get(OPTION_CLASS_NAME);
+        if (qualifiedName == null) {
+            qualifiedName = mFirstPackage.isEmpty() ? "LocalRoutes" : mFirstPackage + ".LocalRoutes";
+        }
+        int dot = qualifiedName.lastIndexOf('.');
+        String packageName = dot == -1 ? null : qualifiedName.substring(0, dot);
+        String simpleName = qualifiedName.substring(dot + 1);
+
+        StringBuilder code = new StringBuilder();
+        if (packageName != null) code.append("package ").append(packageName).append(";\n\n");
+        code.append("// Generated by LocalRouteProcessor from the @LocalRoute annotations, do not edit.\n");
+        code.append("public final class ").append(simpleName).append(" extends ").append(ROUTER).append(" {\n");
+        code.append("    private static final java.util.List<String> ROUTES = java.util.Collections.unmodifiableList(")
+                .append("java.util.Arrays.asList(");
+        for (int i = 0; i < mRoutes.size(); i++) {
+            if (i > 0) code.append(", ");
+            code.append(literal(mRoutes.get(i)));
+        }
+        code.append("));\n\n");
+        for (Map.Entry<String, String> handler : mHandlerFields.entrySet()) {
+            code.append("    private final ").append(handler.getKey()).append(' ').append(handler.getValue())
+                    .append(" = new ").append(handler.getKey()).append("();\n");
+        }
+        code.append("\n    @Override\n    protected ").append(PATH_HANDLER)
+                .append(" route(java.util.List<String> segments) {\n        return match0(segments);\n    }\n");
+        code.append("\n    @Override\n    public java.util.List<String> getRoutes() {\n        return ROUTES;\n    }\n");
+        code.append("\n    @Override\n    public java.util.List<").append(PATH_HANDLER)
+                .append("> getHandlers() {\n        return java.util.Arrays.<").append(PATH_HANDLER).append(">asList(");
+        int field = 0;
+        for (String handlerField : mHandlerFields.values()) {
+            if (field++ > 0) code.append(", ");
+            code.append(handlerField);
+        }
+        code.append(");\n    }\n");
+
+        List<Node> nodes = new ArrayList<>();
+        mRoot.collect(nodes);
+        for (Node node : nodes) {
+            writeMatch(code, node);
+        }
+        code.append("}\n");
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName);
+            Writer out = file.openWriter();
+            try {
+                out.write(code.toString());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + qualifiedName + ": " + e);
+        }
+    }
+
+    /**
+     * Literal segments are tried first, then <code>*</code>, then a trailing <code>**</code>.
+     */
+    private static void writeMatch(StringBuilder code, Node node) {
+        code.append("\n    private ").append(PATH_HANDLER).append(" match").append(node.mIndex)
+                .append("(java.util.List<String> segments) {\n");
+        code.append("        if (segments.size() == ").append(node.mDepth).append(") return ")
+                .append(node.mExact == null ? "null" : node.mExact.mField).append(";\n");
+        if (!node.mLiterals.isEmpty() || node.mStar != null) {
+            code.append("        ").append(PATH_HANDLER).append(" handler;\n");
+        }
+        if (!node.mLiterals.isEmpty()) {
+            code.append("        switch (segments.get(").append(node.mDepth).append(")) {\n");
+            for (Map.Entry<String, Node> literal : node.mLiterals.entrySet()) {
+                code.append("            case ").append(literal(literal.getKey())).append(":\n");
+                code.append("                handler = match").append(literal.getValue().mIndex).append("(segments);\n");
+                code.append("                if (handler != null) return handler;\n");
+                code.append("                break;\n");
+            }
+            code.append("        }\n");
+        }
+        if (node.mStar != null) {
+            code.append("        handler = match").append(node.mStar.mIndex).append("(segments);\n");
+            code.append("        if (handler != null) return handler;\n");
+        }
+        code.append("        return ").append(node.mRest == null ? "null" : node.mRest.mField).append(";\n");
+        code.append("    }\n");
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static class Route {
+        final String mPath;
+        final String mClassName;
+        final String mField;
+
+        Route(String path, String className, String field) {
+            mPath = path;
+            mClassName = className;
+            mField = field;
+        }
+    }
+
+    private static class Node {
+        final int mDepth;
+        final TreeMap<String, Node> mLiterals = new TreeMap<>();
+        Node mStar;
+        Route mExact;
+        // A trailing ** at this depth, matching one or more segments.
+        Route mRest;
+        int mIndex;
+
+        Node(int depth) {
+            mDepth = depth;
+        }
+
+        Node child(String segment) {
+            if (segment.equals("*")) {
+                if (mStar == null) mStar = new Node(mDepth + 1);
+                return mStar;
+            }
+            Node child = mLiterals.get(segment);
+            if (child == null) {
+                child = new Node(mDepth + 1);
+                mLiterals.put(segment, child);
+            }
+            return child;
+        }
+
+        void collect(List<Node> nodes) {
+            mIndex = nodes.size();
+            nodes.add(this);
+            for (Node child : mLiterals.values()) {
+                child.collect(nodes);
+            }
+            if (mStar != null) mStar.collect(nodes);
+        }
+    }
+}